@@ -5,7 +5,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.nosql.db.index.IndexManager;
 import com.nosql.db.server.NoSQLServer;
+import com.nosql.db.server.ServerMode;
+import com.nosql.db.storage.CheckpointManager;
+import com.nosql.db.storage.Collection;
 import com.nosql.db.storage.DatabaseEngine;
+import com.nosql.db.storage.DurabilityMode;
+import com.nosql.db.storage.StorageEngineType;
 import com.nosql.db.storage.WriteAheadLog;
 import com.nosql.db.utils.FileUtils;
 
@@ -19,31 +24,58 @@ public class App {
             logger.info("初始化数据目录: {}", dataDir);
             FileUtils.createDirectoryIfNotExists(dataDir);
 
-            logger.info("初始化预写日志");
-            WriteAheadLog wal = new WriteAheadLog(dataDir, "wal");
+            DurabilityMode durabilityMode =
+                    DurabilityMode.fromString(System.getProperty("nosql.wal.durability"));
+            long groupCommitWindowMicros =
+                    Long.getLong("nosql.wal.groupCommitWindowMicros", 1000L);
+            int groupCommitMaxBytes =
+                    Integer.getInteger("nosql.wal.groupCommitMaxBytes", 256 * 1024);
+            logger.info("初始化预写日志，持久化模式: {}", durabilityMode);
+            WriteAheadLog wal = new WriteAheadLog(dataDir, "wal", durabilityMode,
+                    groupCommitWindowMicros, groupCommitMaxBytes);
 
             logger.info("初始化索引管理器");
             IndexManager indexManager = new IndexManager(dataDir);
 
-            logger.info("初始化数据库引擎");
-            DatabaseEngine dbEngine = new DatabaseEngine(dataDir, indexManager, wal);
+            long documentCacheBytes = Long.getLong("nosql.cache.documentBytes",
+                    Collection.DEFAULT_DOCUMENT_CACHE_BYTES);
+            logger.info("初始化数据库引擎，每个集合的文档缓存预算: {}字节", documentCacheBytes);
+            DatabaseEngine dbEngine =
+                    new DatabaseEngine(dataDir, indexManager, wal, documentCacheBytes);
 
-            logger.info("创建默认集合: users");
-            dbEngine.createCollection("users");
+            StorageEngineType usersEngine =
+                    StorageEngineType.fromString(System.getProperty("nosql.users.engine"));
+            logger.info("创建默认集合: users, 存储引擎: {}", usersEngine);
+            dbEngine.createCollection("users", usersEngine);
+
+            long checkpointIntervalMillis =
+                    Long.getLong("nosql.checkpoint.intervalMillis", 5 * 60 * 1000L);
+            long checkpointWalBytes =
+                    Long.getLong("nosql.checkpoint.walBytes", 64 * 1024 * 1024L);
+            CheckpointManager checkpointManager = new CheckpointManager(dbEngine, wal,
+                    checkpointIntervalMillis, checkpointWalBytes);
+            checkpointManager.start();
 
             // 启动服务器
-            logger.info("准备启动服务器，端口: 8888");
-            NoSQLServer server = new NoSQLServer(8888, 10, dbEngine);
-            server.start();
-            logger.info("NoSQL服务器已成功启动，监听端口: 8888");
+            ServerMode serverMode =
+                    ServerMode.fromString(System.getProperty("nosql.server.mode"));
+            int ioThreads = Integer.getInteger("nosql.server.ioThreads",
+                    Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+            logger.info("准备启动服务器，端口: 8888, 模式: {}", serverMode);
+            NoSQLServer server = new NoSQLServer(8888, 10, dbEngine, serverMode, ioThreads);
 
-            // 添加关闭钩子
+            // 添加关闭钩子（start会阻塞在accept循环中，需要提前注册）
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 logger.info("接收到关闭信号，正在关闭服务器...");
                 server.shutdown();
+                checkpointManager.shutdown();
+                dbEngine.close();
+                wal.close();
                 logger.info("服务器已正常关闭");
             }));
-        } catch (IOException e) {
+
+            server.start();
+        } catch (IOException | IllegalStateException e) {
             logger.error("服务器启动失败: {}", e.getMessage(), e);
             System.err.println("服务器启动失败: " + e.getMessage());
             e.printStackTrace();
@@ -1,45 +1,102 @@
 package com.nosql.db.client;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.google.gson.Gson;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import com.nosql.db.protocol.BinaryProtocol;
+import com.nosql.db.protocol.BinaryReader;
+import com.nosql.db.protocol.BinaryWriter;
+import com.nosql.db.protocol.BufferPool;
+import com.nosql.db.protocol.JsonLineReader;
+import com.nosql.db.protocol.JsonLineWriter;
+import com.nosql.db.protocol.ProtocolException;
+import com.nosql.db.protocol.WireProtocol;
 import com.nosql.db.storage.Document;
+import com.nosql.db.storage.JsonCodec;
 import com.nosql.db.storage.OperationResult;
+import com.nosql.db.storage.WriteOperation;
 
 public class NoSQLClient {
     private static final Logger logger = LoggerFactory.getLogger(NoSQLClient.class);
     private final String host;
     private final int port;
     private final Gson gson = new Gson();
+    private final AtomicLong nextRequestId = new AtomicLong(1);
+    // 已发送但尚未收到响应的命令，按requestId匹配服务端乱序返回的响应
+    private final Map<String, CompletableFuture<OperationResult>> pendingRequests =
+            new ConcurrentHashMap<>();
+    private final ReentrantLock sendLock = new ReentrantLock();
+    private final WireProtocol protocol;
     private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
+    private OutputStream jsonOut;
+    private JsonLineReader jsonIn;
+    private OutputStream binaryOut;
+    private DataInputStream binaryIn;
+    private Thread responseReader;
 
     public NoSQLClient(String host, int port) {
+        this(host, port, WireProtocol.JSON);
+    }
+
+    public NoSQLClient(String host, int port, WireProtocol protocol) {
         this.host = host;
         this.port = port;
+        this.protocol = protocol;
     }
 
     public void connect() throws IOException {
         try {
             socket = new Socket(host, port);
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            logger.info("已成功连接到服务器: {}:{}", host, port);
+            socket.setTcpNoDelay(true);
+            if (protocol == WireProtocol.BINARY) {
+                binaryOut = socket.getOutputStream();
+                binaryIn = new DataInputStream(
+                        new BufferedInputStream(socket.getInputStream(), BufferPool.BUFFER_SIZE));
+                handshake();
+            } else {
+                jsonOut = socket.getOutputStream();
+                jsonIn = new JsonLineReader(socket.getInputStream());
+            }
+            responseReader = new Thread(this::readResponses, "nosql-client-reader");
+            responseReader.setDaemon(true);
+            responseReader.start();
+            logger.info("已成功连接到服务器: {}:{}, 协议: {}", host, port, protocol);
         } catch (IOException e) {
             logger.error("连接失败: 无法建立到 {}:{} 的连接。详细错误: {}", host, port, e.getMessage());
             throw e;
         }
     }
 
+    private void handshake() throws IOException {
+        binaryOut.write(BinaryProtocol.handshake(BinaryProtocol.VERSION));
+        byte[] reply = new byte[BinaryProtocol.HANDSHAKE_LENGTH];
+        binaryIn.readFully(reply);
+        if (BinaryProtocol.handshakeVersion(reply) != BinaryProtocol.VERSION) {
+            socket.close();
+            throw new IOException("服务器不支持二进制协议版本: " + BinaryProtocol.VERSION);
+        }
+    }
+
     public void disconnect() {
         try {
             if (socket != null && !socket.isClosed()) {
@@ -53,36 +110,388 @@ public class NoSQLClient {
     }
 
     private OperationResult sendCommand(String cmd, String collection, String id, Document doc) {
+        return sendCommandAsync(cmd, collection, id, doc).join();
+    }
+
+    // 每条命令都带requestId发送，不必等待上一条命令的响应，因此同一连接上可以有多条命令在途
+    private CompletableFuture<OperationResult> sendCommandAsync(String cmd, String collection,
+            String id, Document doc) {
         Command request = new Command();
         request.command = cmd;
         request.collection = collection;
         request.id = id;
         request.document = doc;
+        return sendCommandAsync(request);
+    }
 
-        logger.debug("发送命令: {}", cmd);
-        out.println(gson.toJson(request));
+    private CompletableFuture<OperationResult> sendCommandAsync(Command request) {
+        String cmd = request.command;
+        request.requestId = Long.toString(nextRequestId.getAndIncrement());
+
+        CompletableFuture<OperationResult> future = new CompletableFuture<>();
+        pendingRequests.put(request.requestId, future);
+        logger.debug("发送命令: {} (requestId={})", cmd, request.requestId);
+        boolean sent = protocol == WireProtocol.BINARY ? sendBinary(request) : sendJson(request);
+        if (!sent) {
+            pendingRequests.remove(request.requestId);
+            future.complete(new OperationResult(false, "与服务器通信失败"));
+        }
+        return future;
+    }
+
+    // 命令编码进池化缓冲后直接写出，不经过中间的String
+    private boolean sendJson(Command request) {
+        JsonLineWriter writer = new JsonLineWriter(BufferPool.shared().acquire());
+        try {
+            request.writeJson(writer.beginLine());
+            writer.endLine();
+            ByteBuffer buffer = writer.buffer();
+            sendLock.lock();
+            try {
+                jsonOut.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+            } finally {
+                sendLock.unlock();
+            }
+            return true;
+        } catch (IOException e) {
+            logger.error("通信错误: {}", e.getMessage());
+            return false;
+        } finally {
+            BufferPool.shared().release(writer.buffer());
+        }
+    }
 
+    private boolean sendBinary(Command request) {
+        BinaryWriter writer = new BinaryWriter(BufferPool.shared().acquire());
+        Map<String, Object> arguments = new HashMap<>();
+        if (request.documents != null) {
+            arguments.put(BinaryProtocol.ARG_DOCUMENTS, request.documents);
+        }
+        if (request.operations != null) {
+            List<Map<String, Object>> operations = new ArrayList<>(request.operations.size());
+            for (WriteOperation operation : request.operations) {
+                operations.add(BinaryProtocol.operationArgument(operation));
+            }
+            arguments.put(BinaryProtocol.ARG_OPERATIONS, operations);
+        }
+        if (request.cursorId != null) {
+            arguments.put(BinaryProtocol.ARG_CURSOR_ID, request.cursorId);
+        }
+        if (request.batchSize != null) {
+            arguments.put(BinaryProtocol.ARG_BATCH_SIZE, request.batchSize);
+        }
+        if (request.filter != null) {
+            arguments.put(BinaryProtocol.ARG_FILTER, request.filter);
+        }
+        if (request.sort != null) {
+            arguments.put(BinaryProtocol.ARG_SORT, request.sort);
+        }
+        if (request.skip != null) {
+            arguments.put(BinaryProtocol.ARG_SKIP, request.skip);
+        }
+        if (request.limit != null) {
+            arguments.put(BinaryProtocol.ARG_LIMIT, request.limit);
+        }
+        if (request.projection != null) {
+            arguments.put(BinaryProtocol.ARG_PROJECTION, request.projection);
+        }
+        if (request.fields != null) {
+            arguments.put(BinaryProtocol.ARG_FIELDS, request.fields);
+        }
+        if (request.indexType != null) {
+            arguments.put(BinaryProtocol.ARG_INDEX_TYPE, request.indexType);
+        }
+        if (request.include != null) {
+            arguments.put(BinaryProtocol.ARG_INCLUDE, request.include);
+        }
+        if (request.index != null) {
+            arguments.put(BinaryProtocol.ARG_INDEX, request.index);
+        }
+        if (request.query != null) {
+            arguments.put(BinaryProtocol.ARG_QUERY, request.query);
+        }
+        if (request.update != null) {
+            arguments.put(BinaryProtocol.ARG_UPDATE, request.update);
+        }
+        BinaryProtocol.writeRequest(writer, request.command, request.requestId,
+                request.collection, request.id, request.document, arguments);
+        ByteBuffer buffer = writer.buffer();
+        sendLock.lock();
         try {
-            String response = in.readLine();
-            if (response == null) {
+            binaryOut.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+            return true;
+        } catch (IOException e) {
+            logger.error("通信错误: {}", e.getMessage());
+            return false;
+        } finally {
+            sendLock.unlock();
+            BufferPool.shared().release(buffer);
+        }
+    }
+
+    private void readResponses() {
+        try {
+            if (protocol == WireProtocol.BINARY) {
+                readBinaryResponses();
+            } else {
+                readJsonResponses();
+            }
+            if (!pendingRequests.isEmpty()) {
                 logger.warn("服务器响应为空，可能已断开连接");
-                return new OperationResult(false, "服务器响应为空，可能已断开连接");
+                failPendingRequests("服务器响应为空，可能已断开连接");
+            }
+        } catch (IOException e) {
+            if (!socket.isClosed()) {
+                logger.error("通信错误: {}", e.getMessage());
             }
+            failPendingRequests("与服务器通信失败");
+        }
+    }
 
+    private void readJsonResponses() throws IOException {
+        while (jsonIn.readLine()) {
+            if (jsonIn.isBlank()) {
+                continue;
+            }
             try {
-                OperationResult result = gson.fromJson(response, OperationResult.class);
-                logger.debug("解析响应成功: {}", result.isSuccess() ? "成功" : "失败");
-                return result;
+                complete(jsonIn.parse(JsonCodec::readResult));
             } catch (JsonParseException e) {
-                logger.error("解析服务器响应失败: {}", response, e);
-                return new OperationResult(false, "解析服务器响应失败: " + e.getMessage());
+                logger.error("解析服务器响应失败: {}", jsonIn, e);
             }
-        } catch (IOException e) {
-            logger.error("通信错误: {}", e.getMessage());
-            return new OperationResult(false, "与服务器通信失败");
         }
     }
 
+    private void readBinaryResponses() throws IOException {
+        byte[] frame = new byte[BufferPool.BUFFER_SIZE];
+        while (true) {
+            int length;
+            try {
+                length = binaryIn.readInt();
+            } catch (EOFException e) {
+                return;
+            }
+            if (length < 0 || length > BinaryProtocol.MAX_FRAME_BYTES) {
+                throw new IOException("无效的响应帧长度: " + length);
+            }
+            if (length > frame.length) {
+                frame = new byte[Math.max(length, frame.length * 2)];
+            }
+            binaryIn.readFully(frame, 0, length);
+            try {
+                complete(BinaryProtocol.readResponse(
+                        new BinaryReader(ByteBuffer.wrap(frame, 0, length))));
+            } catch (ProtocolException e) {
+                logger.error("解析服务器响应失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void complete(OperationResult result) {
+        CompletableFuture<OperationResult> future = result.getRequestId() == null ? null
+                : pendingRequests.remove(result.getRequestId());
+        if (future == null) {
+            logger.warn("收到无法匹配的响应: {}", result.getMessage());
+            return;
+        }
+        logger.debug("解析响应成功: {}", result.isSuccess() ? "成功" : "失败");
+        future.complete(result);
+    }
+
+    private void failPendingRequests(String message) {
+        for (String requestId : pendingRequests.keySet()) {
+            CompletableFuture<OperationResult> future = pendingRequests.remove(requestId);
+            if (future != null) {
+                future.complete(new OperationResult(false, message));
+            }
+        }
+    }
+
+    public CompletableFuture<OperationResult> insertAsync(String collection, Document doc) {
+        return sendCommandAsync("INSERT", collection, doc.getId(), doc);
+    }
+
+    public CompletableFuture<OperationResult> getAsync(String collection, String id) {
+        return sendCommandAsync("GET", collection, id, null);
+    }
+
+    public CompletableFuture<OperationResult> updateAsync(String collection, Document doc) {
+        return sendCommandAsync("UPDATE", collection, doc.getId(), doc);
+    }
+
+    // 字段级更新，只发送更新操作，如{"$inc": {"count": 1}}；服务端在存储的文档上原子地应用
+    public CompletableFuture<OperationResult> patchAsync(String collection, String id,
+            Map<String, Object> update) {
+        Command request = new Command();
+        request.command = "PATCH";
+        request.collection = collection;
+        request.id = id;
+        request.update = update;
+        return sendCommandAsync(request);
+    }
+
+    public CompletableFuture<OperationResult> deleteAsync(String collection, String id) {
+        return sendCommandAsync("DELETE", collection, id, null);
+    }
+
+    // 批量插入，一次往返完成；结果的data为逐条的操作结果
+    public CompletableFuture<OperationResult> bulkInsertAsync(String collection,
+            List<Document> docs) {
+        Command request = new Command();
+        request.command = "BULK_INSERT";
+        request.collection = collection;
+        request.documents = docs;
+        return sendCommandAsync(request);
+    }
+
+    // 批量执行插入/更新/删除混合操作，服务端在一次加锁和一批WAL记录内完成
+    public CompletableFuture<OperationResult> bulkWriteAsync(String collection,
+            List<WriteOperation> operations) {
+        Command request = new Command();
+        request.command = "BULK_WRITE";
+        request.collection = collection;
+        request.operations = operations;
+        return sendCommandAsync(request);
+    }
+
+    public OperationResult bulkInsert(String collection, List<Document> docs) {
+        return bulkInsertAsync(collection, docs).join();
+    }
+
+    public OperationResult bulkWrite(String collection, List<WriteOperation> operations) {
+        return bulkWriteAsync(collection, operations).join();
+    }
+
+    // 按过滤条件查询，sort/skip/limit/projection可以为null，语法见服务端的Filter和Query
+    public CompletableFuture<OperationResult> findAsync(String collection,
+            Map<String, Object> filter, Map<String, Object> sort, Integer skip, Integer limit,
+            List<String> projection) {
+        Command request = new Command();
+        request.command = "FIND";
+        request.collection = collection;
+        request.filter = filter;
+        request.sort = sort;
+        request.skip = skip;
+        request.limit = limit;
+        request.projection = projection;
+        return sendCommandAsync(request);
+    }
+
+    public OperationResult find(String collection, Map<String, Object> filter,
+            Map<String, Object> sort, Integer skip, Integer limit, List<String> projection) {
+        return findAsync(collection, filter, sort, skip, limit, projection).join();
+    }
+
+    public OperationResult find(String collection, Map<String, Object> filter) {
+        return find(collection, filter, null, null, null, null);
+    }
+
+    // 全文搜索，query为空格分隔的词(默认AND)，支持OR、括号和结尾*的前缀匹配。
+    // indexName为null时使用集合上唯一的全文索引；filter/skip/limit/projection可以为null，
+    // 不指定limit时返回前10个。data中每一项包含score和document，按得分从高到低排列
+    public OperationResult search(String collection, String indexName, String query,
+            Map<String, Object> filter, Integer skip, Integer limit, List<String> projection) {
+        Command request = new Command();
+        request.command = "SEARCH";
+        request.collection = collection;
+        request.index = indexName;
+        request.query = query;
+        request.filter = filter;
+        request.skip = skip;
+        request.limit = limit;
+        request.projection = projection;
+        return sendCommandAsync(request).join();
+    }
+
+    public OperationResult search(String collection, String query) {
+        return search(collection, null, query, null, null, null, null);
+    }
+
+    // 返回查询计划和执行统计，不返回文档
+    public OperationResult explain(String collection, Map<String, Object> filter,
+            Map<String, Object> sort, Integer limit) {
+        Command request = new Command();
+        request.command = "EXPLAIN";
+        request.collection = collection;
+        request.filter = filter;
+        request.sort = sort;
+        request.limit = limit;
+        return sendCommandAsync(request).join();
+    }
+
+    public OperationResult explain(String collection, Map<String, Object> filter) {
+        return explain(collection, filter, null, null);
+    }
+
+    // 在后台建立索引，立即返回索引名；建立进度用listIndexes查看，完成前查询不使用该索引。
+    // indexType为HASH、ORDERED或TEXT，include为覆盖索引额外保存的字段，可以为null
+    public OperationResult createIndex(String collection, List<String> fields, String indexType,
+            List<String> include) {
+        Command request = new Command();
+        request.command = "CREATE_INDEX";
+        request.collection = collection;
+        request.fields = fields;
+        request.indexType = indexType;
+        request.include = include;
+        return sendCommandAsync(request).join();
+    }
+
+    public OperationResult createIndex(String collection, String field, String indexType) {
+        return createIndex(collection, Collections.singletonList(field), indexType, null);
+    }
+
+    public OperationResult dropIndex(String collection, String indexName) {
+        Command request = new Command();
+        request.command = "DROP_INDEX";
+        request.collection = collection;
+        request.index = indexName;
+        return sendCommandAsync(request).join();
+    }
+
+    // data为各索引的定义、状态(BUILDING/READY/FAILED)和建立进度
+    public OperationResult listIndexes(String collection) {
+        Command request = new Command();
+        request.command = "LIST_INDEXES";
+        request.collection = collection;
+        return sendCommandAsync(request).join();
+    }
+
+    // 服务端文档编码缓存的统计: entries、usedBytes、budgetBytes、hits、misses、hitRate、evictions
+    public OperationResult cacheStats(String collection) {
+        Command request = new Command();
+        request.command = "CACHE_STATS";
+        request.collection = collection;
+        return sendCommandAsync(request).join();
+    }
+
+    // 打开游标并返回第一批文档，data包含cursorId、documents和hasMore
+    public OperationResult openCursor(String collection, int batchSize) {
+        Command request = new Command();
+        request.command = "OPEN_CURSOR";
+        request.collection = collection;
+        request.batchSize = batchSize;
+        return sendCommandAsync(request).join();
+    }
+
+    public OperationResult nextBatch(String cursorId, int batchSize) {
+        Command request = new Command();
+        request.command = "NEXT";
+        request.cursorId = cursorId;
+        request.batchSize = batchSize;
+        return sendCommandAsync(request).join();
+    }
+
+    public OperationResult closeCursor(String cursorId) {
+        Command request = new Command();
+        request.command = "CLOSE";
+        request.cursorId = cursorId;
+        return sendCommandAsync(request).join();
+    }
+
+    // 按批次惰性遍历整个集合，代替一次性返回全部文档的GET_ALL
+    public RemoteCursor scan(String collection, int batchSize) {
+        return new RemoteCursor(this, collection, batchSize);
+    }
+
     public OperationResult insert(String collection, Document doc) {
         return sendCommand("INSERT", collection, doc.getId(), doc);
     }
@@ -95,6 +504,10 @@ public class NoSQLClient {
         return sendCommand("UPDATE", collection, doc.getId(), doc);
     }
 
+    public OperationResult patch(String collection, String id, Map<String, Object> update) {
+        return patchAsync(collection, id, update).join();
+    }
+
     public OperationResult delete(String collection, String id) {
         return sendCommand("DELETE", collection, id, null);
     }
@@ -130,7 +543,17 @@ public class NoSQLClient {
             }
         }
 
-        NoSQLClient client = new NoSQLClient(host, port);
+        WireProtocol protocol = WireProtocol.JSON;
+        if (args.length >= 3) {
+            try {
+                protocol = WireProtocol.fromString(args[2]);
+            } catch (IllegalArgumentException e) {
+                logger.error("无效的协议: {}", args[2]);
+                logger.info("使用默认协议: JSON");
+            }
+        }
+
+        NoSQLClient client = new NoSQLClient(host, port, protocol);
         Scanner scanner = new Scanner(System.in);
 
         try {
@@ -224,5 +647,56 @@ public class NoSQLClient {
         String collection;
         String id;
         Document document;
+        String requestId;
+        List<Document> documents;
+        List<WriteOperation> operations;
+        String cursorId;
+        Integer batchSize;
+        Map<String, Object> filter;
+        Map<String, Object> sort;
+        Integer skip;
+        Integer limit;
+        List<String> projection;
+        List<String> fields;
+        String indexType;
+        List<String> include;
+        String index;
+        String query;
+        Map<String, Object> update;
+
+        // 字段顺序与声明顺序一致，null字段省略，与Gson反射编码的结果相同
+        void writeJson(JsonWriter out) throws IOException {
+            out.beginObject();
+            out.name("command").value(command);
+            out.name("collection").value(collection);
+            out.name("id").value(id);
+            out.name("document");
+            JsonCodec.writeValue(out, document);
+            out.name("requestId").value(requestId);
+            out.name("documents");
+            JsonCodec.writeValue(out, documents);
+            out.name("operations");
+            JsonCodec.writeValue(out, operations);
+            out.name("cursorId").value(cursorId);
+            out.name("batchSize").value(batchSize);
+            out.name("filter");
+            JsonCodec.writeValue(out, filter);
+            out.name("sort");
+            JsonCodec.writeValue(out, sort);
+            out.name("skip").value(skip);
+            out.name("limit").value(limit);
+            out.name("projection");
+            JsonCodec.writeValue(out, projection);
+            out.name("fields");
+            JsonCodec.writeValue(out, fields);
+            out.name("indexType").value(indexType);
+            out.name("include");
+            JsonCodec.writeValue(out, include);
+            out.name("index").value(index);
+            out.name("query").value(query);
+            out.name("update");
+            JsonCodec.writeValue(out, update);
+            out.endObject();
+        }
     }
 }
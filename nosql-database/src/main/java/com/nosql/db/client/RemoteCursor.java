@@ -0,0 +1,63 @@
+package com.nosql.db.client;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import com.nosql.db.storage.OperationResult;
+
+// 客户端游标，本地只缓存一批文档，取完后再向服务端请求下一批。
+// 文档类型取决于协议: JSON协议下为Map，二进制协议下为Document。
+public class RemoteCursor implements Iterator<Object>, AutoCloseable {
+    private final NoSQLClient client;
+    private final String collection;
+    private final int batchSize;
+    private final Queue<Object> buffered = new ArrayDeque<>();
+    private String cursorId;
+    private boolean opened = false;
+    private boolean hasMore = true;
+
+    RemoteCursor(NoSQLClient client, String collection, int batchSize) {
+        this.client = client;
+        this.collection = collection;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (buffered.isEmpty() && hasMore) {
+            OperationResult result = opened ? client.nextBatch(cursorId, batchSize)
+                    : client.openCursor(collection, batchSize);
+            opened = true;
+            if (!result.isSuccess()) {
+                hasMore = false;
+                throw new IllegalStateException("读取游标失败: " + result.getMessage());
+            }
+            Map<?, ?> data = (Map<?, ?>) result.getData();
+            buffered.addAll((List<?>) data.get("documents"));
+            cursorId = (String) data.get("cursorId");
+            hasMore = Boolean.TRUE.equals(data.get("hasMore"));
+        }
+        return !buffered.isEmpty();
+    }
+
+    @Override
+    public Object next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return buffered.poll();
+    }
+
+    // 提前结束遍历时释放服务端游标
+    @Override
+    public void close() {
+        if (hasMore && cursorId != null) {
+            client.closeCursor(cursorId);
+        }
+        hasMore = false;
+        buffered.clear();
+    }
+}
@@ -0,0 +1,178 @@
+package com.nosql.db.index;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import com.nosql.db.storage.Document;
+
+// 各类索引共用的部分: 定义、状态和后台建立的进度。文档先在锁外转换成条目(键或词项)，
+// 再由索引自己的锁串行化写入。
+// 后台建立时索引一开始就接收写入，回填现有文档时跳过建立期间被写入过的文档，
+// 回填完成后索引与集合一致，状态变为READY，此前查询不使用它
+abstract class AbstractIndex<E> {
+    enum State {
+        BUILDING, READY, FAILED, DROPPED
+    }
+
+    final IndexDefinition definition;
+    final ReentrantLock lock = new ReentrantLock();
+    private volatile State state;
+    // 建立期间被写入路径修改或删除过的文档ID，只在持有lock时访问，建立结束后置为null
+    private Set<String> touched;
+    // 建立进度
+    private final LongAdder backfilled = new LongAdder();
+    private final long total;
+    private final long startedAt = System.currentTimeMillis();
+    private volatile long finishedAt;
+    private volatile String error;
+
+    // total为建立开始时集合的文档数，只用于显示进度
+    AbstractIndex(IndexDefinition definition, State state, long total) {
+        this.definition = definition;
+        this.state = state;
+        this.total = total;
+        this.touched = state == State.BUILDING ? new HashSet<>() : null;
+    }
+
+    // 按定义的类型创建索引
+    static AbstractIndex<?> create(IndexDefinition definition, State state, long total) {
+        return definition.getType() == IndexType.TEXT ? new TextIndex(definition, state, total)
+                : new SecondaryIndex(definition, state, total);
+    }
+
+    // 文档在索引中的条目，在锁外计算；返回null表示文档不进入索引
+    abstract E entryOf(Document document);
+
+    // 以下两个方法只在持有lock时调用
+    abstract void insertLocked(Document document, E entry);
+
+    abstract void removeLocked(String docId);
+
+    // 不同键或词项的个数
+    abstract int distinctValues();
+
+    IndexDefinition getDefinition() {
+        return definition;
+    }
+
+    State getState() {
+        return state;
+    }
+
+    boolean isReady() {
+        return state == State.READY;
+    }
+
+    void put(Document document) {
+        if (!maintained()) {
+            return;
+        }
+        E entry = entryOf(document);
+        String docId = document.getId();
+        lock.lock();
+        try {
+            if (touched != null) {
+                touched.add(docId);
+            }
+            if (entry == null) {
+                removeLocked(docId);
+            } else {
+                insertLocked(document, entry);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void remove(String docId) {
+        if (!maintained()) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (touched != null) {
+                touched.add(docId);
+            }
+            removeLocked(docId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 回填建立开始前已存在的文档。建立期间写入过的文档以写入路径为准，
+    // 回填读到的可能是旧版本，直接跳过。索引不再处于建立状态时返回false，回填应当停止
+    boolean backfill(Document document) {
+        if (state != State.BUILDING) {
+            return false;
+        }
+        E entry = entryOf(document);
+        lock.lock();
+        try {
+            if (entry != null && touched != null && !touched.contains(document.getId())) {
+                insertLocked(document, entry);
+            }
+        } finally {
+            lock.unlock();
+        }
+        backfilled.increment();
+        return true;
+    }
+
+    // 回填完成，此后查询可以使用该索引。建立期间已被删除时返回false
+    boolean markReady() {
+        lock.lock();
+        try {
+            if (state != State.BUILDING) {
+                return false;
+            }
+            touched = null;
+            finishedAt = System.currentTimeMillis();
+            state = State.READY;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 建立失败的索引保留在列表中供查看原因，不再维护
+    void markFailed(String message) {
+        lock.lock();
+        try {
+            touched = null;
+            error = message;
+            finishedAt = System.currentTimeMillis();
+            state = State.FAILED;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void markDropped() {
+        state = State.DROPPED;
+    }
+
+    private boolean maintained() {
+        return state == State.READY || state == State.BUILDING;
+    }
+
+    // 索引定义加上状态和建立进度
+    Map<String, Object> describe() {
+        Map<String, Object> description = definition.describe();
+        description.put("state", state.name());
+        if (state == State.BUILDING) {
+            description.put("backfilled", backfilled.sum());
+            description.put("total", total);
+        }
+        if (state != State.READY || finishedAt > 0) {
+            long end = finishedAt > 0 ? finishedAt : System.currentTimeMillis();
+            description.put("buildMillis", end - startedAt);
+        }
+        if (error != null) {
+            description.put("error", error);
+        }
+        description.put("distinctKeys", distinctValues());
+        return description;
+    }
+}
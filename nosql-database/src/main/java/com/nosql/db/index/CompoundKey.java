@@ -0,0 +1,82 @@
+package com.nosql.db.index;
+
+import java.util.Arrays;
+
+// 索引中的键: 各字段的IndexKey依次比较，缺失或不能建索引的字段为null并排在最前。
+// 单字段索引的键只有一个分量。字段数不足的键用作前缀边界，
+// LOW小于所有以它为前缀的键，HIGH大于它们；完整长度的键上LOW < 精确键 < HIGH
+final class CompoundKey implements Comparable<CompoundKey> {
+    static final int LOW = -1;
+    static final int EXACT = 0;
+    static final int HIGH = 1;
+
+    private final IndexKey[] parts;
+    private final int bound;
+
+    CompoundKey(IndexKey[] parts, int bound) {
+        this.parts = parts;
+        this.bound = bound;
+    }
+
+    IndexKey part(int index) {
+        return parts[index];
+    }
+
+    int length() {
+        return parts.length;
+    }
+
+    boolean hasNullPart() {
+        for (IndexKey part : parts) {
+            if (part == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int compareTo(CompoundKey other) {
+        int n = Math.min(parts.length, other.parts.length);
+        for (int i = 0; i < n; i++) {
+            IndexKey a = parts[i];
+            IndexKey b = other.parts[i];
+            if (a != b) {
+                if (a == null || b == null) {
+                    return a == null ? -1 : 1;
+                }
+                int order = a.compareTo(b);
+                if (order != 0) {
+                    return order;
+                }
+            }
+        }
+        if (parts.length == other.parts.length) {
+            return Integer.compare(bound, other.bound);
+        }
+        // 较短的一方是前缀边界
+        if (parts.length < other.parts.length) {
+            return bound == HIGH ? 1 : -1;
+        }
+        return other.bound == HIGH ? -1 : 1;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof CompoundKey))
+            return false;
+        return compareTo((CompoundKey) o) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(parts) + bound;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(parts);
+    }
+}
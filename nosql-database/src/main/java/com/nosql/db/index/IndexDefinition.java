@@ -0,0 +1,138 @@
+package com.nosql.db.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import com.nosql.db.storage.Document;
+
+// 索引定义: 有序的键字段列表、索引类型，以及覆盖索引额外保存的字段。
+// 索引名为逗号连接的键字段，单字段索引的名字就是字段名；
+// 全文索引的名字在每个字段后加"_text"，可以与同样字段上的普通索引共存
+public final class IndexDefinition {
+    private final List<String> fields;
+    private final IndexType type;
+    private final List<String> include;
+
+    public IndexDefinition(List<String> fields, IndexType type, List<String> include) {
+        if (fields == null || fields.isEmpty()) {
+            throw new IllegalArgumentException("索引至少需要一个字段");
+        }
+        for (String field : fields) {
+            if (field == null || field.isEmpty() || field.indexOf(',') >= 0) {
+                throw new IllegalArgumentException("无效的索引字段: " + field);
+            }
+        }
+        this.fields = Collections.unmodifiableList(new ArrayList<>(fields));
+        this.type = type == null ? IndexType.HASH : type;
+        if (this.type == IndexType.TEXT && include != null && !include.isEmpty()) {
+            throw new IllegalArgumentException("全文索引不支持include");
+        }
+        this.include = include == null ? Collections.emptyList()
+                : Collections.unmodifiableList(new ArrayList<>(include));
+    }
+
+    public static String nameOf(List<String> fields) {
+        return String.join(",", fields);
+    }
+
+    public static String nameOf(List<String> fields, IndexType type) {
+        if (type != IndexType.TEXT) {
+            return nameOf(fields);
+        }
+        List<String> names = new ArrayList<>();
+        for (String field : fields) {
+            names.add(field + "_text");
+        }
+        return nameOf(names);
+    }
+
+    public String getName() {
+        return nameOf(fields, type);
+    }
+
+    public List<String> getFields() {
+        return fields;
+    }
+
+    public IndexType getType() {
+        return type;
+    }
+
+    public List<String> getInclude() {
+        return include;
+    }
+
+    public boolean isCovering() {
+        return !include.isEmpty();
+    }
+
+    // 覆盖索引能否只凭索引中保存的值回答引用了这些字段的查询。
+    // 元数据字段总是保存；带"."的嵌套路径不做覆盖
+    public boolean covers(Set<String> referencedFields) {
+        if (!isCovering() || referencedFields == null) {
+            return false;
+        }
+        for (String field : referencedFields) {
+            if (isMetadata(field)) {
+                continue;
+            }
+            if (field.indexOf('.') >= 0 || !(fields.contains(field) || include.contains(field))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 只修改了这些字段路径的部分更新是否要更新这个索引。覆盖索引保存了更新时间，总是要更新
+    public boolean affectedBy(Set<String> paths) {
+        if (isCovering()) {
+            return true;
+        }
+        for (String field : fields) {
+            if (Document.UPDATED_AT_FIELD.equals(field)) {
+                return true;
+            }
+            for (String path : paths) {
+                if (field.equals(path) || field.startsWith(path + ".")
+                        || path.startsWith(field + ".")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // 覆盖索引中保存的文档投影
+    Document project(Document document) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        for (List<String> names : List.of(fields, include)) {
+            for (String field : names) {
+                Object value = isMetadata(field) ? null : document.getValue(field);
+                if (value != null) {
+                    data.put(field, value);
+                }
+            }
+        }
+        return Document.restore(document.getId(), data, document.getCreatedAt(),
+                document.getUpdatedAt());
+    }
+
+    private static boolean isMetadata(String field) {
+        return Document.ID_FIELD.equals(field) || Document.CREATED_AT_FIELD.equals(field)
+                || Document.UPDATED_AT_FIELD.equals(field);
+    }
+
+    public Map<String, Object> describe() {
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("name", getName());
+        description.put("fields", fields);
+        description.put("type", type.name());
+        if (isCovering()) {
+            description.put("include", include);
+        }
+        return description;
+    }
+}
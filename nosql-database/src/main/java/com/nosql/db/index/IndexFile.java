@@ -0,0 +1,289 @@
+package com.nosql.db.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+import com.google.gson.Gson;
+import com.nosql.db.storage.Document;
+import com.nosql.db.utils.FileUtils;
+
+// 集合的索引文件: 魔数 + 版本 + 检查点LSN + 索引数 + 各索引(定义 + 是否有内容 + 内容) + CRC32C。
+// 内容按桶保存: 键(分量数 + 各分量) + 文档ID列表，以分量数-1结束；覆盖索引随后保存各文档的投影
+// (ID + 时间戳 + 各字段)，以ID长度-1结束。值按类型标记编码，加载时不经过JSON解析。
+// 有序索引按键的顺序写出，加载时按顺序插入跳表；只保存每个键一次，比逐个文档保存字段值更紧凑。
+// 全文索引保存文档表(ID + 长度 + 指纹，已删除的序号ID长度为-1)和各词项原样的压缩倒排列表。
+// 写入方式与SnapshotFile相同: 临时文件fsync后原子替换
+final class IndexFile {
+    private static final int MAGIC = 0x4E494458; // "NIDX"
+    private static final int VERSION = 1;
+    private static final int END_MARKER = -1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int VALUE_NULL = -1;
+    private static final int VALUE_LONG = 0;
+    private static final int VALUE_DOUBLE = 1;
+    private static final int VALUE_STRING = 2;
+    private static final int VALUE_BOOLEAN = 3;
+    private static final int VALUE_JSON = 4;
+
+    private static final Gson gson = new Gson();
+
+    private IndexFile() {
+    }
+
+    // 建立完成的索引写出定义和内容，建立中的索引只写出定义
+    static void write(Path target, long checkpointLsn, List<AbstractIndex<?>> indexes)
+            throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        CRC32C crc = new CRC32C();
+        // 缓冲放在校验之上，CRC按块更新而不是随writeInt等逐字节更新
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new CheckedOutputStream(file, crc), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(checkpointLsn);
+            out.writeInt(indexes.size());
+            for (AbstractIndex<?> index : indexes) {
+                writeDefinition(out, index.getDefinition());
+                boolean ready = index.isReady();
+                out.writeBoolean(ready);
+                if (ready && index instanceof TextIndex) {
+                    ((TextIndex) index).writeContent(out);
+                } else if (ready) {
+                    writeContent(out, (SecondaryIndex) index);
+                }
+            }
+            out.flush();
+            new DataOutputStream(file).writeInt((int) crc.getValue());
+            file.getFD().sync();
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        FileUtils.syncParentDirectory(target);
+    }
+
+    // 读取索引文件，有内容的索引为READY，只有定义的索引为BUILDING，返回文件对应的检查点LSN。
+    // 文件整体映射到内存，先对映射区一次性校验CRC，再直接从映射区解析，不经过流的逐字节读取
+    static long read(Path source, List<AbstractIndex<?>> indexes) throws IOException {
+        List<AbstractIndex<?>> loaded = new ArrayList<>();
+        long checkpointLsn;
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < Integer.BYTES || size > Integer.MAX_VALUE) {
+                throw new IOException("索引文件大小无效: " + source + ", " + size + "字节");
+            }
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int contentLength = (int) size - Integer.BYTES;
+            CRC32C crc = new CRC32C();
+            crc.update(in.duplicate().limit(contentLength));
+            if (in.getInt(contentLength) != (int) crc.getValue()) {
+                throw new IOException("索引文件校验失败: " + source);
+            }
+            in.limit(contentLength);
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new IOException("无效的索引文件: " + source);
+            }
+            checkpointLsn = in.getLong();
+            int count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                IndexDefinition definition = readDefinition(in);
+                if (in.get() == 0) {
+                    loaded.add(AbstractIndex.create(definition, AbstractIndex.State.BUILDING, 0));
+                    continue;
+                }
+                AbstractIndex<?> index =
+                        AbstractIndex.create(definition, AbstractIndex.State.READY, 0);
+                if (index instanceof TextIndex) {
+                    ((TextIndex) index).readContent(in);
+                } else {
+                    readContent(in, (SecondaryIndex) index);
+                }
+                loaded.add(index);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("索引文件不完整: " + source, e);
+        }
+        indexes.addAll(loaded);
+        return checkpointLsn;
+    }
+
+    private static void writeDefinition(DataOutputStream out, IndexDefinition definition)
+            throws IOException {
+        writeStrings(out, definition.getFields());
+        writeString(out, definition.getType().name());
+        writeStrings(out, definition.getInclude());
+    }
+
+    private static IndexDefinition readDefinition(ByteBuffer in) {
+        List<String> fields = readStrings(in);
+        IndexType type = IndexType.fromString(readString(in));
+        return new IndexDefinition(fields, type, readStrings(in));
+    }
+
+    private static void writeContent(DataOutputStream out, SecondaryIndex index)
+            throws IOException {
+        for (Map.Entry<CompoundKey, Set<String>> bucket : index.buckets().entrySet()) {
+            // 并发修改可能使桶在复制前变空，空桶不写出
+            String[] ids = bucket.getValue().toArray(new String[0]);
+            if (ids.length == 0) {
+                continue;
+            }
+            CompoundKey key = bucket.getKey();
+            out.writeInt(key.length());
+            for (int i = 0; i < key.length(); i++) {
+                writePart(out, key.part(i));
+            }
+            out.writeInt(ids.length);
+            for (String id : ids) {
+                writeString(out, id);
+            }
+        }
+        out.writeInt(END_MARKER);
+        Map<String, Document> covered = index.coveredDocuments();
+        if (covered != null) {
+            for (Document projection : covered.values()) {
+                writeString(out, projection.getId());
+                out.writeLong(projection.getCreatedAt());
+                out.writeLong(projection.getUpdatedAt());
+                Map<String, Object> data = projection.dataView();
+                out.writeInt(data.size());
+                for (Map.Entry<String, Object> field : data.entrySet()) {
+                    writeString(out, field.getKey());
+                    writeValue(out, field.getValue());
+                }
+            }
+            out.writeInt(END_MARKER);
+        }
+    }
+
+    private static void readContent(ByteBuffer in, SecondaryIndex index) throws IOException {
+        int length;
+        while ((length = in.getInt()) != END_MARKER) {
+            IndexKey[] parts = new IndexKey[length];
+            for (int i = 0; i < length; i++) {
+                parts[i] = readPart(in);
+            }
+            String[] ids = new String[in.getInt()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = readString(in);
+            }
+            index.restore(new CompoundKey(parts, CompoundKey.EXACT), ids);
+        }
+        if (index.getDefinition().isCovering()) {
+            while ((length = in.getInt()) != END_MARKER) {
+                String id = readString(in, length);
+                long createdAt = in.getLong();
+                long updatedAt = in.getLong();
+                int fields = in.getInt();
+                Map<String, Object> data = new LinkedHashMap<>();
+                for (int i = 0; i < fields; i++) {
+                    data.put(readString(in), readValue(in));
+                }
+                index.restoreCovered(Document.restore(id, data, createdAt, updatedAt));
+            }
+        }
+    }
+
+    private static void writePart(DataOutputStream out, IndexKey part) throws IOException {
+        writeValue(out, part == null ? null : part.getValue());
+    }
+
+    private static IndexKey readPart(ByteBuffer in) throws IOException {
+        Object value = readValue(in);
+        return value == null ? null : IndexKey.of(value);
+    }
+
+    // 标量按类型标记写出，保持Long和Double的区别；嵌套的对象和数组只会出现在覆盖字段里，写成JSON
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(VALUE_NULL);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short
+                || value instanceof Byte) {
+            out.writeByte(VALUE_LONG);
+            out.writeLong(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            out.writeByte(VALUE_DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof String) {
+            out.writeByte(VALUE_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(VALUE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else {
+            out.writeByte(VALUE_JSON);
+            writeString(out, gson.toJson(value));
+        }
+    }
+
+    private static Object readValue(ByteBuffer in) throws IOException {
+        byte tag = in.get();
+        switch (tag) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_LONG:
+                return in.getLong();
+            case VALUE_DOUBLE:
+                return in.getDouble();
+            case VALUE_STRING:
+                return readString(in);
+            case VALUE_BOOLEAN:
+                return in.get() != 0;
+            case VALUE_JSON:
+                return gson.fromJson(readString(in), Object.class);
+            default:
+                throw new IOException("无效的索引值类型: " + tag);
+        }
+    }
+
+    // 长度前缀的UTF-8，不受writeUTF的64KB限制
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        return readString(in, in.getInt());
+    }
+
+    static String readString(ByteBuffer in, int length) {
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> values)
+            throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static List<String> readStrings(ByteBuffer in) {
+        int count = in.getInt();
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+}
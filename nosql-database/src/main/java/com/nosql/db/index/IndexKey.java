@@ -0,0 +1,107 @@
+package com.nosql.db.index;
+
+import java.util.Comparator;
+
+// 带类型的索引键。只有数值、字符串和布尔值可以建索引，不同类型按 数值 < 字符串 < 布尔 排序，
+// 因此42与"42"是两个不同的键。整数和可以精确表示为整数的浮点数统一成Long，
+// 使JSON解码得到的30.0与二进制协议的30相等；时间戳(如createdAt)按数值处理。
+public final class IndexKey implements Comparable<IndexKey> {
+    static final int NUMBER = 0;
+    static final int STRING = 1;
+    static final int BOOLEAN = 2;
+
+    // 按索引键的顺序比较任意字段值，不能建索引的值(null、对象、数组)排在最前并视为相等
+    public static final Comparator<Object> VALUE_ORDER = (a, b) -> {
+        IndexKey left = of(a);
+        IndexKey right = of(b);
+        if (left == null || right == null) {
+            return left == null ? (right == null ? 0 : -1) : 1;
+        }
+        return left.compareTo(right);
+    };
+
+    private final int type;
+    // Long、Double、String或Boolean；为null时是该类型所有键之前的哨兵
+    private final Object value;
+
+    private IndexKey(int type, Object value) {
+        this.type = type;
+        this.value = value;
+    }
+
+    // 值不能建索引时返回null
+    public static IndexKey of(Object value) {
+        if (value instanceof String) {
+            return new IndexKey(STRING, value);
+        }
+        if (value instanceof Boolean) {
+            return new IndexKey(BOOLEAN, value);
+        }
+        if (value instanceof Long || value instanceof Integer || value instanceof Short
+                || value instanceof Byte) {
+            return new IndexKey(NUMBER, ((Number) value).longValue());
+        }
+        if (value instanceof Number) {
+            double d = ((Number) value).doubleValue();
+            if (d == Math.rint(d) && Math.abs(d) < 0x1p63) {
+                return new IndexKey(NUMBER, (long) d);
+            }
+            return new IndexKey(NUMBER, d);
+        }
+        return null;
+    }
+
+    // 小于该类型所有键的哨兵，用于把范围扫描限制在同一类型内
+    static IndexKey lowest(int type) {
+        return new IndexKey(type, null);
+    }
+
+    int getType() {
+        return type;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    @Override
+    public int compareTo(IndexKey other) {
+        if (type != other.type) {
+            return Integer.compare(type, other.type);
+        }
+        if (value == null || other.value == null) {
+            return value == null ? (other.value == null ? 0 : -1) : 1;
+        }
+        switch (type) {
+            case NUMBER:
+                if (value instanceof Long && other.value instanceof Long) {
+                    return Long.compare((Long) value, (Long) other.value);
+                }
+                return Double.compare(((Number) value).doubleValue(),
+                        ((Number) other.value).doubleValue());
+            case STRING:
+                return ((String) value).compareTo((String) other.value);
+            default:
+                return Boolean.compare((Boolean) value, (Boolean) other.value);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof IndexKey))
+            return false;
+        return compareTo((IndexKey) o) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * type + (value == null ? 0 : value.hashCode());
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(value);
+    }
+}
@@ -1,17 +1,23 @@
 package com.nosql.db.index;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.nosql.db.storage.Document;
 
 public class IndexManager {
     private static final Logger logger = LoggerFactory.getLogger(IndexManager.class);
-    private final Map<String, Map<String, Map<String, Set<String>>>> indexes;
+    // 集合名 -> 索引名 -> 索引，单字段索引的名字就是字段名
+    private final Map<String, Map<String, AbstractIndex<?>>> indexes;
 
     public IndexManager(String dataDirectory) {
         this.indexes = new ConcurrentHashMap<>();
@@ -19,41 +25,205 @@ public class IndexManager {
     }
 
     public void createIndex(String collectionName, String fieldName) {
-        indexes.computeIfAbsent(collectionName, k -> new ConcurrentHashMap<>()).put(fieldName,
-                new ConcurrentHashMap<>());
-        logger.info("为集合{}的字段{}创建索引", collectionName, fieldName);
+        createIndex(collectionName, fieldName, IndexType.HASH);
     }
 
-    public void updateIndex(String collectionName, Document document) {
-        Map<String, Map<String, Set<String>>> collIndexes = indexes.get(collectionName);
-        if (collIndexes == null) {
-            logger.debug("集合{}没有索引，跳过更新", collectionName);
+    public void createIndex(String collectionName, String fieldName, IndexType type) {
+        createIndex(collectionName, Collections.singletonList(fieldName), type, null);
+    }
+
+    // 在有序的字段列表上创建索引，include中的字段值随索引保存，用于覆盖查询。返回索引名
+    public String createIndex(String collectionName, List<String> fields, IndexType type,
+            List<String> include) {
+        IndexDefinition definition = new IndexDefinition(fields, type, include);
+        AbstractIndex<?> index = AbstractIndex.create(definition, AbstractIndex.State.READY, 0);
+        indexes.computeIfAbsent(collectionName, k -> new ConcurrentHashMap<>())
+                .put(definition.getName(), index);
+        logger.info("为集合{}创建索引: {}", collectionName, definition.describe());
+        return definition.getName();
+    }
+
+    // 登记一个后台建立中的索引并返回索引名。此后的写入立即进入索引，
+    // 调用方随后对现有文档调用backfill，完成后调用finishBuild；建立期间查询不使用它
+    public String beginBuild(String collectionName, List<String> fields, IndexType type,
+            List<String> include, long total) {
+        IndexDefinition definition = new IndexDefinition(fields, type, include);
+        AbstractIndex<?> index =
+                AbstractIndex.create(definition, AbstractIndex.State.BUILDING, total);
+        if (indexes.computeIfAbsent(collectionName, k -> new ConcurrentHashMap<>())
+                .putIfAbsent(definition.getName(), index) != null) {
+            throw new IllegalArgumentException("索引已存在: " + definition.getName());
+        }
+        logger.info("开始为集合{}建立索引: {}, 现有文档数: {}", collectionName,
+                definition.describe(), total);
+        return definition.getName();
+    }
+
+    // 回填一个现有文档，索引已被删除或建立失败时返回false，调用方应停止回填
+    public boolean backfill(String collectionName, String indexName, Document document) {
+        AbstractIndex<?> index = anyIndex(collectionName, indexName);
+        return index != null && index.backfill(document);
+    }
+
+    // 回填完成，索引可供查询使用。索引在建立期间被删除时返回false
+    public boolean finishBuild(String collectionName, String indexName) {
+        AbstractIndex<?> index = anyIndex(collectionName, indexName);
+        if (index == null || !index.markReady()) {
+            return false;
+        }
+        logger.info("集合{}的索引{}建立完成: {}", collectionName, indexName, index.describe());
+        return true;
+    }
+
+    public void failBuild(String collectionName, String indexName, String error) {
+        AbstractIndex<?> index = anyIndex(collectionName, indexName);
+        if (index != null) {
+            index.markFailed(error);
+        }
+    }
+
+    // 删除索引，正在建立的索引随之停止回填。索引不存在时返回false
+    public boolean dropIndex(String collectionName, String indexName) {
+        Map<String, AbstractIndex<?>> collIndexes = indexes.get(collectionName);
+        AbstractIndex<?> index = collIndexes == null ? null : collIndexes.remove(indexName);
+        if (index == null) {
+            return false;
+        }
+        index.markDropped();
+        logger.info("删除集合{}的索引{}", collectionName, indexName);
+        return true;
+    }
+
+    // 集合上全部索引的定义、状态和建立进度
+    public List<Map<String, Object>> describeIndexes(String collectionName) {
+        List<Map<String, Object>> descriptions = new ArrayList<>();
+        for (AbstractIndex<?> index : indexes.getOrDefault(collectionName,
+                Collections.emptyMap()).values()) {
+            descriptions.add(index.describe());
+        }
+        return descriptions;
+    }
+
+    // 把集合的索引定义和已建立完成的索引内容写入file，与文档快照使用同一个检查点LSN。
+    // 与文档快照一样是模糊的，写入期间的并发修改可能部分进入文件，恢复时从检查点LSN重放即可修正。
+    // 集合没有索引时删除文件
+    public void checkpoint(String collectionName, Path file, long checkpointLsn)
+            throws IOException {
+        List<AbstractIndex<?>> persisted = new ArrayList<>();
+        for (AbstractIndex<?> index : indexes.getOrDefault(collectionName,
+                Collections.emptyMap()).values()) {
+            AbstractIndex.State state = index.getState();
+            if (state == AbstractIndex.State.READY || state == AbstractIndex.State.BUILDING) {
+                persisted.add(index);
+            }
+        }
+        if (persisted.isEmpty()) {
+            Files.deleteIfExists(file);
             return;
         }
+        IndexFile.write(file, checkpointLsn, persisted);
+        logger.debug("集合{}的索引文件写入完成: {}, 索引数: {}", collectionName, file, persisted.size());
+    }
 
-        String docId = document.getId();
-        logger.debug("更新集合{}中文档{}的索引", collectionName, docId);
+    // 加载集合的索引文件。文件与文档快照的检查点LSN一致时直接使用其中的内容，否则只保留定义；
+    // 没有内容的索引以BUILDING状态登记，返回这些需要从文档回填的索引名。已在内存中创建的同名索引优先
+    public List<String> load(String collectionName, Path file, long checkpointLsn, long total)
+            throws IOException {
+        List<String> rebuild = new ArrayList<>();
+        if (!Files.exists(file)) {
+            return rebuild;
+        }
+        long start = System.currentTimeMillis();
+        List<AbstractIndex<?>> loaded = new ArrayList<>();
+        long fileLsn = IndexFile.read(file, loaded);
+        logger.info("集合{}的索引文件读取完成，索引数: {}, 耗时: {}ms", collectionName, loaded.size(),
+                System.currentTimeMillis() - start);
+        Map<String, AbstractIndex<?>> collIndexes =
+                indexes.computeIfAbsent(collectionName, k -> new ConcurrentHashMap<>());
+        for (AbstractIndex<?> index : loaded) {
+            IndexDefinition definition = index.getDefinition();
+            if (fileLsn != checkpointLsn || !index.isReady()) {
+                index = AbstractIndex.create(definition, AbstractIndex.State.BUILDING, total);
+            }
+            if (collIndexes.putIfAbsent(definition.getName(), index) != null) {
+                continue;
+            }
+            if (index.isReady()) {
+                logger.info("集合{}的索引{}从索引文件加载完成，不同键数: {}", collectionName,
+                        definition.getName(), index.distinctValues());
+            } else {
+                rebuild.add(definition.getName());
+            }
+        }
+        if (fileLsn != checkpointLsn) {
+            logger.warn("集合{}的索引文件检查点LSN {}与文档快照{}不一致，从文档重建索引", collectionName,
+                    fileLsn, checkpointLsn);
+        }
+        return rebuild;
+    }
+
+    public boolean hasIndexes(String collectionName) {
+        Map<String, AbstractIndex<?>> collIndexes = indexes.get(collectionName);
+        return collIndexes != null && !collIndexes.isEmpty();
+    }
 
-        for (Map.Entry<String, Map<String, Set<String>>> entry : collIndexes.entrySet()) {
-            String field = entry.getKey();
-            Map<String, Set<String>> valueMap = entry.getValue();
+    // 字段上是否有单字段索引
+    public boolean hasIndex(String collectionName, String fieldName) {
+        return index(collectionName, fieldName) != null;
+    }
+
+    // 字段上单字段索引的类型，没有索引时返回null
+    public IndexType getIndexType(String collectionName, String fieldName) {
+        SecondaryIndex index = index(collectionName, fieldName);
+        return index == null ? null : index.getDefinition().getType();
+    }
 
-            for (Set<String> ids : valueMap.values()) {
-                ids.remove(docId);
+    // 可供查询使用的索引，不包括正在建立或建立失败的，也不包括只用于SEARCH的全文索引
+    public List<IndexDefinition> getIndexes(String collectionName) {
+        List<IndexDefinition> definitions = new ArrayList<>();
+        for (AbstractIndex<?> index : indexes.getOrDefault(collectionName,
+                Collections.emptyMap()).values()) {
+            if (index.isReady() && index instanceof SecondaryIndex) {
+                definitions.add(index.getDefinition());
             }
+        }
+        return definitions;
+    }
+
+    // 索引定义，不存在时返回null
+    public IndexDefinition getIndexDefinition(String collectionName, String indexName) {
+        SecondaryIndex index = index(collectionName, indexName);
+        return index == null ? null : index.getDefinition();
+    }
+
+    public void updateIndex(String collectionName, Document document) {
+        Map<String, AbstractIndex<?>> collIndexes = indexes.get(collectionName);
+        if (collIndexes == null) {
+            logger.debug("集合{}没有索引，跳过更新", collectionName);
+            return;
+        }
+
+        logger.debug("更新集合{}中文档{}的索引", collectionName, document.getId());
+        for (AbstractIndex<?> index : collIndexes.values()) {
+            index.put(document);
+        }
+    }
 
-            Object value = document.get(field);
-            if (value != null) {
-                String strValue = value.toString();
-                valueMap.computeIfAbsent(strValue, k -> new ConcurrentSkipListSet<>()).add(docId);
-                logger.trace("为集合{}的字段{}添加索引: 值={}, 文档ID={}", collectionName, field, strValue,
-                        docId);
+    // 部分更新只修改了paths中的字段，跳过键不受影响的索引
+    public void updateIndex(String collectionName, Document document, Set<String> paths) {
+        Map<String, AbstractIndex<?>> collIndexes = indexes.get(collectionName);
+        if (collIndexes == null) {
+            return;
+        }
+        for (AbstractIndex<?> index : collIndexes.values()) {
+            if (index.getDefinition().affectedBy(paths)) {
+                index.put(document);
             }
         }
     }
 
     public void deleteFromIndex(String collectionName, String docId) {
-        Map<String, Map<String, Set<String>>> collIndexes =
+        Map<String, AbstractIndex<?>> collIndexes =
                 indexes.getOrDefault(collectionName, Collections.emptyMap());
         if (collIndexes.isEmpty()) {
             logger.debug("集合{}没有索引，跳过删除", collectionName);
@@ -61,17 +231,175 @@ public class IndexManager {
         }
 
         logger.debug("从集合{}的索引中删除文档{}", collectionName, docId);
-        collIndexes.values()
-                .forEach(fieldMap -> fieldMap.values().forEach(ids -> ids.remove(docId)));
+        collIndexes.values().forEach(index -> index.remove(docId));
     }
 
     public Set<String> getDocumentIds(String collectionName, String fieldName, Object value) {
-        Map<String, Map<String, Set<String>>> collIndexes =
-                indexes.getOrDefault(collectionName, Collections.emptyMap());
-        Set<String> result = collIndexes.getOrDefault(fieldName, Collections.emptyMap())
-                .getOrDefault(value.toString(), Collections.emptySet());
+        SecondaryIndex index = index(collectionName, fieldName);
+        IndexKey key = IndexKey.of(value);
+        Set<String> result = index == null || key == null ? Collections.emptySet()
+                : index.get(new IndexKey[] {key});
         logger.debug("从集合{}的字段{}获取索引值={}的文档ID，结果数量: {}", collectionName, fieldName, value,
                 result.size());
         return result;
     }
+
+    // 按索引扫描: prefix依次等于索引的前几个字段，下一个字段落在区间内，按键的顺序返回文档ID。
+    // 边界为null表示该侧不限，结果限制在边界值的类型内；两个边界都为null时只按前缀匹配。
+    // 哈希索引只能给出全部字段的前缀、不带区间
+    public Stream<String> scan(String collectionName, String indexName, List<Object> prefix,
+            Object lower, boolean lowerInclusive, Object upper, boolean upperInclusive,
+            boolean descending) {
+        SecondaryIndex index = existingIndex(collectionName, indexName);
+        IndexKey[] prefixKeys = keys(index, prefix, lower, upper);
+        if (prefixKeys == null) {
+            return Stream.empty();
+        }
+        return index.scan(prefixKeys, IndexKey.of(lower), lowerInclusive, IndexKey.of(upper),
+                upperInclusive, descending);
+    }
+
+    // 扫描范围内的文档数，最多数到limit+1，供查询规划比较候选集大小
+    public long count(String collectionName, String indexName, List<Object> prefix,
+            Object lower, boolean lowerInclusive, Object upper, boolean upperInclusive,
+            long limit) {
+        SecondaryIndex index = existingIndex(collectionName, indexName);
+        IndexKey[] prefixKeys = keys(index, prefix, lower, upper);
+        if (prefixKeys == null) {
+            return 0;
+        }
+        return index.count(prefixKeys, IndexKey.of(lower), lowerInclusive, IndexKey.of(upper),
+                upperInclusive, limit);
+    }
+
+    // 覆盖索引中保存的文档投影，不是覆盖索引或文档不在索引中时返回null
+    public Document getCoveredDocument(String collectionName, String indexName, String docId) {
+        return existingIndex(collectionName, indexName).getCovered(docId);
+    }
+
+    // 有序索引上的范围扫描，按值的顺序返回文档ID。边界为null表示该侧不限，
+    // 结果限制在边界值的类型内；两个边界都为null时按索引顺序返回全部文档
+    public Stream<String> getDocumentIdsInRange(String collectionName, String fieldName,
+            Object lower, boolean lowerInclusive, Object upper, boolean upperInclusive,
+            boolean descending) {
+        orderedIndex(collectionName, fieldName);
+        return scan(collectionName, fieldName, Collections.emptyList(), lower, lowerInclusive,
+                upper, upperInclusive, descending);
+    }
+
+    public long countInRange(String collectionName, String fieldName, Object lower,
+            boolean lowerInclusive, Object upper, boolean upperInclusive, long limit) {
+        orderedIndex(collectionName, fieldName);
+        if (IndexKey.of(lower) == null && IndexKey.of(upper) == null) {
+            return 0;
+        }
+        return count(collectionName, fieldName, Collections.emptyList(), lower, lowerInclusive,
+                upper, upperInclusive, limit);
+    }
+
+    // 有序索引中的最小值，索引为空时返回null
+    public Object getMinValue(String collectionName, String fieldName) {
+        IndexKey key = orderedIndex(collectionName, fieldName).min();
+        return key == null ? null : key.getValue();
+    }
+
+    public Object getMaxValue(String collectionName, String fieldName) {
+        IndexKey key = orderedIndex(collectionName, fieldName).max();
+        return key == null ? null : key.getValue();
+    }
+
+    // 字段上不同取值的个数，即索引中桶的数量，不存在索引时返回0
+    public int distinctValues(String collectionName, String fieldName) {
+        SecondaryIndex index = index(collectionName, fieldName);
+        return index == null ? 0 : index.distinctValues();
+    }
+
+    // 全文搜索，返回按得分排列的前limit个文档ID。indexName为null时使用集合上唯一的全文索引
+    public SearchResult search(String collectionName, String indexName, String query, int limit) {
+        TextQuery parsed = TextQuery.parse(query);
+        SearchResult result = textIndex(collectionName, indexName).search(parsed, limit);
+        logger.debug("在集合{}上全文搜索{}，匹配数: {}", collectionName, parsed, result.getTotal());
+        return result;
+    }
+
+    private TextIndex textIndex(String collectionName, String indexName) {
+        List<AbstractIndex<?>> candidates = new ArrayList<>();
+        if (indexName != null) {
+            AbstractIndex<?> index = anyIndex(collectionName, indexName);
+            if (index instanceof TextIndex) {
+                candidates.add(index);
+            }
+        } else {
+            for (AbstractIndex<?> index : indexes.getOrDefault(collectionName,
+                    Collections.emptyMap()).values()) {
+                if (index instanceof TextIndex) {
+                    candidates.add(index);
+                }
+            }
+        }
+        if (candidates.isEmpty()) {
+            throw new IllegalArgumentException("集合" + collectionName + "上没有全文索引"
+                    + (indexName == null ? "" : indexName));
+        }
+        if (candidates.size() > 1) {
+            List<String> names = new ArrayList<>();
+            candidates.forEach(index -> names.add(index.getDefinition().getName()));
+            throw new IllegalArgumentException("集合" + collectionName + "上有多个全文索引，需要指定index: "
+                    + names);
+        }
+        AbstractIndex<?> index = candidates.get(0);
+        if (!index.isReady()) {
+            throw new IllegalArgumentException("全文索引" + index.getDefinition().getName()
+                    + "尚未建立完成: " + index.getState());
+        }
+        return (TextIndex) index;
+    }
+
+    // 前缀值和边界转换成索引键，有值不能建索引时返回null，表示不可能有匹配
+    private static IndexKey[] keys(SecondaryIndex index, List<Object> prefix, Object lower,
+            Object upper) {
+        if (prefix.size() > index.getDefinition().getFields().size()) {
+            throw new IllegalArgumentException("前缀字段数超过索引字段数: " + index.getDefinition()
+                    .getName());
+        }
+        if ((lower != null && IndexKey.of(lower) == null)
+                || (upper != null && IndexKey.of(upper) == null)) {
+            return null;
+        }
+        IndexKey[] keys = new IndexKey[prefix.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = IndexKey.of(prefix.get(i));
+            if (keys[i] == null) {
+                return null;
+            }
+        }
+        return keys;
+    }
+
+    // 可供查询使用的键索引，不存在、尚未建立完成或是全文索引时返回null
+    private SecondaryIndex index(String collectionName, String indexName) {
+        AbstractIndex<?> index = anyIndex(collectionName, indexName);
+        return index instanceof SecondaryIndex && index.isReady() ? (SecondaryIndex) index : null;
+    }
+
+    private AbstractIndex<?> anyIndex(String collectionName, String indexName) {
+        return indexes.getOrDefault(collectionName, Collections.emptyMap()).get(indexName);
+    }
+
+    private SecondaryIndex existingIndex(String collectionName, String indexName) {
+        SecondaryIndex index = index(collectionName, indexName);
+        if (index == null) {
+            throw new IllegalArgumentException("集合" + collectionName + "上没有索引" + indexName);
+        }
+        return index;
+    }
+
+    private SecondaryIndex orderedIndex(String collectionName, String fieldName) {
+        SecondaryIndex index = index(collectionName, fieldName);
+        if (index == null || index.getDefinition().getType() != IndexType.ORDERED) {
+            throw new IllegalArgumentException(
+                    "集合" + collectionName + "的字段" + fieldName + "上没有有序索引");
+        }
+        return index;
+    }
 }
@@ -0,0 +1,21 @@
+package com.nosql.db.index;
+
+public enum IndexType {
+    // 哈希表，只支持等值和$in查找
+    HASH,
+    // 跳表，按IndexKey顺序保存，另外支持范围扫描、有序遍历和最小/最大值
+    ORDERED,
+    // 字符串字段上的全文倒排索引，只用于SEARCH命令，不参与FIND的查询计划
+    TEXT;
+
+    public static IndexType fromString(String value) {
+        if (value == null || value.isEmpty()) {
+            return HASH;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("不支持的索引类型: " + value);
+        }
+    }
+}
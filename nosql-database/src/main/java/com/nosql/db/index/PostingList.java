@@ -0,0 +1,133 @@
+package com.nosql.db.index;
+
+import java.util.Arrays;
+
+// 一个词项的倒排列表: 文档序号升序排列，依次保存与前一个序号的差值和词频，
+// 都按每字节7位的变长整数编码，常见的小差值和词频各占一个字节。
+// 序号只增不减，新文档总是追加在末尾；已删除的序号由TextIndex标记，压缩时统一清除。
+// 不是线程安全的，由TextIndex的读写锁保护
+final class PostingList {
+    private byte[] data;
+    private int length;
+    private int last = -1;
+    private int count;
+
+    PostingList() {
+        this.data = new byte[8];
+    }
+
+    private PostingList(byte[] data, int length, int last, int count) {
+        this.data = data;
+        this.length = length;
+        this.last = last;
+        this.count = count;
+    }
+
+    // ordinal必须大于已有的所有序号
+    void add(int ordinal, int frequency) {
+        if (ordinal <= last) {
+            throw new IllegalStateException("倒排列表的序号必须递增: " + ordinal + " <= " + last);
+        }
+        if (data.length - length < 10) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + 10));
+        }
+        writeVarInt(ordinal - last);
+        writeVarInt(frequency);
+        last = ordinal;
+        count++;
+    }
+
+    // 包括已删除的文档
+    int count() {
+        return count;
+    }
+
+    int bytes() {
+        return length;
+    }
+
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    // 按remap重新编号，remap中为负数的序号已删除。新序号保持原来的相对顺序，
+    // 因此重新编码后仍然升序。没有剩余文档时返回null
+    PostingList remap(int[] remap) {
+        PostingList remapped = new PostingList();
+        Cursor cursor = cursor();
+        while (cursor.next()) {
+            int ordinal = remap[cursor.ordinal()];
+            if (ordinal >= 0) {
+                remapped.add(ordinal, cursor.frequency());
+            }
+        }
+        return remapped.count == 0 ? null : remapped.trimmed();
+    }
+
+    private PostingList trimmed() {
+        return data.length == length ? this : new PostingList(Arrays.copyOf(data, length), length,
+                last, count);
+    }
+
+    // 独立的副本，写索引文件时在读锁下复制，之后的追加不影响副本
+    PostingList copy() {
+        return new PostingList(Arrays.copyOf(data, length), length, last, count);
+    }
+
+    // 索引文件中的编码与内存中相同
+    byte[] encoded() {
+        return length == data.length ? data : Arrays.copyOf(data, length);
+    }
+
+    int last() {
+        return last;
+    }
+
+    static PostingList decode(byte[] data, int last, int count) {
+        return new PostingList(data, data.length, last, count);
+    }
+
+    private void writeVarInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            data[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[length++] = (byte) value;
+    }
+
+    // 顺序解码的游标
+    final class Cursor {
+        private int position;
+        private int ordinal = -1;
+        private int frequency;
+
+        boolean next() {
+            if (position >= length) {
+                return false;
+            }
+            ordinal += readVarInt();
+            frequency = readVarInt();
+            return true;
+        }
+
+        int ordinal() {
+            return ordinal;
+        }
+
+        int frequency() {
+            return frequency;
+        }
+
+        private int readVarInt() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+    }
+}
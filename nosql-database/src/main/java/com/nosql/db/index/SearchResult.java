@@ -0,0 +1,40 @@
+package com.nosql.db.index;
+
+import java.util.List;
+
+// 全文搜索的结果: 匹配的文档总数和按得分排列的前若干个文档
+public final class SearchResult {
+    private final int total;
+    private final List<Hit> hits;
+
+    SearchResult(int total, List<Hit> hits) {
+        this.total = total;
+        this.hits = hits;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public List<Hit> getHits() {
+        return hits;
+    }
+
+    public static final class Hit {
+        private final String id;
+        private final double score;
+
+        Hit(String id, double score) {
+            this.id = id;
+            this.score = score;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public double getScore() {
+            return score;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.nosql.db.index;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Stream;
+import com.nosql.db.storage.Document;
+
+// 一个或多个字段上的二级索引。除了 键 -> 文档ID集合 之外还维护反向的 文档ID -> 键，
+// 更新和删除只修改旧键和新键两个桶，代价与不同取值的个数无关；空桶随即删除。
+// 写入由索引自己的锁串行化，桶、ID集合和覆盖投影都是并发容器，查询无需加锁。
+// HASH索引只收录所有键字段都可索引的文档；ORDERED索引收录全部文档，缺失的字段排在最前，
+// 因此按索引有序遍历不会漏掉文档。覆盖索引另外保存每个文档的投影，查询可以不读集合
+class SecondaryIndex extends AbstractIndex<CompoundKey> {
+    private final Map<CompoundKey, Set<String>> buckets;
+    // 只在持有lock时访问
+    private final Map<String, CompoundKey> keysById = new HashMap<>();
+    private final Map<String, Document> covered;
+
+    // 立即可用的索引，适用于加载数据之前建立的索引
+    SecondaryIndex(IndexDefinition definition) {
+        this(definition, State.READY, 0);
+    }
+
+    SecondaryIndex(IndexDefinition definition, State state, long total) {
+        super(definition, state, total);
+        this.buckets = definition.getType() == IndexType.ORDERED ? new ConcurrentSkipListMap<>()
+                : new ConcurrentHashMap<>();
+        this.covered = definition.isCovering() ? new ConcurrentHashMap<>() : null;
+    }
+
+    // 文档在索引中的键，HASH索引不收录有字段缺失的文档，返回null
+    @Override
+    CompoundKey entryOf(Document document) {
+        List<String> fields = definition.getFields();
+        IndexKey[] parts = new IndexKey[fields.size()];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = IndexKey.of(document.getValue(fields.get(i)));
+        }
+        CompoundKey key = new CompoundKey(parts, CompoundKey.EXACT);
+        return definition.getType() == IndexType.HASH && key.hasNullPart() ? null : key;
+    }
+
+    @Override
+    void insertLocked(Document document, CompoundKey key) {
+        String docId = document.getId();
+        if (covered != null) {
+            covered.put(docId, definition.project(document));
+        }
+        CompoundKey previous = keysById.put(docId, key);
+        if (Objects.equals(previous, key)) {
+            return;
+        }
+        // 先加入新桶再移出旧桶，并发查询最多多看到一个候选而不会漏掉文档
+        buckets.computeIfAbsent(key, k -> new ConcurrentSkipListSet<>()).add(docId);
+        if (previous != null) {
+            discard(docId, previous);
+        }
+    }
+
+    @Override
+    void removeLocked(String docId) {
+        CompoundKey previous = keysById.remove(docId);
+        if (previous != null) {
+            discard(docId, previous);
+        }
+        if (covered != null) {
+            covered.remove(docId);
+        }
+    }
+
+    private void discard(String docId, CompoundKey key) {
+        Set<String> ids = buckets.get(key);
+        if (ids != null) {
+            ids.remove(docId);
+            if (ids.isEmpty()) {
+                buckets.remove(key);
+            }
+        }
+    }
+
+    // 所有键字段都等于给定值的文档
+    Set<String> get(IndexKey[] parts) {
+        return buckets.getOrDefault(new CompoundKey(parts, CompoundKey.EXACT),
+                Collections.emptySet());
+    }
+
+    // 前缀字段等值、下一个字段在区间内的文档ID，按键的顺序返回。
+    // 区间边界为null表示该侧不限，但结果限制在边界值的类型内；两侧都为null时只按前缀匹配
+    Stream<String> scan(IndexKey[] prefix, IndexKey lower, boolean lowerInclusive,
+            IndexKey upper, boolean upperInclusive, boolean descending) {
+        if (prefix.length == definition.getFields().size() && lower == null && upper == null) {
+            return get(prefix).stream();
+        }
+        NavigableMap<CompoundKey, Set<String>> map = sorted();
+        CompoundKey from;
+        CompoundKey to;
+        if (lower == null && upper == null) {
+            if (prefix.length == 0) {
+                return flatten(map, descending);
+            }
+            from = new CompoundKey(prefix, CompoundKey.LOW);
+            to = new CompoundKey(prefix, CompoundKey.HIGH);
+        } else {
+            if (lower != null && upper != null && lower.getType() != upper.getType()) {
+                return Stream.empty();
+            }
+            int keyType = (lower != null ? lower : upper).getType();
+            from = lower == null ? bound(prefix, IndexKey.lowest(keyType), CompoundKey.LOW)
+                    : bound(prefix, lower, lowerInclusive ? CompoundKey.LOW : CompoundKey.HIGH);
+            to = upper == null ? bound(prefix, IndexKey.lowest(keyType + 1), CompoundKey.LOW)
+                    : bound(prefix, upper, upperInclusive ? CompoundKey.HIGH : CompoundKey.LOW);
+        }
+        if (from.compareTo(to) > 0) {
+            return Stream.empty();
+        }
+        return flatten(map.subMap(from, true, to, true), descending);
+    }
+
+    private static CompoundKey bound(IndexKey[] prefix, IndexKey last, int bound) {
+        IndexKey[] parts = new IndexKey[prefix.length + 1];
+        System.arraycopy(prefix, 0, parts, 0, prefix.length);
+        parts[prefix.length] = last;
+        return new CompoundKey(parts, bound);
+    }
+
+    // 估计范围内的文档数，超过limit后停止计数
+    long count(IndexKey[] prefix, IndexKey lower, boolean lowerInclusive, IndexKey upper,
+            boolean upperInclusive, long limit) {
+        return scan(prefix, lower, lowerInclusive, upper, upperInclusive, false)
+                .limit(limit + 1).count();
+    }
+
+    // 第一个键字段上的最小/最大可索引值，索引为空时返回null
+    IndexKey min() {
+        CompoundKey from = new CompoundKey(new IndexKey[] {IndexKey.lowest(IndexKey.NUMBER)},
+                CompoundKey.LOW);
+        Map.Entry<CompoundKey, Set<String>> entry = sorted().ceilingEntry(from);
+        return entry == null ? null : entry.getKey().part(0);
+    }
+
+    IndexKey max() {
+        Map.Entry<CompoundKey, Set<String>> entry = sorted().lastEntry();
+        return entry == null ? null : entry.getKey().part(0);
+    }
+
+    Document getCovered(String docId) {
+        return covered == null ? null : covered.get(docId);
+    }
+
+    @Override
+    int distinctValues() {
+        return buckets.size();
+    }
+
+    // 供IndexFile遍历索引内容，遍历期间的并发修改可能部分可见
+    Map<CompoundKey, Set<String>> buckets() {
+        return buckets;
+    }
+
+    Map<String, Document> coveredDocuments() {
+        return covered;
+    }
+
+    // 从索引文件恢复一个桶。模糊检查点中同一文档可能出现在两个桶里，以后读到的为准，
+    // 恢复后重放WAL会再次修正检查点之后修改过的文档
+    void restore(CompoundKey key, String[] docIds) {
+        lock.lock();
+        try {
+            Set<String> bucket = buckets.computeIfAbsent(key, k -> new ConcurrentSkipListSet<>());
+            for (String docId : docIds) {
+                CompoundKey previous = keysById.put(docId, key);
+                if (previous != null && !previous.equals(key)) {
+                    discard(docId, previous);
+                }
+                bucket.add(docId);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void restoreCovered(Document projection) {
+        covered.put(projection.getId(), projection);
+    }
+
+    private NavigableMap<CompoundKey, Set<String>> sorted() {
+        if (definition.getType() != IndexType.ORDERED) {
+            throw new UnsupportedOperationException("哈希索引只支持所有键字段的等值查找");
+        }
+        return (NavigableMap<CompoundKey, Set<String>>) buckets;
+    }
+
+    private static Stream<String> flatten(NavigableMap<CompoundKey, Set<String>> map,
+            boolean descending) {
+        return (descending ? map.descendingMap() : map).values().stream().flatMap(Set::stream);
+    }
+}
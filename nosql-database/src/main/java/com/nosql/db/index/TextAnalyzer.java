@@ -0,0 +1,51 @@
+package com.nosql.db.index;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// 全文索引的分词: 先做NFKC规范化(全角转半角等)并转为小写，连续的字母和数字组成一个词项。
+// 中文和日文假名之间没有空格，每个字单独作为一个词项，查询中连续的多个字按AND匹配。
+// 建立索引和解析查询使用同一套规则
+final class TextAnalyzer {
+    // 过长的词项多半是编码数据而不是文字，不进入索引
+    static final int MAX_TERM_LENGTH = 64;
+
+    private TextAnalyzer() {
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC)
+                .toLowerCase(Locale.ROOT);
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i < normalized.length(); ) {
+            int codePoint = normalized.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (isSingleCharacterTerm(codePoint)) {
+                flush(term, terms);
+                terms.add(new String(Character.toChars(codePoint)));
+            } else if (Character.isLetterOrDigit(codePoint)) {
+                term.appendCodePoint(codePoint);
+            } else {
+                flush(term, terms);
+            }
+        }
+        flush(term, terms);
+        return terms;
+    }
+
+    private static boolean isSingleCharacterTerm(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA;
+    }
+
+    private static void flush(StringBuilder term, List<String> terms) {
+        if (term.length() > 0 && term.length() <= MAX_TERM_LENGTH) {
+            terms.add(term.toString());
+        }
+        term.setLength(0);
+    }
+}
@@ -0,0 +1,346 @@
+package com.nosql.db.index;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import com.nosql.db.storage.Document;
+
+// 字符串字段上的全文索引: 词项 -> 倒排列表。文档按写入顺序获得递增的序号，
+// 倒排列表只在末尾追加；更新的文档取新序号，旧序号标记为已删除，
+// 已删除的序号积累到与存活文档一样多时整体压缩重新编号。
+// 分词后的词项与上一版本相同的更新(只改了其他字段)直接跳过。
+// 写入由基类的锁串行化，读写锁只用于隔离查询和写入，查询之间互不阻塞。
+// 查询结果按BM25打分，文档频率只计存活的文档
+final class TextIndex extends AbstractIndex<TextIndex.Terms> {
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int MIN_COMPACT = 1024;
+    private static final int END_MARKER = -1;
+
+    private final ReentrantReadWriteLock postingsLock = new ReentrantReadWriteLock();
+    private final TreeMap<String, PostingList> postings = new TreeMap<>();
+    // 以下只在持有lock时修改，修改时同时持有写锁
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    // 序号 -> 文档ID，已删除的为null
+    private String[] docIds = new String[16];
+    private int[] lengths = new int[16];
+    private long[] fingerprints = new long[16];
+    private int nextOrdinal;
+    private int live;
+    private int dead;
+    private long totalLength;
+
+    // 一个文档分词的结果
+    static final class Terms {
+        final Map<String, Integer> frequencies;
+        final int length;
+        final long fingerprint;
+
+        Terms(Map<String, Integer> frequencies, int length, long fingerprint) {
+            this.frequencies = frequencies;
+            this.length = length;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    TextIndex(IndexDefinition definition, State state, long total) {
+        super(definition, state, total);
+    }
+
+    // 各索引字段中的字符串和字符串数组依次分词，没有任何词项的文档不进入索引
+    @Override
+    Terms entryOf(Document document) {
+        List<String> terms = new ArrayList<>();
+        for (String field : definition.getFields()) {
+            Object value = document.getValue(field);
+            if (value instanceof String) {
+                terms.addAll(TextAnalyzer.tokenize((String) value));
+            } else if (value instanceof Collection) {
+                for (Object element : (Collection<?>) value) {
+                    if (element instanceof String) {
+                        terms.addAll(TextAnalyzer.tokenize((String) element));
+                    }
+                }
+            }
+        }
+        if (terms.isEmpty()) {
+            return null;
+        }
+        // 词项序列的64位FNV-1a指纹，用来识别没有变化的更新
+        long fingerprint = 0xcbf29ce484222325L;
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String term : terms) {
+            frequencies.merge(term, 1, Integer::sum);
+            for (int i = 0; i < term.length(); i++) {
+                fingerprint = (fingerprint ^ term.charAt(i)) * 0x100000001b3L;
+            }
+            fingerprint = (fingerprint ^ 0xFFFF) * 0x100000001b3L;
+        }
+        return new Terms(frequencies, terms.size(), fingerprint);
+    }
+
+    @Override
+    void insertLocked(Document document, Terms terms) {
+        String docId = document.getId();
+        Integer previous = ordinals.get(docId);
+        if (previous != null && lengths[previous] == terms.length
+                && fingerprints[previous] == terms.fingerprint) {
+            return;
+        }
+        postingsLock.writeLock().lock();
+        try {
+            if (previous != null) {
+                kill(previous);
+            }
+            int ordinal = append(docId, terms.length, terms.fingerprint);
+            ordinals.put(docId, ordinal);
+            for (Map.Entry<String, Integer> entry : terms.frequencies.entrySet()) {
+                postings.computeIfAbsent(entry.getKey(), k -> new PostingList())
+                        .add(ordinal, entry.getValue());
+            }
+            compactIfNeeded();
+        } finally {
+            postingsLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    void removeLocked(String docId) {
+        Integer previous = ordinals.remove(docId);
+        if (previous == null) {
+            return;
+        }
+        postingsLock.writeLock().lock();
+        try {
+            kill(previous);
+            compactIfNeeded();
+        } finally {
+            postingsLock.writeLock().unlock();
+        }
+    }
+
+    private int append(String docId, int length, long fingerprint) {
+        if (nextOrdinal == docIds.length) {
+            int capacity = docIds.length * 2;
+            docIds = Arrays.copyOf(docIds, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            fingerprints = Arrays.copyOf(fingerprints, capacity);
+        }
+        int ordinal = nextOrdinal++;
+        docIds[ordinal] = docId;
+        lengths[ordinal] = length;
+        fingerprints[ordinal] = fingerprint;
+        if (docId != null) {
+            live++;
+            totalLength += length;
+        } else {
+            dead++;
+        }
+        return ordinal;
+    }
+
+    private void kill(int ordinal) {
+        docIds[ordinal] = null;
+        totalLength -= lengths[ordinal];
+        live--;
+        dead++;
+    }
+
+    // 已删除的序号不少于存活的文档时压缩，均摊到每次写入的代价是常数
+    private void compactIfNeeded() {
+        if (dead < Math.max(MIN_COMPACT, live)) {
+            return;
+        }
+        int[] remap = new int[nextOrdinal];
+        int next = 0;
+        for (int i = 0; i < nextOrdinal; i++) {
+            if (docIds[i] == null) {
+                remap[i] = -1;
+            } else {
+                remap[i] = next;
+                docIds[next] = docIds[i];
+                lengths[next] = lengths[i];
+                fingerprints[next] = fingerprints[i];
+                ordinals.put(docIds[next], next);
+                next++;
+            }
+        }
+        Arrays.fill(docIds, next, nextOrdinal, null);
+        int capacity = Math.max(16, next * 2);
+        if (capacity < docIds.length) {
+            docIds = Arrays.copyOf(docIds, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            fingerprints = Arrays.copyOf(fingerprints, capacity);
+        }
+        postings.replaceAll((term, list) -> list.remap(remap));
+        postings.values().removeIf(list -> list == null);
+        nextOrdinal = next;
+        dead = 0;
+    }
+
+    @Override
+    int distinctValues() {
+        postingsLock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            postingsLock.readLock().unlock();
+        }
+    }
+
+    // 按得分从高到低返回前limit个匹配的文档，得分相同时先写入的在前
+    SearchResult search(TextQuery query, int limit) {
+        postingsLock.readLock().lock();
+        try {
+            TextQuery.Matches matches = query.evaluate(this);
+            List<SearchResult.Hit> hits = new ArrayList<>();
+            for (int i : top(matches, limit)) {
+                hits.add(new SearchResult.Hit(docIds[matches.ordinals[i]], matches.scores[i]));
+            }
+            return new SearchResult(matches.size, hits);
+        } finally {
+            postingsLock.readLock().unlock();
+        }
+    }
+
+    // 得分最高的limit个匹配在matches中的下标，用大小为limit的小顶堆选出后排序
+    private static int[] top(TextQuery.Matches matches, int limit) {
+        int k = Math.min(limit, matches.size);
+        PriorityQueue<Integer> heap = new PriorityQueue<>(Math.max(1, k),
+                (a, b) -> compareHits(matches, b, a));
+        for (int i = 0; i < matches.size && k > 0; i++) {
+            if (heap.size() < k) {
+                heap.add(i);
+            } else if (compareHits(matches, i, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(i);
+            }
+        }
+        int[] result = new int[heap.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = heap.poll();
+        }
+        return result;
+    }
+
+    // 排在前面的返回负数
+    private static int compareHits(TextQuery.Matches matches, int a, int b) {
+        int byScore = Double.compare(matches.scores[b], matches.scores[a]);
+        return byScore != 0 ? byScore : Integer.compare(a, b);
+    }
+
+    // 以下两个方法在search持有读锁时由查询调用
+    TextQuery.Matches termMatches(String term) {
+        PostingList list = postings.get(term);
+        return list == null ? TextQuery.Matches.EMPTY : score(list);
+    }
+
+    // 前缀展开的词项超过maxTerms时返回null
+    List<TextQuery.Matches> prefixMatches(String prefix, int maxTerms) {
+        NavigableMap<String, PostingList> range =
+                postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+        if (range.size() > maxTerms) {
+            return null;
+        }
+        List<TextQuery.Matches> results = new ArrayList<>(range.size());
+        for (PostingList list : range.values()) {
+            results.add(score(list));
+        }
+        return results;
+    }
+
+    // 解码倒排列表，跳过已删除的文档，按BM25计算每个文档上该词项的得分
+    private TextQuery.Matches score(PostingList list) {
+        int[] matched = new int[list.count()];
+        double[] scores = new double[list.count()];
+        int size = 0;
+        PostingList.Cursor cursor = list.cursor();
+        while (cursor.next()) {
+            if (docIds[cursor.ordinal()] != null) {
+                matched[size] = cursor.ordinal();
+                scores[size++] = cursor.frequency();
+            }
+        }
+        double idf = Math.log(1 + (live - size + 0.5) / (size + 0.5));
+        double averageLength = live == 0 ? 1 : (double) totalLength / live;
+        for (int i = 0; i < size; i++) {
+            double tf = scores[i];
+            double norm = K1 * (1 - B + B * lengths[matched[i]] / averageLength);
+            scores[i] = idf * tf * (K1 + 1) / (tf + norm);
+        }
+        return new TextQuery.Matches(matched, scores, size);
+    }
+
+    // 在读锁下复制文档表和倒排列表后写出，复制是内存操作，写文件时不阻塞写入
+    void writeContent(DataOutputStream out) throws IOException {
+        String[] ids;
+        int[] lengthsCopy;
+        long[] fingerprintsCopy;
+        List<String> terms;
+        List<PostingList> lists = new ArrayList<>();
+        postingsLock.readLock().lock();
+        try {
+            ids = Arrays.copyOf(docIds, nextOrdinal);
+            lengthsCopy = Arrays.copyOf(lengths, nextOrdinal);
+            fingerprintsCopy = Arrays.copyOf(fingerprints, nextOrdinal);
+            terms = new ArrayList<>(postings.keySet());
+            for (PostingList list : postings.values()) {
+                lists.add(list.copy());
+            }
+        } finally {
+            postingsLock.readLock().unlock();
+        }
+        out.writeInt(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == null) {
+                out.writeInt(END_MARKER);
+            } else {
+                IndexFile.writeString(out, ids[i]);
+            }
+            out.writeInt(lengthsCopy[i]);
+            out.writeLong(fingerprintsCopy[i]);
+        }
+        for (int i = 0; i < terms.size(); i++) {
+            PostingList list = lists.get(i);
+            byte[] encoded = list.encoded();
+            IndexFile.writeString(out, terms.get(i));
+            out.writeInt(list.count());
+            out.writeInt(list.last());
+            out.writeInt(encoded.length);
+            out.write(encoded);
+        }
+        out.writeInt(END_MARKER);
+    }
+
+    // 加载时调用，此时索引还没有对外可见
+    void readContent(ByteBuffer in) {
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            int length = in.getInt();
+            String docId = length == END_MARKER ? null : IndexFile.readString(in, length);
+            int ordinal = append(docId, in.getInt(), in.getLong());
+            if (docId != null) {
+                ordinals.put(docId, ordinal);
+            }
+        }
+        int length;
+        while ((length = in.getInt()) != END_MARKER) {
+            String term = IndexFile.readString(in, length);
+            int postingCount = in.getInt();
+            int last = in.getInt();
+            byte[] data = new byte[in.getInt()];
+            in.get(data);
+            postings.put(term, PostingList.decode(data, last, postingCount));
+        }
+    }
+}
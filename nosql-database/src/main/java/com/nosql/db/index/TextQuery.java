@@ -0,0 +1,287 @@
+package com.nosql.db.index;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// 全文查询。语法: 空格分隔的词默认按AND组合，OR连接的部分任一匹配即可，AND优先于OR，
+// 可以用括号分组；以*结尾的词按前缀匹配。每个词与文档使用同样的分词规则，
+// 一个词被切成多个词项时(如连续的汉字)要求全部出现，前缀只作用于最后一个词项。
+// 匹配结果按文档序号升序排列，同时累加每个词项的BM25得分
+public abstract class TextQuery {
+    // 一个前缀最多展开的词项数，避免"a*"之类的查询扫描大半个词典
+    static final int MAX_PREFIX_TERMS = 1024;
+
+    abstract Matches evaluate(TextIndex index);
+
+    public static TextQuery parse(String text) {
+        if (text == null || text.trim().isEmpty()) {
+            throw new IllegalArgumentException("搜索条件为空");
+        }
+        Parser parser = new Parser(text);
+        TextQuery query = parser.parseOr();
+        if (parser.position < parser.tokens.size()) {
+            throw new IllegalArgumentException("搜索条件中有多余的: " + parser.tokens.get(parser.position));
+        }
+        if (query == null) {
+            throw new IllegalArgumentException("搜索条件中没有可搜索的词: " + text);
+        }
+        return query;
+    }
+
+    private static final class Parser {
+        private final List<String> tokens = new ArrayList<>();
+        private int position;
+
+        Parser(String text) {
+            StringBuilder word = new StringBuilder();
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '(' || c == ')' || Character.isWhitespace(c)) {
+                    if (word.length() > 0) {
+                        tokens.add(word.toString());
+                        word.setLength(0);
+                    }
+                    if (!Character.isWhitespace(c)) {
+                        tokens.add(String.valueOf(c));
+                    }
+                } else {
+                    word.append(c);
+                }
+            }
+            if (word.length() > 0) {
+                tokens.add(word.toString());
+            }
+        }
+
+        // 子句中没有可搜索的词时返回null，由上一层忽略
+        TextQuery parseOr() {
+            List<TextQuery> clauses = new ArrayList<>();
+            add(clauses, parseAnd());
+            while (peek("OR")) {
+                position++;
+                add(clauses, parseAnd());
+            }
+            return clauses.isEmpty() ? null
+                    : clauses.size() == 1 ? clauses.get(0) : new Or(clauses);
+        }
+
+        private TextQuery parseAnd() {
+            List<TextQuery> clauses = new ArrayList<>();
+            while (position < tokens.size() && !peek("OR") && !peek(")")) {
+                if (peek("AND")) {
+                    position++;
+                    continue;
+                }
+                add(clauses, parsePrimary());
+            }
+            return clauses.isEmpty() ? null
+                    : clauses.size() == 1 ? clauses.get(0) : new And(clauses);
+        }
+
+        private TextQuery parsePrimary() {
+            String token = tokens.get(position++);
+            if (token.equals("(")) {
+                TextQuery inner = parseOr();
+                if (!peek(")")) {
+                    throw new IllegalArgumentException("搜索条件中的括号不匹配");
+                }
+                position++;
+                return inner;
+            }
+            boolean prefix = token.length() > 1 && token.endsWith("*");
+            List<String> terms = TextAnalyzer.tokenize(prefix
+                    ? token.substring(0, token.length() - 1) : token);
+            List<TextQuery> clauses = new ArrayList<>();
+            for (int i = 0; i < terms.size(); i++) {
+                boolean last = i == terms.size() - 1;
+                clauses.add(prefix && last ? new Prefix(terms.get(i)) : new Term(terms.get(i)));
+            }
+            return clauses.isEmpty() ? null
+                    : clauses.size() == 1 ? clauses.get(0) : new And(clauses);
+        }
+
+        private boolean peek(String token) {
+            return position < tokens.size() && tokens.get(position).equals(token);
+        }
+
+        private static void add(List<TextQuery> clauses, TextQuery clause) {
+            if (clause != null) {
+                clauses.add(clause);
+            }
+        }
+    }
+
+    static final class Term extends TextQuery {
+        private final String term;
+
+        Term(String term) {
+            this.term = term;
+        }
+
+        @Override
+        Matches evaluate(TextIndex index) {
+            return index.termMatches(term);
+        }
+
+        @Override
+        public String toString() {
+            return term;
+        }
+    }
+
+    static final class Prefix extends TextQuery {
+        private final String prefix;
+
+        Prefix(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        Matches evaluate(TextIndex index) {
+            List<Matches> expanded = index.prefixMatches(prefix, MAX_PREFIX_TERMS);
+            if (expanded == null) {
+                throw new IllegalArgumentException("前缀" + prefix + "*匹配的词项超过"
+                        + MAX_PREFIX_TERMS + "个，请输入更长的前缀");
+            }
+            return Matches.union(expanded);
+        }
+
+        @Override
+        public String toString() {
+            return prefix + "*";
+        }
+    }
+
+    static final class And extends TextQuery {
+        private final List<TextQuery> clauses;
+
+        And(List<TextQuery> clauses) {
+            this.clauses = clauses;
+        }
+
+        // 从最短的结果开始求交集，中间结果为空时提前结束
+        @Override
+        Matches evaluate(TextIndex index) {
+            List<Matches> results = new ArrayList<>();
+            for (TextQuery clause : clauses) {
+                Matches matches = clause.evaluate(index);
+                if (matches.size == 0) {
+                    return matches;
+                }
+                results.add(matches);
+            }
+            results.sort(Comparator.comparingInt(m -> m.size));
+            Matches result = results.get(0);
+            for (int i = 1; i < results.size() && result.size > 0; i++) {
+                result = Matches.intersect(result, results.get(i));
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + join(clauses, " AND ") + ")";
+        }
+    }
+
+    static final class Or extends TextQuery {
+        private final List<TextQuery> clauses;
+
+        Or(List<TextQuery> clauses) {
+            this.clauses = clauses;
+        }
+
+        @Override
+        Matches evaluate(TextIndex index) {
+            List<Matches> results = new ArrayList<>();
+            for (TextQuery clause : clauses) {
+                results.add(clause.evaluate(index));
+            }
+            return Matches.union(results);
+        }
+
+        @Override
+        public String toString() {
+            return "(" + join(clauses, " OR ") + ")";
+        }
+    }
+
+    private static String join(List<TextQuery> clauses, String separator) {
+        List<String> parts = new ArrayList<>();
+        for (TextQuery clause : clauses) {
+            parts.add(clause.toString());
+        }
+        return String.join(separator, parts);
+    }
+
+    // 匹配的文档序号(升序)和对应的得分
+    static final class Matches {
+        static final Matches EMPTY = new Matches(new int[0], new double[0], 0);
+
+        final int[] ordinals;
+        final double[] scores;
+        final int size;
+
+        Matches(int[] ordinals, double[] scores, int size) {
+            this.ordinals = ordinals;
+            this.scores = scores;
+            this.size = size;
+        }
+
+        static Matches intersect(Matches a, Matches b) {
+            int n = Math.min(a.size, b.size);
+            int[] ordinals = new int[n];
+            double[] scores = new double[n];
+            int size = 0;
+            for (int i = 0, j = 0; i < a.size && j < b.size; ) {
+                if (a.ordinals[i] < b.ordinals[j]) {
+                    i++;
+                } else if (a.ordinals[i] > b.ordinals[j]) {
+                    j++;
+                } else {
+                    ordinals[size] = a.ordinals[i];
+                    scores[size++] = a.scores[i++] + b.scores[j++];
+                }
+            }
+            return new Matches(ordinals, scores, size);
+        }
+
+        // 两两归并，总代价为O(N log k)
+        static Matches union(List<Matches> results) {
+            if (results.isEmpty()) {
+                return EMPTY;
+            }
+            return union(results, 0, results.size());
+        }
+
+        private static Matches union(List<Matches> results, int from, int to) {
+            if (to - from == 1) {
+                return results.get(from);
+            }
+            int middle = (from + to) >>> 1;
+            return merge(union(results, from, middle), union(results, middle, to));
+        }
+
+        private static Matches merge(Matches a, Matches b) {
+            int[] ordinals = new int[a.size + b.size];
+            double[] scores = new double[a.size + b.size];
+            int size = 0;
+            int i = 0;
+            int j = 0;
+            while (i < a.size || j < b.size) {
+                if (j == b.size || (i < a.size && a.ordinals[i] < b.ordinals[j])) {
+                    ordinals[size] = a.ordinals[i];
+                    scores[size++] = a.scores[i++];
+                } else if (i == a.size || b.ordinals[j] < a.ordinals[i]) {
+                    ordinals[size] = b.ordinals[j];
+                    scores[size++] = b.scores[j++];
+                } else {
+                    ordinals[size] = a.ordinals[i];
+                    scores[size++] = a.scores[i++] + b.scores[j++];
+                }
+            }
+            return new Matches(ordinals, scores, size);
+        }
+    }
+}
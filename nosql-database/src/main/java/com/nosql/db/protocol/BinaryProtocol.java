@@ -0,0 +1,113 @@
+package com.nosql.db.protocol;
+
+import java.util.HashMap;
+import java.util.Map;
+import com.nosql.db.storage.Document;
+import com.nosql.db.storage.OperationResult;
+import com.nosql.db.storage.WriteOperation;
+
+// 二进制协议定义。
+// 握手: 客户端连接后先发送4字节 0xB1 'N' 'S' 版本号，服务端原样回应表示接受，版本号为0表示拒绝。
+// JSON命令总以'{'或空白开头，服务端据第一个字节区分两种协议。
+// 帧: 4字节大端长度 + 负载。
+// 请求负载: 命令名 + requestId + 集合名 + 文档ID + 文档值 + 可选的命令参数对象
+// 响应负载: 成功标志 + requestId + 消息 + 数据值
+// 字符串为变长长度前缀的UTF-8，可空字符串的长度加1、0表示null；值以1字节类型标记开头。
+// 整数以TYPE_LONG紧凑编码，但解码为Double: 文档经WAL和快照以JSON持久化，数值都按Double读回，
+// 与JSON协议一致，重启前后看到的值才相同。
+public final class BinaryProtocol {
+    public static final byte HANDSHAKE_MAGIC = (byte) 0xB1;
+    public static final byte VERSION = 1;
+    public static final int HANDSHAKE_LENGTH = 4;
+    public static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+
+    // 命令参数对象中的键
+    public static final String ARG_DOCUMENTS = "documents";
+    public static final String ARG_OPERATIONS = "operations";
+    public static final String ARG_CURSOR_ID = "cursorId";
+    public static final String ARG_BATCH_SIZE = "batchSize";
+    public static final String ARG_FILTER = "filter";
+    public static final String ARG_SORT = "sort";
+    public static final String ARG_SKIP = "skip";
+    public static final String ARG_LIMIT = "limit";
+    public static final String ARG_PROJECTION = "projection";
+    public static final String ARG_FIELDS = "fields";
+    public static final String ARG_INDEX_TYPE = "indexType";
+    public static final String ARG_INCLUDE = "include";
+    public static final String ARG_INDEX = "index";
+    public static final String ARG_QUERY = "query";
+    public static final String ARG_UPDATE = "update";
+
+    public static final int TYPE_NULL = 0;
+    public static final int TYPE_FALSE = 1;
+    public static final int TYPE_TRUE = 2;
+    public static final int TYPE_LONG = 3;
+    public static final int TYPE_DOUBLE = 4;
+    public static final int TYPE_STRING = 5;
+    public static final int TYPE_ARRAY = 6;
+    public static final int TYPE_OBJECT = 7;
+    public static final int TYPE_DOCUMENT = 8;
+
+    private BinaryProtocol() {
+    }
+
+    public static byte[] handshake(byte version) {
+        return new byte[] {HANDSHAKE_MAGIC, 'N', 'S', version};
+    }
+
+    // 返回握手中的版本号，不是合法握手时返回-1
+    public static int handshakeVersion(byte[] handshake) {
+        if (handshake.length != HANDSHAKE_LENGTH || handshake[0] != HANDSHAKE_MAGIC
+                || handshake[1] != 'N' || handshake[2] != 'S') {
+            return -1;
+        }
+        return handshake[3];
+    }
+
+    public static void writeRequest(BinaryWriter out, String command, String requestId,
+            String collection, String id, Document document) {
+        writeRequest(out, command, requestId, collection, id, document, null);
+    }
+
+    public static void writeRequest(BinaryWriter out, String command, String requestId,
+            String collection, String id, Document document, Map<String, Object> arguments) {
+        out.beginFrame();
+        out.writeString(command);
+        out.writeNullableString(requestId);
+        out.writeNullableString(collection);
+        out.writeNullableString(id);
+        out.writeValue(document);
+        if (arguments != null && !arguments.isEmpty()) {
+            out.writeValue(arguments);
+        }
+        out.endFrame();
+    }
+
+    // 批量写入操作编码为对象，文档保留文档类型标记
+    public static Map<String, Object> operationArgument(WriteOperation operation) {
+        Map<String, Object> value = new HashMap<>();
+        value.put("operation", operation.getOperation().name());
+        value.put("id", operation.getId());
+        value.put("document", operation.getDocument());
+        return value;
+    }
+
+    public static void writeResponse(BinaryWriter out, OperationResult result) {
+        out.beginFrame();
+        out.writeBoolean(result.isSuccess());
+        out.writeNullableString(result.getRequestId());
+        out.writeNullableString(result.getMessage());
+        out.writeValue(result.getData());
+        out.endFrame();
+    }
+
+    // 读取不含长度前缀的响应负载
+    public static OperationResult readResponse(BinaryReader in) {
+        boolean success = in.readBoolean();
+        String requestId = in.readNullableString();
+        String message = in.readNullableString();
+        OperationResult result = new OperationResult(success, message, in.readValue());
+        result.setRequestId(requestId);
+        return result;
+    }
+}
@@ -0,0 +1,188 @@
+package com.nosql.db.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import com.nosql.db.storage.Document;
+
+// BinaryWriter的逆过程，从当前position开始读取，格式错误时抛出ProtocolException
+public final class BinaryReader {
+    // 数组、对象和文档的最大嵌套层数。每多一层只需2个字节，不加限制时一帧就能让递归解码栈溢出
+    public static final int MAX_NESTING_DEPTH = 512;
+    // Double能精确表示的最大整数
+    private static final long MAX_EXACT_INTEGER = 1L << 53;
+
+    private final ByteBuffer buffer;
+    private int depth;
+
+    public BinaryReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public int readByte() {
+        require(1);
+        return buffer.get();
+    }
+
+    public boolean readBoolean() {
+        return readByte() != 0;
+    }
+
+    public double readDouble() {
+        require(8);
+        return buffer.getDouble();
+    }
+
+    public int readVarInt() {
+        long value = readVarLong();
+        if (value > 0xFFFFFFFFL) {
+            throw new ProtocolException("变长整数超出范围: " + value);
+        }
+        return (int) value;
+    }
+
+    public long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new ProtocolException("变长整数过长");
+    }
+
+    public long readZigZagLong() {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public String readString() {
+        return readUtf8(readLength());
+    }
+
+    public String readNullableString() {
+        int length = readLength();
+        return length == 0 ? null : readUtf8(length - 1);
+    }
+
+    public Object readValue() {
+        int type = readByte();
+        switch (type) {
+            case BinaryProtocol.TYPE_NULL:
+                return null;
+            case BinaryProtocol.TYPE_FALSE:
+                return Boolean.FALSE;
+            case BinaryProtocol.TYPE_TRUE:
+                return Boolean.TRUE;
+            case BinaryProtocol.TYPE_LONG:
+                return readInteger();
+            case BinaryProtocol.TYPE_DOUBLE:
+                return readDouble();
+            case BinaryProtocol.TYPE_STRING:
+                return readString();
+            case BinaryProtocol.TYPE_ARRAY:
+            case BinaryProtocol.TYPE_OBJECT:
+            case BinaryProtocol.TYPE_DOCUMENT:
+                if (++depth > MAX_NESTING_DEPTH) {
+                    throw new ProtocolException("嵌套层数超过" + MAX_NESTING_DEPTH);
+                }
+                Object value = readContainer(type);
+                depth--;
+                return value;
+            default:
+                throw new ProtocolException("未知的值类型: " + type);
+        }
+    }
+
+    private Object readContainer(int type) {
+        if (type == BinaryProtocol.TYPE_ARRAY) {
+            int size = readLength();
+            List<Object> values = new ArrayList<>(Math.min(size, 1024));
+            for (int i = 0; i < size; i++) {
+                values.add(readValue());
+            }
+            return values;
+        }
+        if (type == BinaryProtocol.TYPE_OBJECT) {
+            return readMapBody();
+        }
+        String id = readNullableString();
+        long createdAt = readZigZagLong();
+        long updatedAt = readZigZagLong();
+        return Document.restore(id, readMapBody(), createdAt, updatedAt);
+    }
+
+    // 整数值解码为Double(见BinaryProtocol)，超出Double能精确表示的范围时拒绝，不悄悄舍入
+    private Double readInteger() {
+        long value = readZigZagLong();
+        if (value > MAX_EXACT_INTEGER || value < -MAX_EXACT_INTEGER) {
+            throw new ProtocolException("整数超出可精确表示的范围: " + value);
+        }
+        return (double) value;
+    }
+
+    public Document readDocument() {
+        Object value = readValue();
+        if (value != null && !(value instanceof Document)) {
+            throw new ProtocolException("期望文档，实际为: " + value.getClass().getSimpleName());
+        }
+        return (Document) value;
+    }
+
+    // 请求末尾可选的命令参数，旧客户端不发送时返回空表
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> readArguments() {
+        if (!buffer.hasRemaining()) {
+            return new HashMap<>();
+        }
+        Object value = readValue();
+        if (!(value instanceof Map)) {
+            throw new ProtocolException("命令参数必须是对象");
+        }
+        return (Map<String, Object>) value;
+    }
+
+    private Map<String, Object> readMapBody() {
+        int size = readLength();
+        Map<String, Object> map = new HashMap<>(Math.min(size, 1024) * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+            String key = readString();
+            map.put(key, readValue());
+        }
+        return map;
+    }
+
+    private int readLength() {
+        int length = readVarInt();
+        if (length < 0 || length > buffer.remaining() + 1) {
+            throw new ProtocolException("长度超出帧范围: " + (length & 0xFFFFFFFFL));
+        }
+        return length;
+    }
+
+    private String readUtf8(int length) {
+        require(length);
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                    StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    private void require(int bytes) {
+        if (buffer.remaining() < bytes) {
+            throw new ProtocolException("帧数据不完整");
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.nosql.db.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import com.google.gson.Gson;
+import com.nosql.db.storage.Document;
+import com.nosql.db.storage.EncodedDocument;
+
+// 把值直接编码进ByteBuffer，字符串逐字符写成UTF-8，不经过中间的String或byte[]。
+// 空间不足时换成更大的缓冲，调用方应通过buffer()取得最终的缓冲。
+public final class BinaryWriter {
+    private static final Gson gson = new Gson();
+    private ByteBuffer buffer;
+    private int frameStart = -1;
+
+    public BinaryWriter(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    // 预留4字节帧长度，endFrame时回填
+    public void beginFrame() {
+        ensure(4);
+        frameStart = buffer.position();
+        buffer.putInt(0);
+    }
+
+    public void endFrame() {
+        buffer.putInt(frameStart, buffer.position() - frameStart - 4);
+        frameStart = -1;
+    }
+
+    public void writeByte(int value) {
+        ensure(1);
+        buffer.put((byte) value);
+    }
+
+    public void writeBytes(byte[] value) {
+        ensure(value.length);
+        buffer.put(value);
+    }
+
+    public void writeBoolean(boolean value) {
+        writeByte(value ? 1 : 0);
+    }
+
+    public void writeDouble(double value) {
+        ensure(8);
+        buffer.putDouble(value);
+    }
+
+    public void writeVarInt(int value) {
+        writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    public void writeVarLong(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    public void writeZigZagLong(long value) {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    public void writeString(String value) {
+        int length = utf8Length(value);
+        writeVarInt(length);
+        writeUtf8(value, length);
+    }
+
+    // 长度加1后写入，0表示null
+    public void writeNullableString(String value) {
+        if (value == null) {
+            writeVarInt(0);
+            return;
+        }
+        int length = utf8Length(value);
+        writeVarInt(length + 1);
+        writeUtf8(value, length);
+    }
+
+    private void writeUtf8(String value, int length) {
+        ensure(length);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    public void writeValue(Object value) {
+        if (value == null) {
+            writeByte(BinaryProtocol.TYPE_NULL);
+        } else if (value instanceof Boolean) {
+            writeByte((Boolean) value ? BinaryProtocol.TYPE_TRUE : BinaryProtocol.TYPE_FALSE);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short
+                || value instanceof Byte) {
+            writeByte(BinaryProtocol.TYPE_LONG);
+            writeZigZagLong(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            writeByte(BinaryProtocol.TYPE_DOUBLE);
+            writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof CharSequence || value instanceof Character) {
+            writeByte(BinaryProtocol.TYPE_STRING);
+            writeString(value.toString());
+        } else if (value instanceof Document) {
+            writeByte(BinaryProtocol.TYPE_DOCUMENT);
+            writeDocumentBody((Document) value);
+        } else if (value instanceof EncodedDocument) {
+            // 直接拼接缓存的文档体编码
+            writeByte(BinaryProtocol.TYPE_DOCUMENT);
+            writeBytes(((EncodedDocument) value).binary(BinaryWriter::encodeDocumentBody));
+        } else if (value instanceof Map) {
+            writeByte(BinaryProtocol.TYPE_OBJECT);
+            writeMapBody((Map<?, ?>) value);
+        } else if (value instanceof Collection) {
+            Collection<?> values = (Collection<?>) value;
+            writeByte(BinaryProtocol.TYPE_ARRAY);
+            writeVarInt(values.size());
+            for (Object element : values) {
+                writeValue(element);
+            }
+        } else if (value instanceof Object[]) {
+            Object[] values = (Object[]) value;
+            writeByte(BinaryProtocol.TYPE_ARRAY);
+            writeVarInt(values.length);
+            for (Object element : values) {
+                writeValue(element);
+            }
+        } else {
+            // 其他类型先按Gson规则转换成Map/List/基本类型
+            writeValue(gson.fromJson(gson.toJsonTree(value), Object.class));
+        }
+    }
+
+    private void writeDocumentBody(Document document) {
+        writeNullableString(document.getId());
+        writeZigZagLong(document.getCreatedAt());
+        writeZigZagLong(document.getUpdatedAt());
+        writeMapBody(document.dataView());
+    }
+
+    private static byte[] encodeDocumentBody(Document document) {
+        BinaryWriter writer = new BinaryWriter(ByteBuffer.allocate(256));
+        writer.writeDocumentBody(document);
+        ByteBuffer buffer = writer.buffer();
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private void writeMapBody(Map<?, ?> map) {
+        if (map == null) {
+            writeVarInt(0);
+            return;
+        }
+        writeVarInt(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            writeString(String.valueOf(entry.getKey()));
+            writeValue(entry.getValue());
+        }
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+
+    static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,40 @@
+package com.nosql.db.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 编码响应帧用的堆内缓冲池。只回收标准大小的缓冲，编码过程中扩容得到的大缓冲直接丢弃
+public final class BufferPool {
+    public static final int BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_POOLED = 256;
+    private static final BufferPool SHARED = new BufferPool();
+
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocate(BUFFER_SIZE);
+        }
+        pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != BUFFER_SIZE || !buffer.hasArray()) {
+            return;
+        }
+        if (pooled.incrementAndGet() > MAX_POOLED) {
+            pooled.decrementAndGet();
+            return;
+        }
+        buffers.offer(buffer);
+    }
+}
@@ -0,0 +1,137 @@
+package com.nosql.db.protocol;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import com.nosql.db.storage.JsonCodec;
+
+// JSON行协议的读取端: 一行的UTF-8字节收进可复用的缓冲，解码到可复用的char数组后直接交给JsonReader，
+// 不为每行创建String。一个连接使用一个实例，只在读取线程中使用。
+// 可以从输入流逐行读取，也可以由调用方用append喂入数据(NIO服务器)
+public final class JsonLineReader {
+    private static final int INITIAL_LINE_BYTES = 1024;
+    // 超过该大小的行缓冲在行结束后释放，偶尔的大命令不会让连接一直占着大缓冲
+    private static final int RETAINED_LINE_BYTES = 1024 * 1024;
+
+    private final InputStream in;
+    private final byte[] input;
+    private int inputPosition;
+    private int inputLimit;
+    private byte[] line = new byte[INITIAL_LINE_BYTES];
+    private int length;
+    private char[] chars = new char[INITIAL_LINE_BYTES];
+    // 与InputStreamReader一样把非法的UTF-8字节替换成U+FFFD
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    // 只通过append喂入数据
+    public JsonLineReader() {
+        this.in = null;
+        this.input = null;
+    }
+
+    public JsonLineReader(InputStream in) {
+        this.in = in;
+        this.input = new byte[BufferPool.BUFFER_SIZE];
+    }
+
+    // 读取下一行(不含换行符)，输入流结束时返回false；最后一行可以没有换行符
+    public boolean readLine() throws IOException {
+        clear();
+        while (true) {
+            if (inputPosition == inputLimit) {
+                int read = in.read(input, 0, input.length);
+                if (read < 0) {
+                    return length > 0;
+                }
+                inputPosition = 0;
+                inputLimit = read;
+            }
+            int end = inputPosition;
+            while (end < inputLimit && input[end] != '\n') {
+                end++;
+            }
+            append(input, inputPosition, end);
+            if (end < inputLimit) {
+                inputPosition = end + 1;
+                return true;
+            }
+            inputPosition = inputLimit;
+        }
+    }
+
+    // 把buffer中[from, to)的字节追加到当前行，不改变buffer的位置
+    public void append(ByteBuffer buffer, int from, int to) {
+        ensure(to - from);
+        buffer.get(from, line, length, to - from);
+        length += to - from;
+    }
+
+    private void append(byte[] bytes, int from, int to) {
+        ensure(to - from);
+        System.arraycopy(bytes, from, line, length, to - from);
+        length += to - from;
+    }
+
+    private void ensure(int bytes) {
+        if (line.length - length < bytes) {
+            byte[] grown = new byte[Math.max(line.length * 2, length + bytes)];
+            System.arraycopy(line, 0, grown, 0, length);
+            line = grown;
+        }
+    }
+
+    // 开始新的一行
+    public void clear() {
+        length = 0;
+        if (line.length > RETAINED_LINE_BYTES) {
+            line = new byte[INITIAL_LINE_BYTES];
+            chars = new char[INITIAL_LINE_BYTES];
+        }
+    }
+
+    // 当前行的字节数
+    public int length() {
+        return length;
+    }
+
+    // 只含空白和控制字符，与String.trim()后为空相同
+    public boolean isBlank() {
+        for (int i = 0; i < length; i++) {
+            if ((line[i] & 0xFF) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 解析当前行，格式错误时抛出JsonSyntaxException，空行返回null
+    public <T> T parse(JsonCodec.Decoder<T> decoder) {
+        int decoded = decode();
+        return JsonCodec.parse(new CharArrayReader(chars, 0, decoded), decoder);
+    }
+
+    // UTF-8解码后的字符数不超过字节数
+    private int decode() {
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        CharBuffer out = CharBuffer.wrap(chars);
+        decoder.reset();
+        decoder.decode(ByteBuffer.wrap(line, 0, length), out, true);
+        decoder.flush(out);
+        return out.position();
+    }
+
+    // 当前行的文本，用于日志
+    @Override
+    public String toString() {
+        return new String(line, 0, length, StandardCharsets.UTF_8).trim();
+    }
+}
@@ -0,0 +1,133 @@
+package com.nosql.db.protocol;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import com.google.gson.stream.JsonWriter;
+import com.nosql.db.storage.JsonCodec;
+import com.nosql.db.storage.OperationResult;
+
+// JSON行协议的写入端: JsonWriter输出的字符逐个编码成UTF-8直接写进ByteBuffer(通常来自BufferPool)，
+// 不经过中间的String或byte[]。空间不足时与BinaryWriter一样换成更大的缓冲，调用方通过buffer()取得。
+// 不成对的代理字符与OutputStreamWriter一样写成'?'
+public final class JsonLineWriter extends Writer {
+    private ByteBuffer buffer;
+    // 等待与下一个低代理字符组合的高代理字符，0表示没有
+    private char highSurrogate;
+
+    public JsonLineWriter(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    // 开始写一行消息，写完值后调用endLine
+    public JsonWriter beginLine() {
+        return JsonCodec.newWriter(this);
+    }
+
+    public void endLine() {
+        write('\n');
+    }
+
+    // 响应编码成一行
+    public void writeResponse(OperationResult result) {
+        try {
+            JsonCodec.writeResult(beginLine(), result);
+        } catch (IOException e) {
+            // 写入ByteBuffer不会抛出IOException
+            throw new UncheckedIOException(e);
+        }
+        endLine();
+    }
+
+    @Override
+    public void write(int c) {
+        writeChar((char) c);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            char c = chars[i];
+            if (c < 0x80 && highSurrogate == 0 && buffer.hasRemaining()) {
+                buffer.put((byte) c);
+            } else {
+                writeChar(c);
+            }
+        }
+    }
+
+    @Override
+    public void write(String value, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80 && highSurrogate == 0 && buffer.hasRemaining()) {
+                buffer.put((byte) c);
+            } else {
+                writeChar(c);
+            }
+        }
+    }
+
+    private void writeChar(char c) {
+        ensure(4);
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(high, c);
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+                return;
+            }
+            buffer.put((byte) '?');
+            ensure(3);
+        }
+        if (c < 0x80) {
+            buffer.put((byte) c);
+        } else if (c < 0x800) {
+            buffer.put((byte) (0xC0 | (c >> 6)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isSurrogate(c)) {
+            buffer.put((byte) '?');
+        } else {
+            buffer.put((byte) (0xE0 | (c >> 12)));
+            buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        }
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+
+    // 结尾处没有配对的高代理字符写成'?'
+    @Override
+    public void flush() {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            ensure(1);
+            buffer.put((byte) '?');
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+}
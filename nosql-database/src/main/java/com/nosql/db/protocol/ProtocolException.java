@@ -0,0 +1,10 @@
+package com.nosql.db.protocol;
+
+// 二进制帧内容不合法
+public class ProtocolException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public ProtocolException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,15 @@
+package com.nosql.db.protocol;
+
+public enum WireProtocol {
+    // 每行一个JSON命令/结果，默认协议
+    JSON,
+    // 连接时握手协商，之后使用长度前缀的二进制帧
+    BINARY;
+
+    public static WireProtocol fromString(String value) {
+        if (value == null || value.isEmpty()) {
+            return JSON;
+        }
+        return valueOf(value.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,269 @@
+package com.nosql.db.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import com.nosql.db.storage.Document;
+
+// FIND的过滤条件。语法与MongoDB的查询文档相近:
+// {"age": 30}                        等值
+// {"age": {"$gt": 18, "$lte": 65}}   比较，支持$eq/$ne/$gt/$gte/$lt/$lte
+// {"city": {"$in": ["北京", "上海"]}}  集合成员
+// {"$and": [...]} / {"$or": [...]}    组合，同一对象中的多个条件之间为AND
+// 字段名"id"、"createdAt"、"updatedAt"表示文档元数据，其余字段在文档数据中查找，
+// 可以用"a.b"访问嵌套对象。
+// 数值按数值比较(JSON解码得到的30.0与二进制协议的30相等)，类型不同的值互不相等且不可比较。
+public abstract class Filter {
+    public static final String ID_FIELD = Document.ID_FIELD;
+
+    private static final Filter MATCH_ALL = new And(Collections.emptyList());
+
+    public abstract boolean matches(Document document);
+
+    // 空条件，匹配所有文档
+    public boolean isMatchAll() {
+        return this == MATCH_ALL;
+    }
+
+    // 收集条件中引用的字段，用于判断查询能否由覆盖索引回答
+    abstract void collectFields(Set<String> fields);
+
+    public static Filter parse(Map<String, Object> spec) {
+        if (spec == null || spec.isEmpty()) {
+            return MATCH_ALL;
+        }
+        List<Filter> clauses = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : spec.entrySet()) {
+            String key = entry.getKey();
+            if ("$and".equals(key)) {
+                clauses.add(new And(parseList(key, entry.getValue())));
+            } else if ("$or".equals(key)) {
+                clauses.add(new Or(parseList(key, entry.getValue())));
+            } else if (key.startsWith("$")) {
+                throw new IllegalArgumentException("不支持的操作符: " + key);
+            } else {
+                parseField(key, entry.getValue(), clauses);
+            }
+        }
+        return clauses.size() == 1 ? clauses.get(0) : new And(clauses);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Filter> parseList(String operator, Object value) {
+        if (!(value instanceof List) || ((List<?>) value).isEmpty()) {
+            throw new IllegalArgumentException(operator + "需要非空数组");
+        }
+        List<Filter> filters = new ArrayList<>();
+        for (Object element : (List<?>) value) {
+            if (!(element instanceof Map)) {
+                throw new IllegalArgumentException(operator + "的元素必须是对象");
+            }
+            filters.add(parse((Map<String, Object>) element));
+        }
+        return filters;
+    }
+
+    private static void parseField(String field, Object value, List<Filter> clauses) {
+        if (!isOperatorObject(value)) {
+            clauses.add(new Comparison(field, Operator.EQ, value));
+            return;
+        }
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+            String operator = entry.getKey().toString();
+            if ("$in".equals(operator)) {
+                if (!(entry.getValue() instanceof List)) {
+                    throw new IllegalArgumentException("$in需要数组: " + field);
+                }
+                clauses.add(new In(field, new ArrayList<>((List<?>) entry.getValue())));
+            } else {
+                clauses.add(new Comparison(field, Operator.fromString(operator), entry.getValue()));
+            }
+        }
+    }
+
+    // 键全部以$开头的对象是操作符，否则按嵌套对象做等值比较
+    private static boolean isOperatorObject(Object value) {
+        if (!(value instanceof Map) || ((Map<?, ?>) value).isEmpty()) {
+            return false;
+        }
+        for (Object key : ((Map<?, ?>) value).keySet()) {
+            if (!key.toString().startsWith("$")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean valueEquals(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            return compareNumbers((Number) a, (Number) b) == 0;
+        }
+        return Objects.equals(a, b);
+    }
+
+    // 不可比较时返回null
+    static Integer compareValues(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            return compareNumbers((Number) a, (Number) b);
+        }
+        if (a instanceof String && b instanceof String) {
+            return ((String) a).compareTo((String) b);
+        }
+        if (a instanceof Boolean && b instanceof Boolean) {
+            return Boolean.compare((Boolean) a, (Boolean) b);
+        }
+        return null;
+    }
+
+    private static int compareNumbers(Number a, Number b) {
+        if (isIntegral(a) && isIntegral(b)) {
+            return Long.compare(a.longValue(), b.longValue());
+        }
+        return Double.compare(a.doubleValue(), b.doubleValue());
+    }
+
+    private static boolean isIntegral(Number n) {
+        return n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Byte;
+    }
+
+    enum Operator {
+        EQ("$eq"), NE("$ne"), GT("$gt"), GTE("$gte"), LT("$lt"), LTE("$lte");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        static Operator fromString(String symbol) {
+            for (Operator operator : values()) {
+                if (operator.symbol.equals(symbol)) {
+                    return operator;
+                }
+            }
+            throw new IllegalArgumentException("不支持的操作符: " + symbol);
+        }
+    }
+
+    static final class Comparison extends Filter {
+        final String field;
+        final Operator operator;
+        final Object value;
+
+        Comparison(String field, Operator operator, Object value) {
+            this.field = field;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        @Override
+        public boolean matches(Document document) {
+            Object actual = document.getValue(field);
+            switch (operator) {
+                case EQ:
+                    return valueEquals(actual, value);
+                case NE:
+                    return !valueEquals(actual, value);
+                default:
+                    Integer order = compareValues(actual, value);
+                    if (order == null) {
+                        return false;
+                    }
+                    switch (operator) {
+                        case GT:
+                            return order > 0;
+                        case GTE:
+                            return order >= 0;
+                        case LT:
+                            return order < 0;
+                        default:
+                            return order <= 0;
+                    }
+            }
+        }
+
+        @Override
+        void collectFields(Set<String> fields) {
+            fields.add(field);
+        }
+    }
+
+    static final class In extends Filter {
+        final String field;
+        final List<Object> values;
+
+        In(String field, List<Object> values) {
+            this.field = field;
+            this.values = values;
+        }
+
+        @Override
+        public boolean matches(Document document) {
+            Object actual = document.getValue(field);
+            for (Object value : values) {
+                if (valueEquals(actual, value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        void collectFields(Set<String> fields) {
+            fields.add(field);
+        }
+    }
+
+    static final class And extends Filter {
+        final List<Filter> filters;
+
+        And(List<Filter> filters) {
+            this.filters = filters;
+        }
+
+        @Override
+        public boolean matches(Document document) {
+            for (Filter filter : filters) {
+                if (!filter.matches(document)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        void collectFields(Set<String> fields) {
+            for (Filter filter : filters) {
+                filter.collectFields(fields);
+            }
+        }
+    }
+
+    static final class Or extends Filter {
+        final List<Filter> filters;
+
+        Or(List<Filter> filters) {
+            this.filters = filters;
+        }
+
+        @Override
+        public boolean matches(Document document) {
+            for (Filter filter : filters) {
+                if (filter.matches(document)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        void collectFields(Set<String> fields) {
+            for (Filter filter : filters) {
+                filter.collectFields(fields);
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.nosql.db.query;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import com.nosql.db.index.IndexKey;
+import com.nosql.db.storage.Document;
+
+// 一次FIND请求: 过滤条件、排序、分页和投影。不指定排序时结果没有固定顺序，与GET_ALL一致
+public class Query {
+    private final Filter filter;
+    // 排序字段，null表示不排序；值的顺序与有序索引一致，缺失的字段排在最前
+    private final String sortField;
+    private final boolean descending;
+    private final long skip;
+    private final long limit;
+    // 为null时返回完整文档
+    private final List<String> projection;
+
+    // sort形如 {"createdAt": -1}，1为升序、-1为降序，目前只支持单个字段
+    public Query(Filter filter, Map<String, Object> sort, Integer skip, Integer limit,
+            List<String> projection) {
+        if ((skip != null && skip < 0) || (limit != null && limit < 0)) {
+            throw new IllegalArgumentException("skip和limit不能为负数");
+        }
+        if (sort != null && sort.size() > 1) {
+            throw new IllegalArgumentException("只支持按单个字段排序");
+        }
+        this.filter = filter;
+        if (sort == null || sort.isEmpty()) {
+            this.sortField = null;
+            this.descending = false;
+        } else {
+            Map.Entry<String, Object> entry = sort.entrySet().iterator().next();
+            if (!(entry.getValue() instanceof Number)
+                    || ((Number) entry.getValue()).doubleValue() == 0) {
+                throw new IllegalArgumentException("排序方向必须是1或-1: " + entry.getKey());
+            }
+            this.sortField = entry.getKey();
+            this.descending = ((Number) entry.getValue()).doubleValue() < 0;
+        }
+        this.skip = skip == null ? 0 : skip;
+        this.limit = limit == null || limit == 0 ? Long.MAX_VALUE : limit;
+        this.projection = projection == null || projection.isEmpty() ? null : projection;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    public String getSortField() {
+        return sortField;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public Comparator<Document> comparator() {
+        Comparator<Document> comparator =
+                Comparator.comparing(document -> document.getValue(sortField),
+                        IndexKey.VALUE_ORDER);
+        return descending ? comparator.reversed() : comparator;
+    }
+
+    public long getSkip() {
+        return skip;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public List<String> getProjection() {
+        return projection;
+    }
+
+    // 查询用到的全部字段: 投影、过滤条件和排序字段。没有投影时需要完整文档，返回null
+    public Set<String> referencedFields() {
+        if (projection == null) {
+            return null;
+        }
+        Set<String> fields = new HashSet<>(projection);
+        if (filter != null) {
+            filter.collectFields(fields);
+        }
+        if (sortField != null) {
+            fields.add(sortField);
+        }
+        return fields;
+    }
+
+    // 投影只保留指定的顶层字段，ID和时间戳总是保留
+    public Document project(Document document) {
+        if (projection == null) {
+            return document;
+        }
+        Map<String, Object> data = new HashMap<>();
+        for (String field : projection) {
+            Object value = document.get(field);
+            if (value != null) {
+                data.put(field, value);
+            }
+        }
+        return Document.restore(document.getId(), data, document.getCreatedAt(),
+                document.getUpdatedAt());
+    }
+}
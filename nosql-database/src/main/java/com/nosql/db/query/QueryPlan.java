@@ -0,0 +1,174 @@
+package com.nosql.db.query;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import com.nosql.db.index.IndexManager;
+import com.nosql.db.storage.Document;
+
+// 查询计划: 按ID或等值索引查找候选文档，在索引上按前缀和区间扫描或按索引顺序遍历，或者扫描整个集合。
+// 候选文档总要再用完整的过滤条件复核，索引只负责缩小范围
+public class QueryPlan {
+    public enum Type {
+        ID_LOOKUP, INDEX_LOOKUP, INDEX_RANGE, INDEX_SCAN, COLLECTION_SCAN
+    }
+
+    // 一次ID查找或等值索引查找
+    static final class Lookup {
+        final String field;
+        final Object value;
+
+        Lookup(String field, Object value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        boolean isId() {
+            return Filter.ID_FIELD.equals(field);
+        }
+    }
+
+    // 索引扫描: prefix依次等于索引的前几个字段，field为下一个字段，落在区间内。
+    // 边界为null表示该侧不限；没有区间时只按前缀匹配，前缀也为空时按索引顺序遍历全部文档
+    static final class Range {
+        final String index;
+        final List<Object> prefix;
+        final String field;
+        final Object lower;
+        final boolean lowerInclusive;
+        final Object upper;
+        final boolean upperInclusive;
+
+        Range(String index, List<Object> prefix, String field, Object lower,
+                boolean lowerInclusive, Object upper, boolean upperInclusive) {
+            this.index = index;
+            this.prefix = prefix;
+            this.field = field;
+            this.lower = lower;
+            this.lowerInclusive = lowerInclusive;
+            this.upper = upper;
+            this.upperInclusive = upperInclusive;
+        }
+    }
+
+    private final Type type;
+    // 查找计划的候选集合为各次查找结果的并集
+    private final List<Lookup> lookups;
+    private final Range range;
+    private final boolean descending;
+    // 候选文档已经按查询要求的顺序产生，无需再排序
+    private final boolean sorted;
+    private final boolean parallel;
+    private final long estimatedCandidates;
+    // 覆盖查询的索引名，候选文档直接取索引中保存的投影；为null时从集合读取文档
+    private final String coveringIndex;
+
+    QueryPlan(Type type, List<Lookup> lookups, Range range, boolean descending, boolean sorted,
+            boolean parallel, long estimatedCandidates, String coveringIndex) {
+        this.type = type;
+        this.lookups = lookups;
+        this.range = range;
+        this.descending = descending;
+        this.sorted = sorted;
+        this.parallel = parallel;
+        this.estimatedCandidates = estimatedCandidates;
+        this.coveringIndex = coveringIndex;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getEstimatedCandidates() {
+        return estimatedCandidates;
+    }
+
+    public boolean isCollectionScan() {
+        return type == Type.COLLECTION_SCAN;
+    }
+
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public boolean isCovered() {
+        return coveringIndex != null;
+    }
+
+    // 按计划产生候选文档ID，有序计划返回的流保持索引顺序
+    public Stream<String> candidateIds(IndexManager indexManager, String collectionName) {
+        Stream<String> ids;
+        if (range != null) {
+            ids = indexManager.scan(collectionName, range.index, range.prefix, range.lower,
+                    range.lowerInclusive, range.upper, range.upperInclusive, descending);
+        } else if (lookups.size() == 1 && !lookups.get(0).isId()) {
+            // 单个等值查找直接遍历索引桶，不复制
+            Lookup lookup = lookups.get(0);
+            ids = indexManager.getDocumentIds(collectionName, lookup.field, lookup.value).stream();
+        } else {
+            Set<String> union = new LinkedHashSet<>();
+            for (Lookup lookup : lookups) {
+                if (lookup.isId()) {
+                    union.add(lookup.value.toString());
+                } else {
+                    union.addAll(indexManager.getDocumentIds(collectionName, lookup.field,
+                            lookup.value));
+                }
+            }
+            ids = union.stream();
+        }
+        return parallel ? ids.parallel() : ids;
+    }
+
+    // 按计划产生候选文档，覆盖查询从索引取投影，否则用loader从集合读取；已删除的文档被跳过
+    public Stream<Document> candidates(IndexManager indexManager, String collectionName,
+            Function<String, Document> loader) {
+        Function<String, Document> source = coveringIndex == null ? loader
+                : id -> indexManager.getCoveredDocument(collectionName, coveringIndex, id);
+        return candidateIds(indexManager, collectionName).map(source).filter(Objects::nonNull);
+    }
+
+    // EXPLAIN输出
+    public Map<String, Object> describe() {
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("plan", type.name());
+        if (range != null) {
+            description.put("index", range.index);
+            if (!range.prefix.isEmpty()) {
+                description.put("prefix", range.prefix);
+            }
+            if (range.field != null) {
+                description.put("field", range.field);
+                description.put("lower", range.lower);
+                description.put("lowerInclusive", range.lowerInclusive);
+                description.put("upper", range.upper);
+                description.put("upperInclusive", range.upperInclusive);
+            }
+            description.put("descending", descending);
+        } else if (!isCollectionScan()) {
+            Set<String> fields = new LinkedHashSet<>();
+            List<Object> keys = new ArrayList<>();
+            for (Lookup lookup : lookups) {
+                fields.add(lookup.field);
+                keys.add(lookup.value);
+            }
+            description.put("fields", new ArrayList<>(fields));
+            description.put("keys", keys);
+        }
+        description.put("sortedByIndex", sorted);
+        description.put("covered", isCovered());
+        description.put("parallel", parallel);
+        description.put("estimatedCandidates", estimatedCandidates);
+        return description;
+    }
+}
@@ -0,0 +1,279 @@
+package com.nosql.db.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import com.nosql.db.index.IndexDefinition;
+import com.nosql.db.index.IndexKey;
+import com.nosql.db.index.IndexManager;
+import com.nosql.db.index.IndexType;
+
+// 基于规则和索引基数的简单查询规划:
+// - "id"上的等值/$in直接按ID查找，其他字段上的等值/$in在有单字段索引时查索引
+// - 同一字段上的$gt/$gte/$lt/$lte合并成一个区间；索引的前几个字段有等值条件时按前缀查找，
+//   有序索引上紧接前缀的字段还可以带区间，单字段有序索引就是前缀为空的情形
+// - $and取估计候选数最少的一个访问路径，其余条件在复核时过滤
+// - $or只有每个分支都能用等值查找时才取并集，否则扫描整个集合
+// - 按排序字段有序产生候选时不再排序，没有可用条件时沿排序字段上的有序索引遍历，配合limit可以提前结束
+// - 查询引用的字段都保存在所用的覆盖索引中时，直接用索引中的投影回答，不读集合
+// 无法使用索引的条件一律扫描集合
+public final class QueryPlanner {
+    // 候选文档数不少于该值且不要求有序时并行执行，少量文档的拆分开销大于收益
+    static final long PARALLEL_THRESHOLD = 10000;
+
+    private final IndexManager indexManager;
+    private final String collectionName;
+    private final long collectionSize;
+
+    // 可用的访问路径: 一组等值查找或一次索引扫描
+    private static final class Access {
+        final List<QueryPlan.Lookup> lookups;
+        final QueryPlan.Range range;
+        final long estimate;
+
+        Access(List<QueryPlan.Lookup> lookups, QueryPlan.Range range, long estimate) {
+            this.lookups = lookups;
+            this.range = range;
+            this.estimate = estimate;
+        }
+    }
+
+    private QueryPlanner(IndexManager indexManager, String collectionName, long collectionSize) {
+        this.indexManager = indexManager;
+        this.collectionName = collectionName;
+        this.collectionSize = collectionSize;
+    }
+
+    public static QueryPlan plan(Query query, IndexManager indexManager, String collectionName,
+            long collectionSize) {
+        QueryPlanner planner = new QueryPlanner(indexManager, collectionName, collectionSize);
+        Access access = planner.access(query.getFilter(), Long.MAX_VALUE);
+        String sortField = query.getSortField();
+        boolean descending = query.isDescending();
+        Set<String> referenced = query.referencedFields();
+
+        if (access == null) {
+            IndexDefinition sortIndex =
+                    sortField == null ? null : planner.sortIndex(sortField, referenced);
+            if (sortIndex != null) {
+                QueryPlan.Range all = new QueryPlan.Range(sortIndex.getName(),
+                        Collections.emptyList(), null, null, true, null, true);
+                return new QueryPlan(QueryPlan.Type.INDEX_SCAN, null, all, descending, true,
+                        false, collectionSize, covering(sortIndex, referenced));
+            }
+            return new QueryPlan(QueryPlan.Type.COLLECTION_SCAN, Collections.emptyList(), null,
+                    false, false, collectionSize >= PARALLEL_THRESHOLD, collectionSize, null);
+        }
+        if (access.range != null) {
+            IndexDefinition index =
+                    indexManager.getIndexDefinition(collectionName, access.range.index);
+            boolean sorted = sortField != null && orderedBy(index, access.range, sortField);
+            boolean lookup = access.range.field == null
+                    && access.range.prefix.size() == index.getFields().size();
+            return new QueryPlan(lookup ? QueryPlan.Type.INDEX_LOOKUP : QueryPlan.Type.INDEX_RANGE,
+                    null, access.range, sorted && descending, sorted,
+                    !sorted && access.estimate >= PARALLEL_THRESHOLD, access.estimate,
+                    covering(index, referenced));
+        }
+        boolean idOnly = access.lookups.stream().allMatch(QueryPlan.Lookup::isId);
+        return new QueryPlan(idOnly ? QueryPlan.Type.ID_LOOKUP : QueryPlan.Type.INDEX_LOOKUP,
+                access.lookups, null, false, false, access.estimate >= PARALLEL_THRESHOLD,
+                access.estimate, covering(planner.lookupIndex(access.lookups), referenced));
+    }
+
+    // 返回能覆盖全部匹配文档的访问路径，无法使用索引时返回null。
+    // budget为已知的最佳估计，范围计数超过它即可停止
+    private Access access(Filter filter, long budget) {
+        if (filter instanceof Filter.Comparison) {
+            return bestConjunct(Collections.singletonList(filter), budget);
+        }
+        if (filter instanceof Filter.In) {
+            Filter.In in = (Filter.In) filter;
+            return lookups(in.field, in.values);
+        }
+        if (filter instanceof Filter.And) {
+            return bestConjunct(((Filter.And) filter).filters, budget);
+        }
+        if (filter instanceof Filter.Or) {
+            List<QueryPlan.Lookup> union = new ArrayList<>();
+            long estimate = 0;
+            for (Filter child : ((Filter.Or) filter).filters) {
+                Access branch = access(child, Long.MAX_VALUE);
+                if (branch == null || branch.lookups == null) {
+                    return null;
+                }
+                union.addAll(branch.lookups);
+                estimate += branch.estimate;
+            }
+            return new Access(union, null, estimate);
+        }
+        return null;
+    }
+
+    // 先评估单字段等值查找和其他子条件，再收集各字段的等值和区间，
+    // 在每个索引上取最长的等值前缀加紧随其后的区间，在已知最佳估计内计数
+    private Access bestConjunct(List<Filter> filters, long budget) {
+        Access best = null;
+        Map<String, Object> equalities = new HashMap<>();
+        Map<String, QueryPlan.Range> ranges = new LinkedHashMap<>();
+        for (Filter child : filters) {
+            Access candidate;
+            if (child instanceof Filter.Comparison) {
+                Filter.Comparison comparison = (Filter.Comparison) child;
+                if (comparison.operator == Filter.Operator.NE
+                        || IndexKey.of(comparison.value) == null) {
+                    continue;
+                }
+                if (comparison.operator != Filter.Operator.EQ) {
+                    ranges.put(comparison.field, bound(ranges.get(comparison.field), comparison));
+                    continue;
+                }
+                equalities.putIfAbsent(comparison.field, comparison.value);
+                candidate = lookups(comparison.field, Collections.singletonList(comparison.value));
+            } else {
+                candidate = access(child, best == null ? budget : best.estimate);
+            }
+            if (candidate != null && (best == null || candidate.estimate < best.estimate)) {
+                best = candidate;
+            }
+        }
+        if (equalities.isEmpty() && ranges.isEmpty()) {
+            return best;
+        }
+        for (IndexDefinition index : indexManager.getIndexes(collectionName)) {
+            Access candidate =
+                    scan(index, equalities, ranges, best == null ? budget : best.estimate);
+            if (candidate != null && (best == null || candidate.estimate < best.estimate)) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    // 索引能用上的等值前缀和区间。哈希索引需要所有字段都有等值条件，
+    // 单字段上的等值已经由lookups处理
+    private Access scan(IndexDefinition index, Map<String, Object> equalities,
+            Map<String, QueryPlan.Range> ranges, long budget) {
+        List<String> fields = index.getFields();
+        List<Object> prefix = new ArrayList<>();
+        while (prefix.size() < fields.size() && equalities.containsKey(fields.get(prefix.size()))) {
+            prefix.add(equalities.get(fields.get(prefix.size())));
+        }
+        QueryPlan.Range bounds = null;
+        if (prefix.size() < fields.size()) {
+            if (index.getType() != IndexType.ORDERED) {
+                return null;
+            }
+            bounds = ranges.get(fields.get(prefix.size()));
+        }
+        if (bounds == null && (prefix.isEmpty() || fields.size() == 1)) {
+            return null;
+        }
+        QueryPlan.Range range = bounds == null
+                ? new QueryPlan.Range(index.getName(), prefix, null, null, true, null, true)
+                : new QueryPlan.Range(index.getName(), prefix, bounds.field, bounds.lower,
+                        bounds.lowerInclusive, bounds.upper, bounds.upperInclusive);
+        long estimate = indexManager.count(collectionName, index.getName(), prefix, range.lower,
+                range.lowerInclusive, range.upper, range.upperInclusive,
+                Math.min(budget, collectionSize));
+        return new Access(null, range, estimate);
+    }
+
+    private Access lookups(String field, List<Object> values) {
+        List<QueryPlan.Lookup> lookups = new ArrayList<>(values.size());
+        long estimate = 0;
+        for (Object value : values) {
+            if (!lookupUsable(field, value)) {
+                return null;
+            }
+            QueryPlan.Lookup lookup = new QueryPlan.Lookup(field, value);
+            lookups.add(lookup);
+            estimate += lookup.isId() ? 1
+                    : indexManager.getDocumentIds(collectionName, field, value).size();
+        }
+        return new Access(lookups, null, estimate);
+    }
+
+    // 在已有区间上收紧一个边界，同一侧取更严格的值
+    private static QueryPlan.Range bound(QueryPlan.Range range, Filter.Comparison comparison) {
+        Object lower = range == null ? null : range.lower;
+        boolean lowerInclusive = range == null || range.lowerInclusive;
+        Object upper = range == null ? null : range.upper;
+        boolean upperInclusive = range == null || range.upperInclusive;
+        boolean inclusive = comparison.operator == Filter.Operator.GTE
+                || comparison.operator == Filter.Operator.LTE;
+        if (comparison.operator == Filter.Operator.GT
+                || comparison.operator == Filter.Operator.GTE) {
+            int order = lower == null ? 1 : IndexKey.VALUE_ORDER.compare(comparison.value, lower);
+            if (order > 0 || (order == 0 && !inclusive)) {
+                lower = comparison.value;
+                lowerInclusive = inclusive;
+            }
+        } else {
+            int order = upper == null ? -1 : IndexKey.VALUE_ORDER.compare(comparison.value, upper);
+            if (order < 0 || (order == 0 && !inclusive)) {
+                upper = comparison.value;
+                upperInclusive = inclusive;
+            }
+        }
+        return new QueryPlan.Range(null, null, comparison.field, lower, lowerInclusive, upper,
+                upperInclusive);
+    }
+
+    // 候选文档是否已按排序字段有序: 排序字段在等值前缀中(取值都相同)，
+    // 或者是有序索引上紧接前缀的字段
+    private static boolean orderedBy(IndexDefinition index, QueryPlan.Range range,
+            String sortField) {
+        List<String> fields = index.getFields();
+        int prefix = range.prefix.size();
+        if (fields.subList(0, prefix).contains(sortField)) {
+            return true;
+        }
+        return index.getType() == IndexType.ORDERED && prefix < fields.size()
+                && fields.get(prefix).equals(sortField);
+    }
+
+    // 以排序字段开头的有序索引，优先选择能覆盖查询的
+    private IndexDefinition sortIndex(String sortField, Set<String> referenced) {
+        IndexDefinition found = null;
+        for (IndexDefinition index : indexManager.getIndexes(collectionName)) {
+            if (index.getType() == IndexType.ORDERED
+                    && index.getFields().get(0).equals(sortField)) {
+                if (index.covers(referenced)) {
+                    return index;
+                }
+                if (found == null || index.getFields().size() < found.getFields().size()) {
+                    found = index;
+                }
+            }
+        }
+        return found;
+    }
+
+    // 同一字段上的等值查找所用的单字段索引，ID查找或涉及多个字段时返回null
+    private IndexDefinition lookupIndex(List<QueryPlan.Lookup> lookups) {
+        String field = lookups.get(0).field;
+        for (QueryPlan.Lookup lookup : lookups) {
+            if (lookup.isId() || !lookup.field.equals(field)) {
+                return null;
+            }
+        }
+        return indexManager.getIndexDefinition(collectionName, field);
+    }
+
+    private static String covering(IndexDefinition index, Set<String> referenced) {
+        return index != null && index.covers(referenced) ? index.getName() : null;
+    }
+
+    // 索引只收录非空的标量值，等于null(字段缺失)或对象、数组的条件不能走索引
+    private boolean lookupUsable(String field, Object value) {
+        if (IndexKey.of(value) == null) {
+            return false;
+        }
+        return Filter.ID_FIELD.equals(field) || indexManager.hasIndex(collectionName, field);
+    }
+}
@@ -1,26 +1,51 @@
 package com.nosql.db.server;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.nosql.db.protocol.BinaryProtocol;
+import com.nosql.db.protocol.BinaryReader;
+import com.nosql.db.protocol.BinaryWriter;
+import com.nosql.db.protocol.BufferPool;
+import com.nosql.db.protocol.JsonLineReader;
+import com.nosql.db.protocol.JsonLineWriter;
+import com.nosql.db.protocol.ProtocolException;
 import com.nosql.db.storage.DatabaseEngine;
-import com.nosql.db.storage.Document;
 import com.nosql.db.storage.OperationResult;
 
 public class ClientHandler implements Runnable {
     private static final Logger logger = LoggerFactory.getLogger(ClientHandler.class);
+    // 单个连接上同时执行的命令数上限，达到后暂停读取
+    private static final int MAX_IN_FLIGHT = 1024;
+    private static final int BUFFER_SIZE = 8 * 1024;
     private final Socket clientSocket;
-    private final DatabaseEngine databaseEngine;
-    private final Gson gson = new Gson();
+    private final RequestPipeline pipeline;
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+    private final ReentrantLock writeLock = new ReentrantLock();
 
+    // 所有命令都在读取线程内依次执行
     public ClientHandler(Socket clientSocket, DatabaseEngine databaseEngine) {
+        this(clientSocket, databaseEngine, Runnable::run);
+    }
+
+    // 带requestId的命令交给workers并发执行
+    public ClientHandler(Socket clientSocket, DatabaseEngine databaseEngine, Executor workers) {
         this.clientSocket = clientSocket;
-        this.databaseEngine = databaseEngine;
+        this.pipeline = new RequestPipeline(new CommandExecutor(databaseEngine), workers);
     }
 
     @Override
@@ -28,26 +53,26 @@ public class ClientHandler implements Runnable {
         String clientAddress = clientSocket.getInetAddress().toString();
         logger.info("开始处理客户端连接: {}", clientAddress);
 
-        try (BufferedReader in =
-                new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-                PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true)) {
-
-            String inputLine;
-            while ((inputLine = in.readLine()) != null) {
-                logger.debug("收到来自{}的命令: {}", clientAddress, inputLine);
-                Command cmd = gson.fromJson(inputLine, Command.class);
-                OperationResult result = executeCommand(cmd);
-                out.println(gson.toJson(result));
-                logger.debug("返回结果给{}: {}", clientAddress, result.isSuccess());
-
-                if ("EXIT".equalsIgnoreCase(cmd.getCommand())) {
-                    logger.info("客户端{}请求断开连接", clientAddress);
-                    break;
-                }
+        try (BufferedInputStream input =
+                new BufferedInputStream(clientSocket.getInputStream(), BUFFER_SIZE);
+                OutputStream output = clientSocket.getOutputStream()) {
+            // 根据第一个字节判断客户端使用JSON行协议还是二进制协议
+            input.mark(1);
+            int first = input.read();
+            input.reset();
+            if (first == (BinaryProtocol.HANDSHAKE_MAGIC & 0xFF)) {
+                serveBinary(input, output, clientAddress);
+            } else if (first >= 0) {
+                serveJson(input, output, clientAddress);
             }
+            // 连接关闭前等待已提交的命令写回响应
+            inFlight.acquire(MAX_IN_FLIGHT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (IOException e) {
             logger.error("客户端{}通信异常: {}", clientAddress, e.getMessage());
         } finally {
+            pipeline.close();
             try {
                 if (!clientSocket.isClosed()) {
                     clientSocket.close();
@@ -59,74 +84,116 @@ public class ClientHandler implements Runnable {
         }
     }
 
-    private OperationResult executeCommand(Command cmd) {
-        try {
-            switch (cmd.getCommand()) {
-                case "INSERT":
-                    logger.debug("执行INSERT命令: 集合={}, ID={}", cmd.getCollection(),
-                            cmd.getDocument().getId());
-                    return databaseEngine.insertDocument(cmd.getCollection(), cmd.getDocument());
-                case "UPDATE":
-                    logger.debug("执行UPDATE命令: 集合={}, ID={}", cmd.getCollection(),
-                            cmd.getDocument().getId());
-                    return databaseEngine.updateDocument(cmd.getCollection(), cmd.getDocument());
-                case "DELETE":
-                    logger.debug("执行DELETE命令: 集合={}, ID={}", cmd.getCollection(), cmd.getId());
-                    return databaseEngine.deleteDocument(cmd.getCollection(), cmd.getId());
-                case "GET":
-                    logger.debug("执行GET命令: 集合={}, ID={}", cmd.getCollection(), cmd.getId());
-                    return databaseEngine.getDocument(cmd.getCollection(), cmd.getId());
-                case "GET_ALL":
-                    logger.debug("执行GET_ALL命令: 集合={}", cmd.getCollection());
-                    return databaseEngine.getAllDocuments(cmd.getCollection());
-                case "EXIT":
-                    return new OperationResult(true, "连接关闭");
-                default:
-                    logger.warn("未知命令: {}", cmd.getCommand());
-                    return new OperationResult(false, "未知命令: " + cmd.getCommand());
+    private void serveJson(InputStream input, OutputStream output, String clientAddress)
+            throws IOException, InterruptedException {
+        // 每行命令直接从这个连接复用的行缓冲解析，不创建String
+        JsonLineReader lines = new JsonLineReader(input);
+        while (lines.readLine()) {
+            if (lines.isBlank()) {
+                continue;
+            }
+            logger.debug("收到来自{}的命令: {}", clientAddress, lines);
+            Command cmd;
+            try {
+                cmd = lines.parse(Command::fromJson);
+            } catch (JsonParseException e) {
+                logger.warn("客户端{}发送了无效的命令: {}", clientAddress, e.getMessage());
+                cmd = null;
+            }
+            if (!dispatch(cmd, result -> writeJson(output, result), clientAddress)) {
+                return;
             }
-        } catch (Exception e) {
-            logger.error("命令执行失败: {}", e.getMessage(), e);
-            return new OperationResult(false, "错误: " + e.getMessage());
         }
     }
 
-    static class Command {
-        private String command;
-        private String collection;
-        private String id;
-        private Document document;
-
-        public String getCommand() {
-            return command;
-        }
-
-        public void setCommand(String command) {
-            this.command = command;
-        }
-
-        public String getCollection() {
-            return collection;
-        }
-
-        public void setCollection(String collection) {
-            this.collection = collection;
+    private void serveBinary(InputStream input, OutputStream output, String clientAddress)
+            throws IOException, InterruptedException {
+        DataInputStream in = new DataInputStream(input);
+        byte[] handshake = new byte[BinaryProtocol.HANDSHAKE_LENGTH];
+        in.readFully(handshake);
+        if (BinaryProtocol.handshakeVersion(handshake) != BinaryProtocol.VERSION) {
+            logger.warn("客户端{}请求的二进制协议版本不受支持", clientAddress);
+            output.write(BinaryProtocol.handshake((byte) 0));
+            return;
         }
+        output.write(handshake);
+        logger.info("客户端{}使用二进制协议", clientAddress);
 
-        public String getId() {
-            return id;
+        byte[] frame = new byte[BUFFER_SIZE];
+        while (true) {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return;
+            }
+            if (length < 0 || length > BinaryProtocol.MAX_FRAME_BYTES) {
+                logger.warn("客户端{}发送的帧长度无效: {}", clientAddress, length);
+                return;
+            }
+            if (length > frame.length) {
+                frame = new byte[Math.max(length, frame.length * 2)];
+            }
+            in.readFully(frame, 0, length);
+            Command cmd;
+            try {
+                cmd = Command.fromBinary(new BinaryReader(ByteBuffer.wrap(frame, 0, length)));
+            } catch (ProtocolException e) {
+                logger.warn("客户端{}发送了无效的命令: {}", clientAddress, e.getMessage());
+                cmd = null;
+            }
+            if (!dispatch(cmd, result -> writeBinary(output, result), clientAddress)) {
+                return;
+            }
         }
+    }
 
-        public void setId(String id) {
-            this.id = id;
+    // 两种协议的响应都编码进池化缓冲后直接写出，不经过中间的String
+    private static void writeJson(OutputStream output, OperationResult result) {
+        JsonLineWriter writer = new JsonLineWriter(BufferPool.shared().acquire());
+        try {
+            writer.writeResponse(result);
+            ByteBuffer buffer = writer.buffer();
+            output.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+            output.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            BufferPool.shared().release(writer.buffer());
         }
+    }
 
-        public Document getDocument() {
-            return document;
+    private static void writeBinary(OutputStream output, OperationResult result) {
+        BinaryWriter writer = new BinaryWriter(BufferPool.shared().acquire());
+        BinaryProtocol.writeResponse(writer, result);
+        ByteBuffer buffer = writer.buffer();
+        try {
+            output.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            BufferPool.shared().release(buffer);
         }
+    }
 
-        public void setDocument(Document document) {
-            this.document = document;
+    // 返回false表示客户端已请求断开连接
+    private boolean dispatch(Command cmd, Consumer<OperationResult> writer, String clientAddress)
+            throws InterruptedException {
+        inFlight.acquire();
+        CompletableFuture<Void> done = pipeline.submit(cmd, (result, exit) -> {
+            writeLock.lock();
+            try {
+                writer.accept(result);
+            } finally {
+                writeLock.unlock();
+                inFlight.release();
+            }
+        });
+        if (pipeline.isClosing()) {
+            done.join();
+            logger.info("客户端{}请求断开连接", clientAddress);
+            return false;
         }
+        return true;
     }
 }
@@ -0,0 +1,362 @@
+package com.nosql.db.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.nosql.db.protocol.BinaryProtocol;
+import com.nosql.db.protocol.BinaryReader;
+import com.nosql.db.protocol.ProtocolException;
+import com.nosql.db.storage.Document;
+import com.nosql.db.storage.JsonCodec;
+import com.nosql.db.storage.WalOperation;
+import com.nosql.db.storage.WriteOperation;
+
+class Command {
+    private String command;
+    private String collection;
+    private String id;
+    private Document document;
+    // 可选，客户端流水线发送多条命令时用于匹配乱序返回的响应
+    private String requestId;
+    // BULK_INSERT的文档列表
+    private List<Document> documents;
+    // BULK_WRITE的混合操作列表
+    private List<WriteOperation> operations;
+    // OPEN_CURSOR/NEXT/CLOSE使用的游标ID和批大小
+    private String cursorId;
+    private Integer batchSize;
+    // FIND/EXPLAIN的过滤条件、排序、分页和投影，SEARCH也使用其中的过滤条件、分页和投影
+    private Map<String, Object> filter;
+    private Map<String, Object> sort;
+    private Integer skip;
+    private Integer limit;
+    private List<String> projection;
+    // CREATE_INDEX的键字段、索引类型和覆盖字段，DROP_INDEX和SEARCH的索引名
+    private List<String> fields;
+    private String indexType;
+    private List<String> include;
+    private String index;
+    // SEARCH的全文查询
+    private String query;
+    // PATCH的字段级更新操作，如{"$set": {...}, "$inc": {...}}
+    private Map<String, Object> update;
+
+    public String getCommand() {
+        return command;
+    }
+
+    public void setCommand(String command) {
+        this.command = command;
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    public void setCollection(String collection) {
+        this.collection = collection;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Document getDocument() {
+        return document;
+    }
+
+    public void setDocument(Document document) {
+        this.document = document;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(String requestId) {
+        this.requestId = requestId;
+    }
+
+    public List<Document> getDocuments() {
+        return documents;
+    }
+
+    public void setDocuments(List<Document> documents) {
+        this.documents = documents;
+    }
+
+    public List<WriteOperation> getOperations() {
+        return operations;
+    }
+
+    public void setOperations(List<WriteOperation> operations) {
+        this.operations = operations;
+    }
+
+    public String getCursorId() {
+        return cursorId;
+    }
+
+    public void setCursorId(String cursorId) {
+        this.cursorId = cursorId;
+    }
+
+    public Integer getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(Integer batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public Map<String, Object> getFilter() {
+        return filter;
+    }
+
+    public void setFilter(Map<String, Object> filter) {
+        this.filter = filter;
+    }
+
+    public Map<String, Object> getSort() {
+        return sort;
+    }
+
+    public void setSort(Map<String, Object> sort) {
+        this.sort = sort;
+    }
+
+    public Integer getSkip() {
+        return skip;
+    }
+
+    public void setSkip(Integer skip) {
+        this.skip = skip;
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public void setLimit(Integer limit) {
+        this.limit = limit;
+    }
+
+    public List<String> getProjection() {
+        return projection;
+    }
+
+    public void setProjection(List<String> projection) {
+        this.projection = projection;
+    }
+
+    public List<String> getFields() {
+        return fields;
+    }
+
+    public void setFields(List<String> fields) {
+        this.fields = fields;
+    }
+
+    public String getIndexType() {
+        return indexType;
+    }
+
+    public void setIndexType(String indexType) {
+        this.indexType = indexType;
+    }
+
+    public List<String> getInclude() {
+        return include;
+    }
+
+    public void setInclude(List<String> include) {
+        this.include = include;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public void setIndex(String index) {
+        this.index = index;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public void setQuery(String query) {
+        this.query = query;
+    }
+
+    public Map<String, Object> getUpdate() {
+        return update;
+    }
+
+    public void setUpdate(Map<String, Object> update) {
+        this.update = update;
+    }
+
+    // 按JSON行协议解码，结果与Gson按字段名反射解码相同，未知字段忽略
+    static Command fromJson(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Command cmd = new Command();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "command":
+                    cmd.command = JsonCodec.readString(in);
+                    break;
+                case "collection":
+                    cmd.collection = JsonCodec.readString(in);
+                    break;
+                case "id":
+                    cmd.id = JsonCodec.readString(in);
+                    break;
+                case "document":
+                    cmd.document = JsonCodec.readDocument(in);
+                    break;
+                case "requestId":
+                    cmd.requestId = JsonCodec.readString(in);
+                    break;
+                case "documents":
+                    cmd.documents = JsonCodec.readList(in, JsonCodec::readDocument);
+                    break;
+                case "operations":
+                    cmd.operations = JsonCodec.readList(in, JsonCodec::readOperation);
+                    break;
+                case "cursorId":
+                    cmd.cursorId = JsonCodec.readString(in);
+                    break;
+                case "batchSize":
+                    cmd.batchSize = JsonCodec.readInteger(in);
+                    break;
+                case "filter":
+                    cmd.filter = JsonCodec.readMap(in);
+                    break;
+                case "sort":
+                    cmd.sort = JsonCodec.readMap(in);
+                    break;
+                case "skip":
+                    cmd.skip = JsonCodec.readInteger(in);
+                    break;
+                case "limit":
+                    cmd.limit = JsonCodec.readInteger(in);
+                    break;
+                case "projection":
+                    cmd.projection = JsonCodec.readList(in, JsonCodec::readString);
+                    break;
+                case "fields":
+                    cmd.fields = JsonCodec.readList(in, JsonCodec::readString);
+                    break;
+                case "indexType":
+                    cmd.indexType = JsonCodec.readString(in);
+                    break;
+                case "include":
+                    cmd.include = JsonCodec.readList(in, JsonCodec::readString);
+                    break;
+                case "index":
+                    cmd.index = JsonCodec.readString(in);
+                    break;
+                case "query":
+                    cmd.query = JsonCodec.readString(in);
+                    break;
+                case "update":
+                    cmd.update = JsonCodec.readMap(in);
+                    break;
+                default:
+                    in.skipValue();
+                    break;
+            }
+        }
+        in.endObject();
+        return cmd;
+    }
+
+    // 按BinaryProtocol的请求负载格式解码
+    static Command fromBinary(BinaryReader in) {
+        Command cmd = new Command();
+        cmd.command = in.readString();
+        cmd.requestId = in.readNullableString();
+        cmd.collection = in.readNullableString();
+        cmd.id = in.readNullableString();
+        cmd.document = in.readDocument();
+        Map<String, Object> arguments = in.readArguments();
+        try {
+            cmd.documents = toDocuments(arguments.get(BinaryProtocol.ARG_DOCUMENTS));
+            cmd.operations = toOperations(arguments.get(BinaryProtocol.ARG_OPERATIONS));
+            cmd.cursorId = (String) arguments.get(BinaryProtocol.ARG_CURSOR_ID);
+            cmd.batchSize = toInteger(arguments.get(BinaryProtocol.ARG_BATCH_SIZE));
+            cmd.filter = toMap(arguments.get(BinaryProtocol.ARG_FILTER));
+            cmd.sort = toMap(arguments.get(BinaryProtocol.ARG_SORT));
+            cmd.skip = toInteger(arguments.get(BinaryProtocol.ARG_SKIP));
+            cmd.limit = toInteger(arguments.get(BinaryProtocol.ARG_LIMIT));
+            cmd.projection = toStrings(arguments.get(BinaryProtocol.ARG_PROJECTION));
+            cmd.fields = toStrings(arguments.get(BinaryProtocol.ARG_FIELDS));
+            cmd.indexType = (String) arguments.get(BinaryProtocol.ARG_INDEX_TYPE);
+            cmd.include = toStrings(arguments.get(BinaryProtocol.ARG_INCLUDE));
+            cmd.index = (String) arguments.get(BinaryProtocol.ARG_INDEX);
+            cmd.query = (String) arguments.get(BinaryProtocol.ARG_QUERY);
+            cmd.update = toMap(arguments.get(BinaryProtocol.ARG_UPDATE));
+        } catch (ClassCastException | IllegalArgumentException e) {
+            throw new ProtocolException("命令参数格式错误: " + e.getMessage());
+        }
+        return cmd;
+    }
+
+    private static Integer toInteger(Object value) {
+        return value == null ? null : ((Number) value).intValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> toMap(Object value) {
+        return (Map<String, Object>) value;
+    }
+
+    private static List<String> toStrings(Object value) {
+        if (value == null) {
+            return null;
+        }
+        List<String> strings = new ArrayList<>();
+        for (Object element : (List<?>) value) {
+            strings.add((String) element);
+        }
+        return strings;
+    }
+
+    private static List<Document> toDocuments(Object value) {
+        if (value == null) {
+            return null;
+        }
+        List<Document> documents = new ArrayList<>();
+        for (Object element : (List<?>) value) {
+            documents.add((Document) element);
+        }
+        return documents;
+    }
+
+    private static List<WriteOperation> toOperations(Object value) {
+        if (value == null) {
+            return null;
+        }
+        List<WriteOperation> operations = new ArrayList<>();
+        for (Object element : (List<?>) value) {
+            Map<?, ?> op = (Map<?, ?>) element;
+            Object operation = op.get("operation");
+            operations.add(new WriteOperation(
+                    operation == null ? null : WalOperation.valueOf(operation.toString()),
+                    (String) op.get("id"), (Document) op.get("document")));
+        }
+        return operations;
+    }
+}
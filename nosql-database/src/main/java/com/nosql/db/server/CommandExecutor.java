@@ -0,0 +1,149 @@
+package com.nosql.db.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.nosql.db.index.IndexDefinition;
+import com.nosql.db.index.IndexType;
+import com.nosql.db.query.Filter;
+import com.nosql.db.query.Query;
+import com.nosql.db.storage.DatabaseEngine;
+import com.nosql.db.storage.Document;
+import com.nosql.db.storage.OperationResult;
+import com.nosql.db.storage.WriteOperation;
+
+// 与传输方式无关的命令执行逻辑，阻塞式和NIO服务器共用
+class CommandExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(CommandExecutor.class);
+    private static final int DEFAULT_SEARCH_LIMIT = 10;
+    private final DatabaseEngine databaseEngine;
+
+    CommandExecutor(DatabaseEngine databaseEngine) {
+        this.databaseEngine = databaseEngine;
+    }
+
+    OperationResult execute(Command cmd) {
+        return execute(cmd, null);
+    }
+
+    // owner标识发出命令的连接，在它上面打开的游标随连接关闭
+    OperationResult execute(Command cmd, Object owner) {
+        try {
+            switch (cmd.getCommand()) {
+                case "INSERT":
+                    logger.debug("执行INSERT命令: 集合={}, ID={}", cmd.getCollection(),
+                            cmd.getDocument().getId());
+                    return databaseEngine.insertDocument(cmd.getCollection(), cmd.getDocument());
+                case "UPDATE":
+                    logger.debug("执行UPDATE命令: 集合={}, ID={}", cmd.getCollection(),
+                            cmd.getDocument().getId());
+                    return databaseEngine.updateDocument(cmd.getCollection(), cmd.getDocument());
+                case "PATCH":
+                    if (cmd.getId() == null || cmd.getUpdate() == null) {
+                        return new OperationResult(false, "缺少参数: id和update");
+                    }
+                    logger.debug("执行PATCH命令: 集合={}, ID={}", cmd.getCollection(), cmd.getId());
+                    return databaseEngine.patchDocument(cmd.getCollection(), cmd.getId(),
+                            cmd.getUpdate());
+                case "DELETE":
+                    logger.debug("执行DELETE命令: 集合={}, ID={}", cmd.getCollection(), cmd.getId());
+                    return databaseEngine.deleteDocument(cmd.getCollection(), cmd.getId());
+                case "GET":
+                    logger.debug("执行GET命令: 集合={}, ID={}", cmd.getCollection(), cmd.getId());
+                    return databaseEngine.getDocument(cmd.getCollection(), cmd.getId());
+                case "GET_ALL":
+                    logger.debug("执行GET_ALL命令: 集合={}", cmd.getCollection());
+                    return databaseEngine.getAllDocuments(cmd.getCollection());
+                case "BULK_INSERT":
+                    if (cmd.getDocuments() == null) {
+                        return new OperationResult(false, "缺少参数: documents");
+                    }
+                    logger.debug("执行BULK_INSERT命令: 集合={}, 文档数={}", cmd.getCollection(),
+                            cmd.getDocuments().size());
+                    List<WriteOperation> inserts = new ArrayList<>(cmd.getDocuments().size());
+                    for (Document document : cmd.getDocuments()) {
+                        inserts.add(document == null ? null : WriteOperation.insert(document));
+                    }
+                    return databaseEngine.bulkWrite(cmd.getCollection(), inserts);
+                case "BULK_WRITE":
+                    if (cmd.getOperations() == null) {
+                        return new OperationResult(false, "缺少参数: operations");
+                    }
+                    logger.debug("执行BULK_WRITE命令: 集合={}, 操作数={}", cmd.getCollection(),
+                            cmd.getOperations().size());
+                    return databaseEngine.bulkWrite(cmd.getCollection(), cmd.getOperations());
+                case "FIND":
+                    logger.debug("执行FIND命令: 集合={}, 条件={}", cmd.getCollection(), cmd.getFilter());
+                    return databaseEngine.find(cmd.getCollection(), toQuery(cmd));
+                case "EXPLAIN":
+                    logger.debug("执行EXPLAIN命令: 集合={}, 条件={}", cmd.getCollection(),
+                            cmd.getFilter());
+                    return databaseEngine.explain(cmd.getCollection(), toQuery(cmd));
+                case "SEARCH":
+                    if (cmd.getQuery() == null) {
+                        return new OperationResult(false, "缺少参数: query");
+                    }
+                    logger.debug("执行SEARCH命令: 集合={}, 查询={}", cmd.getCollection(), cmd.getQuery());
+                    // 结果按得分排列，不接受sort；不指定limit时返回前10个
+                    Integer searchLimit =
+                            cmd.getLimit() == null ? DEFAULT_SEARCH_LIMIT : cmd.getLimit();
+                    Query searchQuery = new Query(Filter.parse(cmd.getFilter()), null,
+                            cmd.getSkip(), searchLimit, cmd.getProjection());
+                    return databaseEngine.search(cmd.getCollection(), cmd.getIndex(),
+                            cmd.getQuery(), searchQuery);
+                case "OPEN_CURSOR":
+                    logger.debug("执行OPEN_CURSOR命令: 集合={}, 批大小={}", cmd.getCollection(),
+                            cmd.getBatchSize());
+                    return databaseEngine.openCursor(cmd.getCollection(), cmd.getBatchSize(),
+                            owner);
+                case "NEXT":
+                    return databaseEngine.nextBatch(cmd.getCursorId(), cmd.getBatchSize());
+                case "CLOSE":
+                    logger.debug("执行CLOSE命令: 游标={}", cmd.getCursorId());
+                    return databaseEngine.closeCursor(cmd.getCursorId());
+                case "CREATE_INDEX":
+                    if (cmd.getFields() == null || cmd.getFields().isEmpty()) {
+                        return new OperationResult(false, "缺少参数: fields");
+                    }
+                    logger.debug("执行CREATE_INDEX命令: 集合={}, 字段={}, 类型={}", cmd.getCollection(),
+                            cmd.getFields(), cmd.getIndexType());
+                    return databaseEngine.createIndex(cmd.getCollection(), cmd.getFields(),
+                            IndexType.fromString(cmd.getIndexType()), cmd.getInclude());
+                case "DROP_INDEX":
+                    // 可以直接给出索引名，也可以给出键字段
+                    String indexName = cmd.getIndex();
+                    if (indexName == null && cmd.getFields() != null) {
+                        indexName = IndexDefinition.nameOf(cmd.getFields(),
+                                IndexType.fromString(cmd.getIndexType()));
+                    }
+                    if (indexName == null) {
+                        return new OperationResult(false, "缺少参数: index");
+                    }
+                    logger.debug("执行DROP_INDEX命令: 集合={}, 索引={}", cmd.getCollection(), indexName);
+                    return databaseEngine.dropIndex(cmd.getCollection(), indexName);
+                case "LIST_INDEXES":
+                    return databaseEngine.listIndexes(cmd.getCollection());
+                case "CACHE_STATS":
+                    return databaseEngine.cacheStats(cmd.getCollection());
+                case "EXIT":
+                    return new OperationResult(true, "连接关闭");
+                default:
+                    logger.warn("未知命令: {}", cmd.getCommand());
+                    return new OperationResult(false, "未知命令: " + cmd.getCommand());
+            }
+        } catch (Exception e) {
+            logger.error("命令执行失败: {}", e.getMessage(), e);
+            return new OperationResult(false, "错误: " + e.getMessage());
+        }
+    }
+
+    void closeCursors(Object owner) {
+        databaseEngine.closeCursors(owner);
+    }
+
+    private static Query toQuery(Command cmd) {
+        return new Query(Filter.parse(cmd.getFilter()), cmd.getSort(), cmd.getSkip(),
+                cmd.getLimit(), cmd.getProjection());
+    }
+}
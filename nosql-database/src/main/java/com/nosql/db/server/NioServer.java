@@ -0,0 +1,430 @@
+package com.nosql.db.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.google.gson.JsonParseException;
+import com.nosql.db.protocol.BinaryProtocol;
+import com.nosql.db.protocol.BinaryReader;
+import com.nosql.db.protocol.BinaryWriter;
+import com.nosql.db.protocol.BufferPool;
+import com.nosql.db.protocol.JsonLineReader;
+import com.nosql.db.protocol.JsonLineWriter;
+import com.nosql.db.protocol.ProtocolException;
+import com.nosql.db.protocol.WireProtocol;
+import com.nosql.db.storage.DatabaseEngine;
+import com.nosql.db.storage.OperationResult;
+
+// 基于Selector的服务器: 少量事件循环线程负责所有连接的读写，命令交给工作线程池执行。
+// 协议与阻塞式服务器相同，按连接的第一个字节区分JSON行协议和二进制协议，命令调度见RequestPipeline。
+class NioServer {
+    private static final Logger logger = LoggerFactory.getLogger(NioServer.class);
+    static final int READ_BUFFER_SIZE = 64 * 1024;
+    // 单行命令的最大长度，超过则认为客户端异常并断开
+    private static final int MAX_FRAME_BYTES = BinaryProtocol.MAX_FRAME_BYTES;
+    // 单个连接尚未返回响应的命令数超过该值时暂停读取，实现背压
+    static final int MAX_IN_FLIGHT = 1024;
+
+    private final int port;
+    private final ExecutorService workers;
+    private final CommandExecutor commandExecutor;
+    private final EventLoop[] eventLoops;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running = false;
+    private int nextLoop = 0;
+
+    NioServer(int port, int ioThreads, ExecutorService workers, DatabaseEngine databaseEngine) {
+        this.port = port;
+        this.workers = workers;
+        this.commandExecutor = new CommandExecutor(databaseEngine);
+        this.eventLoops = new EventLoop[Math.max(1, ioThreads)];
+    }
+
+    void bind() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop(i);
+            eventLoops[i].start();
+        }
+        running = true;
+        logger.info("NIO服务器启动，监听端口: {}, 事件循环线程数: {}", port, eventLoops.length);
+    }
+
+    // 实际监听的端口，构造时端口为0时由系统分配
+    int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    // 在调用线程中阻塞accept，新连接按轮询分配给事件循环
+    void acceptLoop() throws IOException {
+        while (running) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (ClosedChannelException e) {
+                break;
+            }
+            logger.info("新客户端连接: {}", channel.getRemoteAddress());
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            EventLoop loop = eventLoops[nextLoop];
+            nextLoop = (nextLoop + 1) % eventLoops.length;
+            loop.register(channel);
+        }
+    }
+
+    void shutdown() {
+        running = false;
+        try {
+            if (serverChannel != null && serverChannel.isOpen()) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            logger.warn("关闭服务器通道时发生异常: {}", e.getMessage());
+        }
+        for (EventLoop loop : eventLoops) {
+            if (loop != null) {
+                loop.shutdown();
+            }
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // 同一事件循环上的连接轮流使用这块直接内存读取数据
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        private volatile boolean open = true;
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "nio-event-loop-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(this, channel, key));
+                } catch (IOException e) {
+                    logger.error("注册客户端连接失败: {}", e.getMessage());
+                    closeQuietly(channel);
+                }
+            });
+        }
+
+        // 其他线程通过任务队列把操作交给事件循环线程执行，避免并发修改连接状态
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (open) {
+                try {
+                    selector.select();
+                    runTasks();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        if (!key.isValid() || connection == null) {
+                            continue;
+                        }
+                        try {
+                            if (key.isReadable()) {
+                                connection.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        } catch (IOException e) {
+                            logger.error("客户端{}通信异常: {}", connection.address, e.getMessage());
+                            connection.close();
+                        } catch (RuntimeException e) {
+                            // 只关闭出错的连接，事件循环线程退出会让它上面的所有连接失去响应
+                            logger.error("客户端{}处理异常: {}", connection.address, e.getMessage(), e);
+                            connection.close();
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    logger.error("事件循环异常: {}", e.getMessage(), e);
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (connection != null) {
+                    connection.close();
+                }
+            }
+            closeQuietly(selector);
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+        void shutdown() {
+            open = false;
+            selector.wakeup();
+        }
+    }
+
+    // 连接状态只在所属事件循环线程中读写
+    private final class Connection {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final String address;
+        // JSON协议下尚未读到换行符的命令
+        private final JsonLineReader partialLine = new JsonLineReader();
+        private final RequestPipeline pipeline;
+        private final Queue<ByteBuffer> pendingWrites = new ArrayDeque<>();
+        // 首个字节到达后确定，此前为null
+        private WireProtocol protocol;
+        // 二进制协议下尚未凑成完整帧的数据
+        private ByteBuffer inbound = ByteBuffer.allocate(BufferPool.BUFFER_SIZE);
+        private boolean handshakeDone = false;
+        private int inFlight = 0;
+        private boolean closeAfterWrite = false;
+        private boolean closed = false;
+
+        Connection(EventLoop loop, SocketChannel channel, SelectionKey key) throws IOException {
+            this.loop = loop;
+            this.channel = channel;
+            this.key = key;
+            this.address = String.valueOf(channel.getRemoteAddress());
+            this.pipeline = new RequestPipeline(commandExecutor, workers);
+        }
+
+        void onReadable() throws IOException {
+            ByteBuffer buffer = loop.readBuffer;
+            buffer.clear();
+            int read = channel.read(buffer);
+            if (read < 0) {
+                logger.info("客户端{}断开连接", address);
+                close();
+                return;
+            }
+            buffer.flip();
+            if (protocol == null && buffer.hasRemaining()) {
+                // JSON命令总以'{'或空白开头，二进制客户端先发送握手魔数
+                protocol = buffer.get(0) == BinaryProtocol.HANDSHAKE_MAGIC
+                        ? WireProtocol.BINARY : WireProtocol.JSON;
+            }
+            if (protocol == WireProtocol.BINARY) {
+                readFrames(buffer);
+            } else {
+                readLines(buffer);
+            }
+            if (key.isValid() && (inFlight >= MAX_IN_FLIGHT || pipeline.isClosing())) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+        }
+
+        private void readLines(ByteBuffer buffer) {
+            int lineStart = 0;
+            for (int i = 0; i < buffer.limit() && !closed; i++) {
+                if (buffer.get(i) == '\n') {
+                    partialLine.append(buffer, lineStart, i);
+                    if (!partialLine.isBlank()) {
+                        logger.debug("收到来自{}的命令: {}", address, partialLine);
+                        Command cmd;
+                        try {
+                            cmd = partialLine.parse(Command::fromJson);
+                        } catch (JsonParseException e) {
+                            logger.warn("客户端{}发送了无效的命令: {}", address, e.getMessage());
+                            cmd = null;
+                        }
+                        submit(cmd);
+                    }
+                    partialLine.clear();
+                    lineStart = i + 1;
+                }
+            }
+            partialLine.append(buffer, lineStart, buffer.limit());
+            if (partialLine.length() > MAX_FRAME_BYTES) {
+                logger.warn("客户端{}发送的命令超过最大长度{}字节，断开连接", address, MAX_FRAME_BYTES);
+                close();
+            }
+        }
+
+        private void readFrames(ByteBuffer buffer) throws IOException {
+            if (inbound.remaining() < buffer.remaining()) {
+                ByteBuffer grown = ByteBuffer.allocate(
+                        Math.max(inbound.capacity() * 2, inbound.position() + buffer.remaining()));
+                inbound.flip();
+                grown.put(inbound);
+                inbound = grown;
+            }
+            inbound.put(buffer);
+            inbound.flip();
+            try {
+                if (!handshakeDone) {
+                    if (inbound.remaining() < BinaryProtocol.HANDSHAKE_LENGTH) {
+                        return;
+                    }
+                    byte[] handshake = new byte[BinaryProtocol.HANDSHAKE_LENGTH];
+                    inbound.get(handshake);
+                    if (BinaryProtocol.handshakeVersion(handshake) != BinaryProtocol.VERSION) {
+                        logger.warn("客户端{}请求的二进制协议版本不受支持", address);
+                        pendingWrites.add(ByteBuffer.wrap(BinaryProtocol.handshake((byte) 0)));
+                        closeAfterWrite = true;
+                        onWritable();
+                        return;
+                    }
+                    pendingWrites.add(ByteBuffer.wrap(handshake));
+                    onWritable();
+                    handshakeDone = true;
+                    logger.info("客户端{}使用二进制协议", address);
+                }
+                while (inbound.remaining() >= 4 && !closed && !pipeline.isClosing()) {
+                    int start = inbound.position();
+                    int length = inbound.getInt(start);
+                    if (length < 0 || length > BinaryProtocol.MAX_FRAME_BYTES) {
+                        logger.warn("客户端{}发送的帧长度无效: {}", address, length);
+                        close();
+                        return;
+                    }
+                    if (inbound.remaining() < 4 + length) {
+                        break;
+                    }
+                    ByteBuffer frame = inbound.duplicate();
+                    frame.position(start + 4).limit(start + 4 + length);
+                    inbound.position(start + 4 + length);
+                    Command cmd;
+                    try {
+                        cmd = Command.fromBinary(new BinaryReader(frame.slice()));
+                    } catch (ProtocolException e) {
+                        logger.warn("客户端{}发送了无效的命令: {}", address, e.getMessage());
+                        cmd = null;
+                    }
+                    submit(cmd);
+                }
+            } finally {
+                inbound.compact();
+            }
+        }
+
+        private void submit(Command cmd) {
+            if (pipeline.isClosing()) {
+                // EXIT之后的命令不再执行
+                return;
+            }
+            inFlight++;
+            try {
+                pipeline.submit(cmd, (result, exit) -> {
+                    ByteBuffer response = encode(result);
+                    loop.execute(() -> onResponse(response, exit));
+                });
+            } catch (RejectedExecutionException e) {
+                logger.warn("工作线程池已关闭，断开客户端{}", address);
+                close();
+            }
+        }
+
+        // 在工作线程中编码，两种协议的响应都使用池化缓冲，写完后归还
+        private ByteBuffer encode(OperationResult result) {
+            ByteBuffer buffer;
+            if (protocol == WireProtocol.BINARY) {
+                BinaryWriter writer = new BinaryWriter(BufferPool.shared().acquire());
+                BinaryProtocol.writeResponse(writer, result);
+                buffer = writer.buffer();
+            } else {
+                JsonLineWriter writer = new JsonLineWriter(BufferPool.shared().acquire());
+                writer.writeResponse(result);
+                buffer = writer.buffer();
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        private void onResponse(ByteBuffer response, boolean exit) {
+            inFlight--;
+            if (closed) {
+                return;
+            }
+            pendingWrites.add(response);
+            if (exit) {
+                logger.info("客户端{}请求断开连接", address);
+                closeAfterWrite = true;
+            }
+            try {
+                onWritable();
+            } catch (IOException e) {
+                logger.error("客户端{}通信异常: {}", address, e.getMessage());
+                close();
+                return;
+            }
+            if (key.isValid() && inFlight < MAX_IN_FLIGHT && !pipeline.isClosing()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+
+        void onWritable() throws IOException {
+            while (!pendingWrites.isEmpty()) {
+                ByteBuffer buffer = pendingWrites.peek();
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    // 发送缓冲区已满，等待可写事件后继续
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                pendingWrites.poll();
+                BufferPool.shared().release(buffer);
+            }
+            if (closeAfterWrite) {
+                close();
+                return;
+            }
+            if (key.isValid()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            key.cancel();
+            closeQuietly(channel);
+            pipeline.close();
+            logger.info("客户端{}连接已关闭", address);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            logger.warn("关闭通道时发生异常: {}", e.getMessage());
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.nosql.db.server;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.concurrent.ExecutorService;
@@ -13,17 +14,52 @@ public class NoSQLServer {
     private static final Logger logger = LoggerFactory.getLogger(NoSQLServer.class);
     private final int port;
     private final ExecutorService threadPool;
+    // 执行流水线命令(带requestId)的线程池；阻塞模式下连接线程占满threadPool，需要单独的池
+    private final ExecutorService requestWorkers;
     private final DatabaseEngine databaseEngine;
+    private final ServerMode mode;
+    private final int ioThreads;
     private ServerSocket serverSocket;
+    private NioServer nioServer;
     private volatile boolean running = false;
 
     public NoSQLServer(int port, int threadPoolSize, DatabaseEngine databaseEngine) {
+        this(port, threadPoolSize, databaseEngine, ServerMode.BLOCKING,
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    // NIO模式下threadPoolSize为执行命令的工作线程数，ioThreads为Selector事件循环线程数；
+    // VIRTUAL模式忽略threadPoolSize，每个连接运行在独立的虚拟线程上
+    public NoSQLServer(int port, int threadPoolSize, DatabaseEngine databaseEngine,
+            ServerMode mode, int ioThreads) {
         this.port = port;
-        this.threadPool = Executors.newFixedThreadPool(threadPoolSize);
+        this.threadPool = mode == ServerMode.VIRTUAL ? newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(threadPoolSize);
+        this.requestWorkers = mode == ServerMode.BLOCKING
+                ? Executors.newFixedThreadPool(threadPoolSize) : threadPool;
         this.databaseEngine = databaseEngine;
+        this.mode = mode;
+        this.ioThreads = ioThreads;
+    }
+
+    // 项目仍以JDK 17为编译基线，通过反射获取虚拟线程执行器，在JDK 21及以上运行时可用
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("虚拟线程模式需要JDK 21及以上，当前版本: "
+                    + Runtime.version(), e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("创建虚拟线程执行器失败: " + e.getMessage(), e);
+        }
     }
 
     public void start() {
+        if (mode == ServerMode.NIO) {
+            startNio();
+            return;
+        }
         try {
             serverSocket = new ServerSocket(port);
             running = true;
@@ -45,10 +81,27 @@ public class NoSQLServer {
         }
     }
 
+    private void startNio() {
+        try {
+            nioServer = new NioServer(port, ioThreads, threadPool, databaseEngine);
+            nioServer.bind();
+            running = true;
+            databaseEngine.recoverFromWal();
+            logger.info("完成WAL日志恢复");
+            nioServer.acceptLoop();
+        } catch (IOException e) {
+            if (running) {
+                logger.error("服务器启动失败: {}", e.getMessage());
+            }
+        } finally {
+            shutdown();
+        }
+    }
+
     private void handleClient(Socket clientSocket) {
         try (clientSocket) {
             logger.debug("开始处理客户端请求: {}", clientSocket.getInetAddress());
-            ClientHandler handler = new ClientHandler(clientSocket, databaseEngine);
+            ClientHandler handler = new ClientHandler(clientSocket, databaseEngine, requestWorkers);
             handler.run();
             logger.debug("完成处理客户端请求: {}", clientSocket.getInetAddress());
         } catch (Exception e) {
@@ -59,6 +112,10 @@ public class NoSQLServer {
     public void shutdown() {
         running = false;
         threadPool.shutdown();
+        requestWorkers.shutdown();
+        if (nioServer != null) {
+            nioServer.shutdown();
+        }
         try {
             if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close();
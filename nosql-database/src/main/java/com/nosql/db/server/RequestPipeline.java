@@ -0,0 +1,155 @@
+package com.nosql.db.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.nosql.db.storage.OperationResult;
+
+// 单个连接上的命令调度。带requestId的命令可以并发执行、乱序返回，客户端按requestId匹配响应；
+// 同一文档上的读写仍按到达顺序生效，不带requestId的命令以及GET_ALL、EXIT等命令作为屏障，
+// 等待之前的命令全部完成后才执行，因此不使用requestId的旧客户端仍然是一问一答。
+// submit只能由连接的读取线程调用。
+class RequestPipeline {
+    private static final Logger logger = LoggerFactory.getLogger(RequestPipeline.class);
+    // 屏障之间累积的命令数超过该值时清理已完成的依赖
+    static final int CLEANUP_THRESHOLD = 1024;
+    private static final CompletableFuture<Void> COMPLETED =
+            CompletableFuture.completedFuture(null);
+
+    // 由连接按自己协商的协议编码并写回响应
+    interface ResponseSink {
+        void send(OperationResult result, boolean exit);
+    }
+
+    private final CommandExecutor commandExecutor;
+    private final Executor workers;
+    private final Map<String, KeyState> keys = new HashMap<>();
+    private final List<CompletableFuture<Void>> sinceBarrier = new ArrayList<>();
+    private CompletableFuture<Void> barrier = COMPLETED;
+    private boolean closing = false;
+
+    RequestPipeline(CommandExecutor commandExecutor, Executor workers) {
+        this.commandExecutor = commandExecutor;
+        this.workers = workers;
+    }
+
+    // 同一文档上最近一次写操作，以及之后尚未完成的读操作
+    private static final class KeyState {
+        private CompletableFuture<Void> lastWrite;
+        private final List<CompletableFuture<Void>> readsSinceWrite = new ArrayList<>();
+
+        KeyState(CompletableFuture<Void> lastWrite) {
+            this.lastWrite = lastWrite;
+        }
+    }
+
+    // command为null表示客户端发送的命令无法解析，按屏障处理并返回错误
+    CompletableFuture<Void> submit(Command command, ResponseSink sink) {
+        boolean exit = command != null && "EXIT".equalsIgnoreCase(command.getCommand());
+        if (exit) {
+            closing = true;
+        }
+        Runnable task = () -> {
+            OperationResult result = command == null
+                    ? new OperationResult(false, "错误: 无效的命令格式")
+                    : commandExecutor.execute(command, this);
+            if (command != null) {
+                result.setRequestId(command.getRequestId());
+            }
+            sink.send(result, exit);
+        };
+
+        if (command == null || command.getRequestId() == null) {
+            return schedule(null, false, task);
+        }
+        switch (command.getCommand() == null ? "" : command.getCommand()) {
+            case "GET":
+                return schedule(key(command.getCollection(), command.getId()), true, task);
+            case "DELETE":
+            case "PATCH":
+                return schedule(key(command.getCollection(), command.getId()), false, task);
+            case "INSERT":
+            case "UPDATE":
+                String id = command.getDocument() == null ? null : command.getDocument().getId();
+                if (id == null) {
+                    // 由服务端生成ID的插入不会与其他命令冲突
+                    return track(runAfter(barrier, task));
+                }
+                return schedule(key(command.getCollection(), id), false, task);
+            default:
+                return schedule(null, false, task);
+        }
+    }
+
+    // 连接关闭时调用，关闭在这个连接上打开的游标。仍在执行的OPEN_CURSOR打开的游标
+    // 可能晚于此处，留给空闲超时清理
+    void close() {
+        commandExecutor.closeCursors(this);
+    }
+
+    // 已收到EXIT，读取线程不应再提交新的命令
+    boolean isClosing() {
+        return closing;
+    }
+
+    // 上个屏障之后登记且尚未清理的命令和文档数，之前的命令都已完成时不超过CLEANUP_THRESHOLD的两倍
+    int tracked() {
+        return sinceBarrier.size() + keys.size();
+    }
+
+    private static String key(String collection, String id) {
+        return collection + '\u0000' + id;
+    }
+
+    private CompletableFuture<Void> schedule(String key, boolean read, Runnable task) {
+        if (key == null) {
+            sinceBarrier.add(barrier);
+            CompletableFuture<Void> previous =
+                    CompletableFuture.allOf(sinceBarrier.toArray(new CompletableFuture<?>[0]));
+            barrier = runAfter(previous, task);
+            sinceBarrier.clear();
+            keys.clear();
+            return barrier;
+        }
+        KeyState state = keys.computeIfAbsent(key, k -> new KeyState(barrier));
+        CompletableFuture<Void> future;
+        if (read) {
+            future = runAfter(state.lastWrite, task);
+            state.readsSinceWrite.add(future);
+        } else {
+            state.readsSinceWrite.add(state.lastWrite);
+            CompletableFuture<Void> previous = CompletableFuture.allOf(
+                    state.readsSinceWrite.toArray(new CompletableFuture<?>[0]));
+            future = runAfter(previous, task);
+            state.lastWrite = future;
+            state.readsSinceWrite.clear();
+        }
+        return track(future);
+    }
+
+    private CompletableFuture<Void> track(CompletableFuture<Void> future) {
+        sinceBarrier.add(future);
+        if (sinceBarrier.size() > CLEANUP_THRESHOLD) {
+            sinceBarrier.removeIf(CompletableFuture::isDone);
+            keys.values().removeIf(state -> state.lastWrite.isDone()
+                    && state.readsSinceWrite.stream().allMatch(CompletableFuture::isDone));
+        }
+        return future;
+    }
+
+    private CompletableFuture<Void> runAfter(CompletableFuture<Void> previous, Runnable task) {
+        return previous.handleAsync((ignored, error) -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.error("发送响应失败: {}", e.getMessage());
+            }
+            return null;
+        }, workers);
+    }
+}
@@ -0,0 +1,17 @@
+package com.nosql.db.server;
+
+public enum ServerMode {
+    // 每个连接占用线程池中的一个线程
+    BLOCKING,
+    // 少量Selector事件循环负责读写，命令交给工作线程池执行
+    NIO,
+    // 每个连接一个虚拟线程，连接数只受内存限制（需要JDK 21及以上）
+    VIRTUAL;
+
+    public static ServerMode fromString(String value) {
+        if (value == null || value.isEmpty()) {
+            return BLOCKING;
+        }
+        return valueOf(value.trim().toUpperCase());
+    }
+}
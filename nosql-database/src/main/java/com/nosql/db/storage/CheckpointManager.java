@@ -0,0 +1,100 @@
+package com.nosql.db.storage;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class CheckpointManager {
+    private static final Logger logger = LoggerFactory.getLogger(CheckpointManager.class);
+    private static final long CHECK_PERIOD_MILLIS = 1000;
+    private final DatabaseEngine databaseEngine;
+    private final WriteAheadLog wal;
+    private final long intervalMillis;
+    private final long walBytesThreshold;
+    private final ScheduledExecutorService scheduler;
+    // 检查点期间会写快照文件，用ReentrantLock代替synchronized以免钉住虚拟线程
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+    private long lastCheckpointTime = System.currentTimeMillis();
+    private long lastCheckpointBytes = 0;
+
+    public CheckpointManager(DatabaseEngine databaseEngine, WriteAheadLog wal,
+            long intervalMillis, long walBytesThreshold) {
+        this.databaseEngine = databaseEngine;
+        this.wal = wal;
+        this.intervalMillis = intervalMillis;
+        this.walBytesThreshold = walBytesThreshold;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::checkpointIfNeeded, CHECK_PERIOD_MILLIS,
+                CHECK_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        logger.info("检查点线程已启动，时间间隔: {}ms, WAL阈值: {}字节", intervalMillis,
+                walBytesThreshold);
+    }
+
+    private void checkpointIfNeeded() {
+        // 空闲游标的快照会阻止回收旧版本和推进检查点LSN，先关闭超时的游标
+        databaseEngine.expireIdleCursors();
+        long written = wal.getBytesWritten() - lastCheckpointBytes;
+        long elapsed = System.currentTimeMillis() - lastCheckpointTime;
+        if (written >= walBytesThreshold || (written > 0 && elapsed >= intervalMillis)) {
+            checkpoint();
+        }
+    }
+
+    // 依次为每个集合写快照，然后删除所有集合都已覆盖的WAL段
+    public boolean checkpoint() {
+        checkpointLock.lock();
+        try {
+            return doCheckpoint();
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    private boolean doCheckpoint() {
+        if (!databaseEngine.isRecovered()) {
+            logger.debug("WAL恢复尚未完成，跳过检查点");
+            return false;
+        }
+        long bytes = wal.getBytesWritten();
+        long start = System.currentTimeMillis();
+        long minLsn = Long.MAX_VALUE;
+        try {
+            for (Collection collection : databaseEngine.getCollections()) {
+                minLsn = Math.min(minLsn, collection.saveDocuments());
+            }
+        } catch (IOException e) {
+            logger.error("检查点失败: {}", e.getMessage(), e);
+            return false;
+        } finally {
+            lastCheckpointTime = System.currentTimeMillis();
+        }
+        lastCheckpointBytes = bytes;
+        int deleted = minLsn == Long.MAX_VALUE ? 0 : wal.truncateBefore(minLsn);
+        logger.info("检查点完成，检查点LSN: {}, 删除WAL文件: {}, 耗时: {}ms",
+                minLsn == Long.MAX_VALUE ? "-" : minLsn, deleted,
+                System.currentTimeMillis() - start);
+        return true;
+    }
+
+    public void shutdown() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkpoint();
+        logger.info("检查点线程已关闭");
+    }
+}
@@ -1,111 +1,609 @@
 package com.nosql.db.storage;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.nosql.db.index.IndexManager;
+import com.nosql.db.index.IndexType;
+import com.nosql.db.index.SearchResult;
+import com.nosql.db.query.Query;
+import com.nosql.db.query.QueryPlan;
+import com.nosql.db.query.QueryPlanner;
+import com.nosql.db.storage.lsm.LsmStorageEngine;
+import com.nosql.db.storage.offheap.OffHeapStorageEngine;
 import com.nosql.db.utils.FileUtils;
 
 public class Collection {
     private static final Logger logger = LoggerFactory.getLogger(Collection.class);
+    private static final String ENGINE_FILE = "engine";
+    private static final String INDEX_FILE = "indexes.dat";
+    // 写锁按文档ID分段，分段数为2的幂
+    private static final int LOCK_STRIPES = 64;
+    // 每个集合的文档编码缓存预算
+    public static final long DEFAULT_DOCUMENT_CACHE_BYTES = 32L * 1024 * 1024;
     private final String name;
     private final String dataDirectory;
-    private final Map<String, Document> documents;
-    private final ReadWriteLock lock;
+    private final StorageEngine documents;
+    // 写入只锁文档ID所在的分段: 不同文档的写入并发进行，同一文档的写入按顺序追加WAL并应用到内存，
+    // 因此WAL中同一文档的记录顺序与内存中的应用顺序一致。读取不加锁，不会等待写入或落盘。
+    // 检查点和登记索引需要没有写入停在"已追加WAL、尚未应用"之间，按顺序获取全部分段
+    private final ReentrantLock[] stripes;
+    // 文档的最新版本通过versions读写，快照期间的写入在这里保留旧版本
+    private final VersionStore versions;
+    // GET返回的文档编码，写入时失效
+    private final DocumentCache cache;
     private final WriteAheadLog wal;
     private final IndexManager indexManager;
+    // 快照已包含LSN小于该值的全部记录，恢复时只需重放之后的WAL
+    private volatile long checkpointLsn = 0;
+    private final AtomicBoolean dirty = new AtomicBoolean(true);
 
     public Collection(String name, String dataDirectory, WriteAheadLog wal,
             IndexManager indexManager) {
+        this(name, dataDirectory, wal, indexManager, StorageEngineType.MEMORY);
+    }
+
+    public Collection(String name, String dataDirectory, WriteAheadLog wal,
+            IndexManager indexManager, StorageEngineType engineType) {
+        this(name, dataDirectory, wal, indexManager, engineType, DEFAULT_DOCUMENT_CACHE_BYTES);
+    }
+
+    public Collection(String name, String dataDirectory, WriteAheadLog wal,
+            IndexManager indexManager, StorageEngineType engineType, long documentCacheBytes) {
         this.name = name;
         this.dataDirectory = dataDirectory;
-        this.documents = new ConcurrentHashMap<>();
-        this.lock = new ReentrantReadWriteLock();
+        initCollectionDirectory();
+        this.documents = createStorageEngine(resolveEngineType(engineType));
+        this.stripes = new ReentrantLock[LOCK_STRIPES];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.versions = new VersionStore(documents, this::stripe, () -> dirty.set(true));
+        this.cache = new DocumentCache(documentCacheBytes,
+                documents instanceof MemoryStorageEngine);
         this.wal = wal;
         this.indexManager = indexManager;
-        initCollectionDirectory();
         loadDocuments();
-        logger.info("集合{}初始化完成，文档数量: {}", name, documents.size());
+        logger.info("集合{}初始化完成，文档数量: {}", name, size());
     }
 
+    // WAL记录在分段锁内按顺序追加(组提交模式下只是入队，分配LSN和写盘由提交线程按入队顺序完成)，
+    // 等待落盘放在锁外，使并发写入可以合并提交
     public OperationResult insert(Document document) {
-        lock.writeLock().lock();
+        CompletableFuture<Long> durable;
+        ReentrantLock stripe = stripe(document.getId());
+        stripe.lock();
         try {
-            if (documents.containsKey(document.getId())) {
+            if (versions.containsKey(document.getId())) {
                 logger.warn("插入失败: 文档ID已存在 {}", document.getId());
                 return new OperationResult(false, "Document ID已存在: " + document.getId());
             }
 
-            wal.write("INSERT", name, document.toJson());
-            documents.put(document.getId(), document);
-            indexManager.updateIndex(name, document);
-
-            logger.info("成功插入文档到集合{}，ID: {}", name, document.getId());
-            return new OperationResult(true, "插入成功", document.getId());
+            durable = wal.append(WalOperation.INSERT, name, document.toJson());
+            dirty.set(true);
+            apply(document);
         } finally {
-            lock.writeLock().unlock();
+            stripe.unlock();
         }
+        wal.awaitDurable(durable);
+
+        logger.info("成功插入文档到集合{}，ID: {}", name, document.getId());
+        return new OperationResult(true, "插入成功", document.getId());
     }
 
     public OperationResult update(Document document) {
-        lock.writeLock().lock();
+        CompletableFuture<Long> durable;
+        ReentrantLock stripe = stripe(document.getId());
+        stripe.lock();
         try {
-            wal.write("UPDATE", name, document.toJson());
-            if (!documents.containsKey(document.getId())) {
+            durable = wal.append(WalOperation.UPDATE, name, document.toJson());
+            dirty.set(true);
+            if (!versions.containsKey(document.getId())) {
                 return new OperationResult(false, "Document不存在: " + document.getId());
             }
-            documents.put(document.getId(), document);
-            indexManager.updateIndex(name, document);
-            return new OperationResult(true, "更新成功", document.getId());
+            apply(document);
         } finally {
-            lock.writeLock().unlock();
+            stripe.unlock();
         }
+        wal.awaitDurable(durable);
+        return new OperationResult(true, "更新成功", document.getId());
     }
 
-    public OperationResult delete(String id) {
-        lock.writeLock().lock();
+    // 字段级更新: 在分段锁内读取最新版本并应用更新操作，同一文档上并发的部分更新依次执行，
+    // 不会丢失。WAL只记录解析后的增量，索引中只更新键受影响的索引
+    public OperationResult patch(String id, Map<String, Object> update) {
+        DocumentPatch patch;
         try {
-            wal.write("DELETE", name, id);
-            if (documents.remove(id) == null) {
+            patch = DocumentPatch.parse(update);
+        } catch (IllegalArgumentException e) {
+            return new OperationResult(false, e.getMessage());
+        }
+        CompletableFuture<Long> durable;
+        ReentrantLock stripe = stripe(id);
+        stripe.lock();
+        try {
+            Document current = versions.get(id);
+            if (current == null) {
                 return new OperationResult(false, "Document不存在: " + id);
             }
-            indexManager.deleteFromIndex(name, id);
-            return new OperationResult(true, "删除成功", id);
+            DocumentPatch.Delta delta;
+            try {
+                delta = patch.apply(current, System.currentTimeMillis());
+            } catch (IllegalArgumentException e) {
+                return new OperationResult(false, e.getMessage());
+            }
+            durable = wal.append(WalOperation.PATCH, name, delta.toJson());
+            dirty.set(true);
+            versions.beginWrite();
+            try {
+                applyPatchLocked(delta.getResult(), delta);
+            } finally {
+                versions.endWrite();
+            }
         } finally {
-            lock.writeLock().unlock();
+            stripe.unlock();
         }
+        wal.awaitDurable(durable);
+        return new OperationResult(true, "更新成功", id);
     }
 
-    public OperationResult get(String id) {
-        lock.readLock().lock();
+    public OperationResult delete(String id) {
+        CompletableFuture<Long> durable;
+        ReentrantLock stripe = stripe(id);
+        stripe.lock();
         try {
-            Document doc = documents.get(id);
-            if (doc != null) {
-                return new OperationResult(true, "查询成功", doc);
-            } else {
+            durable = wal.append(WalOperation.DELETE, name, id);
+            dirty.set(true);
+            if (!versions.containsKey(id)) {
                 return new OperationResult(false, "Document不存在: " + id);
             }
+            applyDelete(id);
+        } finally {
+            stripe.unlock();
+        }
+        wal.awaitDurable(durable);
+        return new OperationResult(true, "删除成功", id);
+    }
+
+    // 批量写入: 一次锁住涉及的全部分段、一批WAL记录、一次等待落盘。
+    // 操作按顺序校验，后面的操作能看到前面操作的效果；校验失败的操作不写WAL，也不影响同批次的其他操作
+    public OperationResult bulkWrite(List<WriteOperation> operations) {
+        OperationResult[] results = new OperationResult[operations.size()];
+        List<WriteOperation> accepted = new ArrayList<>();
+        List<WalOperation> walOperations = new ArrayList<>();
+        List<String> walData = new ArrayList<>();
+        CompletableFuture<Long> durable;
+        boolean[] locked = new boolean[stripes.length];
+        for (WriteOperation op : operations) {
+            if (op != null && op.getId() != null) {
+                locked[stripeIndex(op.getId())] = true;
+            }
+        }
+        lockStripes(locked);
+        try {
+            // 本批次中已被前面的操作改变了存在性的文档
+            Map<String, Boolean> exists = new HashMap<>();
+            for (int i = 0; i < results.length; i++) {
+                WriteOperation op = operations.get(i);
+                results[i] = validate(op, exists);
+                if (results[i] == null) {
+                    accepted.add(op);
+                    walOperations.add(op.getOperation());
+                    walData.add(op.getOperation() == WalOperation.DELETE ? op.getId()
+                            : op.getDocument().toJson());
+                }
+            }
+            durable = wal.appendAll(name, walOperations, walData);
+            if (!accepted.isEmpty()) {
+                dirty.set(true);
+            }
+            // 整批在同一个提交区间内应用，快照要么看到全部要么都看不到
+            versions.beginWrite();
+            try {
+                for (WriteOperation op : accepted) {
+                    if (op.getOperation() == WalOperation.DELETE) {
+                        applyDeleteLocked(op.getId());
+                    } else {
+                        applyLocked(op.getDocument());
+                    }
+                }
+            } finally {
+                versions.endWrite();
+            }
         } finally {
-            lock.readLock().unlock();
+            unlockStripes(locked);
+        }
+        wal.awaitDurable(durable);
+
+        int failed = 0;
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] != null) {
+                failed++;
+                continue;
+            }
+            WriteOperation op = operations.get(i);
+            switch (op.getOperation()) {
+                case INSERT:
+                    results[i] = new OperationResult(true, "插入成功", op.getId());
+                    break;
+                case UPDATE:
+                    results[i] = new OperationResult(true, "更新成功", op.getId());
+                    break;
+                default:
+                    results[i] = new OperationResult(true, "删除成功", op.getId());
+                    break;
+            }
+        }
+        logger.info("集合{}批量写入完成，成功: {}, 失败: {}", name, accepted.size(), failed);
+        return new OperationResult(failed == 0,
+                "批量写入完成: 成功 " + accepted.size() + " 条, 失败 " + failed + " 条",
+                Arrays.asList(results));
+    }
+
+    // 校验通过返回null，否则返回该操作的失败结果
+    private OperationResult validate(WriteOperation op, Map<String, Boolean> exists) {
+        if (op == null || op.getOperation() == null) {
+            return new OperationResult(false, "无效的操作");
+        }
+        if (op.getOperation() == WalOperation.PATCH) {
+            return new OperationResult(false, "批量写入不支持PATCH");
+        }
+        if (op.getOperation() != WalOperation.DELETE && op.getDocument() == null) {
+            return new OperationResult(false, "文档不能为空");
+        }
+        String id = op.getId();
+        if (id == null) {
+            return new OperationResult(false, "文档ID不能为空");
+        }
+        boolean present = exists.computeIfAbsent(id, versions::containsKey);
+        switch (op.getOperation()) {
+            case INSERT:
+                if (present) {
+                    return new OperationResult(false, "Document ID已存在: " + id);
+                }
+                exists.put(id, true);
+                return null;
+            case UPDATE:
+                return present ? null : new OperationResult(false, "Document不存在: " + id);
+            default:
+                if (!present) {
+                    return new OperationResult(false, "Document不存在: " + id);
+                }
+                exists.put(id, false);
+                return null;
+        }
+    }
+
+    // 读取不加锁，读到某个已应用的最新版本。返回EncodedDocument，热点文档的编码由缓存复用
+    public OperationResult get(String id) {
+        EncodedDocument doc = cache.get(id, versions::get);
+        if (doc != null) {
+            return new OperationResult(true, "查询成功", doc);
+        } else {
+            return new OperationResult(false, "Document不存在: " + id);
         }
     }
 
+    // 在快照上遍历，结果是某个时刻的一致视图，遍历期间的写入既不阻塞也不可见
     public OperationResult getAll() {
-        lock.readLock().lock();
+        List<Document> list = new ArrayList<>();
+        try (Snapshot snapshot = versions.openSnapshot()) {
+            snapshot.iterator().forEachRemaining(list::add);
+        }
+        return new OperationResult(true, "查询到 " + list.size() + " 条记录", list);
+    }
+
+    // 按查询计划取候选文档，再用完整的过滤条件复核。全集合扫描在快照上进行；
+    // 走索引时索引与文档可能来自并发写入的不同时刻，复核保证返回的文档本身满足条件
+    public OperationResult find(Query query) {
+        QueryPlan plan = QueryPlanner.plan(query, indexManager, name, size());
+        List<Document> result = execute(query, plan, new LongAdder());
+        return new OperationResult(true, "查询到 " + result.size() + " 条记录", result);
+    }
+
+    // 执行查询但只返回计划和执行统计
+    public OperationResult explain(Query query) {
+        long start = System.nanoTime();
+        QueryPlan plan = QueryPlanner.plan(query, indexManager, name, size());
+        LongAdder examined = new LongAdder();
+        List<Document> result = execute(query, plan, examined);
+        Map<String, Object> explain = plan.describe();
+        explain.put("docsExamined", examined.sum());
+        explain.put("returned", result.size());
+        explain.put("millis", (System.nanoTime() - start) / 1_000_000.0);
+        return new OperationResult(true, "查询计划: " + plan.getType(), explain);
+    }
+
+    // 全文搜索: 由全文索引按得分选出文档ID，读取文档后按query的过滤条件复核，再分页和投影。
+    // 没有过滤条件时只向索引要skip+limit个结果；有过滤条件时取全部匹配按得分依次过滤。
+    // 返回的每一项包含score和document
+    public OperationResult search(String indexName, String text, Query query) {
+        long wanted = query.getFilter().isMatchAll()
+                ? Math.min(Integer.MAX_VALUE, query.getSkip() + Math.min(query.getLimit(),
+                        Integer.MAX_VALUE))
+                : Integer.MAX_VALUE;
+        SearchResult result;
+        try {
+            result = indexManager.search(name, indexName, text, (int) wanted);
+        } catch (IllegalArgumentException e) {
+            return new OperationResult(false, e.getMessage());
+        }
+        List<Map<String, Object>> hits = new ArrayList<>();
+        long skipped = 0;
+        for (SearchResult.Hit hit : result.getHits()) {
+            if (hits.size() >= query.getLimit()) {
+                break;
+            }
+            // 索引与集合之间没有锁，搜索期间被删除的文档跳过
+            Document document = versions.get(hit.getId());
+            if (document == null || !query.getFilter().matches(document)
+                    || skipped++ < query.getSkip()) {
+                continue;
+            }
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("score", hit.getScore());
+            entry.put("document", query.project(document));
+            hits.add(entry);
+        }
+        return new OperationResult(true, "全文匹配 " + result.getTotal() + " 条记录，返回 "
+                + hits.size() + " 条", hits);
+    }
+
+    // 在后台从现有文档建立索引，写入不受影响。只在登记索引时短暂持有全部分段锁:
+    // 此前完成的写入都已在存储引擎中，由回填读到；此后的写入直接进入索引。
+    // 回填在pool中并行分块遍历存储引擎，完成后索引才供查询使用
+    public OperationResult createIndex(List<String> fields, IndexType type, List<String> include,
+            ForkJoinPool pool) {
+        String indexName;
+        lockAllStripes();
+        try {
+            indexName = indexManager.beginBuild(name, fields, type, include, size());
+        } catch (IllegalArgumentException e) {
+            return new OperationResult(false, e.getMessage());
+        } finally {
+            unlockAllStripes();
+        }
+        pool.execute(() -> buildIndex(indexName));
+        return new OperationResult(true, "开始建立索引: " + indexName, indexName);
+    }
+
+    private void buildIndex(String indexName) {
+        try {
+            // 快照期间删除的文档还留在存储引擎中，按最新版本回填
+            boolean completed = documents.stream(true).map(versions::current)
+                    .filter(Objects::nonNull)
+                    .allMatch(document -> indexManager.backfill(name, indexName, document));
+            if (!completed || !indexManager.finishBuild(name, indexName)) {
+                logger.info("集合{}的索引{}在建立过程中被删除", name, indexName);
+            }
+            // 下一个检查点写出新索引的内容
+            dirty.set(true);
+        } catch (RuntimeException e) {
+            logger.error("集合{}的索引{}建立失败: {}", name, indexName, e.getMessage(), e);
+            indexManager.failBuild(name, indexName, e.getMessage());
+        }
+    }
+
+    public OperationResult dropIndex(String indexName) {
+        if (!indexManager.dropIndex(name, indexName)) {
+            return new OperationResult(false, "索引不存在: " + indexName);
+        }
+        dirty.set(true);
+        return new OperationResult(true, "索引已删除: " + indexName, indexName);
+    }
+
+    public OperationResult listIndexes() {
+        List<Map<String, Object>> indexes = indexManager.describeIndexes(name);
+        return new OperationResult(true, "共 " + indexes.size() + " 个索引", indexes);
+    }
+
+    // 文档编码缓存的占用和命中情况
+    public OperationResult cacheStats() {
+        return new OperationResult(true, "文档缓存统计", cache.stats());
+    }
+
+    // 按索引顺序产生候选时流是有序且串行的，skip/limit满足后即停止读取。
+    // 覆盖查询的候选是索引中的投影，同样经过复核、排序和投影
+    private List<Document> execute(Query query, QueryPlan plan, LongAdder examined) {
+        if (!plan.isCollectionScan()) {
+            return execute(query, plan, plan.candidates(indexManager, name, versions::get),
+                    examined);
+        }
+        try (Snapshot snapshot = versions.openSnapshot()) {
+            return execute(query, plan, snapshot.stream(plan.isParallel()), examined);
+        }
+    }
+
+    private List<Document> execute(Query query, QueryPlan plan, Stream<Document> candidates,
+            LongAdder examined) {
+        Stream<Document> matched = candidates.peek(document -> examined.increment())
+                .filter(query.getFilter()::matches);
+        if (query.getSortField() != null && !plan.isSorted()) {
+            matched = matched.sorted(query.comparator());
+        }
+        if (query.getSkip() > 0) {
+            matched = matched.skip(query.getSkip());
+        }
+        return matched.limit(query.getLimit()).map(query::project)
+                .collect(Collectors.toList());
+    }
+
+    // 打开快照，调用方负责关闭。游标在快照上分批读取
+    public Snapshot openSnapshot() {
+        return versions.openSnapshot();
+    }
+
+    // 恢复专用的应用路径：直接修改内存状态和索引，不再写WAL，返回应用失败的记录数
+    int replay(List<WalRecord> records) {
+        int failed = 0;
+        lockAllStripes();
+        versions.beginWrite();
+        try {
+            for (WalRecord record : records) {
+                if (record.getLsn() < checkpointLsn) {
+                    continue;
+                }
+                try {
+                    applyRecord(record);
+                } catch (Exception e) {
+                    logger.error("应用WAL条目失败: 集合={}, LSN={}", name, record.getLsn(), e);
+                    failed++;
+                }
+            }
+        } finally {
+            versions.endWrite();
+            unlockAllStripes();
+        }
+        return failed;
+    }
+
+    private void applyRecord(WalRecord record) {
+        switch (record.getOperation()) {
+            case INSERT:
+                applyLocked(Document.fromJson(record.getData()));
+                break;
+            case UPDATE:
+                Document updated = Document.fromJson(record.getData());
+                // 与在线路径一致：更新不存在的文档不会生效
+                if (versions.containsKey(updated.getId())) {
+                    applyLocked(updated);
+                }
+                break;
+            case PATCH:
+                DocumentPatch.Delta delta = DocumentPatch.Delta.fromJson(record.getData());
+                Document current = versions.get(delta.getId());
+                if (current != null) {
+                    applyPatchLocked(delta.applyTo(current), delta);
+                }
+                break;
+            case DELETE:
+                if (versions.containsKey(record.getData())) {
+                    versions.remove(record.getData());
+                    cache.invalidate(record.getData());
+                }
+                // 模糊检查点中索引文件可能还包含快照里已经没有的文档，总是从索引中删除
+                indexManager.deleteFromIndex(name, record.getData());
+                break;
+        }
+    }
+
+    // 以下五个方法修改文档的最新版本和索引，调用方持有文档的分段锁，
+    // 带Locked后缀的还要求调用方已经调用了versions.beginWrite
+    private void apply(Document document) {
+        versions.beginWrite();
+        try {
+            applyLocked(document);
+        } finally {
+            versions.endWrite();
+        }
+    }
+
+    private void applyDelete(String id) {
+        versions.beginWrite();
         try {
-            List<Document> list = new ArrayList<>(documents.values());
-            return new OperationResult(true, "查询到 " + list.size() + " 条记录", list);
+            applyDeleteLocked(id);
         } finally {
-            lock.readLock().unlock();
+            versions.endWrite();
+        }
+    }
+
+    private void applyLocked(Document document) {
+        versions.put(document);
+        cache.invalidate(document.getId());
+        indexManager.updateIndex(name, document);
+    }
+
+    private void applyPatchLocked(Document document, DocumentPatch.Delta delta) {
+        versions.put(document);
+        cache.invalidate(document.getId());
+        indexManager.updateIndex(name, document, delta.paths());
+    }
+
+    private void applyDeleteLocked(String id) {
+        versions.remove(id);
+        cache.invalidate(id);
+        indexManager.deleteFromIndex(name, id);
+    }
+
+    private ReentrantLock stripe(String id) {
+        return stripes[stripeIndex(id)];
+    }
+
+    // 打散hashCode的高位，避免只差在高位的ID落到同一分段
+    private static int stripeIndex(String id) {
+        int h = id.hashCode();
+        return (h ^ (h >>> 16)) & (LOCK_STRIPES - 1);
+    }
+
+    // 按下标升序加锁、逆序解锁，同时持有多个分段的调用方之间不会死锁
+    private void lockStripes(boolean[] selected) {
+        for (int i = 0; i < stripes.length; i++) {
+            if (selected[i]) {
+                stripes[i].lock();
+            }
+        }
+    }
+
+    private void unlockStripes(boolean[] selected) {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            if (selected[i]) {
+                stripes[i].unlock();
+            }
+        }
+    }
+
+    private void lockAllStripes() {
+        for (ReentrantLock stripe : stripes) {
+            stripe.lock();
+        }
+    }
+
+    private void unlockAllStripes() {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].unlock();
         }
     }
 
+    long getCheckpointLsn() {
+        return checkpointLsn;
+    }
+
+    // 打开着的快照数(含游标持有的快照)
+    int openSnapshotCount() {
+        return versions.snapshotCount();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long size() {
+        return versions.size();
+    }
+
+    public void close() throws IOException {
+        documents.close();
+    }
+
     private void initCollectionDirectory() {
         try {
             FileUtils.createDirectoryIfNotExists(dataDirectory);
@@ -114,11 +612,111 @@ public class Collection {
         }
     }
 
+    // 存储引擎类型在集合首次创建时写入目录，之后以磁盘上的记录为准
+    private StorageEngineType resolveEngineType(StorageEngineType requested) {
+        Path engineFile = Paths.get(dataDirectory, ENGINE_FILE);
+        try {
+            if (Files.exists(engineFile)) {
+                String content = new String(Files.readAllBytes(engineFile), StandardCharsets.UTF_8);
+                StorageEngineType stored = StorageEngineType.fromString(content);
+                if (stored != requested) {
+                    logger.warn("集合{}已使用{}存储引擎，忽略请求的{}", name, stored, requested);
+                }
+                return stored;
+            }
+            Files.write(engineFile, requested.name().getBytes(StandardCharsets.UTF_8));
+            return requested;
+        } catch (IOException e) {
+            throw new RuntimeException("读取集合存储引擎类型失败: " + e.getMessage(), e);
+        }
+    }
+
+    private StorageEngine createStorageEngine(StorageEngineType engineType) {
+        logger.info("集合{}使用{}存储引擎", name, engineType);
+        switch (engineType) {
+            case LSM:
+                return new LsmStorageEngine(dataDirectory, name);
+            case OFF_HEAP:
+                return new OffHeapStorageEngine(dataDirectory);
+            case MEMORY:
+            default:
+                return new MemoryStorageEngine(dataDirectory);
+        }
+    }
+
     private void loadDocuments() {
         logger.info("加载集合{}的文档", name);
+        try {
+            checkpointLsn = documents.load();
+        } catch (IOException e) {
+            throw new RuntimeException("加载集合数据失败: " + e.getMessage(), e);
+        }
+        if (indexManager.hasIndexes(name)) {
+            Iterator<Document> it = documents.iterator();
+            while (it.hasNext()) {
+                indexManager.updateIndex(name, it.next());
+            }
+        }
+        loadIndexes();
+        logger.info("加载集合{}完成，文档数量: {}, 检查点LSN: {}", name, documents.size(),
+                checkpointLsn);
+    }
+
+    // 索引文件与快照一致时直接加载，不必重新扫描文档；不一致或只有定义的索引从已加载的文档回填。
+    // 索引文件损坏时放弃其中的索引，不影响集合本身的加载
+    private void loadIndexes() {
+        List<String> rebuild;
+        try {
+            rebuild = indexManager.load(name, Paths.get(dataDirectory, INDEX_FILE), checkpointLsn,
+                    documents.size());
+        } catch (IOException | RuntimeException e) {
+            logger.error("加载集合{}的索引文件失败，需要重新建立索引: {}", name, e.getMessage(), e);
+            return;
+        }
+        for (String indexName : rebuild) {
+            long start = System.currentTimeMillis();
+            buildIndex(indexName);
+            logger.info("集合{}的索引{}从文档重建完成，耗时: {}ms", name, indexName,
+                    System.currentTimeMillis() - start);
+        }
     }
 
-    private void saveDocuments() {
+    // 只在取检查点LSN时短暂持有全部分段锁，之后由存储引擎在锁外持久化，不阻塞写入。
+    // 持久化期间的并发修改可能部分进入检查点，恢复时从检查点LSN重放即可覆盖
+    long saveDocuments() throws IOException {
+        long lsn;
+        lockAllStripes();
+        try {
+            lsn = wal.getNextLsn();
+            // 快照期间删除的文档还留在存储引擎中，会被写进检查点，检查点LSN不能越过这些删除记录。
+            // 沿用上一个检查点LSN: 它取自没有这类文档的时刻，之后的删除记录都在它之后
+            if (versions.retainedDeletes() > 0) {
+                logger.debug("集合{}有{}个快照期间删除的文档尚未回收，检查点LSN保持为{}", name,
+                        versions.retainedDeletes(), checkpointLsn);
+                lsn = checkpointLsn;
+            }
+            if (!dirty.getAndSet(false)) {
+                logger.debug("集合{}自上次检查点后没有修改，跳过快照", name);
+                checkpointLsn = lsn;
+                return lsn;
+            }
+        } finally {
+            unlockAllStripes();
+        }
+
         logger.debug("保存集合{}的文档", name);
+        try {
+            long start = System.currentTimeMillis();
+            documents.checkpoint(lsn);
+            // 索引文件在文档快照之后写出，两者之间崩溃时LSN不一致，加载时从文档重建索引
+            indexManager.checkpoint(name, Paths.get(dataDirectory, INDEX_FILE), lsn);
+            checkpointLsn = lsn;
+            logger.info("集合{}检查点完成，文档数量: {}, 检查点LSN: {}, 耗时: {}ms", name,
+                    size(), lsn, System.currentTimeMillis() - start);
+            return lsn;
+        } catch (IOException e) {
+            dirty.set(true);
+            throw e;
+        }
     }
 }
@@ -0,0 +1,288 @@
+package com.nosql.db.storage;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+// 存储文档的紧凑数据布局，只读。字段名换成集合字典中的编号，Long和Double值不装箱保存在long数组中，
+// 其余值保存在引用数组中；嵌套对象同样压缩，全是Long或全是Double的数组换成NumberList。
+// 每个字段一个int描述符: 高16位是字段编号，第14、15位是值的类型，低14位是值在对应数组中的下标。
+// 描述符按字段编号排序，按字段名查找时二分。读取时按需装箱，修改文档时Document用thaw换回HashMap
+final class CompactMap extends AbstractMap<String, Object> implements Serializable {
+    private static final long serialVersionUID = 1L;
+    // 单个对象最多的字段数，受描述符中下标的位数限制
+    static final int MAX_FIELDS = 1 << 14;
+    private static final int KIND_LONG = 0;
+    private static final int KIND_DOUBLE = 1;
+    private static final int KIND_REF = 2;
+    private static final int[] NO_SLOTS = new int[0];
+    private static final long[] NO_PRIMITIVES = new long[0];
+    private static final Object[] NO_REFS = new Object[0];
+
+    private final transient FieldDictionary dictionary;
+    private final int[] slots;
+    private final long[] primitives;
+    private final Object[] refs;
+
+    private CompactMap(FieldDictionary dictionary, int[] slots, long[] primitives,
+            Object[] refs) {
+        this.dictionary = dictionary;
+        this.slots = slots;
+        this.primitives = primitives;
+        this.refs = refs;
+    }
+
+    // 压缩data，字段过多、键不是字符串或字典已满时返回原对象
+    static Map<String, Object> compact(Map<String, Object> data, FieldDictionary dictionary) {
+        Object compacted = compactMap(data, dictionary);
+        @SuppressWarnings("unchecked")
+        Map<String, Object> result = (Map<String, Object>) compacted;
+        return result;
+    }
+
+    private static Object compactMap(Map<?, ?> data, FieldDictionary dictionary) {
+        if (data instanceof CompactMap || data.size() > MAX_FIELDS) {
+            return data;
+        }
+        // 高32位是字段编号，低32位是在values中的位置，排序后即按编号排列
+        long[] order = new long[data.size()];
+        Object[] values = new Object[data.size()];
+        int n = 0;
+        int primitiveCount = 0;
+        for (Map.Entry<?, ?> entry : data.entrySet()) {
+            if (!(entry.getKey() instanceof String)) {
+                return data;
+            }
+            int id = dictionary.intern((String) entry.getKey());
+            if (id < 0) {
+                return data;
+            }
+            Object value = compactValue(entry.getValue(), dictionary);
+            if (value instanceof Long || value instanceof Double) {
+                primitiveCount++;
+            }
+            order[n] = (long) id << 32 | n;
+            values[n++] = value;
+        }
+        Arrays.sort(order);
+        int[] slots = n == 0 ? NO_SLOTS : new int[n];
+        long[] primitives = primitiveCount == 0 ? NO_PRIMITIVES : new long[primitiveCount];
+        Object[] refs = n == primitiveCount ? NO_REFS : new Object[n - primitiveCount];
+        int p = 0;
+        int r = 0;
+        for (int i = 0; i < n; i++) {
+            int id = (int) (order[i] >>> 32);
+            Object value = values[(int) order[i]];
+            if (value instanceof Long) {
+                slots[i] = id << 16 | KIND_LONG << 14 | p;
+                primitives[p++] = (Long) value;
+            } else if (value instanceof Double) {
+                slots[i] = id << 16 | KIND_DOUBLE << 14 | p;
+                primitives[p++] = Double.doubleToRawLongBits((Double) value);
+            } else {
+                slots[i] = id << 16 | KIND_REF << 14 | r;
+                refs[r++] = value;
+            }
+        }
+        return new CompactMap(dictionary, slots, primitives, refs);
+    }
+
+    // compact的逆过程: 换成可修改的HashMap，嵌套的CompactMap、NumberList和数组一并换成HashMap和ArrayList
+    static Map<String, Object> thaw(Map<String, Object> data) {
+        Map<String, Object> thawed = new HashMap<>(data.size() * 4 / 3 + 1);
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            thawed.put(entry.getKey(), thawValue(entry.getValue()));
+        }
+        return thawed;
+    }
+
+    private static Object thawValue(Object value) {
+        if (value instanceof Map) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> map = (Map<String, Object>) value;
+            return thaw(map);
+        }
+        if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            List<Object> thawed = new ArrayList<>(list.size());
+            for (Object element : list) {
+                thawed.add(thawValue(element));
+            }
+            return thawed;
+        }
+        return value;
+    }
+
+    private static Object compactValue(Object value, FieldDictionary dictionary) {
+        if (value instanceof Map) {
+            return compactMap((Map<?, ?>) value, dictionary);
+        }
+        if (value instanceof List && !(value instanceof NumberList)) {
+            List<?> list = (List<?>) value;
+            NumberList numbers = NumberList.of(list);
+            if (numbers != null) {
+                return numbers;
+            }
+            List<Object> compacted = new ArrayList<>(list.size());
+            for (Object element : list) {
+                compacted.add(compactValue(element, dictionary));
+            }
+            return compacted;
+        }
+        if (value instanceof Boolean) {
+            // 只保留共享的两个Boolean实例
+            return Boolean.valueOf((Boolean) value);
+        }
+        return value;
+    }
+
+    private int indexOf(Object key) {
+        if (!(key instanceof String)) {
+            return -1;
+        }
+        int id = dictionary.idOf((String) key);
+        if (id < 0) {
+            return -1;
+        }
+        int low = 0;
+        int high = slots.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = slots[mid] >>> 16;
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private Object valueAt(int index) {
+        int slot = slots[index];
+        int position = slot & (MAX_FIELDS - 1);
+        switch ((slot >>> 14) & 3) {
+            case KIND_LONG:
+                return primitives[position];
+            case KIND_DOUBLE:
+                return Double.longBitsToDouble(primitives[position]);
+            default:
+                return refs[position];
+        }
+    }
+
+    @Override
+    public Object get(Object key) {
+        int index = indexOf(key);
+        return index < 0 ? null : valueAt(index);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return slots.length;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        // 不缓存视图对象，避免遍历过的每个文档都多占一个对象
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new Iterator<Map.Entry<String, Object>>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < slots.length;
+                    }
+
+                    @Override
+                    public Map.Entry<String, Object> next() {
+                        if (next >= slots.length) {
+                            throw new NoSuchElementException();
+                        }
+                        int index = next++;
+                        return new SimpleImmutableEntry<>(
+                                dictionary.nameOf(slots[index] >>> 16), valueAt(index));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return slots.length;
+            }
+        };
+    }
+
+    // Java序列化时换成HashMap，不带字典
+    private Object writeReplace() {
+        return new HashMap<>(this);
+    }
+
+    // 全是Long或全是Double的非空数组，元素不装箱保存，只读
+    static final class NumberList extends AbstractList<Object>
+            implements RandomAccess, Serializable {
+        private static final long serialVersionUID = 1L;
+        private final long[] values;
+        private final boolean doubles;
+
+        private NumberList(long[] values, boolean doubles) {
+            this.values = values;
+            this.doubles = doubles;
+        }
+
+        // 元素类型不一致时返回null
+        static NumberList of(List<?> list) {
+            if (list.isEmpty()) {
+                return null;
+            }
+            Class<?> type = list.get(0) == null ? null : list.get(0).getClass();
+            if (type != Long.class && type != Double.class) {
+                return null;
+            }
+            long[] values = new long[list.size()];
+            int i = 0;
+            for (Object element : list) {
+                if (element == null || element.getClass() != type) {
+                    return null;
+                }
+                values[i++] = type == Long.class ? (Long) element
+                        : Double.doubleToRawLongBits((Double) element);
+            }
+            return new NumberList(values, type == Double.class);
+        }
+
+        @Override
+        public Object get(int index) {
+            return doubles ? (Object) Double.longBitsToDouble(values[index])
+                    : (Object) values[index];
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+        private Object writeReplace() {
+            return new ArrayList<>(this);
+        }
+    }
+}
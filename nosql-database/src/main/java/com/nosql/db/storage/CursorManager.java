@@ -0,0 +1,164 @@
+package com.nosql.db.storage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// 服务端游标。游标在打开时取集合的快照，惰性遍历快照，每次只取一批文档，
+// 单次扫描占用的内存由批大小决定而与集合大小无关；各批合起来是打开时刻的一致视图，
+// 遍历期间不阻塞写入。游标读完、关闭或空闲超时时关闭快照。
+// 打开着的快照会让VersionStore保留旧版本，也会阻止检查点LSN前进，所以游标不能无限期地留着:
+// 空闲超时的游标由CheckpointManager的定时任务清理，连接断开时关闭该连接打开的游标。
+public class CursorManager {
+    private static final Logger logger = LoggerFactory.getLogger(CursorManager.class);
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final int MAX_BATCH_SIZE = 10000;
+    private static final int MAX_OPEN_CURSORS = 1024;
+    private static final long IDLE_TIMEOUT_MILLIS = 10 * 60 * 1000L;
+
+    private final Map<String, Cursor> cursors = new ConcurrentHashMap<>();
+    private final long idleTimeoutMillis;
+
+    public CursorManager() {
+        this(IDLE_TIMEOUT_MILLIS);
+    }
+
+    CursorManager(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    private static final class Cursor {
+        private final String id;
+        private final String collection;
+        // 打开游标的连接，连接断开时据此关闭它的游标；null表示不属于任何连接
+        private final Object owner;
+        private final Snapshot snapshot;
+        private final Iterator<Document> iterator;
+        // 同一游标上的NEXT可能来自不同线程，逐个执行
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile long lastAccess = System.currentTimeMillis();
+        // 只在持有lock时访问，关闭后快照的旧版本可能已被回收，不能再遍历
+        private boolean closed;
+
+        Cursor(String id, String collection, Object owner, Snapshot snapshot) {
+            this.id = id;
+            this.collection = collection;
+            this.owner = owner;
+            this.snapshot = snapshot;
+            this.iterator = snapshot.iterator();
+        }
+
+        void close() {
+            lock.lock();
+            try {
+                closed = true;
+                snapshot.close();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // 打开游标并直接返回第一批，只有一批时不保留游标
+    public OperationResult open(Collection collection, Integer batchSize) {
+        return open(collection, batchSize, null);
+    }
+
+    public OperationResult open(Collection collection, Integer batchSize, Object owner) {
+        expireIdleCursors();
+        if (cursors.size() >= MAX_OPEN_CURSORS) {
+            return new OperationResult(false, "打开的游标过多，请先关闭不再使用的游标");
+        }
+        Cursor cursor = new Cursor(UUID.randomUUID().toString(), collection.getName(), owner,
+                collection.openSnapshot());
+        cursors.put(cursor.id, cursor);
+        logger.debug("打开游标: {}, 集合: {}", cursor.id, cursor.collection);
+        return nextBatch(cursor, batchSize);
+    }
+
+    public OperationResult next(String cursorId, Integer batchSize) {
+        Cursor cursor = cursorId == null ? null : cursors.get(cursorId);
+        if (cursor == null) {
+            return new OperationResult(false, "游标不存在或已过期: " + cursorId);
+        }
+        return nextBatch(cursor, batchSize);
+    }
+
+    public OperationResult close(String cursorId) {
+        Cursor cursor = cursorId == null ? null : cursors.remove(cursorId);
+        if (cursor == null) {
+            return new OperationResult(false, "游标不存在或已过期: " + cursorId);
+        }
+        cursor.close();
+        logger.debug("关闭游标: {}", cursorId);
+        return new OperationResult(true, "游标已关闭", cursorId);
+    }
+
+    // 关闭owner打开的所有游标，返回关闭的个数
+    public int closeAll(Object owner) {
+        int closed = 0;
+        for (Cursor cursor : cursors.values()) {
+            if (cursor.owner == owner && cursors.remove(cursor.id, cursor)) {
+                cursor.close();
+                closed++;
+            }
+        }
+        if (closed > 0) {
+            logger.debug("连接断开，关闭其游标{}个", closed);
+        }
+        return closed;
+    }
+
+    public int openCursorCount() {
+        return cursors.size();
+    }
+
+    private OperationResult nextBatch(Cursor cursor, Integer requestedBatchSize) {
+        int batchSize = requestedBatchSize == null || requestedBatchSize <= 0
+                ? DEFAULT_BATCH_SIZE : Math.min(requestedBatchSize, MAX_BATCH_SIZE);
+        List<Document> batch = new ArrayList<>(batchSize);
+        boolean hasMore;
+        cursor.lock.lock();
+        try {
+            if (cursor.closed) {
+                return new OperationResult(false, "游标不存在或已过期: " + cursor.id);
+            }
+            cursor.lastAccess = System.currentTimeMillis();
+            while (batch.size() < batchSize && cursor.iterator.hasNext()) {
+                batch.add(cursor.iterator.next());
+            }
+            hasMore = cursor.iterator.hasNext();
+        } finally {
+            cursor.lock.unlock();
+        }
+        if (!hasMore) {
+            cursors.remove(cursor.id);
+            cursor.close();
+        }
+
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("cursorId", hasMore ? cursor.id : null);
+        data.put("documents", batch);
+        data.put("hasMore", hasMore);
+        return new OperationResult(true, "返回 " + batch.size() + " 条记录", data);
+    }
+
+    public void expireIdleCursors() {
+        long deadline = System.currentTimeMillis() - idleTimeoutMillis;
+        cursors.values().removeIf(cursor -> {
+            if (cursor.lastAccess < deadline) {
+                cursor.close();
+                logger.info("游标{}空闲超时，已关闭", cursor.id);
+                return true;
+            }
+            return false;
+        });
+    }
+}
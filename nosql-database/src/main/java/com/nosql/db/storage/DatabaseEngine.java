@@ -1,34 +1,63 @@
 package com.nosql.db.storage;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.nosql.db.index.IndexManager;
+import com.nosql.db.index.IndexType;
+import com.nosql.db.query.Query;
 
 public class DatabaseEngine {
     private static final Logger logger = LoggerFactory.getLogger(DatabaseEngine.class);
+    // 恢复时每批读取的WAL记录数，批内按集合分区并行重放
+    private static final int RECOVERY_BATCH_SIZE = 10000;
     private final String dataDirectory;
     private final IndexManager indexManager;
     private final WriteAheadLog wal;
     private final Map<String, Collection> collections = new ConcurrentHashMap<>();
+    private final CursorManager cursorManager = new CursorManager();
+    // 后台建立索引的线程池，只用一半的处理器，给前台读写留出余量
+    private final ForkJoinPool indexBuildPool =
+            new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    // 恢复完成之前不能做检查点，否则快照会遗漏尚未重放的记录
+    private volatile boolean recovered = false;
+    // 每个集合的文档编码缓存预算
+    private final long documentCacheBytes;
 
     public DatabaseEngine(String dataDirectory, IndexManager indexManager, WriteAheadLog wal) {
+        this(dataDirectory, indexManager, wal, Collection.DEFAULT_DOCUMENT_CACHE_BYTES);
+    }
+
+    public DatabaseEngine(String dataDirectory, IndexManager indexManager, WriteAheadLog wal,
+            long documentCacheBytes) {
         this.dataDirectory = dataDirectory;
+        this.documentCacheBytes = documentCacheBytes;
         this.indexManager = indexManager;
         this.wal = wal;
         logger.info("数据库引擎初始化完成，数据目录: {}", dataDirectory);
     }
 
     public OperationResult createCollection(String collectionName) {
-        logger.info("尝试创建集合: {}", collectionName);
+        return createCollection(collectionName, StorageEngineType.MEMORY);
+    }
+
+    public OperationResult createCollection(String collectionName, StorageEngineType engineType) {
+        logger.info("尝试创建集合: {}, 存储引擎: {}", collectionName, engineType);
         if (collections.containsKey(collectionName)) {
             logger.warn("创建集合失败: 集合已存在 {}", collectionName);
             return new OperationResult(false, "集合已存在: " + collectionName);
         }
 
         Collection coll = new Collection(collectionName, dataDirectory + "/" + collectionName, wal,
-                indexManager);
+                indexManager, engineType, documentCacheBytes);
         collections.put(collectionName, coll);
         logger.info("集合创建成功: {}", collectionName);
         return new OperationResult(true, "集合创建成功: " + collectionName);
@@ -53,6 +82,14 @@ public class DatabaseEngine {
                 : new OperationResult(false, "集合不存在: " + collectionName);
     }
 
+    public OperationResult patchDocument(String collectionName, String documentId,
+            Map<String, Object> update) {
+        logger.info("尝试部分更新集合: {} 中的文档, ID: {}", collectionName, documentId);
+        Collection coll = collections.get(collectionName);
+        return coll != null ? coll.patch(documentId, update)
+                : new OperationResult(false, "集合不存在: " + collectionName);
+    }
+
     public OperationResult deleteDocument(String collectionName, String documentId) {
         logger.info("尝试删除集合: {} 中的文档, ID: {}", collectionName, documentId);
         Collection coll = collections.get(collectionName);
@@ -60,15 +97,121 @@ public class DatabaseEngine {
                 : new OperationResult(false, "集合不存在: " + collectionName);
     }
 
+    public OperationResult bulkWrite(String collectionName, List<WriteOperation> operations) {
+        logger.info("尝试批量写入集合: {}, 操作数: {}", collectionName, operations.size());
+        Collection coll = collections.get(collectionName);
+        return coll != null ? coll.bulkWrite(operations)
+                : new OperationResult(false, "集合不存在: " + collectionName);
+    }
+
+    // 恢复失败时抛出IllegalStateException，调用方应停止启动，不能在残缺的状态上继续提供服务
     public void recoverFromWal() {
         logger.info("开始从WAL恢复数据");
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        long start = System.currentTimeMillis();
+        AtomicLong applied = new AtomicLong();
+        AtomicLong skipped = new AtomicLong();
         try {
-            wal.recover(this);
-            logger.info("WAL恢复完成");
-        } catch (Exception e) {
+            long fromLsn = collections.values().stream().mapToLong(Collection::getCheckpointLsn)
+                    .min().orElse(0);
+            logger.info("从LSN {}开始重放WAL", fromLsn);
+            List<WalRecord> batch = new ArrayList<>(RECOVERY_BATCH_SIZE);
+            wal.replay(fromLsn, record -> {
+                batch.add(record);
+                if (batch.size() >= RECOVERY_BATCH_SIZE) {
+                    replayBatch(pool, batch, applied, skipped);
+                    batch.clear();
+                }
+            });
+            replayBatch(pool, batch, applied, skipped);
+            recovered = true;
+            logger.info("WAL恢复完成，应用记录: {}, 跳过记录: {}, 耗时: {}ms", applied.get(),
+                    skipped.get(), System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException e) {
             logger.error("WAL恢复失败: {}", e.getMessage(), e);
-            System.err.println("WAL恢复失败: " + e.getMessage());
+            throw new IllegalStateException("WAL恢复失败: " + e.getMessage(), e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // 同一集合内的记录保持日志顺序，不同集合之间并行重放。
+    // 集合不记录在WAL中，由启动代码创建；日志里出现未创建的集合说明启动配置与数据不符，
+    // 跳过这些记录后检查点会截断日志，数据就永久丢失了，所以直接让恢复失败
+    private void replayBatch(ForkJoinPool pool, List<WalRecord> batch, AtomicLong applied,
+            AtomicLong skipped) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Map<String, List<WalRecord>> partitions = new HashMap<>();
+        for (WalRecord record : batch) {
+            partitions.computeIfAbsent(record.getCollection(), k -> new ArrayList<>())
+                    .add(record);
+        }
+        for (Map.Entry<String, List<WalRecord>> partition : partitions.entrySet()) {
+            if (!collections.containsKey(partition.getKey())) {
+                throw new IllegalStateException("WAL包含未创建的集合的记录: " + partition.getKey()
+                        + ", LSN: " + partition.getValue().get(0).getLsn());
+            }
+        }
+
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (Map.Entry<String, List<WalRecord>> partition : partitions.entrySet()) {
+            Collection coll = collections.get(partition.getKey());
+            tasks.add(pool.submit(() -> {
+                int failed = coll.replay(partition.getValue());
+                applied.addAndGet(partition.getValue().size() - failed);
+                skipped.addAndGet(failed);
+            }));
+        }
+        tasks.forEach(ForkJoinTask::join);
+    }
+
+    public OperationResult createIndex(String collectionName, List<String> fields,
+            IndexType type, List<String> include) {
+        logger.info("尝试为集合: {} 建立索引, 字段: {}, 类型: {}", collectionName, fields, type);
+        Collection coll = collections.get(collectionName);
+        return coll != null ? coll.createIndex(fields, type, include, indexBuildPool)
+                : new OperationResult(false, "集合不存在: " + collectionName);
+    }
+
+    public OperationResult dropIndex(String collectionName, String indexName) {
+        logger.info("尝试删除集合: {} 的索引: {}", collectionName, indexName);
+        Collection coll = collections.get(collectionName);
+        return coll != null ? coll.dropIndex(indexName)
+                : new OperationResult(false, "集合不存在: " + collectionName);
+    }
+
+    public OperationResult listIndexes(String collectionName) {
+        Collection coll = collections.get(collectionName);
+        return coll != null ? coll.listIndexes()
+                : new OperationResult(false, "集合不存在: " + collectionName);
+    }
+
+    public OperationResult cacheStats(String collectionName) {
+        Collection coll = collections.get(collectionName);
+        return coll != null ? coll.cacheStats()
+                : new OperationResult(false, "集合不存在: " + collectionName);
+    }
+
+    public void close() {
+        indexBuildPool.shutdownNow();
+        for (Collection coll : collections.values()) {
+            try {
+                coll.close();
+            } catch (IOException e) {
+                logger.warn("关闭集合{}时发生异常: {}", coll.getName(), e.getMessage());
+            }
         }
+        logger.info("数据库引擎已关闭");
+    }
+
+    public boolean isRecovered() {
+        return recovered;
+    }
+
+    public List<Collection> getCollections() {
+        return new ArrayList<>(collections.values());
     }
 
     public OperationResult getDocument(String collectionName, String id) {
@@ -77,6 +220,56 @@ public class DatabaseEngine {
         return coll != null ? coll.get(id) : new OperationResult(false, "集合不存在: " + collectionName);
     }
 
+    public OperationResult find(String collectionName, Query query) {
+        logger.info("尝试查询集合: {}", collectionName);
+        Collection coll = collections.get(collectionName);
+        return coll != null ? coll.find(query)
+                : new OperationResult(false, "集合不存在: " + collectionName);
+    }
+
+    // 全文搜索，indexName为null时使用集合上唯一的全文索引
+    public OperationResult search(String collectionName, String indexName, String text,
+            Query query) {
+        Collection coll = collections.get(collectionName);
+        return coll != null ? coll.search(indexName, text, query)
+                : new OperationResult(false, "集合不存在: " + collectionName);
+    }
+
+    public OperationResult explain(String collectionName, Query query) {
+        Collection coll = collections.get(collectionName);
+        return coll != null ? coll.explain(query)
+                : new OperationResult(false, "集合不存在: " + collectionName);
+    }
+
+    public OperationResult openCursor(String collectionName, Integer batchSize) {
+        return openCursor(collectionName, batchSize, null);
+    }
+
+    // owner标识打开游标的连接，连接断开时用closeCursors关闭它的游标
+    public OperationResult openCursor(String collectionName, Integer batchSize, Object owner) {
+        logger.info("尝试打开集合: {} 的游标, 批大小: {}", collectionName, batchSize);
+        Collection coll = collections.get(collectionName);
+        return coll != null ? cursorManager.open(coll, batchSize, owner)
+                : new OperationResult(false, "集合不存在: " + collectionName);
+    }
+
+    public OperationResult nextBatch(String cursorId, Integer batchSize) {
+        logger.debug("读取游标: {}, 批大小: {}", cursorId, batchSize);
+        return cursorManager.next(cursorId, batchSize);
+    }
+
+    public OperationResult closeCursor(String cursorId) {
+        return cursorManager.close(cursorId);
+    }
+
+    public int closeCursors(Object owner) {
+        return cursorManager.closeAll(owner);
+    }
+
+    public void expireIdleCursors() {
+        cursorManager.expireIdleCursors();
+    }
+
     public OperationResult getAllDocuments(String collectionName) {
         logger.info("尝试获取集合: {} 中的所有文档", collectionName);
         Collection coll = collections.get(collectionName);
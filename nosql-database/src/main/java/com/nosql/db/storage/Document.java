@@ -7,17 +7,20 @@ import java.util.Objects;
 import java.util.UUID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
 
 public class Document implements Serializable {
     private static final Logger logger = LoggerFactory.getLogger(Document.class);
     private static final long serialVersionUID = 1L;
-    private static final Gson gson = new GsonBuilder().create();
+    // 查询和索引中指向文档元数据而不是data的字段名，与JSON编码中的顶层键一致
+    public static final String ID_FIELD = "id";
+    public static final String CREATED_AT_FIELD = "createdAt";
+    public static final String UPDATED_AT_FIELD = "updatedAt";
 
     private String id;
-    private Map<String, Object> data;
+    // 存储引擎保存的文档可能是只读的紧凑布局(CompactMap)，第一次通过getData或put取得可修改的数据时
+    // 换成HashMap(嵌套的对象和数组一并换成可修改的)。volatile保证并发读取的线程看到完整的HashMap
+    private volatile Map<String, Object> data;
     private long createdAt;
     private long updatedAt;
 
@@ -36,6 +39,19 @@ public class Document implements Serializable {
         logger.debug("使用数据创建新文档，ID: {}", id);
     }
 
+    private Document(String id, Map<String, Object> data, long createdAt, long updatedAt) {
+        this.id = id;
+        this.data = data;
+        this.createdAt = createdAt;
+        this.updatedAt = updatedAt;
+    }
+
+    // 按已有的ID和时间戳还原文档，供二进制编解码等反序列化场景使用
+    public static Document restore(String id, Map<String, Object> data, long createdAt,
+            long updatedAt) {
+        return new Document(id, data, createdAt, updatedAt);
+    }
+
     public String getId() {
         return id;
     }
@@ -44,7 +60,19 @@ public class Document implements Serializable {
         this.id = id;
     }
 
+    // 返回可修改的数据，修改直接作用于文档。存储引擎中的文档由所有读取方共享，
+    // 修改存储的文档不经过WAL和快照，应复制后通过集合的update写入
     public Map<String, Object> getData() {
+        Map<String, Object> current = data;
+        if (current instanceof CompactMap) {
+            current = CompactMap.thaw(current);
+            data = current;
+        }
+        return current;
+    }
+
+    // 只读取数据时使用，不展开紧凑布局；返回的Map可能不支持修改
+    public Map<String, Object> dataView() {
         return data;
     }
 
@@ -53,22 +81,68 @@ public class Document implements Serializable {
         this.updatedAt = System.currentTimeMillis();
     }
 
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
     public Object get(String fieldName) {
         return data.get(fieldName);
     }
 
+    // 按字段路径取值: 元数据字段返回ID或时间戳，其余在data中查找，"a.b"访问嵌套对象
+    public Object getValue(String field) {
+        switch (field) {
+            case ID_FIELD:
+                return id;
+            case CREATED_AT_FIELD:
+                return createdAt;
+            case UPDATED_AT_FIELD:
+                return updatedAt;
+            default:
+                break;
+        }
+        if (data == null) {
+            return null;
+        }
+        if (field.indexOf('.') < 0) {
+            return data.get(field);
+        }
+        Object value = data;
+        for (String part : field.split("\\.")) {
+            if (!(value instanceof Map)) {
+                return null;
+            }
+            value = ((Map<?, ?>) value).get(part);
+        }
+        return value;
+    }
+
     public void put(String fieldName, Object value) {
-        data.put(fieldName, value);
+        getData().put(fieldName, value);
         this.updatedAt = System.currentTimeMillis();
     }
 
+    // 换成紧凑的数据布局，字段名使用集合的字典；无法压缩时返回自身
+    Document compact(FieldDictionary dictionary) {
+        if (data == null || data instanceof CompactMap) {
+            return this;
+        }
+        Map<String, Object> compacted = CompactMap.compact(data, dictionary);
+        return compacted == data ? this : new Document(id, compacted, createdAt, updatedAt);
+    }
+
+    // 编解码见JsonCodec，结果与Gson按字段反射的编解码相同
     public String toJson() {
-        return gson.toJson(this);
+        return JsonCodec.toJson(this);
     }
 
     public static Document fromJson(String json) {
         try {
-            return gson.fromJson(json, Document.class);
+            return JsonCodec.fromJson(json, JsonCodec::readDocument);
         } catch (JsonSyntaxException e) {
             throw new IllegalArgumentException("Invalid JSON: " + e.getMessage());
         }
@@ -0,0 +1,141 @@
+package com.nosql.db.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+// 集合的文档编码缓存: 文档ID -> 最新版本的EncodedDocument，热点文档的GET不再重复序列化。
+// 写入在修改最新版本之后使缓存项失效，读取未命中时从最新版本建立缓存项，两者都不加锁:
+// 填充前记下ID所在槽位的写入计数，放入缓存后计数变了就撤回，读到旧版本的填充不会留在缓存中。
+// 占用按编码长度估计，超过预算时按CLOCK淘汰
+final class DocumentCache {
+    private static final int STAMP_SLOTS = 256;
+
+    private final long budgetBytes;
+    private final boolean sharesDocuments;
+    private final Map<String, EncodedDocument> entries = new ConcurrentHashMap<>();
+    // 每个槽位上的写入次数
+    private final AtomicLongArray stamps = new AtomicLongArray(STAMP_SLOTS);
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final ReentrantLock evictLock = new ReentrantLock();
+    // CLOCK的指针，只在持有evictLock时访问
+    private Iterator<Map.Entry<String, EncodedDocument>> hand;
+
+    // budgetBytes为0时不缓存。sharesDocuments表示文档对象与存储引擎共享(内存引擎)，
+    // 否则缓存项持有的反序列化文档也计入占用
+    DocumentCache(long budgetBytes, boolean sharesDocuments) {
+        this.budgetBytes = Math.max(0, budgetBytes);
+        this.sharesDocuments = sharesDocuments;
+    }
+
+    boolean sharesDocuments() {
+        return sharesDocuments;
+    }
+
+    // loader读取文档的最新版本，不存在时返回null
+    EncodedDocument get(String id, Function<String, Document> loader) {
+        EncodedDocument cached = entries.get(id);
+        if (cached != null) {
+            cached.referenced = true;
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        int slot = slot(id);
+        long stamp = stamps.get(slot);
+        Document document = loader.apply(id);
+        if (document == null) {
+            return null;
+        }
+        EncodedDocument loaded = new EncodedDocument(document, this);
+        if (budgetBytes > 0 && entries.putIfAbsent(id, loaded) == null) {
+            loaded.admit();
+            if (stamps.get(slot) != stamp) {
+                // 读取之后有写入，读到的可能是旧版本
+                remove(id, loaded);
+            } else {
+                evictIfNeeded();
+            }
+        }
+        return loaded;
+    }
+
+    // 写入方在修改最新版本之后调用
+    void invalidate(String id) {
+        stamps.incrementAndGet(slot(id));
+        EncodedDocument removed = entries.remove(id);
+        if (removed != null) {
+            removed.release();
+        }
+    }
+
+    void adjust(long bytes) {
+        usedBytes.addAndGet(bytes);
+    }
+
+    // 最近访问过的缓存项跳过一轮并清除标记；一直被访问时扫过两轮后照样淘汰
+    void evictIfNeeded() {
+        if (usedBytes.get() <= budgetBytes || !evictLock.tryLock()) {
+            return;
+        }
+        try {
+            long skipped = 0;
+            while (usedBytes.get() > budgetBytes && !entries.isEmpty()) {
+                if (hand == null || !hand.hasNext()) {
+                    hand = entries.entrySet().iterator();
+                    if (!hand.hasNext()) {
+                        break;
+                    }
+                }
+                Map.Entry<String, EncodedDocument> entry = hand.next();
+                EncodedDocument document = entry.getValue();
+                if (document.referenced && skipped++ < 2L * entries.size()) {
+                    document.referenced = false;
+                    continue;
+                }
+                if (remove(entry.getKey(), document)) {
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evictLock.unlock();
+        }
+    }
+
+    private boolean remove(String id, EncodedDocument document) {
+        if (entries.remove(id, document)) {
+            document.release();
+            return true;
+        }
+        return false;
+    }
+
+    Map<String, Object> stats() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("entries", entries.size());
+        stats.put("usedBytes", usedBytes.get());
+        stats.put("budgetBytes", budgetBytes);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRate", hitCount + missCount == 0 ? 0.0
+                : (double) hitCount / (hitCount + missCount));
+        stats.put("evictions", evictions.sum());
+        return stats;
+    }
+
+    private static int slot(String id) {
+        int h = id.hashCode();
+        return (h ^ (h >>> 16)) & (STAMP_SLOTS - 1);
+    }
+}
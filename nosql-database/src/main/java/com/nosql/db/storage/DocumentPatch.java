@@ -0,0 +1,253 @@
+package com.nosql.db.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
+
+// 字段级更新: $set设置字段，$unset删除字段，$inc给数值字段加上增量，$push向数组字段末尾追加一个元素。
+// 字段用路径表示，"a.b"指向嵌套对象中的字段，路径上缺少的对象自动创建；元数据字段不能修改。
+// 应用时不修改原文档，只复制被修改的路径上的对象和数组
+final class DocumentPatch {
+    static final String SET = "$set";
+    static final String UNSET = "$unset";
+    static final String INC = "$inc";
+    static final String PUSH = "$push";
+    private static final Gson gson = new GsonBuilder().create();
+
+    private final Map<String, Object> set = new LinkedHashMap<>();
+    private final Map<String, Number> inc = new LinkedHashMap<>();
+    private final Map<String, Object> push = new LinkedHashMap<>();
+    private final Set<String> unset = new LinkedHashSet<>();
+
+    private DocumentPatch() {
+    }
+
+    // 解析{"$set": {路径: 值}, "$inc": {路径: 增量}, ...}，$unset也可以是路径数组。
+    // 同一路径(或它的上下级路径)只能出现在一个操作中
+    static DocumentPatch parse(Map<String, Object> update) {
+        if (update == null || update.isEmpty()) {
+            throw new IllegalArgumentException("更新操作不能为空");
+        }
+        DocumentPatch patch = new DocumentPatch();
+        List<String> paths = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : update.entrySet()) {
+            String operator = entry.getKey();
+            Object operand = entry.getValue();
+            if (UNSET.equals(operator) && operand instanceof List) {
+                for (Object path : (List<?>) operand) {
+                    patch.unset.add(checkPath(String.valueOf(path), paths));
+                }
+                continue;
+            }
+            if (!(operand instanceof Map)) {
+                throw new IllegalArgumentException("更新操作" + operator + "的参数必须是对象");
+            }
+            for (Map.Entry<?, ?> field : ((Map<?, ?>) operand).entrySet()) {
+                String path = checkPath(String.valueOf(field.getKey()), paths);
+                Object value = field.getValue();
+                switch (operator) {
+                    case SET:
+                        // 值为null的字段在文档的JSON编码中不保存，等同于删除
+                        if (value == null) {
+                            patch.unset.add(path);
+                        } else {
+                            patch.set.put(path, value);
+                        }
+                        break;
+                    case UNSET:
+                        patch.unset.add(path);
+                        break;
+                    case INC:
+                        if (!(value instanceof Number)) {
+                            throw new IllegalArgumentException("$inc的增量必须是数值: " + path);
+                        }
+                        patch.inc.put(path, (Number) value);
+                        break;
+                    case PUSH:
+                        patch.push.put(path, value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("不支持的更新操作: " + operator);
+                }
+            }
+        }
+        if (paths.isEmpty()) {
+            throw new IllegalArgumentException("更新操作不能为空");
+        }
+        return patch;
+    }
+
+    private static String checkPath(String path, List<String> seen) {
+        if (path.isEmpty() || path.startsWith(".") || path.endsWith(".")
+                || path.contains("..")) {
+            throw new IllegalArgumentException("无效的字段路径: " + path);
+        }
+        String root = path.indexOf('.') < 0 ? path : path.substring(0, path.indexOf('.'));
+        if (Document.ID_FIELD.equals(root) || Document.CREATED_AT_FIELD.equals(root)
+                || Document.UPDATED_AT_FIELD.equals(root)) {
+            throw new IllegalArgumentException("不能修改元数据字段: " + path);
+        }
+        for (String other : seen) {
+            if (overlaps(path, other)) {
+                throw new IllegalArgumentException("更新路径冲突: " + other + " 与 " + path);
+            }
+        }
+        seen.add(path);
+        return path;
+    }
+
+    // 两个路径相同，或一个是另一个的上级
+    static boolean overlaps(String a, String b) {
+        String shorter = a.length() <= b.length() ? a : b;
+        String longer = shorter == a ? b : a;
+        return longer.startsWith(shorter) && (longer.length() == shorter.length()
+                || longer.charAt(shorter.length()) == '.');
+    }
+
+    // 在current上应用更新，返回新文档和解析后的增量；字段类型不符时抛出IllegalArgumentException
+    Delta apply(Document current, long updatedAt) {
+        Map<String, Object> resolved = new LinkedHashMap<>(set);
+        for (Map.Entry<String, Number> entry : inc.entrySet()) {
+            Object value = current.getValue(entry.getKey());
+            if (value != null && !(value instanceof Number)) {
+                throw new IllegalArgumentException("字段不是数值，不能$inc: " + entry.getKey());
+            }
+            // 与JSON和二进制协议一致，结果总是Double，WAL重放读回的值与此相同
+            double result = entry.getValue().doubleValue()
+                    + (value == null ? 0 : ((Number) value).doubleValue());
+            if (Double.isInfinite(result) || Double.isNaN(result)) {
+                throw new IllegalArgumentException("$inc结果溢出: " + entry.getKey());
+            }
+            resolved.put(entry.getKey(), result);
+        }
+        for (Map.Entry<String, Object> entry : push.entrySet()) {
+            Object value = current.getValue(entry.getKey());
+            if (value != null && !(value instanceof List)) {
+                throw new IllegalArgumentException("字段不是数组，不能$push: " + entry.getKey());
+            }
+            List<Object> list = value == null ? new ArrayList<>()
+                    : new ArrayList<>((List<?>) value);
+            list.add(entry.getValue());
+            resolved.put(entry.getKey(), list);
+        }
+        Delta delta = new Delta(current.getId(), updatedAt, resolved, new ArrayList<>(unset));
+        delta.result = delta.applyTo(current, true);
+        return delta;
+    }
+
+    // 写入WAL的增量: 更新后的字段值和删除的字段路径，$inc和$push已换算成结果。
+    // 重复应用得到同样的文档，模糊检查点的快照中已经包含这次更新时重放也是安全的
+    static final class Delta {
+        private final String id;
+        private final long updatedAt;
+        private final Map<String, Object> set;
+        private final List<String> unset;
+        private transient Document result;
+
+        private Delta(String id, long updatedAt, Map<String, Object> set, List<String> unset) {
+            this.id = id;
+            this.updatedAt = updatedAt;
+            this.set = set;
+            this.unset = unset;
+        }
+
+        static Delta fromJson(String json) {
+            try {
+                return gson.fromJson(json, Delta.class);
+            } catch (JsonSyntaxException e) {
+                throw new IllegalArgumentException("Invalid JSON: " + e.getMessage());
+            }
+        }
+
+        String toJson() {
+            return gson.toJson(this);
+        }
+
+        String getId() {
+            return id;
+        }
+
+        // apply得到的新文档
+        Document getResult() {
+            return result;
+        }
+
+        // 被修改的字段路径
+        Set<String> paths() {
+            Set<String> paths = new LinkedHashSet<>(set.keySet());
+            if (unset != null) {
+                paths.addAll(unset);
+            }
+            return paths;
+        }
+
+        // 恢复时在当前版本上重放。重放的起点可能已经包含之后的写入，
+        // 路径上不是对象的字段直接替换，之后的记录会把它改回最终的值
+        Document applyTo(Document current) {
+            return applyTo(current, false);
+        }
+
+        private Document applyTo(Document current, boolean strict) {
+            Map<String, Object> data = current.dataView() == null ? new HashMap<>()
+                    : new HashMap<>(current.dataView());
+            for (Map.Entry<String, Object> entry : set.entrySet()) {
+                setPath(data, entry.getKey(), entry.getValue(), strict);
+            }
+            for (String path : unset == null ? Collections.<String>emptyList() : unset) {
+                unsetPath(data, path);
+            }
+            return Document.restore(id, data, current.getCreatedAt(), updatedAt);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void setPath(Map<String, Object> data, String path, Object value,
+            boolean strict) {
+        String[] parts = path.split("\\.");
+        Map<String, Object> map = data;
+        for (int i = 0; i < parts.length - 1; i++) {
+            Object child = map.get(parts[i]);
+            if (child != null && !(child instanceof Map) && strict) {
+                throw new IllegalArgumentException("字段不是对象: "
+                        + String.join(".", Arrays.copyOf(parts, i + 1)));
+            }
+            Map<String, Object> copy = child instanceof Map
+                    ? new HashMap<>((Map<String, Object>) child) : new HashMap<>();
+            map.put(parts[i], copy);
+            map = copy;
+        }
+        map.put(parts[parts.length - 1], value);
+    }
+
+    // 字段不存在时不复制任何对象
+    @SuppressWarnings("unchecked")
+    private static void unsetPath(Map<String, Object> data, String path) {
+        String[] parts = path.split("\\.");
+        Object value = data;
+        for (int i = 0; i < parts.length - 1; i++) {
+            value = ((Map<?, ?>) value).get(parts[i]);
+            if (!(value instanceof Map)) {
+                return;
+            }
+        }
+        if (!((Map<?, ?>) value).containsKey(parts[parts.length - 1])) {
+            return;
+        }
+        Map<String, Object> map = data;
+        for (int i = 0; i < parts.length - 1; i++) {
+            Map<String, Object> copy = new HashMap<>((Map<String, Object>) map.get(parts[i]));
+            map.put(parts[i], copy);
+            map = copy;
+        }
+        map.remove(parts[parts.length - 1]);
+    }
+}
@@ -0,0 +1,17 @@
+package com.nosql.db.storage;
+
+public enum DurabilityMode {
+    // 每条记录写入后立即fsync
+    SYNC,
+    // 提交线程合并一批记录，每批只fsync一次
+    GROUP_COMMIT,
+    // 只写入操作系统缓冲区，不主动fsync
+    OS_BUFFERED;
+
+    public static DurabilityMode fromString(String value) {
+        if (value == null || value.isEmpty()) {
+            return GROUP_COMMIT;
+        }
+        return valueOf(value.trim().toUpperCase());
+    }
+}
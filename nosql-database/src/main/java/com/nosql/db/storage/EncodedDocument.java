@@ -0,0 +1,130 @@
+package com.nosql.db.storage;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Function;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+// 文档的一个版本及其编码，GET返回它而不是Document。JSON文本和二进制编码在第一次写出响应时计算并保存，
+// 之后读取同一版本时响应直接拼接保存的编码，不再序列化文档。一个对象只对应一个版本，
+// 文档更新后DocumentCache换成新对象，因此保存的编码不需要失效
+@JsonAdapter(EncodedDocument.Adapter.class)
+public final class EncodedDocument {
+    // 缓存项本身和ID等对象的大致开销
+    private static final int OVERHEAD_BYTES = 96;
+    // state的最高位表示是否在缓存中(在缓存中时计入缓存的占用)，其余位是已计入的字节数
+    private static final long CACHED = Long.MIN_VALUE;
+    private static final AtomicReferenceFieldUpdater<EncodedDocument, String> JSON =
+            AtomicReferenceFieldUpdater.newUpdater(EncodedDocument.class, String.class, "json");
+    private static final AtomicReferenceFieldUpdater<EncodedDocument, byte[]> BINARY =
+            AtomicReferenceFieldUpdater.newUpdater(EncodedDocument.class, byte[].class,
+                    "binary");
+    private static final AtomicLongFieldUpdater<EncodedDocument> STATE =
+            AtomicLongFieldUpdater.newUpdater(EncodedDocument.class, "state");
+
+    private final Document document;
+    private final DocumentCache cache;
+    // 编码和占用都用CAS发布，不加锁: 缓存中每个版本一个对象，不值得各带一把锁，
+    // 也避免在监视器内编码时把虚拟线程钉在载体线程上
+    private volatile String json;
+    private volatile byte[] binary;
+    // CLOCK淘汰的访问标记
+    volatile boolean referenced = true;
+    private volatile long state = OVERHEAD_BYTES;
+
+    // cache为null表示不属于任何缓存，编码只随这个对象存在
+    EncodedDocument(Document document, DocumentCache cache) {
+        this.document = document;
+        this.cache = cache;
+    }
+
+    public Document getDocument() {
+        return document;
+    }
+
+    // 文档的JSON编码，与Gson直接序列化Document的结果相同。
+    // 并发的第一次读取可能各自编码一次，只有发布成功的那份计入占用
+    public String json() {
+        String encoded = json;
+        if (encoded == null) {
+            encoded = document.toJson();
+            if (JSON.compareAndSet(this, null, encoded)) {
+                charge(encoded.length());
+                evictIfNeeded();
+            } else {
+                encoded = json;
+            }
+        }
+        return encoded;
+    }
+
+    // 二进制协议的文档体编码，由协议层提供编码方法
+    public byte[] binary(Function<Document, byte[]> encoder) {
+        byte[] encoded = binary;
+        if (encoded == null) {
+            encoded = encoder.apply(document);
+            if (BINARY.compareAndSet(this, null, encoded)) {
+                charge(encoded.length);
+                evictIfNeeded();
+            } else {
+                encoded = binary;
+            }
+        }
+        return encoded;
+    }
+
+    // 在缓存中时把增量同时计入缓存。state的每次变化都是原子的，
+    // 与admit/release交错时缓存得到的增量之和仍然等于对象的占用
+    private void charge(long bytes) {
+        long previous = STATE.getAndUpdate(this, current -> current + scaled(current, bytes));
+        if ((previous & CACHED) != 0) {
+            cache.adjust(scaled(previous, bytes));
+        }
+    }
+
+    // 文档对象不与存储引擎共享时，按第一个编码的长度估计它的大小一并计入
+    private long scaled(long state, long bytes) {
+        if (cache != null && !cache.sharesDocuments() && (state & ~CACHED) == OVERHEAD_BYTES) {
+            return bytes * 2;
+        }
+        return bytes;
+    }
+
+    private void evictIfNeeded() {
+        if (cache != null) {
+            cache.evictIfNeeded();
+        }
+    }
+
+    void admit() {
+        long previous = STATE.getAndUpdate(this, current -> current | CACHED);
+        cache.adjust(previous & ~CACHED);
+    }
+
+    void release() {
+        long previous = STATE.getAndUpdate(this, current -> current & ~CACHED);
+        cache.adjust(-(previous & ~CACHED));
+    }
+
+    // 编码规则见JsonCodec.writeEncodedDocument
+    static final class Adapter extends TypeAdapter<EncodedDocument> {
+        @Override
+        public void write(JsonWriter out, EncodedDocument value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+            } else {
+                JsonCodec.writeEncodedDocument(out, value);
+            }
+        }
+
+        @Override
+        public EncodedDocument read(JsonReader in) throws IOException {
+            Document document = JsonCodec.readDocument(in);
+            return document == null ? null : new EncodedDocument(document, null);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.nosql.db.storage;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+// 集合级的字段名字典: 字段名 -> 从0开始的编号，紧凑文档只保存编号，同名字段共用一个String。
+// 编号只增不减，最多MAX_FIELDS个，字典满了之后含新字段名的文档不再压缩
+final class FieldDictionary {
+    static final int MAX_FIELDS = 1 << 15;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    // 先写入数组再发布编号，读到编号的线程一定能读到名字
+    private volatile String[] names = new String[64];
+    // 分配编号时持有，用ReentrantLock代替synchronized以免钉住虚拟线程
+    private final ReentrantLock lock = new ReentrantLock();
+    // 由lock保护
+    private int count;
+
+    // 不存在时返回-1
+    int idOf(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    // 不存在时分配编号，字典已满时返回-1
+    int intern(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        lock.lock();
+        try {
+            id = ids.get(name);
+            if (id != null) {
+                return id;
+            }
+            if (count >= MAX_FIELDS) {
+                return -1;
+            }
+            String[] current = names;
+            if (count == current.length) {
+                current = Arrays.copyOf(current, Math.min(count * 2, MAX_FIELDS));
+            }
+            current[count] = name;
+            names = current;
+            ids.put(name, count);
+            return count++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    String nameOf(int id) {
+        return names[id];
+    }
+
+    int size() {
+        return ids.size();
+    }
+}
@@ -0,0 +1,456 @@
+package com.nosql.db.storage;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+// 文档、操作结果等热点类型的流式JSON编解码，直接读写JsonReader/JsonWriter，不经过Gson的反射。
+// 编码结果与默认配置的Gson逐字节相同(转义HTML字符，省略null字段)；解码与Gson的默认规则相同:
+// 数值解码为Double，对象解码为保持顺序的Map，未知字段忽略。其他类型的值仍交给Gson
+public final class JsonCodec {
+    private static final Gson gson = new Gson();
+
+    private JsonCodec() {
+    }
+
+    // 从JsonReader读取一个值，格式不符时可抛出IllegalStateException或NumberFormatException
+    @FunctionalInterface
+    public interface Decoder<T> {
+        T read(JsonReader in) throws IOException;
+    }
+
+    // 按Gson的默认配置创建JsonWriter
+    public static JsonWriter newWriter(Writer writer) {
+        JsonWriter out = new JsonWriter(writer);
+        out.setHtmlSafe(true);
+        out.setSerializeNulls(false);
+        return out;
+    }
+
+    // 与Gson.fromJson(String)相同: 宽松解析，值之后只能有空白；输入为空时返回null。
+    // 格式错误统一抛出JsonSyntaxException
+    public static <T> T parse(Reader reader, Decoder<T> decoder) {
+        JsonReader in = new JsonReader(reader);
+        in.setLenient(true);
+        boolean empty = true;
+        try {
+            in.peek();
+            empty = false;
+            T value = decoder.read(in);
+            in.setLenient(false);
+            if (value != null && in.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonSyntaxException("JSON document was not fully consumed.");
+            }
+            return value;
+        } catch (EOFException e) {
+            if (empty) {
+                return null;
+            }
+            throw new JsonSyntaxException(e);
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    public static void writeValue(JsonWriter out, Object value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+        } else if (value instanceof String) {
+            out.value((String) value);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short
+                || value instanceof Byte || value instanceof BigDecimal
+                || value instanceof BigInteger) {
+            out.value((Number) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+            if (Double.isNaN(number) || Double.isInfinite(number)) {
+                throw new IllegalArgumentException(
+                        number + " is not a valid double value as per JSON specification.");
+            }
+            out.value((Number) value);
+        } else if (value instanceof Boolean) {
+            out.value((Boolean) value);
+        } else if (value instanceof Map) {
+            writeMap(out, (Map<?, ?>) value);
+        } else if (value instanceof Collection) {
+            out.beginArray();
+            for (Object element : (Collection<?>) value) {
+                writeValue(out, element);
+            }
+            out.endArray();
+        } else if (value instanceof EncodedDocument) {
+            writeEncodedDocument(out, (EncodedDocument) value);
+        } else if (value instanceof Document) {
+            writeDocument(out, (Document) value);
+        } else if (value instanceof OperationResult) {
+            writeResult(out, (OperationResult) value);
+        } else if (value instanceof WriteOperation) {
+            writeOperation(out, (WriteOperation) value);
+        } else if (value instanceof Object[]) {
+            out.beginArray();
+            for (Object element : (Object[]) value) {
+                writeValue(out, element);
+            }
+            out.endArray();
+        } else {
+            gson.toJson(value, value.getClass(), out);
+        }
+    }
+
+    private static void writeMap(JsonWriter out, Map<?, ?> map) throws IOException {
+        out.beginObject();
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            out.name(String.valueOf(entry.getKey()));
+            writeValue(out, entry.getValue());
+        }
+        out.endObject();
+    }
+
+    // 与Gson反序列化Object相同: 数值为Double，对象为LinkedHashMap，数组为ArrayList。
+    // 嵌套的对象和数组用显式的栈展开，过深的输入不会耗尽线程栈
+    public static Object readValue(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        Object current = beginNesting(in, token);
+        if (current == null) {
+            return readTerminal(in, token);
+        }
+        Deque<Object> stack = new ArrayDeque<>();
+        while (true) {
+            while (in.hasNext()) {
+                String name = current instanceof Map ? in.nextName() : null;
+                token = in.peek();
+                Object value = beginNesting(in, token);
+                boolean nested = value != null;
+                if (!nested) {
+                    value = readTerminal(in, token);
+                }
+                if (name == null) {
+                    @SuppressWarnings("unchecked")
+                    List<Object> list = (List<Object>) current;
+                    list.add(value);
+                } else {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> map = (Map<String, Object>) current;
+                    map.put(name, value);
+                }
+                if (nested) {
+                    stack.addLast(current);
+                    current = value;
+                }
+            }
+            if (current instanceof Map) {
+                in.endObject();
+            } else {
+                in.endArray();
+            }
+            if (stack.isEmpty()) {
+                return current;
+            }
+            current = stack.removeLast();
+        }
+    }
+
+    private static Object beginNesting(JsonReader in, JsonToken token) throws IOException {
+        switch (token) {
+            case BEGIN_ARRAY:
+                in.beginArray();
+                return new ArrayList<>();
+            case BEGIN_OBJECT:
+                in.beginObject();
+                return new LinkedHashMap<String, Object>();
+            default:
+                return null;
+        }
+    }
+
+    private static Object readTerminal(JsonReader in, JsonToken token) throws IOException {
+        switch (token) {
+            case STRING:
+                return in.nextString();
+            case NUMBER:
+                return in.nextDouble();
+            case BOOLEAN:
+                return in.nextBoolean();
+            case NULL:
+                in.nextNull();
+                return null;
+            default:
+                throw new IllegalStateException("Unexpected token: " + token);
+        }
+    }
+
+    // 声明为Map<String, Object>的字段，与Gson一样拒绝重复的键，也接受[[键, 值], ...]形式的数组
+    public static Map<String, Object> readMap(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Map<String, Object> map = new LinkedHashMap<>();
+        if (token == JsonToken.BEGIN_ARRAY) {
+            in.beginArray();
+            while (in.hasNext()) {
+                in.beginArray();
+                putUnique(map, readString(in), readValue(in));
+                in.endArray();
+            }
+            in.endArray();
+            return map;
+        }
+        in.beginObject();
+        while (in.hasNext()) {
+            putUnique(map, in.nextName(), readValue(in));
+        }
+        in.endObject();
+        return map;
+    }
+
+    private static void putUnique(Map<String, Object> map, String key, Object value) {
+        if (map.put(key, value) != null) {
+            throw new JsonSyntaxException("duplicate key: " + key);
+        }
+    }
+
+    public static String readString(JsonReader in) throws IOException {
+        switch (in.peek()) {
+            case NULL:
+                in.nextNull();
+                return null;
+            case BOOLEAN:
+                return Boolean.toString(in.nextBoolean());
+            default:
+                return in.nextString();
+        }
+    }
+
+    public static Integer readInteger(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextInt();
+    }
+
+    public static <T> List<T> readList(JsonReader in, Decoder<T> element) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<T> list = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            list.add(element.read(in));
+        }
+        in.endArray();
+        return list;
+    }
+
+    // 字段顺序与Document的声明顺序一致，即Gson反射编码的顺序
+    public static void writeDocument(JsonWriter out, Document document) throws IOException {
+        out.beginObject();
+        out.name(Document.ID_FIELD).value(document.getId());
+        out.name("data");
+        writeValue(out, document.dataView());
+        out.name(Document.CREATED_AT_FIELD).value(document.getCreatedAt());
+        out.name(Document.UPDATED_AT_FIELD).value(document.getUpdatedAt());
+        out.endObject();
+    }
+
+    // 写向字符流时直接拼接缓存的JSON；JsonTreeWriter等子类不支持jsonValue，按文档写出
+    static void writeEncodedDocument(JsonWriter out, EncodedDocument document)
+            throws IOException {
+        if (out.getClass() == JsonWriter.class) {
+            out.jsonValue(document.json());
+        } else {
+            writeDocument(out, document.getDocument());
+        }
+    }
+
+    // 缺少的字段与Gson经无参构造函数得到的默认值相同: 随机ID、空data、当前时间
+    public static Document readDocument(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        String id = null;
+        boolean hasId = false;
+        Map<String, Object> data = null;
+        boolean hasData = false;
+        long now = System.currentTimeMillis();
+        long createdAt = now;
+        long updatedAt = now;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case Document.ID_FIELD:
+                    id = readString(in);
+                    hasId = true;
+                    break;
+                case "data":
+                    data = readMap(in);
+                    hasData = true;
+                    break;
+                case Document.CREATED_AT_FIELD:
+                    createdAt = readLong(in, createdAt);
+                    break;
+                case Document.UPDATED_AT_FIELD:
+                    updatedAt = readLong(in, updatedAt);
+                    break;
+                default:
+                    in.skipValue();
+                    break;
+            }
+        }
+        in.endObject();
+        return Document.restore(hasId ? id : UUID.randomUUID().toString(),
+                hasData ? data : new HashMap<>(), createdAt, updatedAt);
+    }
+
+    // 基本类型字段遇到null时保持原值
+    private static long readLong(JsonReader in, long current) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return current;
+        }
+        return in.nextLong();
+    }
+
+    public static void writeResult(JsonWriter out, OperationResult result) throws IOException {
+        out.beginObject();
+        out.name("success").value(result.isSuccess());
+        out.name("message").value(result.getMessage());
+        out.name("data");
+        writeValue(out, result.getData());
+        out.name("requestId").value(result.getRequestId());
+        out.endObject();
+    }
+
+    public static OperationResult readResult(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        boolean success = false;
+        String message = null;
+        Object data = null;
+        String requestId = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "success":
+                    success = readBoolean(in, success);
+                    break;
+                case "message":
+                    message = readString(in);
+                    break;
+                case "data":
+                    data = readValue(in);
+                    break;
+                case "requestId":
+                    requestId = readString(in);
+                    break;
+                default:
+                    in.skipValue();
+                    break;
+            }
+        }
+        in.endObject();
+        OperationResult result = new OperationResult(success, message, data);
+        result.setRequestId(requestId);
+        return result;
+    }
+
+    private static boolean readBoolean(JsonReader in, boolean current) throws IOException {
+        switch (in.peek()) {
+            case NULL:
+                in.nextNull();
+                return current;
+            case STRING:
+                return Boolean.parseBoolean(in.nextString());
+            default:
+                return in.nextBoolean();
+        }
+    }
+
+    // INSERT/UPDATE的id以文档自身的ID为准，因此写出getId()
+    public static void writeOperation(JsonWriter out, WriteOperation operation)
+            throws IOException {
+        out.beginObject();
+        out.name("operation").value(operation.getOperation() == null ? null
+                : operation.getOperation().name());
+        out.name("id").value(operation.getId());
+        out.name("document");
+        writeValue(out, operation.getDocument());
+        out.endObject();
+    }
+
+    // 不认识的操作名与Gson一样解码为null
+    public static WriteOperation readOperation(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        WalOperation operation = null;
+        String id = null;
+        Document document = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "operation":
+                    String name = readString(in);
+                    operation = null;
+                    for (WalOperation candidate : WalOperation.values()) {
+                        if (candidate.name().equals(name)) {
+                            operation = candidate;
+                        }
+                    }
+                    break;
+                case "id":
+                    id = readString(in);
+                    break;
+                case "document":
+                    document = readDocument(in);
+                    break;
+                default:
+                    in.skipValue();
+                    break;
+            }
+        }
+        in.endObject();
+        return new WriteOperation(operation, id, document);
+    }
+
+    static String toJson(Object value) {
+        StringWriter writer = new StringWriter();
+        try {
+            writeValue(newWriter(writer), value);
+        } catch (IOException e) {
+            // StringWriter不会抛出IOException
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    static <T> T fromJson(String json, Decoder<T> decoder) {
+        return parse(new StringReader(json), decoder);
+    }
+}
@@ -0,0 +1,81 @@
+package com.nosql.db.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// 文档常驻堆内，按集合的字段名字典换成紧凑布局后保存，读取返回的就是保存的对象
+public class MemoryStorageEngine implements StorageEngine {
+    private static final Logger logger = LoggerFactory.getLogger(MemoryStorageEngine.class);
+    private static final String SNAPSHOT_FILE = "snapshot.dat";
+    private final Path snapshotPath;
+    private final Map<String, Document> documents = new ConcurrentHashMap<>();
+    private final FieldDictionary dictionary = new FieldDictionary();
+
+    public MemoryStorageEngine(String dataDirectory) {
+        this.snapshotPath = Paths.get(dataDirectory, SNAPSHOT_FILE);
+    }
+
+    @Override
+    public Document get(String id) {
+        return documents.get(id);
+    }
+
+    @Override
+    public boolean containsKey(String id) {
+        return documents.containsKey(id);
+    }
+
+    @Override
+    public void put(Document document) {
+        documents.put(document.getId(), document.compact(dictionary));
+    }
+
+    @Override
+    public void remove(String id) {
+        documents.remove(id);
+    }
+
+    @Override
+    public long size() {
+        return documents.size();
+    }
+
+    @Override
+    public Iterator<Document> iterator() {
+        return documents.values().iterator();
+    }
+
+    @Override
+    public Stream<Document> stream(boolean parallel) {
+        return parallel ? documents.values().parallelStream() : documents.values().stream();
+    }
+
+    @Override
+    public long load() throws IOException {
+        if (!Files.exists(snapshotPath)) {
+            return 0;
+        }
+        return SnapshotFile.read(snapshotPath,
+                document -> documents.put(document.getId(), document.compact(dictionary)));
+    }
+
+    // 直接遍历ConcurrentHashMap写快照，不复制整张表
+    @Override
+    public void checkpoint(long checkpointLsn) throws IOException {
+        int count = SnapshotFile.write(snapshotPath, checkpointLsn, documents.values().iterator());
+        logger.debug("快照写入完成: {}, 文档数量: {}", snapshotPath, count);
+    }
+
+    @Override
+    public void close() {
+        documents.clear();
+    }
+}
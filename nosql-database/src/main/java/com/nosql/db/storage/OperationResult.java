@@ -3,16 +3,16 @@ package com.nosql.db.storage;
 import java.io.Serializable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import com.google.gson.Gson;
 
 public class OperationResult implements Serializable {
     private static final Logger logger = LoggerFactory.getLogger(OperationResult.class);
     private static final long serialVersionUID = 1L;
-    private static final Gson gson = new Gson();
 
     private boolean success;
     private String message;
     private Object data;
+    // 回显请求中的requestId，为null时不会出现在JSON中
+    private String requestId;
 
     public OperationResult(boolean success, String message) {
         this.success = success;
@@ -39,8 +39,16 @@ public class OperationResult implements Serializable {
         return data;
     }
 
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(String requestId) {
+        this.requestId = requestId;
+    }
+
     public String toJson() {
-        String json = gson.toJson(this);
+        String json = JsonCodec.toJson(this);
         logger.trace("将操作结果转换为JSON: {}", json);
         return json;
     }
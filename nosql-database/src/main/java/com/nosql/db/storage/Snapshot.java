@@ -0,0 +1,72 @@
+package com.nosql.db.storage;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+// 集合在某个提交序号上的一致视图: 打开之前完成的写入全部可见，之后的写入都不可见。
+// 读取和遍历不加锁，也不阻塞写入。用完必须关闭，否则快照期间记录的旧版本无法回收
+public final class Snapshot implements AutoCloseable {
+    private final VersionStore versions;
+    private final StorageEngine storage;
+    private final long sequence;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    Snapshot(VersionStore versions, StorageEngine storage, long sequence) {
+        this.versions = versions;
+        this.storage = storage;
+        this.sequence = sequence;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Document get(String id) {
+        Document stored = storage.get(id);
+        return versions.visibleAt(sequence, id, stored);
+    }
+
+    // 遍历存储引擎并换成快照看到的版本，快照之后插入的文档被跳过。
+    // 快照期间删除的文档仍留在存储引擎中，不会被漏掉
+    public Iterator<Document> iterator() {
+        Iterator<Document> stored = storage.iterator();
+        return new Iterator<Document>() {
+            private Document next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && stored.hasNext()) {
+                    Document document = stored.next();
+                    next = versions.visibleAt(sequence, document.getId(), document);
+                }
+                return next != null;
+            }
+
+            @Override
+            public Document next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Document result = next;
+                next = null;
+                return result;
+            }
+        };
+    }
+
+    public Stream<Document> stream(boolean parallel) {
+        return storage.stream(parallel)
+                .map(document -> versions.visibleAt(sequence, document.getId(), document))
+                .filter(Objects::nonNull);
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            versions.release(this);
+        }
+    }
+}
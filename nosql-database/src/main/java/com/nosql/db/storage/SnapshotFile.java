@@ -0,0 +1,109 @@
+package com.nosql.db.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import com.nosql.db.utils.FileUtils;
+
+// 集合快照文件: 魔数 + 版本 + 检查点LSN + 若干(长度 + 文档JSON) + 结束标记 + 文档数 + CRC32C
+public class SnapshotFile {
+    private static final int MAGIC = 0x4E534E50; // "NSNP"
+    private static final int VERSION = 1;
+    private static final int END_MARKER = -1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private SnapshotFile() {
+    }
+
+    // 先写临时文件并fsync，再原子替换，保证任意时刻磁盘上都有一份完整快照
+    public static int write(Path target, long checkpointLsn, Iterator<Document> documents)
+            throws IOException {
+        return writeEncoded(target, checkpointLsn, new Iterator<byte[]>() {
+            @Override
+            public boolean hasNext() {
+                return documents.hasNext();
+            }
+
+            @Override
+            public byte[] next() {
+                return documents.next().toJson().getBytes(StandardCharsets.UTF_8);
+            }
+        });
+    }
+
+    // 直接写入已编码的文档JSON，供本身就保存序列化数据的存储引擎使用
+    public static int writeEncoded(Path target, long checkpointLsn, Iterator<byte[]> documents)
+            throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        int count = 0;
+        CRC32C crc = new CRC32C();
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+                DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                        new BufferedOutputStream(file, BUFFER_SIZE), crc))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(checkpointLsn);
+            while (documents.hasNext()) {
+                byte[] json = documents.next();
+                out.writeInt(json.length);
+                out.write(json);
+                count++;
+            }
+            out.writeInt(END_MARKER);
+            out.writeInt(count);
+            out.flush();
+            new DataOutputStream(file).writeInt((int) crc.getValue());
+            file.getFD().sync();
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        // 调用方随后会按检查点LSN截断WAL，新文件名必须先落盘
+        FileUtils.syncParentDirectory(target);
+        return count;
+    }
+
+    // 读取快照并逐个回调文档，返回快照对应的检查点LSN
+    public static long read(Path source, Consumer<Document> consumer) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileInputStream file = new FileInputStream(source.toFile());
+                BufferedInputStream buffered = new BufferedInputStream(file, BUFFER_SIZE);
+                DataInputStream in = new DataInputStream(new CheckedInputStream(buffered, crc))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("无效的快照文件: " + source);
+            }
+            long checkpointLsn = in.readLong();
+            int count = 0;
+            int length;
+            while ((length = in.readInt()) != END_MARKER) {
+                byte[] json = new byte[length];
+                in.readFully(json);
+                consumer.accept(Document.fromJson(new String(json, StandardCharsets.UTF_8)));
+                count++;
+            }
+            if (in.readInt() != count) {
+                throw new IOException("快照文档数量不匹配: " + source);
+            }
+            int expectedCrc = (int) crc.getValue();
+            if (new DataInputStream(buffered).readInt() != expectedCrc) {
+                throw new IOException("快照校验失败: " + source);
+            }
+            return checkpointLsn;
+        } catch (EOFException e) {
+            throw new IOException("快照文件不完整: " + source, e);
+        }
+    }
+}
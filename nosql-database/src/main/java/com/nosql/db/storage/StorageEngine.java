@@ -0,0 +1,48 @@
+package com.nosql.db.storage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// 集合的底层存储。Collection按文档ID分段加锁后调用写操作: 同一文档的写操作不会并发，
+// 不同文档的写操作可能并发，读取和遍历可能与写入并发
+public interface StorageEngine {
+    Document get(String id);
+
+    default boolean containsKey(String id) {
+        return get(id) != null;
+    }
+
+    // 返回文档的JSON编码，保存序列化数据的引擎可以直接返回存储的字节
+    default byte[] getEncoded(String id) {
+        Document document = get(id);
+        return document == null ? null : document.toJson().getBytes(StandardCharsets.UTF_8);
+    }
+
+    void put(Document document);
+
+    void remove(String id);
+
+    long size();
+
+    // 遍历所有文档，允许与写入并发进行(弱一致)
+    Iterator<Document> iterator();
+
+    // 以流的方式遍历所有文档(弱一致)，供查询做并行扫描；默认按迭代器分批切分
+    default Stream<Document> stream(boolean parallel) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(),
+                Spliterator.NONNULL), parallel);
+    }
+
+    // 加载持久化的数据，返回其对应的检查点LSN
+    long load() throws IOException;
+
+    // 将当前数据持久化，完成后恢复时只需重放LSN不小于checkpointLsn的记录
+    void checkpoint(long checkpointLsn) throws IOException;
+
+    void close() throws IOException;
+}
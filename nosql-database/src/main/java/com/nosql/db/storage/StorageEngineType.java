@@ -0,0 +1,17 @@
+package com.nosql.db.storage;
+
+public enum StorageEngineType {
+    // 全部文档常驻堆内存，检查点时写整份快照
+    MEMORY,
+    // memtable + SSTable，数据量可以超过堆大小
+    LSM,
+    // 序列化后的文档保存在堆外内存，堆上只保留主索引
+    OFF_HEAP;
+
+    public static StorageEngineType fromString(String value) {
+        if (value == null || value.isEmpty()) {
+            return MEMORY;
+        }
+        return valueOf(value.trim().toUpperCase());
+    }
+}
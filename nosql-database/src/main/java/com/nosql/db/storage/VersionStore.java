@@ -0,0 +1,248 @@
+package com.nosql.db.storage;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// 集合的多版本并发控制。存储引擎只保存每个文档的最新版本，
+// 有快照存在期间的写入额外在内存中记录版本链: 文档ID -> 从新到旧的(提交序号, 文档)，
+// 链尾是第一次记录之前的版本，序号为0。快照取打开时的提交序号S，
+// 每个文档看到链中序号不大于S的最新版本，没有版本链的文档看到存储引擎中的版本。
+// 快照期间的删除只记入版本链，文档暂时留在存储引擎中，保证快照的遍历不会漏掉它；
+// 后台回收线程在所有快照都能看到删除之后再从存储引擎删除，并裁掉不再可见的旧版本。
+// 没有快照时写入直接修改存储引擎，不记录版本
+final class VersionStore {
+    private static final Logger logger = LoggerFactory.getLogger(VersionStore.class);
+    // 所有集合共用一个回收线程
+    private static final ExecutorService COLLECTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "version-gc");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final StorageEngine storage;
+    private final Function<String, ReentrantLock> stripeOf;
+    private final Runnable onRemoved;
+    private final Map<String, DocumentVersion> versions = new ConcurrentHashMap<>();
+    private final Set<Snapshot> snapshots = ConcurrentHashMap.newKeySet();
+    // 写入在读锁内分配提交序号并应用到存储引擎，打开快照时持有写锁读取序号，
+    // 因此序号不大于S的写入在快照打开时都已应用，之后的写入都能看到这个快照而记录版本
+    private final ReentrantReadWriteLock commitLock = new ReentrantReadWriteLock();
+    private final AtomicLong sequence = new AtomicLong();
+    // 已在版本链中删除、仍留在存储引擎中的文档数
+    private final AtomicLong retainedDeletes = new AtomicLong();
+    private final AtomicBoolean collectScheduled = new AtomicBoolean();
+
+    // 一个文档的某个版本，document为null表示已删除。
+    // 只有previous会被回收线程截断，截断的版本对任何快照都不可见
+    static final class DocumentVersion {
+        final long sequence;
+        final Document document;
+        volatile DocumentVersion previous;
+        // 删除版本的文档是否还留在存储引擎中，只在持有该文档的分段锁时访问
+        boolean retained;
+
+        DocumentVersion(long sequence, Document document, DocumentVersion previous) {
+            this.sequence = sequence;
+            this.document = document;
+            this.previous = previous;
+        }
+
+        Document visibleAt(long snapshot) {
+            DocumentVersion version = this;
+            while (version.sequence > snapshot) {
+                version = version.previous;
+            }
+            return version.document;
+        }
+    }
+
+    // stripeOf返回文档ID所在的写锁分段，回收时持有它修改存储引擎；
+    // onRemoved在回收从存储引擎删除了文档后调用
+    VersionStore(StorageEngine storage, Function<String, ReentrantLock> stripeOf,
+            Runnable onRemoved) {
+        this.storage = storage;
+        this.stripeOf = stripeOf;
+        this.onRemoved = onRemoved;
+    }
+
+    // 写入方在持有文档的分段锁时调用，beginWrite和endWrite之间的一组写入对快照是原子的
+    void beginWrite() {
+        commitLock.readLock().lock();
+    }
+
+    void endWrite() {
+        commitLock.readLock().unlock();
+    }
+
+    // 以下四个方法读取或修改最新版本，调用方持有文档的分段锁和beginWrite
+    void put(Document document) {
+        String id = document.getId();
+        long commit = sequence.incrementAndGet();
+        DocumentVersion head = versions.get(id);
+        if (head != null && head.retained) {
+            retainedDeletes.decrementAndGet();
+        }
+        if (snapshots.isEmpty()) {
+            storage.put(document);
+            if (head != null) {
+                versions.remove(id);
+            }
+            return;
+        }
+        // 先发布版本再修改存储引擎，读到新文档的快照一定能看到新版本的序号
+        versions.put(id, new DocumentVersion(commit, document, head != null ? head
+                : new DocumentVersion(0, storage.get(id), null)));
+        storage.put(document);
+    }
+
+    void remove(String id) {
+        long commit = sequence.incrementAndGet();
+        DocumentVersion head = versions.get(id);
+        if (snapshots.isEmpty()) {
+            storage.remove(id);
+            if (head != null) {
+                versions.remove(id);
+            }
+            return;
+        }
+        DocumentVersion deleted = new DocumentVersion(commit, null, head != null ? head
+                : new DocumentVersion(0, storage.get(id), null));
+        deleted.retained = true;
+        retainedDeletes.incrementAndGet();
+        versions.put(id, deleted);
+    }
+
+    // 不要求持有锁: 有版本链时最新版本就是链头，写入先发布链头再修改存储引擎
+    Document get(String id) {
+        DocumentVersion head = versions.get(id);
+        return head != null ? head.document : storage.get(id);
+    }
+
+    boolean containsKey(String id) {
+        DocumentVersion head = versions.get(id);
+        return head != null ? head.document != null : storage.containsKey(id);
+    }
+
+    // 把从存储引擎遍历到的文档换成最新版本，已删除的返回null
+    Document current(Document stored) {
+        DocumentVersion head = versions.get(stored.getId());
+        return head != null ? head.document : stored;
+    }
+
+    long size() {
+        return storage.size() - retainedDeletes.get();
+    }
+
+    long retainedDeletes() {
+        return retainedDeletes.get();
+    }
+
+    // 打开着的快照数
+    int snapshotCount() {
+        return snapshots.size();
+    }
+
+    // 记录着版本链的文档数
+    int versionChainCount() {
+        return versions.size();
+    }
+
+    Snapshot openSnapshot() {
+        Snapshot snapshot;
+        commitLock.writeLock().lock();
+        try {
+            snapshot = new Snapshot(this, storage, sequence.get());
+            snapshots.add(snapshot);
+        } finally {
+            commitLock.writeLock().unlock();
+        }
+        return snapshot;
+    }
+
+    // 快照看到的版本。stored必须在快照打开之后从存储引擎读取:
+    // 读取之后的写入在修改存储引擎前已发布版本链，此时再读版本链一定能看到；
+    // 没有版本链说明读取之后没有写入，stored就是快照看到的版本
+    Document visibleAt(long snapshot, String id, Document stored) {
+        DocumentVersion head = versions.get(id);
+        return head != null ? head.visibleAt(snapshot) : stored;
+    }
+
+    void release(Snapshot snapshot) {
+        if (snapshots.remove(snapshot) && !versions.isEmpty()
+                && collectScheduled.compareAndSet(false, true)) {
+            COLLECTOR.execute(this::collect);
+        }
+    }
+
+    // 回收所有快照都不再需要的版本。链头之外只保留最老的快照还能看到的版本，
+    // 所有快照都能看到的删除从存储引擎中删除。整条版本链在以下情况下移除:
+    // 链头是所有快照都能看到的写入(存储引擎中就是这个版本)，或没有快照时的删除。
+    // 有快照时保留删除的链头，因为快照的遍历可能在删除之前读到了这个文档
+    private void collect() {
+        collectScheduled.set(false);
+        long start = System.currentTimeMillis();
+        int before = versions.size();
+        int removed = 0;
+        try {
+            for (String id : versions.keySet()) {
+                ReentrantLock stripe = stripeOf.apply(id);
+                stripe.lock();
+                beginWrite();
+                try {
+                    removed += prune(id);
+                } finally {
+                    endWrite();
+                    stripe.unlock();
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("回收文档版本失败: {}", e.getMessage(), e);
+        }
+        if (removed > 0) {
+            onRemoved.run();
+        }
+        logger.debug("回收文档版本完成，版本链: {} -> {}, 删除文档: {}, 耗时: {}ms", before,
+                versions.size(), removed, System.currentTimeMillis() - start);
+    }
+
+    // 返回从存储引擎删除的文档数。调用方持有beginWrite，期间不会打开新的快照，
+    // 最老的快照序号是准确的
+    private int prune(String id) {
+        DocumentVersion head = versions.get(id);
+        if (head == null) {
+            return 0;
+        }
+        long oldest = Long.MAX_VALUE;
+        for (Snapshot snapshot : snapshots) {
+            oldest = Math.min(oldest, snapshot.getSequence());
+        }
+        int removed = 0;
+        if (head.document == null && head.retained && head.sequence <= oldest) {
+            storage.remove(id);
+            head.retained = false;
+            retainedDeletes.decrementAndGet();
+            removed = 1;
+        }
+        if (head.document == null ? snapshots.isEmpty() : head.sequence <= oldest) {
+            versions.remove(id);
+            return removed;
+        }
+        for (DocumentVersion version = head; version != null; version = version.previous) {
+            if (version.sequence <= oldest) {
+                version.previous = null;
+                break;
+            }
+        }
+        return removed;
+    }
+}
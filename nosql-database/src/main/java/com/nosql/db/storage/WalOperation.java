@@ -0,0 +1,28 @@
+package com.nosql.db.storage;
+
+public enum WalOperation {
+    INSERT((byte) 1),
+    UPDATE((byte) 2),
+    DELETE((byte) 3),
+    // 字段级更新，数据为解析后的增量
+    PATCH((byte) 4);
+
+    private final byte code;
+
+    WalOperation(byte code) {
+        this.code = code;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    public static WalOperation fromCode(byte code) {
+        for (WalOperation op : values()) {
+            if (op.code == code) {
+                return op;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,103 @@
+package com.nosql.db.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
+
+public class WalRecord {
+    // 记录头: 长度(4) + CRC32C(4) + LSN(8) + 操作码(1)
+    static final int HEADER_SIZE = 17;
+
+    private final long lsn;
+    private final WalOperation operation;
+    private final String collection;
+    private final String data;
+
+    public WalRecord(long lsn, WalOperation operation, String collection, String data) {
+        this.lsn = lsn;
+        this.operation = operation;
+        this.collection = collection;
+        this.data = data;
+    }
+
+    public long getLsn() {
+        return lsn;
+    }
+
+    public WalOperation getOperation() {
+        return operation;
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    public String getData() {
+        return data;
+    }
+
+    // 负载: 集合名长度(2) + 集合名 + 数据，LSN由写入线程在落盘时填写
+    static byte[] encodePayload(String collection, String data) {
+        byte[] collBytes = collection.getBytes(StandardCharsets.UTF_8);
+        byte[] dataBytes = data.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(2 + collBytes.length + dataBytes.length);
+        payload.putShort((short) collBytes.length);
+        payload.put(collBytes);
+        payload.put(dataBytes);
+        return payload.array();
+    }
+
+    static void writeTo(ByteBuffer buffer, long lsn, WalOperation operation, byte[] payload) {
+        int start = buffer.position();
+        buffer.putInt(payload.length);
+        buffer.putInt(0);
+        buffer.putLong(lsn);
+        buffer.put(operation.getCode());
+        buffer.put(payload);
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().position(start + 8).limit(buffer.position()));
+        buffer.putInt(start + 4, (int) crc.getValue());
+    }
+
+    // 从当前位置读取一条记录；遇到段尾(长度为0)、损坏记录或LSN不等于expectedLsn
+    // (记录丢失或乱序)时返回null且不移动位置
+    static WalRecord readFrom(ByteBuffer buffer, long expectedLsn) {
+        int start = buffer.position();
+        if (buffer.remaining() < HEADER_SIZE) {
+            return null;
+        }
+        int length = buffer.getInt(start);
+        if (length < 2 || length > buffer.remaining() - HEADER_SIZE) {
+            return null;
+        }
+        int storedCrc = buffer.getInt(start + 4);
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().position(start + 8).limit(start + HEADER_SIZE + length));
+        if ((int) crc.getValue() != storedCrc) {
+            return null;
+        }
+        long lsn = buffer.getLong(start + 8);
+        WalOperation operation = WalOperation.fromCode(buffer.get(start + 16));
+        if (operation == null || lsn != expectedLsn) {
+            return null;
+        }
+
+        ByteBuffer payload = buffer.duplicate().position(start + HEADER_SIZE)
+                .limit(start + HEADER_SIZE + length);
+        int collLength = payload.getShort() & 0xFFFF;
+        if (collLength > payload.remaining()) {
+            return null;
+        }
+        byte[] collBytes = new byte[collLength];
+        payload.get(collBytes);
+        byte[] dataBytes = new byte[payload.remaining()];
+        payload.get(dataBytes);
+        buffer.position(start + HEADER_SIZE + length);
+        return new WalRecord(lsn, operation, new String(collBytes, StandardCharsets.UTF_8),
+                new String(dataBytes, StandardCharsets.UTF_8));
+    }
+
+    static boolean isSegmentEnd(ByteBuffer buffer) {
+        return buffer.remaining() < 4 || buffer.getInt(buffer.position()) == 0;
+    }
+}
@@ -0,0 +1,152 @@
+package com.nosql.db.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.nosql.db.utils.FileUtils;
+
+class WalSegment {
+    private static final Logger logger = LoggerFactory.getLogger(WalSegment.class);
+    static final String SEGMENT_EXTENSION = ".seg";
+    private static final int ZERO_CHUNK_SIZE = 64 * 1024;
+
+    private final File file;
+    private final long startLsn;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private int dirtyFrom;
+
+    private WalSegment(File file, long startLsn, FileChannel channel, MappedByteBuffer buffer) {
+        this.file = file;
+        this.startLsn = startLsn;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    static String fileName(String baseLogName, long startLsn) {
+        return String.format("%s_%020d%s", baseLogName, startLsn, SEGMENT_EXTENSION);
+    }
+
+    static long parseStartLsn(String baseLogName, String fileName) {
+        String digits = fileName.substring(baseLogName.length() + 1,
+                fileName.length() - SEGMENT_EXTENSION.length());
+        return Long.parseLong(digits);
+    }
+
+    // 新建段文件并用0预分配全部空间，长度为0的记录头即表示段内数据结束
+    static WalSegment create(String directory, String baseLogName, long startLsn, int size)
+            throws IOException {
+        File file = new File(directory, fileName(baseLogName, startLsn));
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer zeros = ByteBuffer.allocateDirect(ZERO_CHUNK_SIZE);
+        long written = 0;
+        while (written < size) {
+            zeros.clear().limit((int) Math.min(ZERO_CHUNK_SIZE, size - written));
+            written += channel.write(zeros, written);
+        }
+        channel.force(true);
+        FileUtils.syncParentDirectory(file.toPath());
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        logger.info("创建WAL段: {}, 大小: {} 字节", file.getName(), size);
+        return new WalSegment(file, startLsn, channel, buffer);
+    }
+
+    // 打开已有段继续追加，定位到最后一条有效记录之后，并清除其后的残缺数据
+    static WalSegment openForAppend(File file, long startLsn, ScanResult scan)
+            throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        WalSegment segment = new WalSegment(file, startLsn, channel, buffer);
+        buffer.position(scan.endPosition);
+        if (scan.torn) {
+            for (int i = scan.endPosition; i < buffer.capacity(); i++) {
+                buffer.put(i, (byte) 0);
+            }
+            buffer.force();
+            logger.warn("WAL段{}在位置{}之后存在残缺记录，已清除", file.getName(), scan.endPosition);
+        }
+        segment.dirtyFrom = scan.endPosition;
+        return segment;
+    }
+
+    // 段内LSN必须从startLsn开始连续递增，第一条不连续的记录与残缺记录同样处理
+    static ScanResult scan(File file, long startLsn, long maxLsnExclusive,
+            Consumer<WalRecord> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            long lastLsn = startLsn - 1;
+            int count = 0;
+            while (!WalRecord.isSegmentEnd(buffer)) {
+                int position = buffer.position();
+                WalRecord record = WalRecord.readFrom(buffer, lastLsn + 1);
+                if (record == null) {
+                    return new ScanResult(position, lastLsn, count, true);
+                }
+                if (record.getLsn() >= maxLsnExclusive) {
+                    buffer.position(position);
+                    break;
+                }
+                lastLsn = record.getLsn();
+                count++;
+                consumer.accept(record);
+            }
+            return new ScanResult(buffer.position(), lastLsn, count, false);
+        }
+    }
+
+    boolean hasRoom(int payloadLength) {
+        // 预留4字节作为段尾标记
+        return buffer.remaining() >= WalRecord.HEADER_SIZE + payloadLength + 4;
+    }
+
+    void append(long lsn, WalOperation operation, byte[] payload) {
+        WalRecord.writeTo(buffer, lsn, operation, payload);
+    }
+
+    void force() {
+        int position = buffer.position();
+        if (position > dirtyFrom) {
+            buffer.force(dirtyFrom, position - dirtyFrom);
+            dirtyFrom = position;
+        }
+    }
+
+    void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    long getStartLsn() {
+        return startLsn;
+    }
+
+    int getPosition() {
+        return buffer.position();
+    }
+
+    static class ScanResult {
+        final int endPosition;
+        final long lastLsn;
+        final int recordCount;
+        final boolean torn;
+
+        ScanResult(int endPosition, long lastLsn, int recordCount, boolean torn) {
+            this.endPosition = endPosition;
+            this.lastLsn = lastLsn;
+            this.recordCount = recordCount;
+            this.torn = torn;
+        }
+    }
+}
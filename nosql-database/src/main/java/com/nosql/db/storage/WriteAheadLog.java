@@ -1,39 +1,84 @@
 package com.nosql.db.storage;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class WriteAheadLog {
     private static final Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
-    private static final String LOG_FILE_EXTENSION = ".wal";
-    private static final int MAX_LOG_SIZE = 1024 * 1024; // 1MB
+    // 旧版文本格式日志，仅在恢复时读取
+    private static final String LEGACY_LOG_FILE_EXTENSION = ".wal";
+    private static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024; // 16MB
+    private static final long DEFAULT_GROUP_COMMIT_WINDOW_MICROS = 1000;
+    private static final int DEFAULT_GROUP_COMMIT_MAX_BYTES = 256 * 1024;
     private final String logDirectory;
     private final String baseLogName;
-    private File currentLogFile;
-    private BufferedWriter writer;
-    private final AtomicLong currentLogSize = new AtomicLong(0);
-    private final Object writeLock = new Object();
+    private final DurabilityMode durabilityMode;
+    private final long groupCommitWindowNanos;
+    private final int groupCommitMaxBytes;
+    private final int segmentSize;
+    private WalSegment currentSegment;
+    private volatile long nextLsn = 1;
+    // 启动时已存在的日志上界，恢复只重放该LSN之前的记录
+    private long recoveryEndLsn;
+    // 使用ReentrantLock而非synchronized，持锁期间的I/O不会把虚拟线程钉在载体线程上
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final BlockingQueue<PendingWrite> pendingWrites = new LinkedBlockingQueue<>();
+    private final AtomicLong batchCount = new AtomicLong(0);
+    private final AtomicLong recordCount = new AtomicLong(0);
+    private final AtomicLong bytesWritten = new AtomicLong(0);
+    private Thread committer;
+    private volatile boolean closed = false;
+    // 第一次写入失败的原因。失败的批次可能已在段中留下部分记录而nextLsn没有前进，
+    // 之后再写会出现重复或不连续的LSN，恢复时会丢掉其后已确认的写入，所以失败后拒绝一切写入
+    private volatile Throwable failure;
 
     public WriteAheadLog(String logDirectory, String baseLogName) {
+        this(logDirectory, baseLogName, DurabilityMode.GROUP_COMMIT,
+                DEFAULT_GROUP_COMMIT_WINDOW_MICROS, DEFAULT_GROUP_COMMIT_MAX_BYTES);
+    }
+
+    public WriteAheadLog(String logDirectory, String baseLogName, DurabilityMode durabilityMode,
+            long groupCommitWindowMicros, int groupCommitMaxBytes) {
+        this(logDirectory, baseLogName, durabilityMode, groupCommitWindowMicros,
+                groupCommitMaxBytes, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public WriteAheadLog(String logDirectory, String baseLogName, DurabilityMode durabilityMode,
+            long groupCommitWindowMicros, int groupCommitMaxBytes, int segmentSize) {
         this.logDirectory = logDirectory;
         this.baseLogName = baseLogName;
+        this.durabilityMode = durabilityMode;
+        this.groupCommitWindowNanos = TimeUnit.MICROSECONDS.toNanos(groupCommitWindowMicros);
+        this.groupCommitMaxBytes = groupCommitMaxBytes;
+        this.segmentSize = segmentSize;
         initializeLogFile();
-        logger.info("WAL初始化完成，目录: {}", logDirectory);
+        if (durabilityMode != DurabilityMode.SYNC) {
+            committer = new Thread(this::runCommitter, "wal-committer");
+            committer.setDaemon(true);
+            committer.start();
+        }
+        logger.info("WAL初始化完成，目录: {}, 持久化模式: {}, 下一个LSN: {}", logDirectory,
+                durabilityMode, nextLsn);
     }
 
     private void initializeLogFile() {
@@ -44,132 +89,380 @@ public class WriteAheadLog {
                 logger.info("创建WAL目录: {}", logDirectory);
             }
 
-            List<File> logFiles = getLogFiles();
-            if (!logFiles.isEmpty()) {
-                currentLogFile = logFiles.get(logFiles.size() - 1);
-                currentLogSize.set(currentLogFile.length());
-                logger.info("找到现有WAL文件: {}, 大小: {} 字节", currentLogFile.getName(),
-                        currentLogSize.get());
+            List<File> segments = getSegmentFiles();
+            if (!segments.isEmpty()) {
+                File last = segments.get(segments.size() - 1);
+                long startLsn = WalSegment.parseStartLsn(baseLogName, last.getName());
+                WalSegment.ScanResult scan =
+                        WalSegment.scan(last, startLsn, Long.MAX_VALUE, record -> {
+                        });
+                nextLsn = scan.recordCount > 0 ? scan.lastLsn + 1 : startLsn;
+                currentSegment = WalSegment.openForAppend(last, startLsn, scan);
+                logger.info("找到现有WAL段: {}, 有效记录: {}, 写入位置: {}", last.getName(),
+                        scan.recordCount, scan.endPosition);
             } else {
-                currentLogFile = createNewLogFile();
-                logger.info("创建新WAL文件: {}", currentLogFile.getName());
+                currentSegment =
+                        WalSegment.create(logDirectory, baseLogName, nextLsn, segmentSize);
             }
-
-            writer = new BufferedWriter(new FileWriter(currentLogFile, true));
+            recoveryEndLsn = nextLsn;
         } catch (IOException e) {
             logger.error("初始化WAL失败: {}", e.getMessage(), e);
             throw new RuntimeException("Failed to initialize WAL", e);
         }
     }
 
-    private File createNewLogFile() throws IOException {
-        long timestamp = System.currentTimeMillis();
-        File file = new File(logDirectory, baseLogName + "_" + timestamp + LOG_FILE_EXTENSION);
-        if (!file.createNewFile()) {
-            logger.error("创建WAL文件失败: {}", file.getAbsolutePath());
-            throw new IOException("Failed to create log file: " + file.getAbsolutePath());
+    public long write(WalOperation operation, String collection, String data) {
+        return awaitDurable(append(operation, collection, data));
+    }
+
+    // 追加一条记录并返回其持久化完成的future(结果为LSN)，调用方可在释放锁之后再等待
+    public CompletableFuture<Long> append(WalOperation operation, String collection,
+            String data) {
+        if (closed) {
+            throw new IllegalStateException("WAL已关闭");
+        }
+        if (failure != null) {
+            throw new RuntimeException("Failed to write to WAL", failure);
+        }
+        PendingWrite pending =
+                new PendingWrite(operation, WalRecord.encodePayload(collection, data));
+        logger.debug("WAL追加: {} {} ({}字节)", operation, collection, pending.payload.length);
+
+        if (durabilityMode == DurabilityMode.SYNC) {
+            appendSync(Collections.singletonList(pending));
+            return pending.done;
         }
-        logger.info("创建新WAL文件: {}", file.getName());
-        return file;
+
+        pendingWrites.add(pending);
+        return pending.done;
     }
 
-    public void write(String operation, String collection, String data) {
-        synchronized (writeLock) {
+    // 批量追加同一集合的多条记录，SYNC模式下只fsync一次；返回全部记录持久化完成的future(结果为最后一条的LSN)
+    public CompletableFuture<Long> appendAll(String collection, List<WalOperation> operations,
+            List<String> data) {
+        if (closed) {
+            throw new IllegalStateException("WAL已关闭");
+        }
+        if (failure != null) {
+            throw new RuntimeException("Failed to write to WAL", failure);
+        }
+        if (operations.isEmpty()) {
+            return CompletableFuture.completedFuture(nextLsn - 1);
+        }
+        List<PendingWrite> batch = new ArrayList<>(operations.size());
+        for (int i = 0; i < operations.size(); i++) {
+            batch.add(new PendingWrite(operations.get(i),
+                    WalRecord.encodePayload(collection, data.get(i))));
+        }
+        logger.debug("WAL批量追加: {} {}条记录", collection, batch.size());
+
+        if (durabilityMode == DurabilityMode.SYNC) {
+            appendSync(batch);
+        } else {
+            pendingWrites.addAll(batch);
+        }
+        // 提交线程可能把这些记录拆到多个批次，任何一条失败都视为整体失败
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[batch.size()];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = batch.get(i).done;
+        }
+        CompletableFuture<Long> last = batch.get(batch.size() - 1).done;
+        return CompletableFuture.allOf(futures).thenCompose(ignored -> last);
+    }
+
+    private void appendSync(List<PendingWrite> batch) {
+        writeLock.lock();
+        try {
+            // 等锁期间其他写入可能已经失败
+            if (failure != null) {
+                throw new RuntimeException("Failed to write to WAL", failure);
+            }
             try {
-                if (currentLogSize.get()
-                        + data.getBytes(StandardCharsets.UTF_8).length > MAX_LOG_SIZE) {
-                    logger.info("WAL文件大小达到阈值，准备滚动: {}", currentLogFile.getName());
-                    rotateLog();
-                }
-                String logEntry = String.format("%s|%s|%s%n", operation, collection, data);
-                writer.write(logEntry);
-                writer.flush();
-                currentLogSize.addAndGet(logEntry.getBytes(StandardCharsets.UTF_8).length);
-                logger.debug("WAL写入: {} {} ({}字节)", operation, collection, logEntry.length());
-            } catch (IOException e) {
-                logger.error("WAL写入失败: {}", e.getMessage(), e);
+                appendBatch(batch, true);
+            } catch (IOException | RuntimeException | Error e) {
+                fail(e, batch);
                 throw new RuntimeException("Failed to write to WAL", e);
             }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // 记录第一次失败并让该批次的等待者收到异常
+    private void fail(Throwable e, List<PendingWrite> batch) {
+        if (failure == null) {
+            failure = e;
+            logger.error("WAL写入失败，此后拒绝所有写入: {}", e.getMessage(), e);
+        }
+        batch.forEach(pending -> pending.done.completeExceptionally(failure));
+    }
+
+    public long awaitDurable(CompletableFuture<Long> durable) {
+        try {
+            return durable.join();
+        } catch (CompletionException e) {
+            logger.error("WAL写入失败: {}", e.getCause().getMessage());
+            throw new RuntimeException("Failed to write to WAL", e.getCause());
+        }
+    }
+
+    private void runCommitter() {
+        List<PendingWrite> batch = new ArrayList<>();
+        while (!closed || !pendingWrites.isEmpty()) {
+            try {
+                PendingWrite first = pendingWrites.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                int batchBytes = first.payload.length;
+                long deadline = System.nanoTime() + groupCommitWindowNanos;
+
+                // 在延迟窗口内尽量收集更多记录，达到字节上限立即提交
+                while (batchBytes < groupCommitMaxBytes) {
+                    PendingWrite next = pendingWrites.poll();
+                    if (next == null) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        next = pendingWrites.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                    }
+                    batch.add(next);
+                    batchBytes += next.payload.length;
+                }
+
+                if (failure != null) {
+                    // 失败之前已入队的写入不能再从同一个LSN开始写，全部以失败结束
+                    fail(failure, batch);
+                    continue;
+                }
+                try {
+                    appendBatch(batch, durabilityMode == DurabilityMode.GROUP_COMMIT);
+                } catch (IOException | RuntimeException | Error e) {
+                    // MappedByteBuffer.force抛出的是UncheckedIOException，
+                    // 任何异常都不能让提交线程退出，否则等待中的写入永远不会完成
+                    fail(e, batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
         }
+        // 关闭前最后一刻入队的写入
+        List<PendingWrite> rest = new ArrayList<>();
+        pendingWrites.drainTo(rest);
+        rest.forEach(pending -> pending.done.completeExceptionally(failure != null ? failure
+                : new IllegalStateException("WAL已关闭")));
+        logger.info("WAL提交线程退出，批次数: {}, 记录数: {}", batchCount.get(), recordCount.get());
     }
 
-    private void rotateLog() throws IOException {
-        writer.close();
-        currentLogFile = createNewLogFile();
-        writer = new BufferedWriter(new FileWriter(currentLogFile, true));
-        currentLogSize.set(0);
-        logger.info("WAL文件已滚动: {}", currentLogFile.getName());
+    // 仅由提交线程或持有writeLock的线程调用，LSN按写入顺序分配
+    private void appendBatch(List<PendingWrite> batch, boolean force) throws IOException {
+        long lsn = nextLsn;
+        for (PendingWrite pending : batch) {
+            if (!currentSegment.hasRoom(pending.payload.length)) {
+                rotateSegment(lsn, pending.payload.length);
+            }
+            currentSegment.append(lsn, pending.operation, pending.payload);
+            bytesWritten.addAndGet(WalRecord.HEADER_SIZE + pending.payload.length);
+            pending.lsn = lsn++;
+        }
+        if (force) {
+            currentSegment.force();
+        }
+        nextLsn = lsn;
+        batchCount.incrementAndGet();
+        recordCount.addAndGet(batch.size());
+        for (PendingWrite pending : batch) {
+            pending.done.complete(pending.lsn);
+        }
+        logger.trace("WAL批量写入: {}条记录, fsync={}", batch.size(), force);
     }
 
-    public void recover(DatabaseEngine engine) throws IOException {
-        List<File> logFiles = getLogFiles();
-        logger.info("开始WAL恢复，文件数量: {}", logFiles.size());
+    private void rotateSegment(long startLsn, int payloadLength) throws IOException {
+        logger.info("WAL段空间不足，准备滚动: {}", currentSegment.getFile().getName());
+        currentSegment.close();
+        int size = Math.max(segmentSize, WalRecord.HEADER_SIZE + payloadLength + 4);
+        currentSegment = WalSegment.create(logDirectory, baseLogName, startLsn, size);
+        logger.info("WAL段已滚动: {}", currentSegment.getFile().getName());
+    }
 
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (committer != null) {
+            try {
+                committer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        writeLock.lock();
+        try {
+            currentSegment.close();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("关闭WAL时发生异常: {}", e.getMessage());
+        } finally {
+            writeLock.unlock();
+        }
+        logger.info("WAL已关闭，批次数: {}, 记录数: {}", batchCount.get(), recordCount.get());
+    }
+
+    public DurabilityMode getDurabilityMode() {
+        return durabilityMode;
+    }
+
+    public long getNextLsn() {
+        return nextLsn;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    // 删除所有记录都小于给定LSN的段，当前写入段永远保留
+    public int truncateBefore(long lsn) {
+        int deleted = 0;
+        List<File> segments = getSegmentFiles();
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            long nextStart = WalSegment.parseStartLsn(baseLogName, segments.get(i + 1).getName());
+            if (nextStart > lsn) {
+                break;
+            }
+            if (segments.get(i).delete()) {
+                deleted++;
+                logger.info("删除已被检查点覆盖的WAL段: {}", segments.get(i).getName());
+            } else {
+                logger.warn("删除WAL段失败: {}", segments.get(i).getName());
+            }
+        }
+        if (lsn > 0) {
+            for (File legacy : getLegacyLogFiles()) {
+                if (legacy.delete()) {
+                    deleted++;
+                    logger.info("删除已被检查点覆盖的旧版WAL文件: {}", legacy.getName());
+                }
+            }
+        }
+        return deleted;
+    }
+
+    // 按LSN顺序扫描启动时已存在的日志，遇到第一条残缺、校验失败或LSN不连续的记录即停止
+    public void replay(long fromLsn, Consumer<WalRecord> consumer) throws IOException {
+        replayLegacyLogs(consumer);
+
+        List<File> segments = getSegmentFiles();
+        logger.info("开始扫描WAL段，文件数量: {}, 起始LSN: {}", segments.size(), fromLsn);
+        // 上一个已扫描段之后应出现的LSN，-1表示还没有扫描过任何段
+        long expectedLsn = -1;
+        for (int i = 0; i < segments.size(); i++) {
+            File segment = segments.get(i);
+            long startLsn = WalSegment.parseStartLsn(baseLogName, segment.getName());
+            if (startLsn >= recoveryEndLsn) {
+                break;
+            }
+            if (expectedLsn >= 0 && startLsn != expectedLsn) {
+                logger.warn("WAL段{}的起始LSN为{}，期望{}，中间的记录已丢失，恢复在此停止",
+                        segment.getName(), startLsn, expectedLsn);
+                break;
+            }
+            // 下一个段的起始LSN不大于fromLsn时，本段可以整体跳过
+            if (i + 1 < segments.size() && WalSegment
+                    .parseStartLsn(baseLogName, segments.get(i + 1).getName()) <= fromLsn) {
+                continue;
+            }
+            WalSegment.ScanResult scan = WalSegment.scan(segment, startLsn, recoveryEndLsn,
+                    record -> {
+                        if (record.getLsn() >= fromLsn) {
+                            consumer.accept(record);
+                        }
+                    });
+            logger.info("WAL段{}扫描完成: 记录数={}, 最后LSN={}", segment.getName(), scan.recordCount,
+                    scan.lastLsn);
+            expectedLsn = scan.lastLsn + 1;
+            if (scan.torn) {
+                logger.warn("WAL段{}在位置{}处存在残缺记录，恢复在此停止", segment.getName(),
+                        scan.endPosition);
+                break;
+            }
+        }
+    }
+
+    private void replayLegacyLogs(Consumer<WalRecord> consumer) throws IOException {
+        List<File> logFiles = getLegacyLogFiles();
         for (File logFile : logFiles) {
-            logger.info("处理WAL文件: {}, 大小: {} 字节", logFile.getName(), logFile.length());
+            logger.info("处理旧版WAL文件: {}, 大小: {} 字节", logFile.getName(), logFile.length());
             try (BufferedReader reader = new BufferedReader(new FileReader(logFile))) {
                 String line;
                 int entryCount = 0;
-                int successCount = 0;
                 int failCount = 0;
 
                 while ((line = reader.readLine()) != null) {
                     String[] parts = line.split("\\|", 3);
-                    if (parts.length < 3) {
+                    WalOperation operation = null;
+                    if (parts.length == 3) {
+                        try {
+                            operation = WalOperation.valueOf(parts[0]);
+                        } catch (IllegalArgumentException e) {
+                            logger.warn("未知WAL操作: {}", parts[0]);
+                        }
+                    }
+                    if (operation == null) {
                         logger.warn("无效WAL条目: {}", line);
                         failCount++;
                         continue;
                     }
-
-                    String operation = parts[0];
-                    String collection = parts[1];
-                    String data = parts[2];
                     entryCount++;
-
-                    try {
-                        switch (operation) {
-                            case "INSERT":
-                                Document doc = Document.fromJson(data);
-                                engine.insertDocument(collection, doc);
-                                successCount++;
-                                break;
-                            case "UPDATE":
-                                doc = Document.fromJson(data);
-                                engine.updateDocument(collection, doc);
-                                successCount++;
-                                break;
-                            case "DELETE":
-                                engine.deleteDocument(collection, data);
-                                successCount++;
-                                break;
-                            default:
-                                logger.warn("未知WAL操作: {}", operation);
-                                failCount++;
-                        }
-                    } catch (Exception e) {
-                        logger.error("应用WAL条目失败: {}", line, e);
-                        failCount++;
-                    }
+                    consumer.accept(new WalRecord(0, operation, parts[1], parts[2]));
                 }
 
-                logger.info("WAL文件{}处理完成: 总条目={}, 成功={}, 失败={}", logFile.getName(), entryCount,
-                        successCount, failCount);
+                logger.info("旧版WAL文件{}处理完成: 总条目={}, 无效={}", logFile.getName(), entryCount,
+                        failCount);
             }
         }
+    }
 
-        logger.info("WAL恢复完成，处理文件数量: {}", logFiles.size());
+    private List<File> getSegmentFiles() {
+        File dir = new File(logDirectory);
+        File[] files = dir.listFiles((d, name) -> name.startsWith(baseLogName + "_")
+                && name.endsWith(WalSegment.SEGMENT_EXTENSION));
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(files, Comparator
+                .comparingLong(file -> WalSegment.parseStartLsn(baseLogName, file.getName())));
+        logger.info("找到{}个WAL段", files.length);
+        return Arrays.asList(files);
     }
 
-    private List<File> getLogFiles() {
+    private List<File> getLegacyLogFiles() {
         File dir = new File(logDirectory);
-        File[] files = dir.listFiles(
-                (d, name) -> name.startsWith(baseLogName) && name.endsWith(LOG_FILE_EXTENSION));
+        File[] files = dir.listFiles((d, name) -> name.startsWith(baseLogName)
+                && name.endsWith(LEGACY_LOG_FILE_EXTENSION));
         if (files == null) {
-            logger.info("WAL目录中没有找到日志文件");
             return Collections.emptyList();
         }
         Arrays.sort(files, Comparator.comparingLong(File::lastModified));
-        logger.info("找到{}个WAL文件", files.length);
         return Arrays.asList(files);
     }
+
+    private static class PendingWrite {
+        private final WalOperation operation;
+        private final byte[] payload;
+        private final CompletableFuture<Long> done = new CompletableFuture<>();
+        private long lsn;
+
+        PendingWrite(WalOperation operation, byte[] payload) {
+            this.operation = operation;
+            this.payload = payload;
+        }
+    }
 }
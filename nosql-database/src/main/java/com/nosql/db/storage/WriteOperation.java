@@ -0,0 +1,42 @@
+package com.nosql.db.storage;
+
+// 批量写入中的单个操作。INSERT/UPDATE使用document，DELETE使用id
+public class WriteOperation {
+    private WalOperation operation;
+    private String id;
+    private Document document;
+
+    public WriteOperation() {
+    }
+
+    public WriteOperation(WalOperation operation, String id, Document document) {
+        this.operation = operation;
+        this.id = id;
+        this.document = document;
+    }
+
+    public static WriteOperation insert(Document document) {
+        return new WriteOperation(WalOperation.INSERT, document.getId(), document);
+    }
+
+    public static WriteOperation update(Document document) {
+        return new WriteOperation(WalOperation.UPDATE, document.getId(), document);
+    }
+
+    public static WriteOperation delete(String id) {
+        return new WriteOperation(WalOperation.DELETE, id, null);
+    }
+
+    public WalOperation getOperation() {
+        return operation;
+    }
+
+    // DELETE只有id；INSERT/UPDATE以文档自身的ID为准
+    public String getId() {
+        return document != null ? document.getId() : id;
+    }
+
+    public Document getDocument() {
+        return document;
+    }
+}
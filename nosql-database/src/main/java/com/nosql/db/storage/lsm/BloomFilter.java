@@ -0,0 +1,77 @@
+package com.nosql.db.storage.lsm;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+class BloomFilter {
+    private final long[] bits;
+    private final int numHashes;
+
+    private BloomFilter(long[] bits, int numHashes) {
+        this.bits = bits;
+        this.numHashes = numHashes;
+    }
+
+    static BloomFilter create(long expectedKeys, int bitsPerKey) {
+        long numBits = Math.max(64, expectedKeys * bitsPerKey);
+        int numLongs = (int) Math.min(Integer.MAX_VALUE, (numBits + 63) / 64);
+        // 最优哈希函数个数约为 bitsPerKey * ln2
+        int numHashes = Math.max(1, Math.min(30, (int) Math.round(bitsPerKey * 0.69)));
+        return new BloomFilter(new long[numLongs], numHashes);
+    }
+
+    void add(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long numBits = (long) bits.length * 64;
+        for (int i = 0; i < numHashes; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % numBits;
+            bits[(int) (bit >>> 6)] |= 1L << (bit & 63);
+        }
+    }
+
+    boolean mightContain(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long numBits = (long) bits.length * 64;
+        for (int i = 0; i < numHashes; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % numBits;
+            if ((bits[(int) (bit >>> 6)] & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(numHashes);
+        out.writeInt(bits.length);
+        for (long word : bits) {
+            out.writeLong(word);
+        }
+    }
+
+    static BloomFilter readFrom(ByteBuffer buffer) {
+        int numHashes = buffer.getInt();
+        long[] bits = new long[buffer.getInt()];
+        buffer.asLongBuffer().get(bits);
+        return new BloomFilter(bits, numHashes);
+    }
+
+    // FNV-1a 64位哈希再做一次混合，得到两个独立的32位哈希用于双重哈希
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,20 @@
+package com.nosql.db.storage.lsm;
+
+// 键值对，value为null表示删除标记(tombstone)
+class LsmEntry {
+    final String key;
+    final byte[] value;
+
+    LsmEntry(String key, byte[] value) {
+        this.key = key;
+        this.value = value;
+    }
+
+    boolean isTombstone() {
+        return value == null;
+    }
+
+    int encodedSize() {
+        return 8 + key.length() * 3 + (value == null ? 0 : value.length);
+    }
+}
@@ -0,0 +1,508 @@
+package com.nosql.db.storage.lsm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.nosql.db.storage.Document;
+import com.nosql.db.storage.StorageEngine;
+
+// LSM存储引擎: 写入memtable，写满后刷成L0 SSTable，后台按层合并。
+// 版本和清单只在后台单线程中修改，读路径按 memtable -> 不可变memtable -> L0 -> L1.. 的顺序查找
+public class LsmStorageEngine implements StorageEngine {
+    private static final Logger logger = LoggerFactory.getLogger(LsmStorageEngine.class);
+    private static final String MANIFEST_FILE = "MANIFEST";
+    private static final String TABLE_EXTENSION = ".sst";
+    private static final long DEFAULT_MEMTABLE_FLUSH_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_IMMUTABLE_MEMTABLES = 4;
+    private static final int L0_COMPACTION_TRIGGER = 4;
+    private static final long LEVEL1_MAX_BYTES = 10 * 1024 * 1024;
+    private static final int LEVEL_SIZE_MULTIPLIER = 10;
+    private static final long TARGET_FILE_BYTES = 2 * 1024 * 1024;
+
+    private final String name;
+    private final Path directory;
+    private final long memtableFlushBytes;
+    private final ExecutorService background;
+    private final ReadWriteLock memtableLock = new ReentrantReadWriteLock();
+    private volatile MemTable active = new MemTable();
+    // 等待刷盘的memtable，下标越小越新
+    private final List<ImmutableMemTable> immutables = new CopyOnWriteArrayList<>();
+    private volatile Version version = Version.empty();
+    private final AtomicLong nextFileNumber = new AtomicLong(1);
+    private final AtomicLong documentCount = new AtomicLong();
+    private final String[] compactPointers = new String[Version.MAX_LEVELS];
+    private long manifestCheckpointLsn = 0;
+    private long manifestDocumentCount = 0;
+
+    public LsmStorageEngine(String dataDirectory, String name) {
+        this(dataDirectory, name, DEFAULT_MEMTABLE_FLUSH_BYTES);
+    }
+
+    public LsmStorageEngine(String dataDirectory, String name, long memtableFlushBytes) {
+        this.name = name;
+        this.directory = Paths.get(dataDirectory);
+        this.memtableFlushBytes = memtableFlushBytes;
+        this.background = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "lsm-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public Document get(String id) {
+        LsmEntry entry = lookup(id);
+        if (entry == null || entry.isTombstone()) {
+            return null;
+        }
+        return decode(entry);
+    }
+
+    @Override
+    public boolean containsKey(String id) {
+        LsmEntry entry = lookup(id);
+        return entry != null && !entry.isTombstone();
+    }
+
+    private LsmEntry lookup(String key) {
+        LsmEntry entry = active.get(key);
+        if (entry != null) {
+            return entry;
+        }
+        for (ImmutableMemTable immutable : immutables) {
+            entry = immutable.table.get(key);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        Version current = version;
+        for (SSTable table : current.level(0)) {
+            entry = table.get(key);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        for (int level = 1; level < Version.MAX_LEVELS; level++) {
+            SSTable table = findFile(current.level(level), key);
+            if (table != null) {
+                entry = table.get(key);
+                if (entry != null) {
+                    return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    // L1及以上各文件键范围不重叠，二分定位可能包含key的文件
+    private static SSTable findFile(List<SSTable> files, String key) {
+        int low = 0;
+        int high = files.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            SSTable table = files.get(mid);
+            if (table.getMaxKey().compareTo(key) < 0) {
+                low = mid + 1;
+            } else if (table.getMinKey().compareTo(key) > 0) {
+                high = mid - 1;
+            } else {
+                return table;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void put(Document document) {
+        byte[] value = document.toJson().getBytes(StandardCharsets.UTF_8);
+        memtableLock.readLock().lock();
+        try {
+            if (!containsKey(document.getId())) {
+                documentCount.incrementAndGet();
+            }
+            active.put(document.getId(), value);
+        } finally {
+            memtableLock.readLock().unlock();
+        }
+        maybeScheduleFlush();
+    }
+
+    @Override
+    public void remove(String id) {
+        memtableLock.readLock().lock();
+        try {
+            if (!containsKey(id)) {
+                return;
+            }
+            documentCount.decrementAndGet();
+            active.delete(id);
+        } finally {
+            memtableLock.readLock().unlock();
+        }
+        maybeScheduleFlush();
+    }
+
+    @Override
+    public long size() {
+        return documentCount.get();
+    }
+
+    @Override
+    public Iterator<Document> iterator() {
+        List<Iterator<LsmEntry>> sources = new ArrayList<>();
+        sources.add(active.iterator());
+        for (ImmutableMemTable immutable : immutables) {
+            sources.add(immutable.table.iterator());
+        }
+        Version current = version;
+        for (SSTable table : current.level(0)) {
+            sources.add(table.iterator());
+        }
+        for (int level = 1; level < Version.MAX_LEVELS; level++) {
+            if (!current.level(level).isEmpty()) {
+                sources.add(concat(current.level(level)));
+            }
+        }
+        MergingIterator merged = new MergingIterator(sources, true);
+        return new Iterator<Document>() {
+            @Override
+            public boolean hasNext() {
+                return merged.hasNext();
+            }
+
+            @Override
+            public Document next() {
+                return decode(merged.next());
+            }
+        };
+    }
+
+    private static Iterator<LsmEntry> concat(List<SSTable> tables) {
+        return new Iterator<LsmEntry>() {
+            private int index = 0;
+            private Iterator<LsmEntry> current = tables.get(0).iterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext()) {
+                    if (++index >= tables.size()) {
+                        return false;
+                    }
+                    current = tables.get(index).iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public LsmEntry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    private static Document decode(LsmEntry entry) {
+        return Document.fromJson(new String(entry.value, StandardCharsets.UTF_8));
+    }
+
+    private void maybeScheduleFlush() {
+        if (active.approximateBytes() < memtableFlushBytes) {
+            return;
+        }
+        rotateMemTable(memtableFlushBytes);
+        // 不可变memtable堆积过多时让写入方等待刷盘，避免内存无限增长
+        if (immutables.size() > MAX_IMMUTABLE_MEMTABLES) {
+            waitFor(background.submit(() -> {
+            }));
+        }
+    }
+
+    // 切换memtable时持有写锁，使记录下来的文档数与被切换出去的数据严格对应。
+    // 并发写入可能同时发现memtable已满，在锁内重新检查大小，只有第一个切换
+    private void rotateMemTable(long minBytes) {
+        memtableLock.writeLock().lock();
+        try {
+            if (active.isEmpty() || active.approximateBytes() < minBytes) {
+                return;
+            }
+            ImmutableMemTable immutable = new ImmutableMemTable(active, documentCount.get());
+            immutables.add(0, immutable);
+            active = new MemTable();
+            background.submit(this::flushImmutables);
+        } finally {
+            memtableLock.writeLock().unlock();
+        }
+    }
+
+    // 仅在后台线程执行：从最旧的开始把不可变memtable写成L0文件
+    private void flushImmutables() {
+        try {
+            while (!immutables.isEmpty()) {
+                ImmutableMemTable oldest = immutables.get(immutables.size() - 1);
+                long fileNumber = nextFileNumber.getAndIncrement();
+                File file = tableFile(fileNumber);
+                try (SSTableWriter writer = new SSTableWriter(file)) {
+                    Iterator<LsmEntry> it = oldest.table.iterator();
+                    while (it.hasNext()) {
+                        writer.add(it.next());
+                    }
+                    writer.finish();
+                }
+                SSTable table = SSTable.open(fileNumber, file);
+                // 先发布新版本再移除memtable，保证读方任何时刻都能看到这部分数据
+                version = version.withFlushed(table);
+                immutables.remove(oldest);
+                writeManifest(manifestCheckpointLsn, oldest.documentCount);
+                logger.debug("集合{}的memtable已刷盘: {}, 条目数: {}", name, file.getName(),
+                        table.getEntryCount());
+            }
+            maybeCompact();
+        } catch (IOException e) {
+            logger.error("集合{}的memtable刷盘失败: {}", name, e.getMessage(), e);
+        }
+    }
+
+    private void maybeCompact() throws IOException {
+        while (true) {
+            Version current = version;
+            if (current.level(0).size() >= L0_COMPACTION_TRIGGER) {
+                compact(current, new ArrayList<>(current.level(0)), 0);
+                continue;
+            }
+            boolean compacted = false;
+            long maxBytes = LEVEL1_MAX_BYTES;
+            for (int level = 1; level < Version.MAX_LEVELS - 1; level++) {
+                if (current.levelBytes(level) > maxBytes) {
+                    List<SSTable> input = new ArrayList<>();
+                    input.add(pickFile(current.level(level), level));
+                    compact(current, input, level);
+                    compacted = true;
+                    break;
+                }
+                maxBytes *= LEVEL_SIZE_MULTIPLIER;
+            }
+            if (!compacted) {
+                return;
+            }
+        }
+    }
+
+    // 轮流选择每层的文件参与合并，避免总是合并同一段键范围
+    private SSTable pickFile(List<SSTable> files, int level) {
+        String pointer = compactPointers[level];
+        for (SSTable table : files) {
+            if (pointer == null || table.getMinKey().compareTo(pointer) > 0) {
+                return table;
+            }
+        }
+        return files.get(0);
+    }
+
+    private void compact(Version current, List<SSTable> inputs, int level) throws IOException {
+        int outputLevel = level + 1;
+        String smallest = null;
+        String largest = null;
+        for (SSTable table : inputs) {
+            if (smallest == null || table.getMinKey().compareTo(smallest) < 0) {
+                smallest = table.getMinKey();
+            }
+            if (largest == null || table.getMaxKey().compareTo(largest) > 0) {
+                largest = table.getMaxKey();
+            }
+        }
+        List<SSTable> overlapping = new ArrayList<>();
+        for (SSTable table : current.level(outputLevel)) {
+            if (table.overlaps(smallest, largest)) {
+                overlapping.add(table);
+            }
+        }
+
+        // 输出层之下没有数据时，删除标记已无需保留
+        boolean bottommost = true;
+        for (int deeper = outputLevel + 1; deeper < Version.MAX_LEVELS; deeper++) {
+            if (!current.level(deeper).isEmpty()) {
+                bottommost = false;
+                break;
+            }
+        }
+
+        List<Iterator<LsmEntry>> sources = new ArrayList<>();
+        for (SSTable table : inputs) {
+            sources.add(table.iterator());
+        }
+        if (!overlapping.isEmpty()) {
+            sources.add(concat(overlapping));
+        }
+        MergingIterator merged = new MergingIterator(sources, bottommost);
+
+        List<SSTable> outputs = new ArrayList<>();
+        SSTableWriter writer = null;
+        long fileNumber = 0;
+        try {
+            while (merged.hasNext()) {
+                if (writer == null) {
+                    fileNumber = nextFileNumber.getAndIncrement();
+                    writer = new SSTableWriter(tableFile(fileNumber));
+                }
+                writer.add(merged.next());
+                if (writer.estimatedSize() >= TARGET_FILE_BYTES) {
+                    writer.finish();
+                    writer.close();
+                    outputs.add(SSTable.open(fileNumber, tableFile(fileNumber)));
+                    writer = null;
+                }
+            }
+            if (writer != null) {
+                writer.finish();
+                outputs.add(SSTable.open(fileNumber, tableFile(fileNumber)));
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+
+        List<SSTable> allInputs = new ArrayList<>(inputs);
+        allInputs.addAll(overlapping);
+        version = current.withCompaction(allInputs, outputLevel, outputs);
+        compactPointers[level] = largest;
+        writeManifest(manifestCheckpointLsn, -1);
+        for (SSTable table : allInputs) {
+            Files.deleteIfExists(table.getFile().toPath());
+        }
+        logger.info("集合{}完成L{}->L{}合并: 输入文件{}个, 输出文件{}个", name, level, outputLevel,
+                allInputs.size(), outputs.size());
+    }
+
+    // documentCount为-1时沿用上一次记录的文档数(合并不改变文档数)
+    private void writeManifest(long checkpointLsn, long documentCount) throws IOException {
+        if (documentCount >= 0) {
+            manifestDocumentCount = documentCount;
+        }
+        Manifest manifest = new Manifest();
+        manifest.checkpointLsn = checkpointLsn;
+        manifest.nextFileNumber = nextFileNumber.get();
+        manifest.documentCount = manifestDocumentCount;
+        Version current = version;
+        for (int level = 0; level < Version.MAX_LEVELS; level++) {
+            List<Long> files = new ArrayList<>();
+            for (SSTable table : current.level(level)) {
+                files.add(table.getFileNumber());
+            }
+            manifest.levels.add(files);
+        }
+        manifest.write(directory.resolve(MANIFEST_FILE));
+    }
+
+    @Override
+    public long load() throws IOException {
+        Path manifestPath = directory.resolve(MANIFEST_FILE);
+        if (!Files.exists(manifestPath)) {
+            return 0;
+        }
+        Manifest manifest = Manifest.read(manifestPath);
+        List<List<SSTable>> levels = new ArrayList<>();
+        Set<String> live = new HashSet<>();
+        for (List<Long> fileNumbers : manifest.levels) {
+            List<SSTable> tables = new ArrayList<>();
+            for (Long fileNumber : fileNumbers) {
+                tables.add(SSTable.open(fileNumber, tableFile(fileNumber)));
+                live.add(tableFile(fileNumber).getName());
+            }
+            levels.add(tables);
+        }
+        version = new Version(levels);
+        nextFileNumber.set(manifest.nextFileNumber);
+        documentCount.set(manifest.documentCount);
+        manifestDocumentCount = manifest.documentCount;
+        manifestCheckpointLsn = manifest.checkpointLsn;
+
+        // 清理崩溃遗留的未登记文件
+        File[] files = directory.toFile().listFiles((d, fileName) -> fileName.endsWith(".tmp")
+                || (fileName.endsWith(TABLE_EXTENSION) && !live.contains(fileName)));
+        if (files != null) {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+                logger.info("删除未登记的LSM文件: {}", file.getName());
+            }
+        }
+        logger.info("集合{}的LSM数据加载完成，SSTable层数: {}, 文档数: {}, 检查点LSN: {}", name,
+                manifest.levels.size(), manifest.documentCount, manifest.checkpointLsn);
+        return manifest.checkpointLsn;
+    }
+
+    // 把当前memtable切出并等待全部刷盘，然后在清单中记录检查点LSN
+    @Override
+    public void checkpoint(long checkpointLsn) throws IOException {
+        rotateMemTable(0);
+        waitFor(background.submit(() -> {
+            flushImmutables();
+            manifestCheckpointLsn = checkpointLsn;
+            try {
+                writeManifest(checkpointLsn, -1);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }));
+        if (!immutables.isEmpty()) {
+            throw new IOException("集合" + name + "的memtable刷盘失败");
+        }
+    }
+
+    private void waitFor(Future<?> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("LSM后台任务失败: " + e.getCause().getMessage(),
+                    e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        background.shutdown();
+        try {
+            background.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private File tableFile(long fileNumber) {
+        return directory.resolve(String.format("%06d%s", fileNumber, TABLE_EXTENSION)).toFile();
+    }
+
+    private static class ImmutableMemTable {
+        private final MemTable table;
+        private final long documentCount;
+
+        ImmutableMemTable(MemTable table, long documentCount) {
+            this.table = table;
+            this.documentCount = documentCount;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.nosql.db.storage.lsm;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import com.nosql.db.utils.FileUtils;
+
+// 文本格式的清单文件，记录检查点LSN、文件编号、文档数以及每层包含的SSTable编号
+class Manifest {
+    long checkpointLsn;
+    long nextFileNumber = 1;
+    long documentCount;
+    final List<List<Long>> levels = new ArrayList<>();
+
+    static Manifest read(Path path) throws IOException {
+        Manifest manifest = new Manifest();
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            String[] parts = line.trim().split("\\s+");
+            if (parts.length == 0 || parts[0].isEmpty()) {
+                continue;
+            }
+            switch (parts[0]) {
+                case "checkpointLsn":
+                    manifest.checkpointLsn = Long.parseLong(parts[1]);
+                    break;
+                case "nextFile":
+                    manifest.nextFileNumber = Long.parseLong(parts[1]);
+                    break;
+                case "count":
+                    manifest.documentCount = Long.parseLong(parts[1]);
+                    break;
+                default:
+                    if (parts[0].startsWith("L")) {
+                        List<Long> files = new ArrayList<>();
+                        for (int i = 1; i < parts.length; i++) {
+                            files.add(Long.parseLong(parts[i]));
+                        }
+                        manifest.levels.add(files);
+                    }
+            }
+        }
+        return manifest;
+    }
+
+    void write(Path path) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+                BufferedWriter writer = new BufferedWriter(
+                        new OutputStreamWriter(file, StandardCharsets.UTF_8))) {
+            writer.write("checkpointLsn " + checkpointLsn + "\n");
+            writer.write("nextFile " + nextFileNumber + "\n");
+            writer.write("count " + documentCount + "\n");
+            for (int i = 0; i < levels.size(); i++) {
+                StringBuilder line = new StringBuilder("L").append(i);
+                for (Long fileNumber : levels.get(i)) {
+                    line.append(' ').append(fileNumber);
+                }
+                writer.write(line.append('\n').toString());
+            }
+            writer.flush();
+            file.getFD().sync();
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        FileUtils.syncParentDirectory(path);
+    }
+}
@@ -0,0 +1,57 @@
+package com.nosql.db.storage.lsm;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+class MemTable {
+    // 删除标记，按引用比较
+    private static final byte[] TOMBSTONE = new byte[0];
+    private final ConcurrentSkipListMap<String, byte[]> entries = new ConcurrentSkipListMap<>();
+    private final AtomicLong approximateBytes = new AtomicLong();
+
+    void put(String key, byte[] value) {
+        entries.put(key, value);
+        approximateBytes.addAndGet(key.length() * 2L + value.length + 32);
+    }
+
+    void delete(String key) {
+        entries.put(key, TOMBSTONE);
+        approximateBytes.addAndGet(key.length() * 2L + 32);
+    }
+
+    // 返回null表示本表没有该键的记录
+    LsmEntry get(String key) {
+        byte[] value = entries.get(key);
+        if (value == null) {
+            return null;
+        }
+        return new LsmEntry(key, value == TOMBSTONE ? null : value);
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    long approximateBytes() {
+        return approximateBytes.get();
+    }
+
+    Iterator<LsmEntry> iterator() {
+        Iterator<Map.Entry<String, byte[]>> it = entries.entrySet().iterator();
+        return new Iterator<LsmEntry>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public LsmEntry next() {
+                Map.Entry<String, byte[]> entry = it.next();
+                byte[] value = entry.getValue();
+                return new LsmEntry(entry.getKey(), value == TOMBSTONE ? null : value);
+            }
+        };
+    }
+}
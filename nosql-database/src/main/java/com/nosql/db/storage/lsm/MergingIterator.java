@@ -0,0 +1,78 @@
+package com.nosql.db.storage.lsm;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+// 多路归并，sources按新旧排列(下标越小越新)，同一个键只输出最新的一条
+class MergingIterator implements Iterator<LsmEntry> {
+    private final PriorityQueue<Source> queue;
+    private final boolean dropTombstones;
+    private LsmEntry next;
+
+    MergingIterator(List<Iterator<LsmEntry>> sources, boolean dropTombstones) {
+        this.queue = new PriorityQueue<>(Math.max(1, sources.size()), (a, b) -> {
+            int cmp = a.current.key.compareTo(b.current.key);
+            return cmp != 0 ? cmp : Integer.compare(a.rank, b.rank);
+        });
+        this.dropTombstones = dropTombstones;
+        for (int i = 0; i < sources.size(); i++) {
+            Iterator<LsmEntry> it = sources.get(i);
+            if (it.hasNext()) {
+                queue.add(new Source(i, it, it.next()));
+            }
+        }
+        advance();
+    }
+
+    private void advance() {
+        next = null;
+        while (next == null && !queue.isEmpty()) {
+            Source newest = queue.poll();
+            LsmEntry candidate = newest.current;
+            newest.advanceInto(queue);
+            // 丢弃更旧来源中相同键的记录
+            while (!queue.isEmpty() && queue.peek().current.key.equals(candidate.key)) {
+                queue.poll().advanceInto(queue);
+            }
+            if (!(dropTombstones && candidate.isTombstone())) {
+                next = candidate;
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public LsmEntry next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        LsmEntry result = next;
+        advance();
+        return result;
+    }
+
+    private static class Source {
+        private final int rank;
+        private final Iterator<LsmEntry> iterator;
+        private LsmEntry current;
+
+        Source(int rank, Iterator<LsmEntry> iterator, LsmEntry current) {
+            this.rank = rank;
+            this.iterator = iterator;
+            this.current = current;
+        }
+
+        void advanceInto(PriorityQueue<Source> queue) {
+            if (iterator.hasNext()) {
+                current = iterator.next();
+                queue.add(this);
+            }
+        }
+    }
+}
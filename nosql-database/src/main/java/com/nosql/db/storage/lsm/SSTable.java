@@ -0,0 +1,197 @@
+package com.nosql.db.storage.lsm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32C;
+
+// 只读的SSTable，整个文件只读映射，块索引和布隆过滤器常驻内存
+class SSTable {
+    private final long fileNumber;
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final String[] blockFirstKeys;
+    private final long[] blockOffsets;
+    private final int[] blockLengths;
+    private final int[] blockCrcs;
+    private final String minKey;
+    private final String maxKey;
+    private final BloomFilter bloom;
+    private final long entryCount;
+
+    private SSTable(long fileNumber, File file, MappedByteBuffer buffer, String[] blockFirstKeys,
+            long[] blockOffsets, int[] blockLengths, int[] blockCrcs, String maxKey,
+            BloomFilter bloom, long entryCount) {
+        this.fileNumber = fileNumber;
+        this.file = file;
+        this.buffer = buffer;
+        this.blockFirstKeys = blockFirstKeys;
+        this.blockOffsets = blockOffsets;
+        this.blockLengths = blockLengths;
+        this.blockCrcs = blockCrcs;
+        this.minKey = blockFirstKeys.length > 0 ? blockFirstKeys[0] : "";
+        this.maxKey = maxKey;
+        this.bloom = bloom;
+        this.entryCount = entryCount;
+    }
+
+    static SSTable open(long fileNumber, File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < SSTableWriter.FOOTER_SIZE) {
+                throw new IOException("SSTable文件过小: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int footer = (int) size - SSTableWriter.FOOTER_SIZE;
+            long indexOffset = buffer.getLong(footer);
+            long bloomOffset = buffer.getLong(footer + 8);
+            long entryCount = buffer.getLong(footer + 16);
+            if (buffer.getLong(footer + 24) != SSTableWriter.MAGIC) {
+                throw new IOException("SSTable魔数不匹配: " + file);
+            }
+
+            ByteBuffer index = buffer.duplicate().position((int) indexOffset);
+            int blockCount = index.getInt();
+            String[] firstKeys = new String[blockCount];
+            long[] offsets = new long[blockCount];
+            int[] lengths = new int[blockCount];
+            int[] crcs = new int[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                firstKeys[i] = readString(index);
+                offsets[i] = index.getLong();
+                lengths[i] = index.getInt();
+                crcs[i] = index.getInt();
+            }
+            String maxKey = readString(index);
+            BloomFilter bloom =
+                    BloomFilter.readFrom(buffer.duplicate().position((int) bloomOffset));
+            return new SSTable(fileNumber, file, buffer, firstKeys, offsets, lengths, crcs, maxKey,
+                    bloom, entryCount);
+        }
+    }
+
+    // 返回null表示本文件不包含该键；返回的条目可能是删除标记
+    LsmEntry get(String key) {
+        if (blockFirstKeys.length == 0 || key.compareTo(minKey) < 0
+                || key.compareTo(maxKey) > 0 || !bloom.mightContain(key)) {
+            return null;
+        }
+        int blockIndex = findBlock(key);
+        ByteBuffer block = readBlock(blockIndex);
+        while (block.hasRemaining()) {
+            LsmEntry entry = readEntry(block);
+            int cmp = entry.key.compareTo(key);
+            if (cmp == 0) {
+                return entry;
+            }
+            if (cmp > 0) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    // 二分查找最后一个首键不大于key的块
+    private int findBlock(String key) {
+        int low = 0;
+        int high = blockFirstKeys.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (blockFirstKeys[mid].compareTo(key) <= 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private ByteBuffer readBlock(int blockIndex) {
+        int offset = (int) blockOffsets[blockIndex];
+        ByteBuffer block =
+                buffer.duplicate().position(offset).limit(offset + blockLengths[blockIndex]);
+        CRC32C crc = new CRC32C();
+        crc.update(block.duplicate());
+        if ((int) crc.getValue() != blockCrcs[blockIndex]) {
+            throw new IllegalStateException("SSTable数据块校验失败: " + file + ", 块: " + blockIndex);
+        }
+        return block;
+    }
+
+    Iterator<LsmEntry> iterator() {
+        return new Iterator<LsmEntry>() {
+            private int blockIndex = 0;
+            private ByteBuffer block;
+
+            @Override
+            public boolean hasNext() {
+                while (block == null || !block.hasRemaining()) {
+                    if (blockIndex >= blockFirstKeys.length) {
+                        return false;
+                    }
+                    block = readBlock(blockIndex++);
+                }
+                return true;
+            }
+
+            @Override
+            public LsmEntry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return readEntry(block);
+            }
+        };
+    }
+
+    private static LsmEntry readEntry(ByteBuffer block) {
+        String key = readString(block);
+        int valueLength = block.getInt();
+        byte[] value = null;
+        if (valueLength >= 0) {
+            value = new byte[valueLength];
+            block.get(value);
+        }
+        return new LsmEntry(key, value);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    boolean overlaps(String smallest, String largest) {
+        return !(maxKey.compareTo(smallest) < 0 || minKey.compareTo(largest) > 0);
+    }
+
+    long getFileNumber() {
+        return fileNumber;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    String getMinKey() {
+        return minKey;
+    }
+
+    String getMaxKey() {
+        return maxKey;
+    }
+
+    long getEntryCount() {
+        return entryCount;
+    }
+
+    long sizeBytes() {
+        return buffer.capacity();
+    }
+}
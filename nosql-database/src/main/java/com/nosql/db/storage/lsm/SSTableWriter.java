@@ -0,0 +1,131 @@
+package com.nosql.db.storage.lsm;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+import com.nosql.db.utils.FileUtils;
+
+// 文件布局: 数据块... | 块索引 | 布隆过滤器 | 页脚(索引偏移, 过滤器偏移, 条目数, 魔数)
+class SSTableWriter implements AutoCloseable {
+    static final long MAGIC = 0x4E4F53514C535354L; // "NOSQLSST"
+    static final int FOOTER_SIZE = 32;
+    private static final int BLOCK_SIZE = 4 * 1024;
+    private static final int BITS_PER_KEY = 10;
+
+    private final File target;
+    private final File temp;
+    private final FileOutputStream file;
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream blockBuffer = new ByteArrayOutputStream(BLOCK_SIZE * 2);
+    private final DataOutputStream block = new DataOutputStream(blockBuffer);
+    private final List<String> blockFirstKeys = new ArrayList<>();
+    private final List<long[]> blockHandles = new ArrayList<>();
+    private final List<String> keys = new ArrayList<>();
+    private String blockFirstKey;
+    private String lastKey;
+    private long offset = 0;
+
+    SSTableWriter(File target) throws IOException {
+        this.target = target;
+        this.temp = new File(target.getPath() + ".tmp");
+        this.file = new FileOutputStream(temp);
+        this.out = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024));
+    }
+
+    // 键必须严格递增写入
+    void add(LsmEntry entry) throws IOException {
+        if (lastKey != null && entry.key.compareTo(lastKey) <= 0) {
+            throw new IllegalStateException("SSTable键必须递增: " + entry.key);
+        }
+        if (blockFirstKey == null) {
+            blockFirstKey = entry.key;
+        }
+        byte[] key = entry.key.getBytes(StandardCharsets.UTF_8);
+        block.writeInt(key.length);
+        block.write(key);
+        if (entry.isTombstone()) {
+            block.writeInt(-1);
+        } else {
+            block.writeInt(entry.value.length);
+            block.write(entry.value);
+        }
+        keys.add(entry.key);
+        lastKey = entry.key;
+        if (blockBuffer.size() >= BLOCK_SIZE) {
+            finishBlock();
+        }
+    }
+
+    long estimatedSize() {
+        return offset + blockBuffer.size();
+    }
+
+    int entryCount() {
+        return keys.size();
+    }
+
+    private void finishBlock() throws IOException {
+        if (blockBuffer.size() == 0) {
+            return;
+        }
+        byte[] data = blockBuffer.toByteArray();
+        CRC32C crc = new CRC32C();
+        crc.update(data);
+        out.write(data);
+        blockFirstKeys.add(blockFirstKey);
+        blockHandles.add(new long[] {offset, data.length, (int) crc.getValue()});
+        offset += data.length;
+        blockBuffer.reset();
+        blockFirstKey = null;
+    }
+
+    void finish() throws IOException {
+        finishBlock();
+        long indexOffset = offset;
+        out.writeInt(blockFirstKeys.size());
+        for (int i = 0; i < blockFirstKeys.size(); i++) {
+            byte[] key = blockFirstKeys.get(i).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(key.length);
+            out.write(key);
+            long[] handle = blockHandles.get(i);
+            out.writeLong(handle[0]);
+            out.writeInt((int) handle[1]);
+            out.writeInt((int) handle[2]);
+        }
+        byte[] last = (lastKey == null ? "" : lastKey).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(last.length);
+        out.write(last);
+        long bloomOffset = out.size();
+
+        BloomFilter bloom = BloomFilter.create(keys.size(), BITS_PER_KEY);
+        keys.forEach(bloom::add);
+        bloom.writeTo(out);
+
+        out.writeLong(indexOffset);
+        out.writeLong(bloomOffset);
+        out.writeLong(keys.size());
+        out.writeLong(MAGIC);
+        out.flush();
+        file.getFD().sync();
+        out.close();
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        FileUtils.syncParentDirectory(target.toPath());
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+        if (temp.exists()) {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+}
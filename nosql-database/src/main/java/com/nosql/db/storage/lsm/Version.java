@@ -0,0 +1,66 @@
+package com.nosql.db.storage.lsm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// 某一时刻各层SSTable的不可变视图。L0按新旧排列可相互重叠，L1及以上按键范围有序且互不重叠
+class Version {
+    static final int MAX_LEVELS = 7;
+    private final List<List<SSTable>> levels;
+
+    Version(List<List<SSTable>> levels) {
+        List<List<SSTable>> copy = new ArrayList<>(MAX_LEVELS);
+        for (int i = 0; i < MAX_LEVELS; i++) {
+            copy.add(Collections.unmodifiableList(
+                    i < levels.size() ? new ArrayList<>(levels.get(i)) : new ArrayList<>()));
+        }
+        this.levels = Collections.unmodifiableList(copy);
+    }
+
+    static Version empty() {
+        return new Version(Collections.emptyList());
+    }
+
+    List<SSTable> level(int level) {
+        return levels.get(level);
+    }
+
+    long levelBytes(int level) {
+        return levels.get(level).stream().mapToLong(SSTable::sizeBytes).sum();
+    }
+
+    int deepestNonEmptyLevel() {
+        for (int i = MAX_LEVELS - 1; i >= 0; i--) {
+            if (!levels.get(i).isEmpty()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    Version withFlushed(SSTable table) {
+        List<List<SSTable>> next = mutableLevels();
+        next.get(0).add(0, table);
+        return new Version(next);
+    }
+
+    Version withCompaction(List<SSTable> inputs, int outputLevel, List<SSTable> outputs) {
+        List<List<SSTable>> next = mutableLevels();
+        for (List<SSTable> level : next) {
+            level.removeAll(inputs);
+        }
+        next.get(outputLevel).addAll(outputs);
+        next.get(outputLevel).sort(Comparator.comparing(SSTable::getMinKey));
+        return new Version(next);
+    }
+
+    private List<List<SSTable>> mutableLevels() {
+        List<List<SSTable>> copy = new ArrayList<>(MAX_LEVELS);
+        for (List<SSTable> level : levels) {
+            copy.add(new ArrayList<>(level));
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,134 @@
+package com.nosql.db.storage.offheap;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// 堆外内存分配器：按slab批量申请直接内存，按大小分级复用空闲块。
+// 地址编码为 (slab下标 << 32) | 偏移，每个块开头4字节保存数据长度。非线程安全，由调用方加锁
+class OffHeapArena {
+    private static final int SLOT_HEADER = 4;
+    private static final int MIN_SLOT = 32;
+    private final int slabSize;
+    // 读方可能并发访问，slab列表只在新增slab时复制
+    private final List<ByteBuffer> slabs = new CopyOnWriteArrayList<>();
+    private final Map<Integer, LongStack> freeLists = new HashMap<>();
+    private ByteBuffer current;
+    private long reservedBytes = 0;
+    private long usedBytes = 0;
+
+    OffHeapArena(int slabSize) {
+        this.slabSize = slabSize;
+    }
+
+    // 每个2的幂区间再分成4档，浪费控制在25%以内
+    static int slotCapacity(int length) {
+        int size = Math.max(MIN_SLOT, length + SLOT_HEADER);
+        int highBit = Integer.highestOneBit(size - 1);
+        if (highBit < MIN_SLOT) {
+            return MIN_SLOT;
+        }
+        int step = highBit >> 2;
+        return (size + step - 1) / step * step;
+    }
+
+    long allocate(int length) {
+        int capacity = slotCapacity(length);
+        LongStack free = freeLists.get(capacity);
+        if (free != null && !free.isEmpty()) {
+            usedBytes += capacity;
+            return free.pop();
+        }
+        if (current == null || current.remaining() < capacity) {
+            current = ByteBuffer.allocateDirect(Math.max(slabSize, capacity));
+            slabs.add(current);
+            reservedBytes += current.capacity();
+        }
+        int offset = current.position();
+        current.position(offset + capacity);
+        usedBytes += capacity;
+        return ((long) (slabs.size() - 1) << 32) | offset;
+    }
+
+    void free(long address) {
+        int capacity = slotCapacity(length(address));
+        freeLists.computeIfAbsent(capacity, k -> new LongStack()).push(address);
+        usedBytes -= capacity;
+    }
+
+    void write(long address, byte[] data) {
+        ByteBuffer slab = slab(address);
+        int offset = offset(address);
+        slab.putInt(offset, data.length);
+        slab.put(offset + SLOT_HEADER, data);
+    }
+
+    int length(long address) {
+        return slab(address).getInt(offset(address));
+    }
+
+    // 读取时可能与写入并发(乐观读)，长度非法时返回null由调用方重试
+    byte[] read(long address) {
+        int slabIndex = (int) (address >>> 32);
+        if (slabIndex >= slabs.size()) {
+            return null;
+        }
+        ByteBuffer slab = slabs.get(slabIndex);
+        int offset = offset(address);
+        int length = slab.getInt(offset);
+        if (length < 0 || offset + SLOT_HEADER + length > slab.capacity()) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        slab.get(offset + SLOT_HEADER, data);
+        return data;
+    }
+
+    long reservedBytes() {
+        return reservedBytes;
+    }
+
+    long usedBytes() {
+        return usedBytes;
+    }
+
+    void clear() {
+        slabs.clear();
+        freeLists.clear();
+        current = null;
+        reservedBytes = 0;
+        usedBytes = 0;
+    }
+
+    private ByteBuffer slab(long address) {
+        return slabs.get((int) (address >>> 32));
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+
+    private static class LongStack {
+        private long[] values = new long[16];
+        private int size = 0;
+
+        void push(long value) {
+            if (size == values.length) {
+                long[] grown = new long[size * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            values[size++] = value;
+        }
+
+        long pop() {
+            return values[--size];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.nosql.db.storage.offheap;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.nosql.db.storage.Document;
+import com.nosql.db.storage.SnapshotFile;
+import com.nosql.db.storage.StorageEngine;
+
+// 文档以JSON字节保存在堆外slab中，堆上只保留 id -> 地址 的主索引，读取时按需反序列化。
+// 写入持有StampedLock写锁完成分配/释放；读取用乐观读，校验失败时退回读锁重试
+public class OffHeapStorageEngine implements StorageEngine {
+    private static final Logger logger = LoggerFactory.getLogger(OffHeapStorageEngine.class);
+    private static final String SNAPSHOT_FILE = "snapshot.dat";
+    private static final int DEFAULT_SLAB_SIZE = 64 * 1024 * 1024;
+    private final Path snapshotPath;
+    private final OffHeapArena arena;
+    private final Map<String, Long> index = new ConcurrentHashMap<>();
+    private final StampedLock lock = new StampedLock();
+
+    public OffHeapStorageEngine(String dataDirectory) {
+        this(dataDirectory, DEFAULT_SLAB_SIZE);
+    }
+
+    public OffHeapStorageEngine(String dataDirectory, int slabSize) {
+        this.snapshotPath = Paths.get(dataDirectory, SNAPSHOT_FILE);
+        this.arena = new OffHeapArena(slabSize);
+    }
+
+    @Override
+    public Document get(String id) {
+        byte[] encoded = getEncoded(id);
+        return encoded == null ? null
+                : Document.fromJson(new String(encoded, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public byte[] getEncoded(String id) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            Long address = index.get(id);
+            byte[] data = address == null ? null : arena.read(address);
+            if (lock.validate(stamp) && (address == null || data != null)) {
+                return data;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            Long address = index.get(id);
+            return address == null ? null : arena.read(address);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public boolean containsKey(String id) {
+        return index.containsKey(id);
+    }
+
+    @Override
+    public void put(Document document) {
+        store(document.getId(), document.toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void store(String id, byte[] data) {
+        long stamp = lock.writeLock();
+        try {
+            long address = arena.allocate(data.length);
+            arena.write(address, data);
+            Long previous = index.put(id, address);
+            if (previous != null) {
+                arena.free(previous);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void remove(String id) {
+        long stamp = lock.writeLock();
+        try {
+            Long previous = index.remove(id);
+            if (previous != null) {
+                arena.free(previous);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public long size() {
+        return index.size();
+    }
+
+    @Override
+    public Iterator<Document> iterator() {
+        Iterator<byte[]> encoded = encodedIterator();
+        return new Iterator<Document>() {
+            @Override
+            public boolean hasNext() {
+                return encoded.hasNext();
+            }
+
+            @Override
+            public Document next() {
+                return Document.fromJson(new String(encoded.next(), StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+    // 按主索引切分，反序列化在各个并行任务中进行
+    @Override
+    public Stream<Document> stream(boolean parallel) {
+        return StreamSupport.stream(index.keySet().spliterator(), parallel).map(this::get)
+                .filter(Objects::nonNull);
+    }
+
+    // 遍历主索引逐个读取，并发删除的文档直接跳过
+    private Iterator<byte[]> encodedIterator() {
+        Iterator<String> ids = index.keySet().iterator();
+        return new Iterator<byte[]>() {
+            private byte[] next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && ids.hasNext()) {
+                    next = getEncoded(ids.next());
+                }
+                return next != null;
+            }
+
+            @Override
+            public byte[] next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                byte[] result = next;
+                next = null;
+                return result;
+            }
+        };
+    }
+
+    @Override
+    public long load() throws IOException {
+        if (!Files.exists(snapshotPath)) {
+            return 0;
+        }
+        long lsn = SnapshotFile.read(snapshotPath, this::put);
+        logger.info("堆外存储加载完成，文档数: {}, 已用堆外内存: {} 字节, 已申请: {} 字节", index.size(),
+                arena.usedBytes(), arena.reservedBytes());
+        return lsn;
+    }
+
+    // 快照直接写出堆外保存的字节，不经过反序列化
+    @Override
+    public void checkpoint(long checkpointLsn) throws IOException {
+        int count = SnapshotFile.writeEncoded(snapshotPath, checkpointLsn, encodedIterator());
+        logger.debug("快照写入完成: {}, 文档数量: {}, 已用堆外内存: {} 字节", snapshotPath, count,
+                arena.usedBytes());
+    }
+
+    public long offHeapUsedBytes() {
+        return arena.usedBytes();
+    }
+
+    public long offHeapReservedBytes() {
+        return arena.reservedBytes();
+    }
+
+    @Override
+    public void close() {
+        long stamp = lock.writeLock();
+        try {
+            index.clear();
+            arena.clear();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+}
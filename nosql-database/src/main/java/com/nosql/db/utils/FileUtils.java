@@ -1,9 +1,11 @@
 package com.nosql.db.utils;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
@@ -11,6 +13,9 @@ import org.slf4j.LoggerFactory;
 
 public class FileUtils {
     private static final Logger logger = LoggerFactory.getLogger(FileUtils.class);
+    // Windows不能以读方式打开目录，NTFS的元数据本身有日志保护
+    private static final boolean WINDOWS =
+            System.getProperty("os.name", "").toLowerCase().startsWith("windows");
 
     public static void createDirectoryIfNotExists(String path) throws IOException {
         logger.debug("检查目录是否存在: {}", path);
@@ -30,4 +35,15 @@ public class FileUtils {
         logger.debug("成功读取文件: {}, 行数: {}", filePath, lines.size());
         return lines;
     }
+
+    // 对文件所在目录fsync，使新建、重命名的目录项落盘；只fsync文件内容时，崩溃后文件名可能丢失
+    public static void syncParentDirectory(Path file) throws IOException {
+        if (WINDOWS) {
+            return;
+        }
+        Path directory = file.toAbsolutePath().getParent();
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
 }
@@ -0,0 +1,59 @@
+package com.nosql.db.index;
+
+import java.util.HashMap;
+import java.util.Map;
+import com.nosql.db.storage.Document;
+
+// 索引写入代价的基准测试: 在不同基数的字段上执行相同次数的更新和删除，
+// 每次操作的耗时应与字段的不同取值个数无关。
+// 用法: java -cp target/test-classes:target/classes:<依赖> com.nosql.db.index.IndexBenchmark [文档数]
+public class IndexBenchmark {
+    private static final String COLLECTION = "bench";
+    private static final String FIELD = "email";
+
+    public static void main(String[] args) {
+        int documents = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int[] cardinalities = {10, 1000, documents};
+        // 先完整跑一轮预热JIT
+        for (int cardinality : cardinalities) {
+            run(documents, cardinality, false);
+        }
+        System.out.printf("%10s %12s %12s %14s %14s%n", "文档数", "不同取值", "剩余桶数",
+                "更新(ns/次)", "删除(ns/次)");
+        for (int cardinality : cardinalities) {
+            run(documents, cardinality, true);
+        }
+    }
+
+    private static void run(int documents, int cardinality, boolean print) {
+        IndexManager indexManager = new IndexManager(null);
+        indexManager.createIndex(COLLECTION, FIELD);
+        for (int i = 0; i < documents; i++) {
+            indexManager.updateIndex(COLLECTION, document(i, i % cardinality));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < documents; i++) {
+            indexManager.updateIndex(COLLECTION, document(i, (i + 1) % cardinality));
+        }
+        long updateNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < documents; i++) {
+            indexManager.deleteFromIndex(COLLECTION, "doc" + i);
+        }
+        long deleteNanos = System.nanoTime() - start;
+
+        if (print) {
+            System.out.printf("%10d %12d %12d %14d %14d%n", documents, cardinality,
+                    indexManager.distinctValues(COLLECTION, FIELD), updateNanos / documents,
+                    deleteNanos / documents);
+        }
+    }
+
+    private static Document document(int id, int value) {
+        Map<String, Object> data = new HashMap<>();
+        data.put(FIELD, "user" + value + "@example.com");
+        return Document.restore("doc" + id, data, 0, 0);
+    }
+}
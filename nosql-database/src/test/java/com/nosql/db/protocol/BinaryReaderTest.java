@@ -0,0 +1,62 @@
+package com.nosql.db.protocol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class BinaryReaderTest {
+    // depth层只有一个元素的数组，最内层是null，每层2个字节
+    private static ByteBuffer nestedArrays(int depth) {
+        ByteBuffer buffer = ByteBuffer.allocate(depth * 2 + 1);
+        for (int i = 0; i < depth; i++) {
+            buffer.put((byte) BinaryProtocol.TYPE_ARRAY).put((byte) 1);
+        }
+        buffer.put((byte) BinaryProtocol.TYPE_NULL);
+        return buffer.flip();
+    }
+
+    @Test
+    void readsNestingUpToLimit() {
+        Object value = new BinaryReader(nestedArrays(BinaryReader.MAX_NESTING_DEPTH)).readValue();
+        int depth = 0;
+        while (value instanceof List) {
+            value = ((List<?>) value).get(0);
+            depth++;
+        }
+        assertEquals(BinaryReader.MAX_NESTING_DEPTH, depth);
+    }
+
+    @Test
+    void rejectsNestingBeyondLimit() {
+        assertThrows(ProtocolException.class,
+                () -> new BinaryReader(nestedArrays(BinaryReader.MAX_NESTING_DEPTH + 1))
+                        .readValue());
+    }
+
+    @Test
+    void maximumFrameOfNestedArraysDoesNotOverflowStack() {
+        ByteBuffer frame = nestedArrays(BinaryProtocol.MAX_FRAME_BYTES / 2 - 1);
+        assertThrows(ProtocolException.class, () -> new BinaryReader(frame).readValue());
+    }
+
+    @Test
+    void decodesIntegersAsDoubles() {
+        BinaryWriter writer = new BinaryWriter(ByteBuffer.allocate(64));
+        writer.writeValue(List.of(5, -(1L << 53), 1L << 53));
+        assertEquals(List.of(5.0, -0x1p53, 0x1p53),
+                new BinaryReader(writer.buffer().flip()).readValue());
+    }
+
+    @Test
+    void rejectsIntegersBeyondExactDoubleRange() {
+        for (long value : new long[] {(1L << 53) + 1, Long.MIN_VALUE, Long.MAX_VALUE}) {
+            BinaryWriter writer = new BinaryWriter(ByteBuffer.allocate(16));
+            writer.writeValue(value);
+            assertThrows(ProtocolException.class,
+                    () -> new BinaryReader(writer.buffer().flip()).readValue());
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.nosql.db.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import com.nosql.db.index.IndexKey;
+import com.nosql.db.index.IndexManager;
+import com.nosql.db.index.IndexType;
+import com.nosql.db.storage.DatabaseEngine;
+import com.nosql.db.storage.Document;
+import com.nosql.db.storage.DurabilityMode;
+import com.nosql.db.storage.OperationResult;
+import com.nosql.db.storage.StorageEngineType;
+import com.nosql.db.storage.WriteAheadLog;
+
+// 同样的文档分别放进没有索引和建有各类索引的两个集合，同一个FIND在两边的结果必须相同。
+// 文档的age字段混有Long、Double、字符串、null和缺失，city和嵌套字段也有缺失
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class QueryPlannerTest {
+    private static final String PLAIN = "plain";
+    private static final String INDEXED = "indexed";
+    private static final int DOCUMENTS = 300;
+    private static final List<String> CITIES = List.of("北京", "上海", "杭州");
+
+    @TempDir
+    static File directory;
+
+    private WriteAheadLog wal;
+    private DatabaseEngine engine;
+
+    @BeforeAll
+    void setUp() throws InterruptedException {
+        String dataDirectory = directory.getPath();
+        wal = new WriteAheadLog(dataDirectory, "wal", DurabilityMode.GROUP_COMMIT, 0, 0,
+                1024 * 1024);
+        engine = new DatabaseEngine(dataDirectory, new IndexManager(dataDirectory), wal);
+        engine.createCollection(PLAIN, StorageEngineType.MEMORY);
+        engine.createCollection(INDEXED, StorageEngineType.MEMORY);
+        engine.recoverFromWal();
+        for (int i = 0; i < DOCUMENTS; i++) {
+            assertTrue(engine.insertDocument(PLAIN, document(i)).isSuccess());
+            assertTrue(engine.insertDocument(INDEXED, document(i)).isSuccess());
+        }
+        createIndex(List.of("city"), IndexType.HASH, null);
+        createIndex(List.of("age"), IndexType.ORDERED, null);
+        createIndex(List.of("city", "age"), IndexType.ORDERED, List.of("name"));
+        createIndex(List.of("score"), IndexType.ORDERED, List.of("name"));
+        createIndex(List.of("address.zip"), IndexType.HASH, null);
+    }
+
+    @AfterAll
+    void tearDown() {
+        engine.close();
+        wal.close();
+    }
+
+    private void createIndex(List<String> fields, IndexType type, List<String> include)
+            throws InterruptedException {
+        assertTrue(engine.createIndex(INDEXED, fields, type, include).isSuccess());
+        String name = String.join(",", fields);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!"READY".equals(state(name)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("READY", state(name));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object state(String indexName) {
+        for (Map<String, Object> index : (List<Map<String, Object>>) engine
+                .listIndexes(INDEXED).getData()) {
+            if (indexName.equals(index.get("name"))) {
+                return index.get("state");
+            }
+        }
+        return null;
+    }
+
+    private static Document document(int i) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("name", "user" + i);
+        switch (i % 6) {
+            case 0:
+                data.put("age", (long) (i % 61));
+                break;
+            case 1:
+                data.put("age", (double) (i % 61));
+                break;
+            case 2:
+                data.put("age", i % 61 + 0.5);
+                break;
+            case 3:
+                data.put("age", String.valueOf(i % 61));
+                break;
+            case 4:
+                data.put("age", null);
+                break;
+            default:
+                break;
+        }
+        if (i % 11 != 0) {
+            data.put("city", CITIES.get(i % 3));
+        }
+        data.put("score", i % 2 == 0 ? (long) (i * 7 % 100) : i * 7 % 100 + 0.25);
+        if (i % 4 != 0) {
+            data.put("address", new HashMap<>(Map.of("zip", (long) (i % 5))));
+        }
+        return Document.restore(String.format("d%03d", i), data, i, i);
+    }
+
+    // 键值交替的参数组成保持顺序、允许null值的Map
+    private static Map<String, Object> spec(Object... keyValues) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            map.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return map;
+    }
+
+    private static Arguments find(String plan, Map<String, Object> filter) {
+        return Arguments.of(plan, filter, null, null, null, null);
+    }
+
+    static Stream<Arguments> queries() {
+        return Stream.of(
+                // 等值: Long、等值的Double、字符串和非整数的Double
+                find("INDEX_LOOKUP", spec("age", 30L)),
+                find("INDEX_LOOKUP", spec("age", 30.0)),
+                find("INDEX_LOOKUP", spec("age", "30")),
+                find("INDEX_LOOKUP", spec("age", 32.5)),
+                find("INDEX_LOOKUP", spec("city", "上海")),
+                find("INDEX_LOOKUP", spec("address.zip", 3L)),
+                find("ID_LOOKUP", spec("id", "d042")),
+                // 缺失和null不能走索引
+                find("COLLECTION_SCAN", spec("age", null)),
+                find("COLLECTION_SCAN", spec("city", spec("$ne", "北京"))),
+                // 区间，以及同一字段上多个边界的合并
+                find("INDEX_RANGE", spec("age", spec("$gt", 20L, "$lte", 40.0))),
+                find("INDEX_RANGE", spec("age", spec("$gte", 20.5, "$lt", 40L))),
+                find("INDEX_RANGE", spec("$and", List.of(spec("age", spec("$gt", 10L)),
+                        spec("age", spec("$gt", 20.0)), spec("age", spec("$lt", 50L)),
+                        spec("age", spec("$lte", 45.5))))),
+                find("INDEX_RANGE", spec("$and", List.of(spec("age", spec("$gte", 20L)),
+                        spec("age", spec("$gt", 20.0))))),
+                find("INDEX_RANGE", spec("$and", List.of(spec("age", spec("$lte", 30L)),
+                        spec("age", spec("$lt", 30.0))))),
+                find("INDEX_RANGE", spec("age", spec("$gt", 40L, "$lt", 20L))),
+                // 区间只在边界值的类型内: 字符串区间不包含数值，类型不同的两个边界为空
+                find("INDEX_RANGE", spec("age", spec("$gt", "1"))),
+                find("INDEX_RANGE", spec("age", spec("$lt", 5L))),
+                find("INDEX_RANGE", spec("age", spec("$gt", 10L, "$lt", "5"))),
+                // $in和$or: 只有每个分支都是等值查找时取并集
+                find("INDEX_LOOKUP", spec("city", spec("$in", List.of("北京", "杭州")))),
+                find("INDEX_LOOKUP", spec("age", spec("$in", Arrays.asList(30L, "30", 31.0)))),
+                find("INDEX_LOOKUP", spec("$or", List.of(spec("city", "北京"),
+                        spec("age", 30L)))),
+                find("COLLECTION_SCAN", spec("$or", List.of(spec("city", "北京"),
+                        spec("age", spec("$gt", 50L))))),
+                find("COLLECTION_SCAN", spec("$or", List.of(spec("city", "北京"),
+                        spec("age", null)))),
+                // 复合索引: 等值前缀加区间，或全部字段等值
+                find("INDEX_RANGE", spec("city", "上海", "age", spec("$gte", 10L, "$lt", 30.0))),
+                find("INDEX_LOOKUP", spec("city", "上海", "age", 25.5)),
+                find("INDEX_LOOKUP", spec("city", "杭州", "age", 25L, "name", "user25")),
+                // 排序: 沿索引遍历并在limit处停止，或在等值前缀内按下一个字段有序
+                Arguments.of("INDEX_SCAN", null, spec("score", 1), null, 10, null),
+                Arguments.of("INDEX_SCAN", null, spec("score", -1), 5, 10, null),
+                Arguments.of("INDEX_SCAN", null, spec("age", 1), null, null, null),
+                Arguments.of("INDEX_SCAN", null, spec("age", -1), 20, 30, null),
+                Arguments.of("INDEX_LOOKUP", spec("city", "杭州"), spec("age", -1), null, 7,
+                        null),
+                Arguments.of("INDEX_RANGE", spec("age", spec("$gte", 10L)), spec("age", 1), 3,
+                        12, null),
+                Arguments.of("INDEX_LOOKUP", spec("city", "北京"), spec("score", 1), null, 5,
+                        null),
+                // 覆盖索引直接用索引中的投影回答
+                Arguments.of("INDEX_RANGE", spec("city", "北京", "age", spec("$gt", 10L)), null,
+                        null, null, List.of("name", "age")),
+                Arguments.of("INDEX_SCAN", null, spec("score", 1), null, 5,
+                        List.of("name", "score")),
+                Arguments.of("INDEX_RANGE", spec("score", spec("$gt", 90L)), spec("score", -1),
+                        null, null, List.of("name")));
+    }
+
+    @ParameterizedTest
+    @MethodSource("queries")
+    void findReturnsSameResultsWithAndWithoutIndexes(String plan, Map<String, Object> filter,
+            Map<String, Object> sort, Integer skip, Integer limit, List<String> projection) {
+        Query query = new Query(Filter.parse(filter), sort, skip, limit, projection);
+        @SuppressWarnings("unchecked")
+        Map<String, Object> explain =
+                (Map<String, Object>) engine.explain(INDEXED, query).getData();
+        assertEquals(plan, explain.get("plan"));
+        if (projection != null) {
+            assertEquals(true, explain.get("covered"));
+        }
+        if (sort != null && !"INDEX_LOOKUP".equals(plan)) {
+            assertEquals(true, explain.get("sortedByIndex"));
+        }
+        assertEquals(null, ((Map<?, ?>) engine.explain(PLAIN, query).getData()).get("index"));
+
+        List<Document> expected = find(PLAIN, query);
+        List<Document> actual = find(INDEXED, query);
+        assertEquals(expected.size(), actual.size());
+        if (query.getSortField() != null) {
+            // 排序值相同的文档之间没有固定顺序，比较排序值的序列；带分页时截断处的文档也可能不同
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(0, IndexKey.VALUE_ORDER.compare(
+                        expected.get(i).getValue(query.getSortField()),
+                        actual.get(i).getValue(query.getSortField())), "第" + i + "个文档");
+            }
+            if (skip != null || limit != null) {
+                return;
+            }
+        }
+        assertEquals(byId(expected), byId(actual));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Document> find(String collection, Query query) {
+        OperationResult result = engine.find(collection, query);
+        assertTrue(result.isSuccess(), result.getMessage());
+        return (List<Document>) result.getData();
+    }
+
+    private static Map<String, Map<String, Object>> byId(List<Document> documents) {
+        return documents.stream().collect(Collectors.toMap(Document::getId,
+                document -> new HashMap<>(document.dataView())));
+    }
+
+    @Test
+    void mixedNumericTypesCompareByValue() {
+        List<String> ids = new ArrayList<>();
+        for (Document document : find(INDEXED, new Query(Filter.parse(spec("age", 30L)), null,
+                null, null, null))) {
+            ids.add(document.getId());
+        }
+        ids.sort(null);
+        // i % 61 == 30的文档依次是Long、整数值的Double、30.5、"30"和null，只有前两个匹配
+        assertEquals(List.of("d030", "d091"), ids);
+    }
+
+    @Test
+    void rejectsInvalidFilters() {
+        assertThrows(IllegalArgumentException.class, () -> Filter.parse(spec("$nor", List.of())));
+        assertThrows(IllegalArgumentException.class,
+                () -> Filter.parse(spec("age", spec("$regex", "a"))));
+        assertThrows(IllegalArgumentException.class,
+                () -> Filter.parse(spec("age", spec("$in", 1L))));
+        assertThrows(IllegalArgumentException.class, () -> Filter.parse(spec("$or", List.of())));
+        assertThrows(IllegalArgumentException.class,
+                () -> new Query(null, spec("a", 1, "b", 1), null, null, null));
+        assertThrows(IllegalArgumentException.class,
+                () -> new Query(null, spec("a", 0), null, null, null));
+        assertThrows(IllegalArgumentException.class,
+                () -> new Query(null, null, -1, null, null));
+    }
+}
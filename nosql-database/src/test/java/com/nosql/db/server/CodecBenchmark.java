@@ -0,0 +1,170 @@
+package com.nosql.db.server;
+
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import com.google.gson.Gson;
+import com.nosql.db.protocol.BufferPool;
+import com.nosql.db.protocol.JsonLineReader;
+import com.nosql.db.protocol.JsonLineWriter;
+import com.nosql.db.storage.Document;
+import com.nosql.db.storage.JsonCodec;
+import com.nosql.db.storage.OperationResult;
+
+// JSON行协议编解码的基准测试: 比较Gson按字段反射的做法(先得到一行String再解析，
+// 响应先生成String再转成byte[])与JsonCodec的流式编解码(行缓冲和池化缓冲直接读写UTF-8字节)。
+// 单线程运行，每项先预热一轮，再测量三轮，输出每次操作的平均耗时和分配的字节数。
+// 用法: java -cp target/test-classes:target/classes:<依赖> com.nosql.db.server.CodecBenchmark
+//     [每轮毫秒数]
+public class CodecBenchmark {
+    private static final Gson gson = new Gson();
+    private static final int BATCH = 1000;
+    private static final int ROUNDS = 3;
+    // 防止结果被优化掉
+    private static volatile Object sink;
+
+    private interface Operation {
+        Object run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        long millis = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+        Document document = document(0);
+        List<Document> batch = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            batch.add(document(i));
+        }
+        String documentJson = gson.toJson(document);
+
+        Map<String, Object> insert = new LinkedHashMap<>();
+        insert.put("command", "INSERT");
+        insert.put("collection", "users");
+        insert.put("id", document.getId());
+        insert.put("document", document);
+        insert.put("requestId", "42");
+        byte[] insertLine = gson.toJson(insert).getBytes(StandardCharsets.UTF_8);
+        Map<String, Object> range = new HashMap<>();
+        range.put("$gte", 18);
+        range.put("$lt", 30);
+        Map<String, Object> find = new LinkedHashMap<>();
+        find.put("command", "FIND");
+        find.put("collection", "users");
+        find.put("requestId", "43");
+        find.put("filter", Map.of("age", range, "city", "杭州"));
+        find.put("sort", Map.of("age", 1));
+        find.put("limit", 20);
+        find.put("projection", Arrays.asList("name", "age"));
+        byte[] findLine = gson.toJson(find).getBytes(StandardCharsets.UTF_8);
+
+        OperationResult getResult = new OperationResult(true, "查询成功", document);
+        getResult.setRequestId("42");
+        OperationResult findResult = new OperationResult(true, "查询到 20 条记录", batch);
+        findResult.setRequestId("43");
+        String findResponse = gson.toJson(findResult);
+
+        JsonLineReader lines = new JsonLineReader();
+        System.out.printf("%-22s %-8s %14s %14s%n", "场景", "实现", "耗时(纳秒/次)", "分配(字节/次)");
+        run(millis, "解码INSERT命令",
+                () -> gson.fromJson(new String(insertLine, StandardCharsets.UTF_8), Command.class),
+                () -> parseLine(lines, insertLine));
+        run(millis, "解码FIND命令",
+                () -> gson.fromJson(new String(findLine, StandardCharsets.UTF_8), Command.class),
+                () -> parseLine(lines, findLine));
+        run(millis, "编码GET响应",
+                () -> (gson.toJson(getResult) + "\n").getBytes(StandardCharsets.UTF_8),
+                () -> encodeLine(getResult));
+        run(millis, "编码FIND响应(20条)",
+                () -> (gson.toJson(findResult) + "\n").getBytes(StandardCharsets.UTF_8),
+                () -> encodeLine(findResult));
+        run(millis, "客户端解码FIND响应",
+                () -> gson.fromJson(findResponse, OperationResult.class),
+                () -> JsonCodec.parse(new StringReader(findResponse),
+                        JsonCodec::readResult));
+        run(millis, "Document.toJson",
+                () -> gson.toJson(document), document::toJson);
+        run(millis, "Document.fromJson",
+                () -> gson.fromJson(documentJson, Document.class),
+                () -> Document.fromJson(documentJson));
+    }
+
+    private static Document document(int i) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("name", "用户" + i);
+        data.put("email", "user" + i + "@example.com");
+        data.put("age", 18 + i % 50);
+        data.put("score", 87.5 + i);
+        data.put("active", i % 2 == 0);
+        data.put("city", "杭州");
+        data.put("tags", Arrays.asList("vip", "beta", "<new>"));
+        Map<String, Object> address = new HashMap<>();
+        address.put("street", "文三路" + i + "号");
+        address.put("zip", "310000");
+        data.put("address", address);
+        return Document.restore("user-" + i + "-7f3c9a2e-4b1d-4e8f-9a6c", data,
+                1700000000000L + i, 1700000000000L + i);
+    }
+
+    private static Command parseLine(JsonLineReader lines, byte[] line) {
+        lines.clear();
+        lines.append(ByteBuffer.wrap(line), 0, line.length);
+        return lines.parse(Command::fromJson);
+    }
+
+    // 与ClientHandler相同: 编码进池化缓冲，写出后归还
+    private static Object encodeLine(OperationResult result) {
+        JsonLineWriter writer = new JsonLineWriter(BufferPool.shared().acquire());
+        writer.writeResponse(result);
+        ByteBuffer buffer = writer.buffer();
+        int length = buffer.position();
+        BufferPool.shared().release(buffer);
+        return length;
+    }
+
+    private static void run(long millis, String name, Operation gsonPath, Operation codecPath)
+            throws Exception {
+        report(name, "Gson", measure(millis, gsonPath));
+        report(name, "流式", measure(millis, codecPath));
+    }
+
+    private static void report(String name, String implementation, double[] result) {
+        System.out.printf("%-22s %-8s %14.0f %14.0f%n", name, implementation, result[0],
+                result[1]);
+    }
+
+    // 返回{纳秒/次, 字节/次}，预热一轮后取三轮的平均
+    private static double[] measure(long millis, Operation operation) throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long operations = 0;
+        long nanos = 0;
+        long bytes = 0;
+        for (int round = 0; round <= ROUNDS; round++) {
+            long count = 0;
+            long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            long deadline = start + millis * 1_000_000L;
+            long now;
+            do {
+                for (int i = 0; i < BATCH; i++) {
+                    sink = operation.run();
+                }
+                count += BATCH;
+                now = System.nanoTime();
+            } while (now < deadline);
+            long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+            if (round > 0) {
+                operations += count;
+                nanos += now - start;
+                bytes += allocated;
+            }
+        }
+        return new double[] {(double) nanos / operations, (double) bytes / operations};
+    }
+}
@@ -0,0 +1,51 @@
+package com.nosql.db.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.StringReader;
+import org.junit.jupiter.api.Test;
+import com.google.gson.Gson;
+import com.nosql.db.storage.JsonCodec;
+
+// 流式解码的Command与Gson按字段反射解码的结果相同
+class CommandTest {
+    private static final Gson gson = new Gson();
+
+    private static void assertDecodesLikeGson(String json) {
+        Command expected = gson.fromJson(json, Command.class);
+        Command decoded = JsonCodec.parse(new StringReader(json), Command::fromJson);
+        assertEquals(gson.toJson(expected), gson.toJson(decoded));
+    }
+
+    @Test
+    void decodesAllFieldsLikeGson() {
+        assertDecodesLikeGson("{\"command\":\"FIND\",\"collection\":\"users\",\"id\":\"u1\","
+                + "\"requestId\":\"r-7\",\"cursorId\":\"c1\",\"batchSize\":50,"
+                + "\"filter\":{\"age\":{\"$gt\":18},\"name\":\"\\u003cTom\\u003e\"},"
+                + "\"sort\":{\"age\":-1},\"skip\":10,\"limit\":20,"
+                + "\"projection\":[\"name\",\"age\"],\"fields\":[\"a\",\"b\"],"
+                + "\"indexType\":\"ORDERED\",\"include\":[\"c\"],\"index\":\"a_b\","
+                + "\"query\":\"全文 检索\",\"update\":{\"$inc\":{\"n\":1},\"$set\":{\"x\":[1,2]}},"
+                + "\"unknown\":{\"nested\":[1,2,3]}}");
+    }
+
+    @Test
+    void decodesDocumentsAndOperationsLikeGson() {
+        assertDecodesLikeGson("{\"command\":\"BULK_WRITE\",\"collection\":\"users\","
+                + "\"document\":{\"id\":\"d0\",\"data\":{\"n\":1},\"createdAt\":1,"
+                + "\"updatedAt\":2},"
+                + "\"documents\":[{\"id\":\"d1\",\"data\":{\"city\":\"杭州\"},\"createdAt\":3,"
+                + "\"updatedAt\":4},null],"
+                + "\"operations\":[{\"operation\":\"DELETE\",\"id\":\"d2\"},"
+                + "{\"operation\":\"INSERT\",\"document\":{\"id\":\"d3\",\"data\":{},"
+                + "\"createdAt\":5,\"updatedAt\":6}},{\"operation\":\"NOPE\",\"id\":\"d4\"}]}");
+    }
+
+    @Test
+    void decodesNullsAndLenientValuesLikeGson() {
+        assertDecodesLikeGson("{\"command\":\"GET\",\"collection\":null,\"id\":true,"
+                + "\"batchSize\":\"25\",\"filter\":null,\"projection\":null}");
+        assertNull(JsonCodec.parse(new StringReader(""), Command::fromJson));
+    }
+}
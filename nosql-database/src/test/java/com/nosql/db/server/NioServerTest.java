@@ -0,0 +1,354 @@
+package com.nosql.db.server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import com.google.gson.Gson;
+import com.nosql.db.index.IndexManager;
+import com.nosql.db.protocol.BinaryProtocol;
+import com.nosql.db.protocol.BinaryReader;
+import com.nosql.db.protocol.BinaryWriter;
+import com.nosql.db.protocol.BufferPool;
+import com.nosql.db.storage.DatabaseEngine;
+import com.nosql.db.storage.Document;
+import com.nosql.db.storage.DurabilityMode;
+import com.nosql.db.storage.EncodedDocument;
+import com.nosql.db.storage.OperationResult;
+import com.nosql.db.storage.StorageEngineType;
+import com.nosql.db.storage.WriteAheadLog;
+
+// 经回环连接测试NIO服务器的两种协议: 跨多次读取的命令和帧、背压以及EXIT之后关闭连接
+class NioServerTest {
+    private static final String COLLECTION = "users";
+    private static final Gson gson = new Gson();
+
+    @TempDir
+    File directory;
+
+    private WriteAheadLog wal;
+    private DatabaseEngine engine;
+    private NioServer server;
+    // 打开之前工作线程不执行任何命令，用来堆积未完成的命令
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private final AtomicInteger submitted = new AtomicInteger();
+    private ThreadPoolExecutor workers;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        String dataDirectory = directory.getPath();
+        wal = new WriteAheadLog(dataDirectory, "wal", DurabilityMode.OS_BUFFERED, 0, 0,
+                1024 * 1024);
+        engine = new DatabaseEngine(dataDirectory, new IndexManager(dataDirectory), wal);
+        engine.createCollection(COLLECTION, StorageEngineType.MEMORY);
+        engine.recoverFromWal();
+        workers = new ThreadPoolExecutor(4, 4, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>()) {
+            @Override
+            public void execute(Runnable command) {
+                submitted.incrementAndGet();
+                super.execute(command);
+            }
+
+            @Override
+            protected void beforeExecute(Thread thread, Runnable task) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    thread.interrupt();
+                }
+            }
+        };
+        server = new NioServer(0, 1, workers, engine);
+        server.bind();
+        Thread acceptor = new Thread(() -> {
+            try {
+                server.acceptLoop();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }, "nio-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        gate.countDown();
+        server.shutdown();
+        workers.shutdownNow();
+        engine.close();
+        wal.close();
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        socket.setSoTimeout(10000);
+        socket.setTcpNoDelay(true);
+        return socket;
+    }
+
+    // 分几次写出，每次之间稍作停顿，让服务端分别读到每一段
+    private static void writeInParts(OutputStream output, byte[] bytes, int... cuts)
+            throws IOException, InterruptedException {
+        int start = 0;
+        for (int cut : cuts) {
+            output.write(bytes, start, cut - start);
+            output.flush();
+            Thread.sleep(50);
+            start = cut;
+        }
+        output.write(bytes, start, bytes.length - start);
+        output.flush();
+    }
+
+    private static String insertLine(String requestId, String id, String name) {
+        return "{\"command\":\"INSERT\",\"collection\":\"users\",\"requestId\":\"" + requestId
+                + "\",\"document\":{\"id\":\"" + id + "\",\"data\":{\"name\":\"" + name
+                + "\"},\"createdAt\":1,\"updatedAt\":1}}\n";
+    }
+
+    private static String getLine(String requestId, String id) {
+        return "{\"command\":\"GET\",\"collection\":\"users\",\"requestId\":\"" + requestId
+                + "\",\"id\":\"" + id + "\"}\n";
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> response(BufferedReader input) throws IOException {
+        String line = input.readLine();
+        assertNotNull(line, "连接提前关闭");
+        return gson.fromJson(line, Map.class);
+    }
+
+    private Document stored(String id) {
+        OperationResult result = engine.getDocument(COLLECTION, id);
+        return result.isSuccess()
+                ? ((EncodedDocument) result.getData()).getDocument() : null;
+    }
+
+    @Test
+    void jsonCommandsSplitAcrossReads() throws Exception {
+        gate.countDown();
+        String longName = "名".repeat(40000);
+        try (Socket socket = connect()) {
+            OutputStream output = socket.getOutputStream();
+            BufferedReader input = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            // 一行命令在中间被截断，另一行超过服务端的读缓冲，两行之间没有停顿
+            byte[] first = insertLine("1", "a", "甲").getBytes(StandardCharsets.UTF_8);
+            writeInParts(output, first, 1, 30, first.length - 1);
+            assertEquals("1", response(input).get("requestId"));
+
+            byte[] batch = (insertLine("2", "b", longName) + "\n  \n" + getLine("3", "a")
+                    + "{\"command\":\"GET\",\"coll").getBytes(StandardCharsets.UTF_8);
+            writeInParts(output, batch, NioServer.READ_BUFFER_SIZE / 2);
+            Set<Object> answered = new HashSet<>();
+            for (int i = 0; i < 2; i++) {
+                Map<String, Object> response = response(input);
+                assertEquals(true, response.get("success"), response.toString());
+                answered.add(response.get("requestId"));
+            }
+            assertEquals(Set.of("2", "3"), answered);
+            writeInParts(output, "ection\":\"users\",\"id\":\"b\"}\n".getBytes(
+                    StandardCharsets.UTF_8));
+            Map<String, Object> last = response(input);
+            assertEquals(true, last.get("success"));
+            assertEquals(longName, ((Map<?, ?>) ((Map<?, ?>) last.get("data")).get("data"))
+                    .get("name"));
+        }
+        assertEquals(longName, stored("b").get("name"));
+    }
+
+    @Test
+    void jsonConnectionClosesAfterExit() throws Exception {
+        gate.countDown();
+        try (Socket socket = connect()) {
+            OutputStream output = socket.getOutputStream();
+            output.write((insertLine("1", "a", "甲") + "{\"command\":\"EXIT\"}\n"
+                    + insertLine("2", "b", "乙")).getBytes(StandardCharsets.UTF_8));
+            output.flush();
+            BufferedReader input = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            List<String> lines = new ArrayList<>();
+            String line;
+            while ((line = input.readLine()) != null) {
+                lines.add(line);
+            }
+            assertEquals(2, lines.size(), lines.toString());
+            assertEquals("1", gson.fromJson(lines.get(0), Map.class).get("requestId"));
+        }
+        assertNotNull(stored("a"));
+        // EXIT之后的命令不再执行
+        assertNull(stored("b"));
+    }
+
+    // 工作线程不执行命令时，单个连接上未完成的命令达到MAX_IN_FLIGHT后服务端停止读取；
+    // 命令完成后恢复读取，全部命令都得到响应
+    @Test
+    void stopsReadingAtMaxInFlight() throws Exception {
+        int total = 5 * NioServer.MAX_IN_FLIGHT;
+        try (Socket socket = connect()) {
+            OutputStream output = socket.getOutputStream();
+            CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+                StringBuilder lines = new StringBuilder();
+                for (int i = 0; i < total; i++) {
+                    lines.append(getLine(String.valueOf(i), "g" + i));
+                }
+                try {
+                    output.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+                    output.flush();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            // 等到提交的命令数不再增长，冷启动时解析较慢，不能只等固定的时间
+            long deadline = System.currentTimeMillis() + 10000;
+            int queued = -1;
+            while ((queued < NioServer.MAX_IN_FLIGHT || queued != submitted.get())
+                    && System.currentTimeMillis() < deadline) {
+                queued = submitted.get();
+                Thread.sleep(300);
+            }
+            // 停止读取前最多再处理完一整个读缓冲中的命令
+            int perRead = NioServer.READ_BUFFER_SIZE / getLine("0", "g0").length() + 1;
+            assertTrue(queued >= NioServer.MAX_IN_FLIGHT, "已提交: " + queued);
+            assertTrue(queued <= NioServer.MAX_IN_FLIGHT + perRead, "已提交: " + queued);
+
+            gate.countDown();
+            BufferedReader input = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Set<Object> answered = new HashSet<>();
+            for (int i = 0; i < total; i++) {
+                answered.add(response(input).get("requestId"));
+            }
+            assertEquals(total, answered.size());
+            writer.join();
+        }
+    }
+
+    private static byte[] frame(String command, String requestId, String id, Document document) {
+        BinaryWriter writer = new BinaryWriter(ByteBuffer.allocate(256));
+        BinaryProtocol.writeRequest(writer, command, requestId, COLLECTION, id, document);
+        ByteBuffer buffer = writer.buffer().flip();
+        return Arrays.copyOfRange(buffer.array(), 0, buffer.limit());
+    }
+
+    private static Document document(String id, String name) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("name", name);
+        return Document.restore(id, data, 1, 1);
+    }
+
+    private static OperationResult readResponse(DataInputStream input) throws IOException {
+        byte[] payload = new byte[input.readInt()];
+        input.readFully(payload);
+        return BinaryProtocol.readResponse(new BinaryReader(ByteBuffer.wrap(payload)));
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (byte[] part : parts) {
+            buffer.put(part);
+        }
+        return buffer.array();
+    }
+
+    @Test
+    void binaryFramesReassembledAcrossReads() throws Exception {
+        gate.countDown();
+        String longName = "x".repeat(4 * BufferPool.BUFFER_SIZE);
+        byte[] handshake = BinaryProtocol.handshake(BinaryProtocol.VERSION);
+        try (Socket socket = connect()) {
+            OutputStream output = socket.getOutputStream();
+            DataInputStream input = new DataInputStream(socket.getInputStream());
+            // 握手和第一帧都被截断: 握手只到两个字节，长度前缀只到三个字节
+            byte[] insert = frame("INSERT", "1", null, document("a", "甲"));
+            byte[] first = concat(handshake, insert);
+            writeInParts(output, first, 2, handshake.length + 3, first.length - 1);
+            byte[] echoed = new byte[BinaryProtocol.HANDSHAKE_LENGTH];
+            input.readFully(echoed);
+            assertArrayEquals(handshake, echoed);
+            OperationResult inserted = readResponse(input);
+            assertTrue(inserted.isSuccess(), inserted.getMessage());
+            assertEquals("1", inserted.getRequestId());
+
+            // 超过连接接收缓冲初始容量的帧，后面紧跟一帧完整的和半帧
+            byte[] large = frame("INSERT", "2", null, document("b", longName));
+            byte[] get = frame("GET", "3", "a", null);
+            byte[] tail = frame("GET", "4", "b", null);
+            byte[] batch = concat(large, get, Arrays.copyOf(tail, 5));
+            writeInParts(output, batch, large.length / 3);
+            Set<String> answered = new HashSet<>();
+            for (int i = 0; i < 2; i++) {
+                OperationResult result = readResponse(input);
+                assertTrue(result.isSuccess(), result.getMessage());
+                answered.add(result.getRequestId());
+            }
+            assertEquals(Set.of("2", "3"), answered);
+            output.write(tail, 5, tail.length - 5);
+            output.flush();
+            OperationResult last = readResponse(input);
+            assertEquals("4", last.getRequestId());
+            assertEquals(longName, ((Document) last.getData()).get("name"));
+        }
+        assertEquals(longName, stored("b").get("name"));
+    }
+
+    @Test
+    void binaryConnectionClosesAfterExit() throws Exception {
+        gate.countDown();
+        try (Socket socket = connect()) {
+            OutputStream output = socket.getOutputStream();
+            output.write(concat(BinaryProtocol.handshake(BinaryProtocol.VERSION),
+                    frame("INSERT", "1", null, document("a", "甲")),
+                    frame("EXIT", null, null, null),
+                    frame("INSERT", "2", null, document("b", "乙"))));
+            output.flush();
+            DataInputStream input = new DataInputStream(socket.getInputStream());
+            input.readFully(new byte[BinaryProtocol.HANDSHAKE_LENGTH]);
+            assertEquals("1", readResponse(input).getRequestId());
+            OperationResult exit = readResponse(input);
+            assertTrue(exit.isSuccess());
+            assertNull(exit.getRequestId());
+            assertEquals(-1, input.read());
+        } catch (EOFException e) {
+            throw new AssertionError("EXIT的响应之前连接就关闭了", e);
+        }
+        assertNotNull(stored("a"));
+        assertNull(stored("b"));
+    }
+}
@@ -0,0 +1,238 @@
+package com.nosql.db.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import com.google.gson.Gson;
+import com.nosql.db.index.IndexManager;
+import com.nosql.db.storage.DatabaseEngine;
+import com.nosql.db.storage.Document;
+import com.nosql.db.storage.DurabilityMode;
+import com.nosql.db.storage.EncodedDocument;
+import com.nosql.db.storage.OperationResult;
+import com.nosql.db.storage.StorageEngineType;
+import com.nosql.db.storage.WriteAheadLog;
+
+// 带requestId的命令并发执行，但同一文档上的读写、屏障前后的命令都必须按到达顺序生效
+class RequestPipelineTest {
+    private static final String COLLECTION = "users";
+
+    @TempDir
+    File directory;
+
+    private WriteAheadLog wal;
+    private DatabaseEngine engine;
+    private ExecutorService workers;
+    private RequestPipeline pipeline;
+
+    @BeforeEach
+    void setUp() {
+        String dataDirectory = directory.getPath();
+        wal = new WriteAheadLog(dataDirectory, "wal", DurabilityMode.OS_BUFFERED, 0, 0,
+                1024 * 1024);
+        engine = new DatabaseEngine(dataDirectory, new IndexManager(dataDirectory), wal);
+        engine.createCollection(COLLECTION, StorageEngineType.MEMORY);
+        engine.recoverFromWal();
+        workers = Executors.newFixedThreadPool(8);
+        pipeline = new RequestPipeline(new CommandExecutor(engine), workers);
+    }
+
+    @AfterEach
+    void tearDown() {
+        workers.shutdownNow();
+        engine.close();
+        wal.close();
+    }
+
+    private static Command command(String name, String id, Double value, String requestId) {
+        Command command = new Command();
+        command.setCommand(name);
+        command.setCollection(COLLECTION);
+        command.setRequestId(requestId);
+        if (value != null) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("value", value);
+            command.setDocument(Document.restore(id, data, 1, 1));
+        } else {
+            command.setId(id);
+        }
+        return command;
+    }
+
+    private static Object value(OperationResult result) {
+        return ((EncodedDocument) result.getData()).getDocument().get("value");
+    }
+
+    // 在少数几个文档上交替发送INSERT、UPDATE、DELETE和GET，用一个按到达顺序执行的模型
+    // 推算每个响应: 写操作是否成功、GET读到的值都必须与模型一致
+    @Test
+    void responsesReflectArrivalOrderPerDocument() {
+        Map<String, OperationResult> responses = new ConcurrentHashMap<>();
+        Map<String, Double> model = new HashMap<>();
+        Map<String, Object> expected = new HashMap<>();
+        Random random = new Random(42);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 4 * RequestPipeline.CLEANUP_THRESHOLD; i++) {
+            String id = "k" + random.nextInt(4);
+            String requestId = "r" + i;
+            double value = i;
+            Command command;
+            switch (random.nextInt(4)) {
+                case 0:
+                    command = command("INSERT", id, value, requestId);
+                    expected.put(requestId, model.putIfAbsent(id, value) == null);
+                    break;
+                case 1:
+                    command = command("UPDATE", id, value, requestId);
+                    expected.put(requestId, model.replace(id, value) != null);
+                    break;
+                case 2:
+                    command = command("DELETE", id, null, requestId);
+                    expected.put(requestId, model.remove(id) != null);
+                    break;
+                default:
+                    command = command("GET", id, null, requestId);
+                    expected.put(requestId, model.containsKey(id) ? model.get(id) : false);
+                    break;
+            }
+            futures.add(pipeline.submit(command, (result, exit) ->
+                    responses.put(result.getRequestId(), result)));
+        }
+        futures.forEach(CompletableFuture::join);
+
+        assertEquals(expected.size(), responses.size());
+        for (Map.Entry<String, Object> entry : expected.entrySet()) {
+            OperationResult result = responses.get(entry.getKey());
+            if (entry.getValue() instanceof Double) {
+                assertTrue(result.isSuccess(), entry.getKey());
+                assertEquals(entry.getValue(), value(result), entry.getKey());
+            } else {
+                assertEquals(entry.getValue(), result.isSuccess(), entry.getKey());
+            }
+        }
+    }
+
+    // 不带requestId的命令和GET_ALL等待之前的命令全部完成，之后的命令也要等它完成
+    @Test
+    void barriersSeparateCommandsBeforeAndAfter() {
+        List<String> completed = Collections.synchronizedList(new ArrayList<>());
+        RequestPipeline.ResponseSink sink = (result, exit) ->
+                completed.add(result.getRequestId() == null ? "barrier" : result.getRequestId());
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(pipeline.submit(command("INSERT", "a" + i, 1.0, "a" + i), sink));
+        }
+        Command getAll = new Command();
+        getAll.setCommand("GET_ALL");
+        getAll.setCollection(COLLECTION);
+        OperationResult[] all = new OperationResult[1];
+        futures.add(pipeline.submit(getAll, (result, exit) -> {
+            all[0] = result;
+            sink.send(result, exit);
+        }));
+        for (int i = 0; i < 100; i++) {
+            futures.add(pipeline.submit(command("DELETE", "a" + i, null, "b" + i), sink));
+        }
+        futures.add(pipeline.submit(command("GET", "a0", null, null), sink));
+        futures.forEach(CompletableFuture::join);
+
+        // 屏障看到之前的全部插入，之后的删除都没有提前执行
+        assertEquals(100, ((List<?>) all[0].getData()).size());
+        assertEquals(202, completed.size());
+        assertEquals("barrier", completed.get(100));
+        assertEquals("barrier", completed.get(201));
+        for (int i = 0; i < 100; i++) {
+            assertTrue(completed.get(i).startsWith("a"), completed.get(i));
+            assertTrue(completed.get(101 + i).startsWith("b"), completed.get(101 + i));
+        }
+    }
+
+    // 长时间没有屏障时，已完成的依赖被定期清理，不随命令数无限增长
+    @Test
+    void prunesCompletedDependenciesWithoutBarriers() {
+        for (int i = 0; i < 5 * RequestPipeline.CLEANUP_THRESHOLD; i++) {
+            pipeline.submit(command("INSERT", "p" + i, 1.0, "r" + i), (result, exit) -> {
+            }).join();
+            assertTrue(pipeline.tracked() <= 2 * (RequestPipeline.CLEANUP_THRESHOLD + 1),
+                    "第" + i + "个命令后登记的依赖数: " + pipeline.tracked());
+        }
+        // 清理后新的命令仍然排在同一文档之前的写入之后
+        OperationResult[] read = new OperationResult[1];
+        pipeline.submit(command("UPDATE", "p0", 2.0, "u"), (result, exit) -> {
+        });
+        pipeline.submit(command("GET", "p0", null, "g"), (result, exit) -> read[0] = result)
+                .join();
+        assertEquals(2.0, value(read[0]));
+    }
+
+    @Test
+    void exitMarksPipelineClosing() {
+        assertFalse(pipeline.isClosing());
+        boolean[] exit = new boolean[1];
+        pipeline.submit(command("EXIT", null, null, "e"), (result, last) -> exit[0] = last)
+                .join();
+        assertTrue(pipeline.isClosing());
+        assertTrue(exit[0]);
+    }
+
+    // 阻塞式服务器收到EXIT后返回它的响应并关闭连接，同一次写入中EXIT之后的命令不再执行
+    @Test
+    void clientHandlerStopsReadingAfterExit() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                Socket client = new Socket(InetAddress.getLoopbackAddress(),
+                        server.getLocalPort())) {
+            Thread handler;
+            try (Socket accepted = server.accept()) {
+                handler = new Thread(new ClientHandler(accepted, engine, workers));
+                handler.start();
+                OutputStream output = client.getOutputStream();
+                output.write(("{\"command\":\"INSERT\",\"collection\":\"users\",\"requestId\":"
+                        + "\"1\",\"document\":{\"id\":\"x1\",\"data\":{},\"createdAt\":1,"
+                        + "\"updatedAt\":1}}\n{\"command\":\"EXIT\"}\n"
+                        + "{\"command\":\"INSERT\",\"collection\":\"users\",\"document\":"
+                        + "{\"id\":\"x2\",\"data\":{},\"createdAt\":1,\"updatedAt\":1}}\n")
+                        .getBytes(StandardCharsets.UTF_8));
+                output.flush();
+
+                BufferedReader input = new BufferedReader(new InputStreamReader(
+                        client.getInputStream(), StandardCharsets.UTF_8));
+                List<String> lines = new ArrayList<>();
+                String line;
+                while ((line = input.readLine()) != null) {
+                    lines.add(line);
+                }
+                handler.join(5000);
+                assertFalse(handler.isAlive());
+                assertEquals(2, lines.size(), lines.toString());
+                Gson gson = new Gson();
+                assertEquals("1", gson.fromJson(lines.get(0), Map.class).get("requestId"));
+                assertEquals(true, gson.fromJson(lines.get(1), Map.class).get("success"));
+            }
+        }
+        assertTrue(engine.getDocument(COLLECTION, "x1").isSuccess());
+        assertFalse(engine.getDocument(COLLECTION, "x2").isSuccess());
+    }
+}
@@ -0,0 +1,75 @@
+package com.nosql.db.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+// 紧凑文档布局的内存基准: 同一批宽文档分别以HashMap原样保存和按MemoryStorageEngine的方式压缩后保存，
+// 用GC之后堆占用的增量估算每个文档占用的字节数(含文档对象、ID和数据)，输出两者之比和字典大小。
+// 用法: java -XX:+UseSerialGC -cp target/test-classes:target/classes:<依赖>
+//     com.nosql.db.storage.CompactMapBenchmark [文档数]
+public class CompactMapBenchmark {
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        FieldDictionary dictionary = new FieldDictionary();
+        long plain = bytesPerDocument(count, CompactMapBenchmark::document);
+        long compact = bytesPerDocument(count, i -> document(i).compact(dictionary));
+        System.out.printf("%-10s %12s%n", "布局", "字节/文档");
+        System.out.printf("%-10s %12d%n", "HashMap", plain);
+        System.out.printf("%-10s %12d%n", "CompactMap", compact);
+        System.out.printf("压缩比: %.2fx, 字典字段数: %d, 文档数: %d%n", (double) plain / compact,
+                dictionary.size(), count);
+    }
+
+    private static long bytesPerDocument(int count, IntFunction<Document> factory) {
+        long before = usedMemory();
+        List<Document> documents = new ArrayList<>(count);
+        long listBytes = usedMemory() - before;
+        for (int i = 0; i < count; i++) {
+            documents.add(factory.apply(i));
+        }
+        long bytes = usedMemory() - before - listBytes;
+        if (documents.size() != count) {
+            throw new IllegalStateException();
+        }
+        return bytes / count;
+    }
+
+    // 32个字段的文档(含嵌套对象中的字段): 字符串、整数、浮点数、布尔值、嵌套对象和数组
+    private static Document document(int i) {
+        Map<String, Object> address = new HashMap<>();
+        address.put("city", i % 2 == 0 ? "杭州" : "上海");
+        address.put("street", "文三路" + i + "号");
+        address.put("zip", 310000L + i % 100);
+        Map<String, Object> data = new HashMap<>();
+        data.put("name", "user" + i);
+        data.put("email", "user" + i + "@example.com");
+        data.put("age", (long) (18 + i % 50));
+        data.put("score", 60 + (i % 400) / 10.0);
+        data.put("active", i % 3 == 0);
+        data.put("address", address);
+        data.put("tags", Arrays.asList("vip", "beta"));
+        data.put("history", Arrays.asList((long) i, i + 1L, i + 2L, i + 3L));
+        data.put("ratings", Arrays.asList(4.5, 3.0, 5.0));
+        for (int f = 0; f < 20; f++) {
+            data.put("metric" + f, (long) (i * 31 + f));
+        }
+        return Document.restore("doc" + i, data, i, i);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,175 @@
+package com.nosql.db.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CompactMapTest {
+    @TempDir
+    File directory;
+
+    private static Map<String, Object> sample() {
+        Map<String, Object> address = new HashMap<>();
+        address.put("city", "杭州");
+        address.put("zip", 310000L);
+        address.put("geo", new HashMap<>(Map.of("lat", 30.25, "lng", 120.17)));
+        Map<String, Object> data = new HashMap<>();
+        data.put("name", "张三");
+        data.put("age", 30L);
+        data.put("score", 87.5);
+        data.put("active", true);
+        data.put("nothing", null);
+        data.put("address", address);
+        data.put("ids", new ArrayList<>(Arrays.asList(1L, 2L, 3L)));
+        data.put("weights", new ArrayList<>(Arrays.asList(0.5, 1.5)));
+        data.put("mixed", new ArrayList<>(Arrays.asList(1L, 2.5, "x", null)));
+        data.put("items", new ArrayList<>(Arrays.asList(new HashMap<>(Map.of("sku", "a")),
+                new HashMap<>(Map.of("sku", "b", "qty", 2L)))));
+        data.put("empty", new HashMap<>());
+        data.put("none", new ArrayList<>());
+        return data;
+    }
+
+    @Test
+    void compactedMapEqualsOriginal() {
+        Map<String, Object> data = sample();
+        FieldDictionary dictionary = new FieldDictionary();
+        Map<String, Object> compacted = CompactMap.compact(data, dictionary);
+
+        assertInstanceOf(CompactMap.class, compacted);
+        assertEquals(data, compacted);
+        assertEquals(compacted, data);
+        assertEquals(data.hashCode(), compacted.hashCode());
+        assertEquals(data.size(), compacted.size());
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            assertTrue(compacted.containsKey(entry.getKey()));
+            assertEquals(entry.getValue(), compacted.get(entry.getKey()));
+        }
+        assertFalse(compacted.containsKey("missing"));
+        assertNull(compacted.get("missing"));
+        assertNull(compacted.get(42));
+
+        // 嵌套对象同样压缩，全是Long或全是Double的数组换成NumberList
+        assertInstanceOf(CompactMap.class, compacted.get("address"));
+        assertInstanceOf(CompactMap.class, ((Map<?, ?>) compacted.get("address")).get("geo"));
+        assertInstanceOf(CompactMap.NumberList.class, compacted.get("ids"));
+        assertInstanceOf(CompactMap.NumberList.class, compacted.get("weights"));
+        assertFalse(compacted.get("mixed") instanceof CompactMap.NumberList);
+        assertInstanceOf(CompactMap.class, ((List<?>) compacted.get("items")).get(1));
+        assertEquals(Long.class, ((List<?>) compacted.get("ids")).get(0).getClass());
+        assertEquals(Double.class, ((List<?>) compacted.get("weights")).get(0).getClass());
+    }
+
+    @Test
+    void documentsShareDictionary() {
+        FieldDictionary dictionary = new FieldDictionary();
+        CompactMap.compact(sample(), dictionary);
+        int size = dictionary.size();
+        Map<String, Object> other = sample();
+        other.put("name", "李四");
+        assertEquals(other, CompactMap.compact(other, dictionary));
+        assertEquals(size, dictionary.size());
+    }
+
+    @Test
+    void fullDictionaryLeavesNewFieldsUncompacted() {
+        FieldDictionary dictionary = new FieldDictionary();
+        for (int i = 0; dictionary.size() < FieldDictionary.MAX_FIELDS; i++) {
+            dictionary.intern("f" + i);
+        }
+        assertEquals(-1, dictionary.intern("new"));
+
+        Map<String, Object> known = new HashMap<>(Map.of("f1", 1L, "f2", "x"));
+        assertInstanceOf(CompactMap.class, CompactMap.compact(known, dictionary));
+
+        Map<String, Object> unknown = new HashMap<>(Map.of("f1", 1L, "new", "x"));
+        assertSame(unknown, CompactMap.compact(unknown, dictionary));
+
+        // 只有嵌套对象含新字段时，外层仍然压缩，嵌套对象保持原样
+        Map<String, Object> nested = new HashMap<>();
+        nested.put("f1", 1L);
+        nested.put("f2", unknown);
+        Map<String, Object> compacted = CompactMap.compact(nested, dictionary);
+        assertInstanceOf(CompactMap.class, compacted);
+        assertSame(unknown, compacted.get("f2"));
+        assertEquals(nested, compacted);
+    }
+
+    @Test
+    void tooManyFieldsLeavesMapUncompacted() {
+        Map<String, Object> wide = new HashMap<>();
+        for (int i = 0; i <= CompactMap.MAX_FIELDS; i++) {
+            wide.put("f" + i, (long) i);
+        }
+        assertSame(wide, CompactMap.compact(wide, new FieldDictionary()));
+    }
+
+    @Test
+    void serializationWritesPlainCollections() throws IOException, ClassNotFoundException {
+        Map<String, Object> data = sample();
+        Document stored = Document.restore("d1", data, 1, 2).compact(new FieldDictionary());
+        assertInstanceOf(CompactMap.class, stored.dataView());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(stored);
+        }
+        Document copy;
+        try (ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (Document) in.readObject();
+        }
+        assertEquals("d1", copy.getId());
+        assertEquals(2, copy.getUpdatedAt());
+        assertInstanceOf(HashMap.class, copy.dataView());
+        assertInstanceOf(HashMap.class, copy.dataView().get("address"));
+        assertInstanceOf(ArrayList.class, copy.dataView().get("ids"));
+        assertEquals(data, copy.dataView());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void storedDocumentDataStaysMutable() {
+        MemoryStorageEngine storage = new MemoryStorageEngine(directory.getPath());
+        storage.put(Document.restore("d1", sample(), 1, 1));
+        Document stored = storage.get("d1");
+        // 编码和只读访问不展开紧凑布局
+        stored.toJson();
+        assertInstanceOf(CompactMap.class, stored.dataView());
+
+        Map<String, Object> data = stored.getData();
+        data.put("extra", "y");
+        data.remove("nothing");
+        List<Object> ids = (List<Object>) data.get("ids");
+        ids.add(4L);
+        Map<String, Object> address = (Map<String, Object>) data.get("address");
+        address.put("city", "上海");
+        stored.put("age", 31L);
+
+        Map<String, Object> expected = sample();
+        expected.put("extra", "y");
+        expected.remove("nothing");
+        expected.put("age", 31L);
+        ((List<Object>) expected.get("ids")).add(4L);
+        ((Map<String, Object>) expected.get("address")).put("city", "上海");
+        assertSame(data, stored.getData());
+        assertEquals(expected, stored.getData());
+    }
+}
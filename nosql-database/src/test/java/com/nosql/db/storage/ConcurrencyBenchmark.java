@@ -0,0 +1,198 @@
+package com.nosql.db.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import com.nosql.db.index.IndexManager;
+
+// 集合并发控制的吞吐量基准测试: 多个线程对同一集合随机读取和更新文档，
+// 比较按文档ID分段加锁的Collection与原来整个集合一把读写锁的做法
+// (写入在写锁内追加WAL并应用，读取持有读锁)。两者使用相同的WAL、存储引擎和索引，
+// 分别在组提交和每条fsync两种持久化模式下运行，输出总吞吐量和读取延迟的p99。
+// 用法: java -cp target/test-classes:target/classes:<依赖>
+//     com.nosql.db.storage.ConcurrencyBenchmark [每轮秒数] [文档数]
+public class ConcurrencyBenchmark {
+    private static final String COLLECTION = "bench";
+    private static final int[] THREADS = {1, 4, 16};
+    private static final int[] WRITE_PERCENTS = {10, 50};
+
+    // 两种实现共同的读写接口
+    private interface Target {
+        Document get(String id);
+
+        void update(Document document);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        int documents = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        System.out.printf("%-14s %-8s %6s %6s %14s %14s%n", "持久化", "实现", "线程", "写入%",
+                "吞吐(次/秒)", "读p99(微秒)");
+        for (DurabilityMode mode : new DurabilityMode[] {DurabilityMode.GROUP_COMMIT,
+                DurabilityMode.SYNC}) {
+            for (int writePercent : WRITE_PERCENTS) {
+                for (int threads : THREADS) {
+                    for (boolean striped : new boolean[] {false, true}) {
+                        run(mode, striped, threads, writePercent, documents, seconds);
+                    }
+                }
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(DurabilityMode mode, boolean striped, int threads, int writePercent,
+            int documents, int seconds) throws IOException {
+        Path directory = Files.createTempDirectory("nosql-concurrency");
+        WriteAheadLog wal = new WriteAheadLog(directory.toString(), "wal", mode, 1000,
+                256 * 1024);
+        IndexManager indexManager = new IndexManager(directory.toString());
+        indexManager.createIndex(COLLECTION, "group");
+        Target target = striped ? striped(directory, wal, indexManager)
+                : globalLock(directory, wal, indexManager);
+        for (int i = 0; i < documents; i++) {
+            target.update(document(i));
+        }
+
+        AtomicBoolean stop = new AtomicBoolean();
+        LongAdder operations = new LongAdder();
+        List<long[]> readLatencies = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long[] samples = new long[1 << 16];
+            readLatencies.add(samples);
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int reads = 0;
+                while (!stop.get()) {
+                    int i = random.nextInt(documents);
+                    if (random.nextInt(100) < writePercent) {
+                        target.update(document(i));
+                    } else {
+                        long start = System.nanoTime();
+                        target.get("doc" + i);
+                        samples[reads++ & (samples.length - 1)] = System.nanoTime() - start;
+                    }
+                    operations.increment();
+                }
+            });
+            workers.add(worker);
+        }
+        // 预热后重新计数
+        workers.forEach(Thread::start);
+        sleep(500);
+        operations.reset();
+        long start = System.nanoTime();
+        sleep(seconds * 1000L);
+        long count = operations.sum();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        stop.set(true);
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        wal.close();
+        deleteRecursively(directory);
+        System.out.printf("%-14s %-8s %6d %6d %14.0f %14.1f%n", mode, striped ? "分段锁" : "集合锁",
+                threads, writePercent, count / elapsed, percentile(readLatencies, 0.99) / 1e3);
+    }
+
+    private static Target striped(Path directory, WriteAheadLog wal,
+            IndexManager indexManager) {
+        Collection collection = new Collection(COLLECTION, directory.resolve(COLLECTION)
+                .toString(), wal, indexManager);
+        return new Target() {
+            @Override
+            public Document get(String id) {
+                OperationResult result = collection.get(id);
+                return result.isSuccess() ? ((EncodedDocument) result.getData()).getDocument()
+                        : null;
+            }
+
+            @Override
+            public void update(Document document) {
+                if (!collection.update(document).isSuccess()) {
+                    collection.insert(document);
+                }
+            }
+        };
+    }
+
+    // 改为分段锁之前Collection的做法
+    private static Target globalLock(Path directory, WriteAheadLog wal,
+            IndexManager indexManager) {
+        StorageEngine storage = new MemoryStorageEngine(directory.toString());
+        ReadWriteLock lock = new ReentrantReadWriteLock();
+        return new Target() {
+            @Override
+            public Document get(String id) {
+                lock.readLock().lock();
+                try {
+                    return storage.get(id);
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+
+            @Override
+            public void update(Document document) {
+                CompletableFuture<Long> durable;
+                lock.writeLock().lock();
+                try {
+                    durable = wal.append(WalOperation.UPDATE, COLLECTION, document.toJson());
+                    storage.put(document);
+                    indexManager.updateIndex(COLLECTION, document);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                wal.awaitDurable(durable);
+            }
+        };
+    }
+
+    private static Document document(int i) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("group", (long) (i % 100));
+        data.put("name", "user" + i);
+        data.put("score", ThreadLocalRandom.current().nextInt(1000));
+        return Document.restore("doc" + i, data, 0, 0);
+    }
+
+    private static long percentile(List<long[]> samples, double fraction) {
+        long[] all = samples.stream().flatMapToLong(Arrays::stream).filter(v -> v > 0)
+                .sorted().toArray();
+        return all.length == 0 ? 0 : all[(int) Math.min(all.length - 1, all.length * fraction)];
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toArray(Path[]::new)) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
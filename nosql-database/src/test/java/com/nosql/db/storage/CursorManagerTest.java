@@ -0,0 +1,102 @@
+package com.nosql.db.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import com.nosql.db.index.IndexManager;
+
+class CursorManagerTest {
+    private static final String COLLECTION = "users";
+
+    @TempDir
+    File directory;
+
+    private WriteAheadLog wal;
+    private DatabaseEngine engine;
+    private Collection collection;
+
+    @BeforeEach
+    void setUp() {
+        String dataDirectory = directory.getPath();
+        wal = new WriteAheadLog(dataDirectory, "wal", DurabilityMode.SYNC, 0, 0, 64 * 1024);
+        engine = new DatabaseEngine(dataDirectory, new IndexManager(dataDirectory), wal);
+        engine.createCollection(COLLECTION, StorageEngineType.MEMORY);
+        engine.recoverFromWal();
+        collection = engine.getCollection(COLLECTION);
+        for (int i = 0; i < 10; i++) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("n", (double) i);
+            assertTrue(collection.insert(Document.restore("d" + i, data, 1, 1)).isSuccess());
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        engine.close();
+        wal.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String cursorId(OperationResult result) {
+        assertTrue(result.isSuccess());
+        return (String) ((Map<String, Object>) result.getData()).get("cursorId");
+    }
+
+    @Test
+    void closeAllClosesOnlyCursorsOfOwner() {
+        CursorManager cursors = new CursorManager();
+        Object first = new Object();
+        Object second = new Object();
+        String a = cursorId(cursors.open(collection, 2, first));
+        String b = cursorId(cursors.open(collection, 2, first));
+        String c = cursorId(cursors.open(collection, 2, second));
+        assertEquals(3, collection.openSnapshotCount());
+
+        assertEquals(2, cursors.closeAll(first));
+        assertEquals(1, cursors.openCursorCount());
+        assertEquals(1, collection.openSnapshotCount());
+        assertFalse(cursors.next(a, 2).isSuccess());
+        assertFalse(cursors.next(b, 2).isSuccess());
+        assertTrue(cursors.next(c, 2).isSuccess());
+
+        assertEquals(0, cursors.closeAll(first));
+        assertEquals(1, cursors.closeAll(second));
+        assertEquals(0, collection.openSnapshotCount());
+    }
+
+    @Test
+    void idleCursorsExpireAndReleaseSnapshots() throws InterruptedException {
+        CursorManager cursors = new CursorManager(50);
+        String id = cursorId(cursors.open(collection, 2, null));
+        assertEquals(1, collection.openSnapshotCount());
+
+        // 刚访问过的游标不会过期
+        cursors.expireIdleCursors();
+        assertEquals(1, cursors.openCursorCount());
+
+        Thread.sleep(100);
+        cursors.expireIdleCursors();
+        assertEquals(0, cursors.openCursorCount());
+        assertEquals(0, collection.openSnapshotCount());
+        assertFalse(cursors.next(id, 2).isSuccess());
+    }
+
+    @Test
+    void exhaustedCursorIsClosed() {
+        CursorManager cursors = new CursorManager();
+        String id = cursorId(cursors.open(collection, 6, null));
+        assertEquals(1, cursors.openCursorCount());
+        assertNull(cursorId(cursors.next(id, 6)));
+        assertEquals(0, cursors.openCursorCount());
+        assertEquals(0, collection.openSnapshotCount());
+    }
+}
@@ -0,0 +1,270 @@
+package com.nosql.db.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import com.nosql.db.index.IndexManager;
+import com.nosql.db.index.IndexType;
+import com.nosql.db.protocol.BinaryReader;
+import com.nosql.db.protocol.BinaryWriter;
+import com.nosql.db.query.Filter;
+import com.nosql.db.query.Query;
+
+class DatabaseEngineRecoveryTest {
+    private static final String COLLECTION = "users";
+
+    @TempDir
+    File directory;
+
+    private WriteAheadLog wal;
+    private DatabaseEngine engine;
+
+    // 模拟一次进程启动: 打开WAL，创建集合(从快照加载)，再重放WAL
+    private void start(StorageEngineType engineType, String... collections) {
+        String dataDirectory = directory.getPath();
+        wal = new WriteAheadLog(dataDirectory, "wal", DurabilityMode.SYNC, 0, 0, 64 * 1024);
+        engine = new DatabaseEngine(dataDirectory, new IndexManager(dataDirectory), wal);
+        for (String collection : collections) {
+            engine.createCollection(collection, engineType);
+        }
+        engine.recoverFromWal();
+    }
+
+    // 不做检查点直接关闭，等同于进程崩溃后留下的WAL
+    private void stop() {
+        engine.close();
+        wal.close();
+        engine = null;
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (engine != null) {
+            stop();
+        }
+    }
+
+    private static Document document(String id, String name, double age) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("name", name);
+        data.put("age", age);
+        return Document.restore(id, data, 1, 1);
+    }
+
+    private Document get(String id) {
+        OperationResult result = engine.getDocument(COLLECTION, id);
+        return result.isSuccess() ? ((EncodedDocument) result.getData()).getDocument() : null;
+    }
+
+    private Map<String, Object> update(String operator, String field, Object value) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(field, value);
+        Map<String, Object> update = new HashMap<>();
+        update.put(operator, fields);
+        return update;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> ageIndex() {
+        for (Map<String, Object> index : (List<Map<String, Object>>) engine
+                .listIndexes(COLLECTION).getData()) {
+            if ("age".equals(index.get("name"))) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    // 按age等值查询，确认走的是索引，返回排好序的文档ID
+    @SuppressWarnings("unchecked")
+    private List<String> findByAge(double age) {
+        Query query = new Query(Filter.parse(Map.of("age", age)), null, null, null, null);
+        assertEquals("INDEX_LOOKUP",
+                ((Map<String, Object>) engine.explain(COLLECTION, query).getData()).get("plan"));
+        return ((List<Document>) engine.find(COLLECTION, query).getData()).stream()
+                .map(Document::getId).sorted().collect(Collectors.toList());
+    }
+
+    @ParameterizedTest
+    @EnumSource(StorageEngineType.class)
+    void recoversCheckpointPlusWal(StorageEngineType engineType) {
+        start(engineType, COLLECTION);
+        for (String id : Arrays.asList("a", "b", "c", "d")) {
+            assertTrue(engine.insertDocument(COLLECTION, document(id, id, 20)).isSuccess());
+        }
+        CheckpointManager checkpoints =
+                new CheckpointManager(engine, wal, Long.MAX_VALUE, Long.MAX_VALUE);
+        assertTrue(checkpoints.checkpoint());
+
+        // 检查点之后的修改只存在于WAL中
+        assertTrue(engine.insertDocument(COLLECTION, document("e", "e", 30)).isSuccess());
+        assertTrue(engine.updateDocument(COLLECTION, document("a", "a2", 21)).isSuccess());
+        assertTrue(engine.patchDocument(COLLECTION, "b", update("$inc", "age", 5)).isSuccess());
+        assertTrue(engine.patchDocument(COLLECTION, "b", update("$set", "city", "杭州"))
+                .isSuccess());
+        assertTrue(engine.deleteDocument(COLLECTION, "c").isSuccess());
+        assertTrue(engine.bulkWrite(COLLECTION, List.of(WriteOperation.delete("d"),
+                WriteOperation.insert(document("f", "f", 40)))).isSuccess());
+        stop();
+
+        start(engineType, COLLECTION);
+        assertTrue(engine.isRecovered());
+        assertEquals("a2", get("a").get("name"));
+        assertEquals(21.0, get("a").get("age"));
+        assertEquals(25.0, get("b").get("age"));
+        assertEquals("杭州", get("b").get("city"));
+        assertNull(get("c"));
+        assertNull(get("d"));
+        assertEquals("e", get("e").get("name"));
+        assertEquals(40.0, get("f").get("age"));
+        assertEquals(4, engine.getCollection(COLLECTION).size());
+
+        // 再做一次检查点并重启，结果不变
+        assertTrue(new CheckpointManager(engine, wal, Long.MAX_VALUE, Long.MAX_VALUE)
+                .checkpoint());
+        stop();
+        start(engineType, COLLECTION);
+        assertEquals(25.0, get("b").get("age"));
+        assertNull(get("c"));
+        assertEquals(4, engine.getCollection(COLLECTION).size());
+    }
+
+    @ParameterizedTest
+    @EnumSource(StorageEngineType.class)
+    void reloadsOrRebuildsIndexesAfterRestart(StorageEngineType engineType)
+            throws IOException, InterruptedException {
+        start(engineType, COLLECTION);
+        for (String id : Arrays.asList("a", "b", "c", "d")) {
+            assertTrue(engine.insertDocument(COLLECTION, document(id, id, 20)).isSuccess());
+        }
+        assertTrue(engine.createIndex(COLLECTION, List.of("age"), IndexType.ORDERED,
+                List.of("name")).isSuccess());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!"READY".equals(ageIndex().get("state"))
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("READY", ageIndex().get("state"));
+        assertTrue(new CheckpointManager(engine, wal, Long.MAX_VALUE, Long.MAX_VALUE)
+                .checkpoint());
+        // 检查点之后的修改由WAL重放进加载的索引
+        assertTrue(engine.updateDocument(COLLECTION, document("a", "a", 50)).isSuccess());
+        assertTrue(engine.deleteDocument(COLLECTION, "b").isSuccess());
+        assertTrue(engine.insertDocument(COLLECTION, document("e", "e", 20)).isSuccess());
+        stop();
+
+        // 索引文件与文档快照的检查点LSN一致，直接加载，没有重建耗时
+        start(engineType, COLLECTION);
+        assertEquals("READY", ageIndex().get("state"));
+        assertFalse(ageIndex().containsKey("buildMillis"));
+        assertEquals(List.of("c", "d", "e"), findByAge(20));
+        assertEquals(List.of("a"), findByAge(50));
+
+        Path indexFile = directory.toPath().resolve(COLLECTION).resolve("indexes.dat");
+        Path stale = directory.toPath().resolve("indexes.stale");
+        Files.copy(indexFile, stale);
+        assertTrue(engine.updateDocument(COLLECTION, document("c", "c", 60)).isSuccess());
+        assertTrue(new CheckpointManager(engine, wal, Long.MAX_VALUE, Long.MAX_VALUE)
+                .checkpoint());
+        stop();
+
+        // 换回上一个检查点的索引文件: LSN与文档快照不一致，丢弃其内容并从文档重建
+        Files.copy(stale, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        start(engineType, COLLECTION);
+        assertEquals("READY", ageIndex().get("state"));
+        assertTrue(ageIndex().containsKey("buildMillis"));
+        assertEquals(List.of("d", "e"), findByAge(20));
+        assertEquals(List.of("a"), findByAge(50));
+        assertEquals(List.of("c"), findByAge(60));
+    }
+
+    @Test
+    void recoveryFailsForRecordsOfMissingCollection() {
+        start(StorageEngineType.MEMORY, COLLECTION, "orders");
+        assertTrue(engine.insertDocument("orders", document("o1", "o1", 1)).isSuccess());
+        stop();
+
+        IllegalStateException error = assertThrows(IllegalStateException.class,
+                () -> start(StorageEngineType.MEMORY, COLLECTION));
+        assertTrue(error.getMessage().contains("orders"));
+        assertFalse(engine.isRecovered());
+        // 恢复失败时不能做检查点，否则会截断还没有应用的日志
+        assertFalse(new CheckpointManager(engine, wal, Long.MAX_VALUE, Long.MAX_VALUE)
+                .checkpoint());
+        stop();
+
+        start(StorageEngineType.MEMORY, COLLECTION, "orders");
+        assertEquals("o1", ((EncodedDocument) engine.getDocument("orders", "o1").getData())
+                .getDocument().get("name"));
+    }
+
+    // 二进制客户端发来的整数在解码时就成为Double，与WAL和快照读回的值相同
+    @Test
+    void binaryIntegersReadBackUnchangedAfterRestart() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("count", 5);
+        data.put("big", (1L << 53) - 1);
+        data.put("list", List.of(1L, 2.5, -3));
+        data.put("nested", Map.of("n", 7L));
+        BinaryWriter writer = new BinaryWriter(ByteBuffer.allocate(256));
+        writer.writeValue(Document.restore("bin", data, 1, 1));
+        Document decoded = new BinaryReader(writer.buffer().flip()).readDocument();
+
+        start(StorageEngineType.MEMORY, COLLECTION);
+        assertTrue(engine.insertDocument(COLLECTION, decoded).isSuccess());
+        Map<String, Object> before = get("bin").getData();
+        assertEquals(5.0, before.get("count"));
+        assertEquals((double) ((1L << 53) - 1), before.get("big"));
+        assertEquals(List.of(1.0, 2.5, -3.0), before.get("list"));
+        assertEquals(Map.of("n", 7.0), before.get("nested"));
+        stop();
+
+        // 只从WAL恢复
+        start(StorageEngineType.MEMORY, COLLECTION);
+        assertEquals(before, get("bin").getData());
+        assertTrue(new CheckpointManager(engine, wal, Long.MAX_VALUE, Long.MAX_VALUE)
+                .checkpoint());
+        stop();
+
+        // 从快照恢复
+        start(StorageEngineType.MEMORY, COLLECTION);
+        assertEquals(before, get("bin").getData());
+    }
+
+    @Test
+    void incrementResultsReadBackUnchangedAfterRestart() {
+        start(StorageEngineType.MEMORY, COLLECTION);
+        assertTrue(engine.insertDocument(COLLECTION, document("a", "a", 5)).isSuccess());
+        Map<String, Object> increments = new HashMap<>();
+        increments.put("age", 3L);
+        increments.put("visits", 2);
+        assertTrue(engine.patchDocument(COLLECTION, "a", Map.of("$inc", increments))
+                .isSuccess());
+        Map<String, Object> before = get("a").getData();
+        assertEquals(8.0, before.get("age"));
+        assertEquals(2.0, before.get("visits"));
+        stop();
+
+        start(StorageEngineType.MEMORY, COLLECTION);
+        assertEquals(before, get("a").getData());
+    }
+}
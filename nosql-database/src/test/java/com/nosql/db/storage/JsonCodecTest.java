@@ -0,0 +1,96 @@
+package com.nosql.db.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import com.google.gson.Gson;
+import com.nosql.db.protocol.JsonLineWriter;
+
+// JsonCodec的编码必须与默认配置的Gson逐字节相同，解码结果与Gson反射解码相同
+class JsonCodecTest {
+    private static final Gson gson = new Gson();
+
+    private static Document sample() {
+        Map<String, Object> nested = new LinkedHashMap<>();
+        nested.put("city", "杭州");
+        nested.put("zip", null);
+        nested.put("tags", Arrays.asList("a", 1.5, true, null));
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("html", "<b>Tom & 'Jerry'</b> = \"x\"");
+        data.put("unicode", "中文 é 😀   \u0001\t\n\\");
+        data.put("count", 5.0);
+        data.put("ratio", -0.125);
+        data.put("big", 1.0e21);
+        data.put("long", 42L);
+        data.put("flag", false);
+        data.put("missing", null);
+        data.put("address", nested);
+        data.put("empty", new HashMap<>());
+        data.put("list", List.of(List.of(1.0, 2.0), Map.of("k", "v")));
+        return Document.restore("doc-<1>", data, 1700000000000L, 1700000000123L);
+    }
+
+    @Test
+    void documentEncodingMatchesGson() {
+        Document document = sample();
+        assertEquals(gson.toJson(document), document.toJson());
+
+        // 紧凑布局的数据编码结果不变
+        Document compacted = document.compact(new FieldDictionary());
+        assertEquals(gson.toJson(document), compacted.toJson());
+    }
+
+    @Test
+    void documentDecodingMatchesGson() {
+        String json = "{\"unknown\":[1,{\"x\":2}],\"id\":\"d1\",\"data\":{\"n\":3,"
+                + "\"s\":\"\\u003cok\\u003e\",\"a\":[1,[2,{\"b\":null}]],\"o\":{}},"
+                + "\"createdAt\":10,\"updatedAt\":20}";
+        Document expected = gson.fromJson(json, Document.class);
+        Document decoded = Document.fromJson(json);
+        assertEquals(expected.getId(), decoded.getId());
+        assertEquals(expected.getData(), decoded.getData());
+        assertEquals(expected.getCreatedAt(), decoded.getCreatedAt());
+        assertEquals(expected.getUpdatedAt(), decoded.getUpdatedAt());
+        assertEquals(gson.toJson(expected), decoded.toJson());
+    }
+
+    @Test
+    void resultEncodingMatchesGson() {
+        OperationResult result = new OperationResult(true, "返回 2 条记录",
+                List.of(sample(), Document.restore("d2", new HashMap<>(), 1, 2)));
+        result.setRequestId("r-1");
+        assertEquals(gson.toJson(result), result.toJson());
+
+        OperationResult failure = new OperationResult(false, "Document不存在: <x>");
+        assertEquals(gson.toJson(failure), failure.toJson());
+    }
+
+    @Test
+    void encodedDocumentEncodingMatchesGson() {
+        Document document = sample();
+        OperationResult result = new OperationResult(true, "ok",
+                new EncodedDocument(document, null));
+        assertEquals(gson.toJson(new OperationResult(true, "ok", document)), result.toJson());
+    }
+
+    @Test
+    void jsonLineWriterBytesMatchGson() {
+        OperationResult result = new OperationResult(true, "查询成功", List.of(sample()));
+        result.setRequestId("r-2");
+        // 从很小的缓冲开始，同时覆盖扩容
+        JsonLineWriter writer = new JsonLineWriter(ByteBuffer.allocate(16));
+        writer.writeResponse(result);
+        ByteBuffer buffer = writer.buffer().flip();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        assertArrayEquals((gson.toJson(result) + "\n").getBytes(StandardCharsets.UTF_8), bytes);
+    }
+}
@@ -0,0 +1,213 @@
+package com.nosql.db.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import com.nosql.db.index.IndexManager;
+import com.nosql.db.index.IndexType;
+
+// 后台建立索引期间并发插入、更新、部分更新和删除，建立完成后索引内容必须与
+// 在最终文档上同步建立的索引完全相同
+class OnlineIndexBuildTest {
+    private static final String COLLECTION = "users";
+    private static final int DOCUMENTS = 20000;
+    // 写入线程使用的ID范围比初始文档多一些，插入和删除都有机会成功
+    private static final int ID_RANGE = DOCUMENTS + DOCUMENTS / 5;
+    private static final int VALUES = 50;
+    private static final int WRITERS = 4;
+    private static final List<String> CITIES = List.of("北京", "上海", "杭州", "深圳");
+
+    @TempDir
+    File directory;
+
+    private WriteAheadLog wal;
+    private IndexManager indexManager;
+    private DatabaseEngine engine;
+
+    @AfterEach
+    void tearDown() {
+        if (engine != null) {
+            engine.close();
+            wal.close();
+        }
+    }
+
+    private static Document document(int id) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Map<String, Object> data = new HashMap<>();
+        data.put("name", "user" + id);
+        // 部分文档缺少索引字段
+        if (random.nextInt(10) != 0) {
+            data.put("age", (double) random.nextInt(VALUES));
+        }
+        if (random.nextInt(10) != 0) {
+            data.put("city", CITIES.get(random.nextInt(CITIES.size())));
+        }
+        return Document.restore(id(id), data, id, id);
+    }
+
+    private static String id(int id) {
+        return String.format("d%05d", id);
+    }
+
+    // 随机写入直到stop被设置，返回成功的写入数
+    private long write(AtomicBoolean stop) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long succeeded = 0;
+        while (!stop.get()) {
+            int id = random.nextInt(ID_RANGE);
+            OperationResult result;
+            switch (random.nextInt(4)) {
+                case 0:
+                    result = engine.insertDocument(COLLECTION, document(id));
+                    break;
+                case 1:
+                    result = engine.updateDocument(COLLECTION, document(id));
+                    break;
+                case 2:
+                    Map<String, Object> set = new HashMap<>();
+                    set.put("age", (double) random.nextInt(VALUES));
+                    result = engine.patchDocument(COLLECTION, id(id),
+                            Collections.singletonMap("$set", set));
+                    break;
+                default:
+                    result = engine.deleteDocument(COLLECTION, id(id));
+                    break;
+            }
+            if (result.isSuccess()) {
+                succeeded++;
+            }
+        }
+        return succeeded;
+    }
+
+    @ParameterizedTest
+    @EnumSource(StorageEngineType.class)
+    void concurrentWritesDuringBuildMatchSynchronousBuild(StorageEngineType engineType)
+            throws Exception {
+        String dataDirectory = directory.getPath();
+        wal = new WriteAheadLog(dataDirectory, "wal", DurabilityMode.OS_BUFFERED, 0, 0,
+                1024 * 1024);
+        indexManager = new IndexManager(dataDirectory);
+        engine = new DatabaseEngine(dataDirectory, indexManager, wal);
+        engine.createCollection(COLLECTION, engineType);
+        engine.recoverFromWal();
+        for (int i = 0; i < DOCUMENTS; i++) {
+            assertTrue(engine.insertDocument(COLLECTION, document(i)).isSuccess());
+        }
+
+        AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService writers = Executors.newFixedThreadPool(WRITERS);
+        List<Future<Long>> writes = new ArrayList<>();
+        try {
+            for (int i = 0; i < WRITERS; i++) {
+                writes.add(writers.submit(() -> write(stop)));
+            }
+            assertTrue(engine.createIndex(COLLECTION, List.of("age"), IndexType.ORDERED,
+                    List.of("name")).isSuccess());
+            assertTrue(engine.createIndex(COLLECTION, List.of("city"), IndexType.HASH, null)
+                    .isSuccess());
+            assertTrue(engine.createIndex(COLLECTION, List.of("city", "age"), IndexType.ORDERED,
+                    null).isSuccess());
+            long deadline = System.currentTimeMillis() + 30000;
+            while (!allReady() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            // 建立完成后再写一段时间，确认READY之后的写入同样进入索引
+            Thread.sleep(50);
+        } finally {
+            stop.set(true);
+            writers.shutdown();
+        }
+        long succeeded = 0;
+        for (Future<Long> write : writes) {
+            succeeded += write.get();
+        }
+        assertTrue(allReady(), "索引没有在期限内建立完成");
+        assertTrue(succeeded > 0);
+
+        @SuppressWarnings("unchecked")
+        List<Document> documents =
+                (List<Document>) engine.getAllDocuments(COLLECTION).getData();
+        IndexManager expected = new IndexManager(dataDirectory);
+        expected.createIndex(COLLECTION, List.of("age"), IndexType.ORDERED, List.of("name"));
+        expected.createIndex(COLLECTION, List.of("city"), IndexType.HASH, null);
+        expected.createIndex(COLLECTION, List.of("city", "age"), IndexType.ORDERED, null);
+        for (Document document : documents) {
+            expected.updateIndex(COLLECTION, document);
+        }
+
+        // 有序索引按键的顺序列出全部文档，同键的文档之间没有固定顺序
+        assertEquals(scan(expected, "age", List.of()), scan(indexManager, "age", List.of()));
+        for (int value = 0; value < VALUES; value++) {
+            assertEquals(expected.getDocumentIds(COLLECTION, "age", (double) value),
+                    indexManager.getDocumentIds(COLLECTION, "age", (double) value));
+        }
+        // Document按ID判等，覆盖投影比较内容
+        for (Document document : documents) {
+            Document covered = indexManager.getCoveredDocument(COLLECTION, "age",
+                    document.getId());
+            assertEquals(expected.getCoveredDocument(COLLECTION, "age", document.getId())
+                    .dataView(), covered == null ? null : covered.dataView());
+        }
+        for (String city : CITIES) {
+            assertEquals(expected.getDocumentIds(COLLECTION, "city", city),
+                    indexManager.getDocumentIds(COLLECTION, "city", city));
+            assertEquals(scan(expected, "city,age", List.of(city)),
+                    scan(indexManager, "city,age", List.of(city)));
+        }
+    }
+
+    private boolean allReady() {
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> indexes =
+                (List<Map<String, Object>>) engine.listIndexes(COLLECTION).getData();
+        return indexes.size() == 3
+                && indexes.stream().allMatch(index -> "READY".equals(index.get("state")));
+    }
+
+    // 按索引顺序把文档ID分组: 相邻的同键文档放进同一个排好序的组
+    private static List<List<String>> scan(IndexManager manager, String indexName,
+            List<Object> prefix) {
+        Map<String, Object> keys = new HashMap<>();
+        List<String> ids = manager.scan(COLLECTION, indexName, prefix, null, true, null, true,
+                false).collect(Collectors.toList());
+        for (String id : ids) {
+            Document covered = manager.getCoveredDocument(COLLECTION, "age", id);
+            keys.put(id, covered == null ? null : covered.getValue("age"));
+        }
+        List<List<String>> groups = new ArrayList<>();
+        List<String> group = new ArrayList<>();
+        Object last = null;
+        for (String id : ids) {
+            Object key = keys.get(id);
+            if (!group.isEmpty() && !Objects.equals(key, last)) {
+                Collections.sort(group);
+                groups.add(group);
+                group = new ArrayList<>();
+            }
+            group.add(id);
+            last = key;
+        }
+        Collections.sort(group);
+        groups.add(group);
+        return groups;
+    }
+}
@@ -0,0 +1,184 @@
+package com.nosql.db.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class VersionStoreTest {
+    @TempDir
+    File directory;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicInteger removedCallbacks = new AtomicInteger();
+    private MemoryStorageEngine storage;
+    private VersionStore versions;
+
+    @BeforeEach
+    void setUp() {
+        storage = new MemoryStorageEngine(directory.getPath());
+        versions = new VersionStore(storage, id -> lock, removedCallbacks::incrementAndGet);
+    }
+
+    private static Document document(String id, double value) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("value", value);
+        return Document.restore(id, data, 1, 1);
+    }
+
+    // 与Collection一样在分段锁和beginWrite内写入
+    private void put(String id, double value) {
+        lock.lock();
+        versions.beginWrite();
+        try {
+            versions.put(document(id, value));
+        } finally {
+            versions.endWrite();
+            lock.unlock();
+        }
+    }
+
+    private void remove(String id) {
+        lock.lock();
+        versions.beginWrite();
+        try {
+            versions.remove(id);
+        } finally {
+            versions.endWrite();
+            lock.unlock();
+        }
+    }
+
+    private static Object value(Document document) {
+        return document == null ? null : document.get("value");
+    }
+
+    private static Map<String, Object> contents(Snapshot snapshot) {
+        Map<String, Object> contents = new HashMap<>();
+        for (Iterator<Document> it = snapshot.iterator(); it.hasNext();) {
+            Document document = it.next();
+            contents.put(document.getId(), value(document));
+        }
+        return contents;
+    }
+
+    // 回收在后台线程执行，等待到条件成立或超时
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean(), "回收未在超时前完成");
+    }
+
+    @Test
+    void writesWithoutSnapshotsRecordNoVersions() {
+        put("a", 1);
+        put("a", 2);
+        put("b", 1);
+        remove("b");
+        assertEquals(0, versions.versionChainCount());
+        assertEquals(0, versions.retainedDeletes());
+        assertEquals(1, versions.size());
+        assertEquals(2.0, value(versions.get("a")));
+        assertFalse(versions.containsKey("b"));
+    }
+
+    @Test
+    void snapshotSeesStateAtOpen() {
+        put("a", 1);
+        put("b", 1);
+        put("c", 1);
+        try (Snapshot snapshot = versions.openSnapshot()) {
+            put("a", 2);
+            remove("b");
+            put("d", 1);
+
+            // 最新版本
+            assertEquals(2.0, value(versions.get("a")));
+            assertNull(versions.get("b"));
+            assertFalse(versions.containsKey("b"));
+            assertEquals(1.0, value(versions.get("d")));
+            assertEquals(3, versions.size());
+
+            // 快照的读取和遍历都看到打开时的状态
+            assertEquals(1.0, value(snapshot.get("a")));
+            assertEquals(1.0, value(snapshot.get("b")));
+            assertNull(snapshot.get("d"));
+            assertEquals(Map.of("a", 1.0, "b", 1.0, "c", 1.0), contents(snapshot));
+
+            // 快照期间的删除暂时留在存储引擎中
+            assertEquals(1, versions.retainedDeletes());
+            assertTrue(storage.containsKey("b"));
+        }
+    }
+
+    @Test
+    void closingLastSnapshotCollectsVersionsAndDeletes() throws InterruptedException {
+        put("a", 1);
+        put("b", 1);
+        Snapshot snapshot = versions.openSnapshot();
+        put("a", 2);
+        remove("b");
+        assertEquals(2, versions.versionChainCount());
+        snapshot.close();
+
+        awaitTrue(() -> versions.versionChainCount() == 0 && versions.retainedDeletes() == 0);
+        assertFalse(storage.containsKey("b"));
+        assertEquals(1, storage.size());
+        assertEquals(2.0, value(versions.get("a")));
+        assertEquals(1, removedCallbacks.get());
+    }
+
+    @Test
+    void olderSnapshotKeepsItsVersionsAfterNewerOneCloses() throws InterruptedException {
+        put("a", 1);
+        put("b", 1);
+        Snapshot older = versions.openSnapshot();
+        put("a", 2);
+        remove("b");
+        Snapshot newer = versions.openSnapshot();
+        put("a", 3);
+        newer.close();
+        awaitTrue(() -> versions.snapshotCount() == 1);
+        // 给回收线程时间运行，旧快照需要的版本和删除都必须保留
+        Thread.sleep(100);
+
+        assertEquals(1.0, value(older.get("a")));
+        assertEquals(Map.of("a", 1.0, "b", 1.0), contents(older));
+        assertEquals(1, versions.retainedDeletes());
+        assertEquals(3.0, value(versions.get("a")));
+
+        older.close();
+        awaitTrue(() -> versions.versionChainCount() == 0 && versions.retainedDeletes() == 0);
+        assertFalse(storage.containsKey("b"));
+    }
+
+    @Test
+    void reinsertAfterDeleteDuringSnapshot() throws InterruptedException {
+        put("a", 1);
+        Snapshot snapshot = versions.openSnapshot();
+        remove("a");
+        put("a", 2);
+        assertEquals(0, versions.retainedDeletes());
+        assertEquals(1, versions.size());
+        assertEquals(1.0, value(snapshot.get("a")));
+        assertEquals(2.0, value(versions.get("a")));
+        snapshot.close();
+
+        awaitTrue(() -> versions.versionChainCount() == 0);
+        assertEquals(2.0, value(storage.get("a")));
+        assertEquals(0, removedCallbacks.get());
+    }
+}
@@ -0,0 +1,254 @@
+package com.nosql.db.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WriteAheadLogTest {
+    private static final String BASE_NAME = "test";
+    private static final int SEGMENT_SIZE = 4096;
+    private static final String COLLECTION = "users";
+
+    @TempDir
+    File directory;
+
+    private WriteAheadLog open() {
+        return new WriteAheadLog(directory.getPath(), BASE_NAME, DurabilityMode.SYNC, 0, 0,
+                SEGMENT_SIZE);
+    }
+
+    private static String data(int i) {
+        return String.format("{\"id\":\"doc-%04d\",\"value\":%d}", i, i);
+    }
+
+    private static List<WalRecord> replay(WriteAheadLog wal, long fromLsn) throws IOException {
+        List<WalRecord> records = new ArrayList<>();
+        wal.replay(fromLsn, records::add);
+        return records;
+    }
+
+    private static void writeAll(WriteAheadLog wal, int count) {
+        for (int i = 1; i <= count; i++) {
+            wal.write(WalOperation.INSERT, COLLECTION, data(i));
+        }
+    }
+
+    // 第index条记录(从1开始)在段文件中的起始偏移，所有记录长度相同
+    private static int recordOffset(int index) {
+        int payload = WalRecord.encodePayload(COLLECTION, data(1)).length;
+        return (index - 1) * (WalRecord.HEADER_SIZE + payload);
+    }
+
+    // data(1000)到data(9999)的记录长度相同，一个段能容纳的条数(段尾预留4字节)
+    private static int recordsPerSegment() {
+        int record = WalRecord.HEADER_SIZE
+                + WalRecord.encodePayload(COLLECTION, data(1000)).length;
+        return (SEGMENT_SIZE - 4) / record;
+    }
+
+    private File firstSegment() {
+        return new File(directory, WalSegment.fileName(BASE_NAME, 1));
+    }
+
+    @Test
+    void replaysRecordsAcrossSegmentsInLsnOrder() throws IOException {
+        WriteAheadLog wal = open();
+        writeAll(wal, 200);
+        wal.write(WalOperation.DELETE, COLLECTION, "doc-0001");
+        wal.close();
+        File[] segments = directory.listFiles((d, name) -> name.endsWith(".seg"));
+        assertTrue(segments.length > 1, "记录应跨越多个段");
+
+        wal = open();
+        List<WalRecord> records = replay(wal, 0);
+        assertEquals(201, records.size());
+        for (int i = 0; i < 200; i++) {
+            WalRecord record = records.get(i);
+            assertEquals(i + 1, record.getLsn());
+            assertEquals(WalOperation.INSERT, record.getOperation());
+            assertEquals(COLLECTION, record.getCollection());
+            assertEquals(data(i + 1), record.getData());
+        }
+        assertEquals(WalOperation.DELETE, records.get(200).getOperation());
+        assertEquals(202, wal.getNextLsn());
+
+        List<WalRecord> tail = replay(wal, 150);
+        assertEquals(52, tail.size());
+        assertEquals(150, tail.get(0).getLsn());
+        wal.close();
+    }
+
+    @Test
+    void recordsWrittenAfterReopenAreNotReplayed() throws IOException {
+        WriteAheadLog wal = open();
+        writeAll(wal, 3);
+        wal.close();
+
+        wal = open();
+        assertEquals(4, wal.write(WalOperation.UPDATE, COLLECTION, data(1)));
+        assertEquals(3, replay(wal, 0).size());
+        wal.close();
+
+        wal = open();
+        assertEquals(4, replay(wal, 0).size());
+        wal.close();
+    }
+
+    @Test
+    void tornTailIsDiscardedAndOverwritten() throws IOException {
+        WriteAheadLog wal = open();
+        writeAll(wal, 5);
+        wal.close();
+        // 模拟最后一条记录只写了一半: 负载的后半部分仍是预分配的0
+        try (RandomAccessFile file = new RandomAccessFile(firstSegment(), "rw")) {
+            int end = recordOffset(6);
+            for (int position = end - 10; position < end; position++) {
+                file.seek(position);
+                file.write(0);
+            }
+        }
+
+        wal = open();
+        List<WalRecord> records = replay(wal, 0);
+        assertEquals(4, records.size());
+        assertEquals(4, records.get(3).getLsn());
+        assertEquals(5, wal.getNextLsn());
+        assertEquals(5, wal.write(WalOperation.INSERT, COLLECTION, data(9)));
+        wal.close();
+
+        wal = open();
+        records = replay(wal, 0);
+        assertEquals(5, records.size());
+        assertEquals(data(9), records.get(4).getData());
+        wal.close();
+    }
+
+    @Test
+    void replayStopsAtChecksumMismatch() throws IOException {
+        WriteAheadLog wal = open();
+        writeAll(wal, 5);
+        wal.close();
+        // 翻转第3条记录数据中的一个字节，长度和LSN都仍然合法
+        try (RandomAccessFile file = new RandomAccessFile(firstSegment(), "rw")) {
+            long position = recordOffset(3) + WalRecord.HEADER_SIZE + 2
+                    + COLLECTION.getBytes(StandardCharsets.UTF_8).length + 3;
+            file.seek(position);
+            int value = file.read();
+            file.seek(position);
+            file.write(value ^ 0x01);
+        }
+
+        wal = open();
+        List<WalRecord> records = replay(wal, 0);
+        assertEquals(2, records.size());
+        assertEquals(3, wal.getNextLsn());
+        wal.close();
+    }
+
+    @Test
+    void replayStopsAtLsnGapInsideSegment() throws IOException {
+        WalSegment segment = WalSegment.create(directory.getPath(), BASE_NAME, 1, SEGMENT_SIZE);
+        for (long lsn : new long[] {1, 2, 4, 5}) {
+            segment.append(lsn, WalOperation.INSERT,
+                    WalRecord.encodePayload(COLLECTION, data((int) lsn)));
+        }
+        segment.close();
+
+        WriteAheadLog wal = open();
+        List<WalRecord> records = replay(wal, 0);
+        assertEquals(2, records.size());
+        assertEquals(2, records.get(1).getLsn());
+        assertEquals(3, wal.getNextLsn());
+        wal.close();
+    }
+
+    @Test
+    void replayStopsAtMissingSegment() throws IOException {
+        WriteAheadLog wal = open();
+        writeAll(wal, 200);
+        wal.close();
+        File[] segments = directory.listFiles((d, name) -> name.endsWith(".seg"));
+        Arrays.sort(segments);
+        assertTrue(segments.length > 2, "记录应跨越至少三个段");
+        long secondStart = WalSegment.parseStartLsn(BASE_NAME, segments[1].getName());
+        assertTrue(segments[1].delete());
+
+        wal = open();
+        List<WalRecord> records = replay(wal, 0);
+        assertEquals(secondStart - 1, records.size());
+        assertEquals(secondStart - 1, records.get(records.size() - 1).getLsn());
+        wal.close();
+    }
+
+    // 第二个段无法创建时，滚动之前的写入成功，失败之后已入队的写入和新的写入全部失败，
+    // 不会有写入在失败之后被确认
+    @Test
+    void failedCommitRejectsQueuedAndLaterWrites() throws IOException {
+        int perSegment = recordsPerSegment();
+        WriteAheadLog wal = new WriteAheadLog(directory.getPath(), BASE_NAME,
+                DurabilityMode.GROUP_COMMIT, 1000, 1024 * 1024, SEGMENT_SIZE);
+        // 打开之后再占用第二个段的文件名，使滚动时创建段失败
+        File blocker = new File(directory, WalSegment.fileName(BASE_NAME, perSegment + 1));
+        assertTrue(blocker.mkdir());
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+        for (int i = 1; i <= perSegment + 50; i++) {
+            futures.add(wal.append(WalOperation.INSERT, COLLECTION, data(1000 + i)));
+        }
+        // 滚动所在批次之前的写入成功，此后的写入全部失败
+        int acknowledged = 0;
+        while (acknowledged < futures.size() && futures.get(acknowledged)
+                .handle((lsn, error) -> error == null).join()) {
+            assertEquals(acknowledged + 1, futures.get(acknowledged).join());
+            acknowledged++;
+        }
+        assertTrue(acknowledged <= perSegment);
+        for (CompletableFuture<Long> future : futures.subList(acknowledged, futures.size())) {
+            assertThrows(CompletionException.class, future::join);
+        }
+        assertThrows(RuntimeException.class,
+                () -> wal.append(WalOperation.INSERT, COLLECTION, data(1)));
+        wal.close();
+
+        // 失败的批次可能已写入第一个段但未确认，已确认的写入都在
+        assertTrue(blocker.delete());
+        WriteAheadLog reopened = open();
+        int replayed = replay(reopened, 0).size();
+        assertTrue(replayed >= acknowledged && replayed <= perSegment);
+        assertEquals(replayed + 1, reopened.getNextLsn());
+        reopened.close();
+    }
+
+    @Test
+    void failedSyncWriteRejectsLaterWrites() throws IOException {
+        int perSegment = recordsPerSegment();
+        WriteAheadLog wal = open();
+        File blocker = new File(directory, WalSegment.fileName(BASE_NAME, perSegment + 1));
+        assertTrue(blocker.mkdir());
+        for (int i = 1; i <= perSegment; i++) {
+            wal.write(WalOperation.INSERT, COLLECTION, data(1000 + i));
+        }
+        assertThrows(RuntimeException.class,
+                () -> wal.write(WalOperation.INSERT, COLLECTION, data(1)));
+        assertThrows(RuntimeException.class,
+                () -> wal.write(WalOperation.INSERT, COLLECTION, data(1)));
+        assertEquals(perSegment + 1, wal.getNextLsn());
+        wal.close();
+
+        assertTrue(blocker.delete());
+        WriteAheadLog reopened = open();
+        assertEquals(perSegment, replay(reopened, 0).size());
+        reopened.close();
+    }
+}